@@ -7,7 +7,10 @@ import java.util.ArrayList;
 import org.team3128.common.listener.ListenerManager;
 import org.team3128.common.narwhaldashboard.NarwhalDashboard;
 import org.team3128.common.util.Assert;
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
+import org.team3128.common.util.LoopProfiler;
+import org.team3128.common.util.LoopProfiler.Phase;
 
 import edu.wpi.first.wpilibj.livewindow.LiveWindow;
 import edu.wpi.first.wpilibj.shuffleboard.Shuffleboard;
@@ -141,6 +144,10 @@ public abstract class NarwhalRobot extends RobotBase {
     
     private Mode m_lastMode = Mode.kNone;
     private final Watchdog m_watchdog;
+
+    // number of loops that the profiler's statistics are computed over
+    private static final int kProfilerWindowSize = 500;
+    protected final LoopProfiler m_profiler;
     
     // The C pointer to the notifier object. We don't use it directly, it is
     // just passed to the JNI bindings.
@@ -172,6 +179,7 @@ public abstract class NarwhalRobot extends RobotBase {
     protected NarwhalRobot(double period) {
         m_period = period;
         m_watchdog = new Watchdog(period, this::printLoopOverrunMessage);
+        m_profiler = new LoopProfiler(period, kProfilerWindowSize);
         
         HAL.report(tResourceType.kResourceType_Framework, tInstances.kFramework_Timed);
     }
@@ -238,6 +246,12 @@ public abstract class NarwhalRobot extends RobotBase {
         
     protected void loopFunc() {
         m_watchdog.reset();
+        m_profiler.startLoop();
+
+        // dashboard buttons and tuning values take effect here, rather than whenever the WebSocket thread receives them
+        NarwhalDashboard.runQueuedCallbacks();
+        m_watchdog.addEpoch("NarwhalDashboard callbacks");
+        m_profiler.endPhase(Phase.DASHBOARD_CALLBACKS);
         
         if (isDisabled()) {
             if (m_lastMode != Mode.kDisabled) {
@@ -258,11 +272,16 @@ public abstract class NarwhalRobot extends RobotBase {
                 zeroOutListeners();
 
                 m_lastMode = Mode.kDisabled;
+                m_profiler.endPhase(Phase.MODE_INIT);
+            }
+            else {
+                m_profiler.skipPhase();
             }
             
             HAL.observeUserProgramDisabled();
             disabledPeriodic();
             m_watchdog.addEpoch("disablePeriodic()");
+            m_profiler.endPhase(Phase.MODE_PERIODIC);
         }
         else if (isAutonomous()) {
             if (m_lastMode != Mode.kAutonomous) {
@@ -282,17 +301,25 @@ public abstract class NarwhalRobot extends RobotBase {
                 Shuffleboard.disableActuatorWidgets();
                 m_watchdog.addEpoch("autonomousInit()");
                 m_lastMode = Mode.kAutonomous;
+                m_profiler.endPhase(Phase.MODE_INIT);
+            }
+            else {
+                m_profiler.skipPhase();
             }
             
             HAL.observeUserProgramAutonomous();
             Scheduler.getInstance().run();
+            m_profiler.endPhase(Phase.SCHEDULER);
 
             // Listener managers should ONLY be ticked in the 2019 game, DESTINATION: DEEP SPACE
             // because of the driver-controllable sandstorm period
             tickListenerManagers();
+            m_profiler.endPhase(Phase.LISTENERS);
+
             autonomousPeriodic();
 
             m_watchdog.addEpoch("autonomousPeriodic()");
+            m_profiler.endPhase(Phase.MODE_PERIODIC);
         }
         else if (isOperatorControl()) {
             if (m_lastMode != Mode.kTeleop) {
@@ -309,15 +336,23 @@ public abstract class NarwhalRobot extends RobotBase {
 
                 m_watchdog.addEpoch("teleopInit()");
                 m_lastMode = Mode.kTeleop;
+                m_profiler.endPhase(Phase.MODE_INIT);
+            }
+            else {
+                m_profiler.skipPhase();
             }
             
             HAL.observeUserProgramTeleop();
             Scheduler.getInstance().run();
+            m_profiler.endPhase(Phase.SCHEDULER);
 
             tickListenerManagers();
+            m_profiler.endPhase(Phase.LISTENERS);
+
             teleopPeriodic();
             
             m_watchdog.addEpoch("teleopPeriodic()");
+            m_profiler.endPhase(Phase.MODE_PERIODIC);
         }
         else {
             if (m_lastMode != Mode.kTest) {
@@ -330,6 +365,10 @@ public abstract class NarwhalRobot extends RobotBase {
 
                 m_watchdog.addEpoch("testInit()");
                 m_lastMode = Mode.kTest;
+                m_profiler.endPhase(Phase.MODE_INIT);
+            }
+            else {
+                m_profiler.skipPhase();
             }
             
             HAL.observeUserProgramTest();
@@ -337,15 +376,21 @@ public abstract class NarwhalRobot extends RobotBase {
             testPeriodic();
             
             m_watchdog.addEpoch("testPeriodic()");
+            m_profiler.endPhase(Phase.MODE_PERIODIC);
         }
         
         robotPeriodic();
         m_watchdog.addEpoch("robotPeriodic()");
         m_watchdog.disable();
+        m_profiler.endPhase(Phase.ROBOT_PERIODIC);
+
         SmartDashboard.updateValues();
         
         LiveWindow.updateValues();
         Shuffleboard.update();
+        m_profiler.endPhase(Phase.DASHBOARDS);
+
+        m_profiler.endLoop();
         
         // // Warn on loop time overruns
         // if (m_watchdog.isExpired()) {
@@ -364,6 +409,13 @@ public abstract class NarwhalRobot extends RobotBase {
         NotifierJNI.cleanNotifier(m_notifier);
     }
     
+    /**
+    * Get the profiler which times each phase of the main loop.
+    */
+    public LoopProfiler getLoopProfiler() {
+        return m_profiler;
+    }
+    
     /**
     * Get time period between calls to Periodic() functions.
     */
@@ -430,6 +482,8 @@ public abstract class NarwhalRobot extends RobotBase {
     	while(true)
     	{
     		updateDashboard();
+    		m_profiler.publish();
+    		ControlScheduler.getInstance().publish();
     		
     		try
 			{
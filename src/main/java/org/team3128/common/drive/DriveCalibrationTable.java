@@ -0,0 +1,315 @@
+package org.team3128.common.drive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.team3128.common.util.Log;
+
+/**
+ * The results of drive calibration runs, as functions of the robot's angular velocity: the effective wheelbase
+ * found by {@link SRXTankDrive.CmdCalculateWheelbase}, and the feed-forward power multipliers of each side found
+ * by {@link SRXTankDrive.CmdGetFeedForwardPowerMultiplier}.
+ *
+ * Each table is kept in primitive arrays sorted by angular velocity, so a lookup is a binary search and a linear
+ * interpolation between the two nearest calibration points, and doesn't allocate.  Outside the calibrated range
+ * the nearest point is used.  A new point within {@link #MERGE_TOLERANCE} of an existing one replaces it, so
+ * re-running a calibration updates the table instead of cluttering it.
+ *
+ * Tables are stored in a small binary file, by default {@link #DEFAULT_FILE} so that a table can also be deployed
+ * with the robot code by putting it in src/main/deploy.  All values are big-endian:
+ * <pre>
+ * magic number ({@link #MAGIC}), int
+ * version ({@link #VERSION}), int
+ * number of wheelbase points, int
+ *   angular velocity, wheelbase (doubles), for each point in order
+ * number of feed-forward points, int
+ *   angular velocity, left multiplier, right multiplier (doubles), for each point in order
+ * </pre>
+ *
+ * Angular velocities are in degrees per second, counterclockwise positive, except that the wheelbase table is by
+ * the magnitude of the angular velocity.  Wheelbases are in cm, and the multipliers are the motor power per native
+ * unit of velocity at 12 volts.
+ *
+ * @author Narwhal
+ *
+ */
+public class DriveCalibrationTable {
+	public static final File DEFAULT_FILE = new File("/home/lvuser/deploy/drive_calibration.bin");
+
+	public static final int MAGIC = 0x33313238;
+	public static final int VERSION = 1;
+
+	/**
+	 * How close two calibration points' angular velocities have to be for the newer to replace the older, in deg/s.
+	 */
+	public static final double MERGE_TOLERANCE = 1;
+
+	private double[] wheelbaseVelocities = new double[0];
+	private double[] wheelbases = new double[0];
+
+	private double[] feedForwardVelocities = new double[0];
+	private double[] leftMultipliers = new double[0];
+	private double[] rightMultipliers = new double[0];
+
+	/**
+	 * Adds the effective wheelbase measured at an angular velocity.
+	 *
+	 * @param angularVelocity - The angular velocity, in deg/s. Only the magnitude is used.
+	 * @param wheelbase - The effective wheelbase, in cm.
+	 */
+	public void addWheelbase(double angularVelocity, double wheelbase) {
+		int index = findInsertionPoint(wheelbaseVelocities, Math.abs(angularVelocity));
+
+		if (index < 0) {
+			wheelbaseVelocities = insert(wheelbaseVelocities, -index - 1, Math.abs(angularVelocity));
+			wheelbases = insert(wheelbases, -index - 1, wheelbase);
+		}
+		else {
+			wheelbaseVelocities[index] = Math.abs(angularVelocity);
+			wheelbases[index] = wheelbase;
+		}
+	}
+
+	/**
+	 * Adds the feed-forward power multipliers measured at an angular velocity.
+	 *
+	 * @param angularVelocity - The angular velocity, counterclockwise positive, in deg/s.
+	 * @param leftMultiplier - The left side's motor power per native unit of velocity, at 12 volts.
+	 * @param rightMultiplier - The right side's motor power per native unit of velocity, at 12 volts.
+	 */
+	public void addFeedForwardMultipliers(double angularVelocity, double leftMultiplier, double rightMultiplier) {
+		int index = findInsertionPoint(feedForwardVelocities, angularVelocity);
+
+		if (index < 0) {
+			feedForwardVelocities = insert(feedForwardVelocities, -index - 1, angularVelocity);
+			leftMultipliers = insert(leftMultipliers, -index - 1, leftMultiplier);
+			rightMultipliers = insert(rightMultipliers, -index - 1, rightMultiplier);
+		}
+		else {
+			feedForwardVelocities[index] = angularVelocity;
+			leftMultipliers[index] = leftMultiplier;
+			rightMultipliers[index] = rightMultiplier;
+		}
+	}
+
+	/**
+	 * @return the index of the point within {@link #MERGE_TOLERANCE} of the velocity, or (-(insertion point) - 1) if there isn't one.
+	 */
+	private static int findInsertionPoint(double[] velocities, double velocity) {
+		int index = Arrays.binarySearch(velocities, velocity);
+		if (index >= 0) {
+			return index;
+		}
+
+		int insertionPoint = -index - 1;
+		if (insertionPoint < velocities.length && velocities[insertionPoint] - velocity <= MERGE_TOLERANCE) {
+			return insertionPoint;
+		}
+		if (insertionPoint > 0 && velocity - velocities[insertionPoint - 1] <= MERGE_TOLERANCE) {
+			return insertionPoint - 1;
+		}
+
+		return index;
+	}
+
+	private static double[] insert(double[] values, int index, double value) {
+		double[] newValues = new double[values.length + 1];
+
+		System.arraycopy(values, 0, newValues, 0, index);
+		newValues[index] = value;
+		System.arraycopy(values, index, newValues, index + 1, values.length - index);
+
+		return newValues;
+	}
+
+	/**
+	 * Interpolates the values at a velocity, holding the first and last values outside of the table.
+	 * The table must not be empty.
+	 */
+	private static double interpolate(double[] velocities, double[] values, double velocity) {
+		int index = Arrays.binarySearch(velocities, velocity);
+		if (index >= 0) {
+			return values[index];
+		}
+
+		int upper = -index - 1;
+		if (upper == 0) {
+			return values[0];
+		}
+		if (upper == velocities.length) {
+			return values[velocities.length - 1];
+		}
+
+		int lower = upper - 1;
+		double fraction = (velocity - velocities[lower]) / (velocities[upper] - velocities[lower]);
+
+		return values[lower] + fraction * (values[upper] - values[lower]);
+	}
+
+	public boolean hasWheelbases() {
+		return wheelbaseVelocities.length > 0;
+	}
+
+	public boolean hasFeedForwardMultipliers() {
+		return feedForwardVelocities.length > 0;
+	}
+
+	public int getNumWheelbases() {
+		return wheelbaseVelocities.length;
+	}
+
+	public int getNumFeedForwardMultipliers() {
+		return feedForwardVelocities.length;
+	}
+
+	/**
+	 * @param angularVelocity - The angular velocity, in deg/s. Only the magnitude is used.
+	 * @param fallback - The wheelbase to use if the table is empty.
+	 * @return The effective wheelbase at the angular velocity, in cm.
+	 */
+	public double getWheelbase(double angularVelocity, double fallback) {
+		return hasWheelbases() ? interpolate(wheelbaseVelocities, wheelbases, Math.abs(angularVelocity)) : fallback;
+	}
+
+	/**
+	 * @param angularVelocity - The angular velocity, counterclockwise positive, in deg/s.
+	 * @param fallback - The multiplier to use if the table is empty.
+	 * @return The left side's motor power per native unit of velocity at 12 volts, at the angular velocity.
+	 */
+	public double getLeftMultiplier(double angularVelocity, double fallback) {
+		return hasFeedForwardMultipliers() ? interpolate(feedForwardVelocities, leftMultipliers, angularVelocity) : fallback;
+	}
+
+	/**
+	 * @param angularVelocity - The angular velocity, counterclockwise positive, in deg/s.
+	 * @param fallback - The multiplier to use if the table is empty.
+	 * @return The right side's motor power per native unit of velocity at 12 volts, at the angular velocity.
+	 */
+	public double getRightMultiplier(double angularVelocity, double fallback) {
+		return hasFeedForwardMultipliers() ? interpolate(feedForwardVelocities, rightMultipliers, angularVelocity) : fallback;
+	}
+
+	/**
+	 * Writes the table to a file.  The file is written beside the destination first and then moved into place,
+	 * so a brownout part way through can't leave a corrupted table behind.
+	 */
+	public void save(File file) throws IOException {
+		File temporaryFile = new File(file.getPath() + ".tmp");
+
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+
+			output.writeInt(wheelbaseVelocities.length);
+			for (int i = 0; i < wheelbaseVelocities.length; i++) {
+				output.writeDouble(wheelbaseVelocities[i]);
+				output.writeDouble(wheelbases[i]);
+			}
+
+			output.writeInt(feedForwardVelocities.length);
+			for (int i = 0; i < feedForwardVelocities.length; i++) {
+				output.writeDouble(feedForwardVelocities[i]);
+				output.writeDouble(leftMultipliers[i]);
+				output.writeDouble(rightMultipliers[i]);
+			}
+		}
+
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a table written by {@link #save(File)}.
+	 *
+	 * @throws IOException if the file can't be read, or isn't a valid table
+	 */
+	public static DriveCalibrationTable load(File file) throws IOException {
+		DriveCalibrationTable table = new DriveCalibrationTable();
+
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(file + " is not a drive calibration table");
+			}
+
+			int version = input.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + " is version " + version + " of the drive calibration format, not " + VERSION);
+			}
+
+			int numWheelbases = readLength(input, file);
+			table.wheelbaseVelocities = new double[numWheelbases];
+			table.wheelbases = new double[numWheelbases];
+			for (int i = 0; i < numWheelbases; i++) {
+				table.wheelbaseVelocities[i] = input.readDouble();
+				table.wheelbases[i] = input.readDouble();
+			}
+
+			int numFeedForwardMultipliers = readLength(input, file);
+			table.feedForwardVelocities = new double[numFeedForwardMultipliers];
+			table.leftMultipliers = new double[numFeedForwardMultipliers];
+			table.rightMultipliers = new double[numFeedForwardMultipliers];
+			for (int i = 0; i < numFeedForwardMultipliers; i++) {
+				table.feedForwardVelocities[i] = input.readDouble();
+				table.leftMultipliers[i] = input.readDouble();
+				table.rightMultipliers[i] = input.readDouble();
+			}
+		}
+
+		if (!isSorted(table.wheelbaseVelocities) || !isSorted(table.feedForwardVelocities)) {
+			throw new IOException(file + " has calibration points out of order");
+		}
+
+		return table;
+	}
+
+	/**
+	 * Reads the table from a file if there is one, or makes an empty table if there isn't or it can't be read.
+	 */
+	public static DriveCalibrationTable loadOrEmpty(File file) {
+		if (!file.exists()) {
+			Log.info("DriveCalibrationTable", "No drive calibration at " + file + ", using the measured wheelbase.");
+			return new DriveCalibrationTable();
+		}
+
+		try {
+			DriveCalibrationTable table = load(file);
+			Log.info("DriveCalibrationTable", "Loaded " + table.getNumWheelbases() + " wheelbase and " + table.getNumFeedForwardMultipliers()
+					+ " feed-forward calibration points from " + file);
+
+			return table;
+		}
+		catch (IOException e) {
+			Log.recoverable("DriveCalibrationTable", "Could not read drive calibration from " + file + ": " + e.getMessage());
+			return new DriveCalibrationTable();
+		}
+	}
+
+	private static int readLength(DataInputStream input, File file) throws IOException {
+		int length = input.readInt();
+
+		// more points than this would take longer to collect than a season
+		if (length < 0 || length > 10000) {
+			throw new IOException(file + " claims to have " + length + " calibration points");
+		}
+
+		return length;
+	}
+
+	private static boolean isSorted(double[] values) {
+		for (int i = 1; i < values.length; i++) {
+			if (!(values[i] > values[i - 1])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,206 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.util.Assert;
+import org.team3128.common.util.Constants;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.wpilibj.Notifier;
+
+/**
+ * Streams a motion profile into a Talon SRX while it is being executed, rather than pushing
+ * every point up front.
+ *
+ * Each service tick moves a point from the Talon's top-level buffer into its bottom buffer with
+ * {@link MotionProfileTalon#processMotionProfileBuffer()}, then refills the top-level buffer from
+ * the profile until a fixed number of points are queued ahead of the one being executed.  Ticks
+ * run on a {@link Notifier} at twice the profile's point rate so the Talon never waits on us.
+ *
+ * Buffer occupancy and underruns are counted so that a profile which is starved (or a lookahead
+ * which is too small) can be spotted on the dashboard.
+ *
+ * @author Narwhal
+ *
+ */
+public class MotionProfileStreamer {
+	/**
+	 * Fills in a single point of the profile being streamed.
+	 */
+	@FunctionalInterface
+	public interface PointSource {
+		/**
+		 * Sets the position, velocity, duration, and profile slot of the point. {@code zeroPos}
+		 * and {@code isLastPoint} are filled in by the streamer.
+		 */
+		public void getPoint(int index, TrajectoryPoint point);
+	}
+
+	private final MotionProfileTalon talon;
+	private final int lookahead;
+
+	private final TrajectoryPoint point = new TrajectoryPoint();
+	private final MotionProfileStatus status = new MotionProfileStatus();
+
+	private Notifier serviceNotifier;
+
+	private PointSource source;
+	private int length;
+	private int nextIndex;
+
+	private volatile int occupancy;
+	private volatile int peakOccupancy;
+	private volatile int underrunCount;
+	private volatile boolean finished;
+
+	/**
+	 * @param talon - The Talon to stream the profile into.
+	 * @param lookahead - The number of points to keep queued ahead of the one being executed.
+	 */
+	public MotionProfileStreamer(MotionProfileTalon talon, int lookahead) {
+		Assert.inRange(lookahead, 1, MotionProfileTalon.TOP_BUFFER_CAPACITY);
+
+		this.talon = talon;
+		this.lookahead = lookahead;
+	}
+
+	/**
+	 * Clears whatever the Talon was running and queues the start of a new profile, without enabling it.
+	 *
+	 * @param length - The number of points in the profile.
+	 * @param source - Provides each point of the profile as it is needed.
+	 */
+	public synchronized void load(int length, PointSource source) {
+		Assert.greaterThan(length, 0);
+
+		this.source = source;
+		this.length = length;
+
+		nextIndex = 0;
+		occupancy = 0;
+		peakOccupancy = 0;
+		underrunCount = 0;
+		finished = false;
+
+		talon.clearMotionProfileTrajectories();
+		talon.clearMotionProfileHasUnderrun(Constants.CAN_TIMEOUT);
+
+		talon.getMotionProfileStatus(status);
+		fill();
+	}
+
+	/**
+	 * Enables the loaded profile and starts servicing it in the background.
+	 *
+	 * @param pointPeriod - The nominal duration of each point, in seconds.
+	 */
+	public synchronized void start(double pointPeriod) {
+		if (serviceNotifier == null) {
+			serviceNotifier = new Notifier(this::service);
+		}
+
+		serviceNotifier.startPeriodic(pointPeriod / 2);
+		talon.set(ControlMode.MotionProfile, 1);
+	}
+
+	/**
+	 * Stops servicing the Talon and throws out the rest of the profile. Leaves the Talon in motion
+	 * profile mode; the caller should set the control mode it wants next.
+	 */
+	public synchronized void stop() {
+		if (serviceNotifier != null) {
+			serviceNotifier.stop();
+		}
+
+		talon.clearMotionProfileTrajectories();
+		source = null;
+	}
+
+	/**
+	 * Runs one service tick. Called periodically by the streamer's own notifier once started, but
+	 * can be called by hand when simulating.
+	 */
+	public synchronized void service() {
+		if (source == null) {
+			return;
+		}
+
+		talon.processMotionProfileBuffer();
+		talon.getMotionProfileStatus(status);
+
+		if (status.hasUnderrun) {
+			underrunCount++;
+			talon.clearMotionProfileHasUnderrun(Constants.CAN_TIMEOUT);
+		}
+
+		finished = status.activePointValid && status.isLast;
+
+		fill();
+	}
+
+	/**
+	 * Pushes points until the lookahead is reached, the top-level buffer is full, or the profile runs out.
+	 *
+	 * Expects {@link #status} to be current.
+	 */
+	private void fill() {
+		int queued = status.topBufferCnt + status.btmBufferCnt;
+		int topBufferRemaining = status.topBufferRem;
+
+		while (nextIndex < length && queued < lookahead && topBufferRemaining > 0) {
+			source.getPoint(nextIndex, point);
+			point.zeroPos = nextIndex == 0;
+			point.isLastPoint = nextIndex == length - 1;
+
+			if (talon.pushMotionProfileTrajectory(point) != ErrorCode.OK) {
+				break;
+			}
+
+			nextIndex++;
+			queued++;
+			topBufferRemaining--;
+		}
+
+		occupancy = queued;
+		if (queued > peakOccupancy) {
+			peakOccupancy = queued;
+		}
+	}
+
+	/**
+	 * @return The number of points queued in the Talon as of the last service tick, including both buffers.
+	 */
+	public int getOccupancy() {
+		return occupancy;
+	}
+
+	/**
+	 * @return The most points that have been queued at once while streaming the current profile.
+	 */
+	public int getPeakOccupancy() {
+		return peakOccupancy;
+	}
+
+	/**
+	 * @return The number of times the Talon has run out of points before reaching the end of the current profile.
+	 */
+	public int getUnderrunCount() {
+		return underrunCount;
+	}
+
+	/**
+	 * @return The number of points of the current profile that have been pushed to the Talon so far.
+	 */
+	public synchronized int getPointsPushed() {
+		return nextIndex;
+	}
+
+	/**
+	 * @return True once the Talon is holding the final point of the profile.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
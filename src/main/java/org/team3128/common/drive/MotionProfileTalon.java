@@ -0,0 +1,48 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.hardware.motor.SRXMotorController;
+import org.team3128.common.simulation.SimulatedMotionProfileTalon;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+/**
+ * The subset of a Talon SRX's API used to stream a motion profile into it.
+ *
+ * This lets a {@link MotionProfileStreamer} drive either a real Talon (through {@link #of(TalonSRX)})
+ * or a {@link SimulatedMotionProfileTalon} off the robot.
+ *
+ * @author Narwhal
+ *
+ */
+public interface MotionProfileTalon {
+	/**
+	 * The number of trajectory points the Talon's top-level (API) buffer can hold.
+	 */
+	public static final int TOP_BUFFER_CAPACITY = 2048;
+
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint point);
+
+	/**
+	 * Moves trajectory points from the top-level buffer into the Talon's own bottom buffer.
+	 */
+	public void processMotionProfileBuffer();
+
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus status);
+
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs);
+
+	public void clearMotionProfileTrajectories();
+
+	public void set(ControlMode mode, double value);
+
+	/**
+	 * Wraps a real Talon SRX.
+	 */
+	public static MotionProfileTalon of(TalonSRX talon) {
+		return new SRXMotorController(talon);
+	}
+}
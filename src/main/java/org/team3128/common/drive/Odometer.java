@@ -1,26 +1,50 @@
 package org.team3128.common.drive;
 
-import org.team3128.common.drive.routemaker.Constants;
 import org.team3128.common.util.Convert;
 import org.team3128.common.util.RobotMath;
 import org.team3128.common.util.Log;
 
-import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.hardware.navigation.Gyro;
 
-import edu.wpi.first.wpilibj.ADXRS450_Gyro;
+import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.Timer;
 
 /**
  * Experimental class in order to constantly integrate encoder and gyroscope
  * readings in order to determine the displacement of the robot from its initial
  * position.
- * 
+ *
+ * The odometer can either be updated manually by calling {@link #update()}, or
+ * by its own {@link Notifier} at a fixed rate independent of the main loop using
+ * {@link #startUpdating()}. The latest {@link Pose} is published atomically, and
+ * recent poses are kept in a {@link PoseHistory} so that delayed measurements can
+ * be matched to where the robot was when they were taken.
+ *
+ * Headings follow the {@link Gyro} convention of counterclockwise being positive,
+ * with a heading of 0 pointing along the +x axis. This is the opposite of the
+ * ADXRS450_Gyro the odometer used to read directly, which is clockwise positive;
+ * the {@link Gyro} adapters (NavX, AnalogDevicesGyro) flip the sign. It matches
+ * the headings of {@link org.team3128.common.drive.routemaker.Segment} and
+ * {@link org.team3128.common.drive.routemaker.PrecomputedRoute}, so poses can be
+ * compared with routes directly.
+ *
  * @author Ronak
  *
  */
 public class Odometer {
-	private ADXRS450_Gyro gyro;
-	private TalonSRX leftDriveMotors, rightDriveMotors;
+	/**
+	 * The default period between odometry updates when updating in the background, in seconds.
+	 */
+	public static final double DEFAULT_UPDATE_PERIOD = 0.005;
+
+	/**
+	 * The number of past poses to remember. At the default update period, this is one second.
+	 */
+	private static final int POSE_HISTORY_LENGTH = 200;
+
+	private Gyro gyro;
+	private ISmartMotorController leftDriveMotors, rightDriveMotors;
 
 	/**
 	 * The circumference of the wheels, in centimeters
@@ -28,10 +52,13 @@ public class Odometer {
 	private double wheelCirc;
 
 	/**
-	 * The x and y displacement of the robot with respect to the last reset, in
-	 * centimeters.
+	 * The position of the robot with respect to the last reset, in centimeters, and its heading.
 	 */
-	private double xPosition, yPosition;
+	private volatile Pose pose;
+
+	private final PoseHistory poseHistory = new PoseHistory(POSE_HISTORY_LENGTH);
+
+	private Notifier updateNotifier;
 
 	/**
 	 * The gyro return angle that we should assume to be zero, since gyroscopes
@@ -43,17 +70,31 @@ public class Odometer {
 		if (instance != null) {
 			return instance;
 		}
-		
+
 		Log.fatal("Odometer", "Attempted to get instance before initializtion! Call initialize(...) first.");
 		return null;
 	}
 
 	private static Odometer instance = null;
-	public static void initialize(ADXRS450_Gyro gyro, double x, double y, double angle) {
+
+	/**
+	 * @return Whether {@link #initialize(Gyro, double, double, double)} has been called, for code which can use the odometer if it exists.
+	 */
+	public static boolean isInitialized() {
+		return instance != null;
+	}
+
+	/**
+	 * @param gyro - The gyro to read the heading from, counterclockwise positive.
+	 * @param x - The starting x position, in centimeters.
+	 * @param y - The starting y position, in centimeters.
+	 * @param angle - The starting heading, counterclockwise positive, in degrees.
+	 */
+	public static void initialize(Gyro gyro, double x, double y, double angle) {
 		instance = new Odometer(gyro, x, y, angle);
 	}
 
-	private Odometer(ADXRS450_Gyro gyro, double x, double y, double angle) {
+	private Odometer(Gyro gyro, double x, double y, double angle) {
 		SRXTankDrive drive = SRXTankDrive.getInstance();
 
 		this.leftDriveMotors = drive.getLeftMotors();
@@ -64,80 +105,129 @@ public class Odometer {
 		this.gyro = gyro;
 
 		setPosition(x, y, angle);
-
-		oldLeft = leftDriveMotors.getSelectedSensorPosition(0);
-		oldRight = leftDriveMotors.getSelectedSensorPosition(0);
-
-		oldTheta = getAngle();
-
-		lastUpdateTime = Timer.getFPGATimestamp();
 	}
 
 	private double lastUpdateTime;
 
 	private double oldLeft, oldRight;
+	private double oldTheta;
 
-	private double left, right;
-	private double dLeft, dRight;
+	/**
+	 * Reads the drive encoders and gyro, and integrates the change in position since the last update.
+	 *
+	 * The sensors are read while holding the same lock as {@link #setPosition(double, double, double)}, so
+	 * readings taken before a reset can never be integrated after it.
+	 */
+	public synchronized void update() {
+		integrate(
+			leftDriveMotors.getSelectedSensorPosition(0),
+			rightDriveMotors.getSelectedSensorPosition(0),
+			getAngle(),
+			Timer.getFPGATimestamp()
+		);
+	}
 
-	private double oldTheta;
+	/**
+	 * Integrates one set of sensor readings into the robot's pose. Exposed so that recorded
+	 * encoder and gyro traces can be replayed without hardware.
+	 *
+	 * @param left - The left drive encoder position, in native units.
+	 * @param right - The right drive encoder position, in native units.
+	 * @param theta - The robot heading, counterclockwise positive, in degrees, relative to the last reset.
+	 * @param timestamp - The FPGA time the readings were taken at, in seconds.
+	 */
+	public synchronized void integrate(double left, double right, double theta, double timestamp) {
+		lastUpdateTime = timestamp;
 
-	private double theta;
-	private double dTheta;
+		double distance = Convert.lengthCTREtoCM((left - oldLeft + right - oldRight) / 2, wheelCirc);
 
-	private double r;
+		// Approximate the arc travelled since the last update with a chord at the average heading
+		double heading = (oldTheta + theta) / 2;
 
-	public void update() {
-		left = leftDriveMotors.getSelectedSensorPosition(0);
-		right = rightDriveMotors.getSelectedSensorPosition(0);
+		Pose lastPose = pose;
+		publish(new Pose(
+			lastPose.x + distance * RobotMath.cos(heading),
+			lastPose.y + distance * RobotMath.sin(heading),
+			theta,
+			timestamp
+		));
 
-		theta = gyro.getAngle();
+		oldLeft = left;
+		oldRight = right;
+		oldTheta = theta;
+	}
+
+	public synchronized void setPosition(double x, double y, double theta) {
+		zeroAngle = gyro.getAngle() - theta;
+
+		oldLeft = leftDriveMotors.getSelectedSensorPosition(0);
+		oldRight = rightDriveMotors.getSelectedSensorPosition(0);
+		oldTheta = theta;
 
 		lastUpdateTime = Timer.getFPGATimestamp();
 
-		dLeft = left - oldLeft;
-		dRight = right - oldRight;
+		poseHistory.clear();
+		publish(new Pose(x, y, theta, lastUpdateTime));
+	}
 
-		dTheta = theta - oldTheta;
-		if (dTheta > 360 - Constants.ARBITRARY_LOOP_PROTECTION_BUFFER) {
-			dTheta = 360 - dTheta;
-		}
-		else if (dTheta < Constants.ARBITRARY_LOOP_PROTECTION_BUFFER - 360) {
-			dTheta = 360 + dTheta;
-		}
+	private void publish(Pose newPose) {
+		pose = newPose;
+		poseHistory.add(newPose);
+	}
 
-		r = Convert.lengthCTREtoCM(dLeft + dRight, wheelCirc) / (2 * Math.toRadians(dTheta));
+	/**
+	 * Starts updating the odometer in the background at the default rate.
+	 */
+	public void startUpdating() {
+		startUpdating(DEFAULT_UPDATE_PERIOD);
+	}
 
-		incrementPosition(
-			r * (RobotMath.cos(dTheta) - 1.0),
-			r * RobotMath.sin(dTheta)
-		);
+	/**
+	 * Starts updating the odometer in the background, independent of the main loop.
+	 *
+	 * @param period - The time between updates, in seconds.
+	 */
+	public synchronized void startUpdating(double period) {
+		if (updateNotifier == null) {
+			updateNotifier = new Notifier(this::update);
+		}
 
-		oldLeft = left;
-		oldRight = right;
-		oldTheta = theta;
+		updateNotifier.startPeriodic(period);
 	}
 
-	public void setPosition(double x, double y, double theta) {
-		xPosition = x;
-		yPosition = y;
+	public synchronized void stopUpdating() {
+		if (updateNotifier != null) {
+			updateNotifier.stop();
+		}
+	}
 
-		zeroAngle = gyro.getAngle() - theta;
+	/**
+	 * @return The most recent pose of the robot.
+	 */
+	public Pose getPose() {
+		return pose;
 	}
 
-	private synchronized void incrementPosition(double dx, double dy) {
-		xPosition += dx;
-		yPosition += dy;
+	/**
+	 * Estimates the pose of the robot at a recent time, such as the capture time of a camera frame.
+	 *
+	 * @param timestamp - The FPGA time, in seconds.
+	 */
+	public Pose getPoseAt(double timestamp) {
+		return poseHistory.getPoseAt(timestamp);
 	}
 
 	public double getX() {
-		return xPosition;
+		return pose.x;
 	}
 
 	public double getY() {
-		return yPosition;
+		return pose.y;
 	}
 
+	/**
+	 * @return The robot's heading, counterclockwise positive, in degrees.
+	 */
 	public double getAngle() {
 		return gyro.getAngle() - zeroAngle;
 	}
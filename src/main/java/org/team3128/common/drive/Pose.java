@@ -0,0 +1,63 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.util.RobotMath;
+
+/**
+ * An immutable snapshot of the robot's position and heading at a point in time.
+ * 
+ * @author Ronak
+ *
+ */
+public class Pose {
+	/**
+	 * The x and y displacement of the robot, in centimeters.
+	 */
+	public final double x, y;
+
+	/**
+	 * The heading of the robot, counterclockwise positive, in degrees.
+	 */
+	public final double angle;
+
+	/**
+	 * The FPGA timestamp at which the robot was at this pose, in seconds.
+	 */
+	public final double timestamp;
+
+	public Pose(double x, double y, double angle, double timestamp) {
+		this.x = x;
+		this.y = y;
+
+		this.angle = angle;
+
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Linearly interpolates between this pose and a later one.
+	 * 
+	 * @param next - The later pose.
+	 * @param timestamp - The time to interpolate to, between the two poses' timestamps.
+	 */
+	public Pose interpolate(Pose next, double timestamp) {
+		double dt = next.timestamp - this.timestamp;
+
+		if (dt <= 0) {
+			return next;
+		}
+
+		double fraction = RobotMath.clamp((timestamp - this.timestamp) / dt, 0, 1);
+
+		return new Pose(
+			x + fraction * (next.x - x),
+			y + fraction * (next.y - y),
+			angle + fraction * (next.angle - angle),
+			timestamp
+		);
+	}
+
+	@Override
+	public String toString() {
+		return "Pose(" + x + ", " + y + ", " + angle + "deg @ " + timestamp + "s)";
+	}
+}
@@ -0,0 +1,96 @@
+package org.team3128.common.drive;
+
+/**
+ * Fixed-length history of timestamped {@link Pose}s, used to look up where the robot
+ * was when a delayed measurement (such as a camera frame) was taken.
+ * 
+ * Poses must be added by a single thread, in order of increasing timestamp. Any number
+ * of other threads can read the history at the same time without locking.
+ * 
+ * @author Ronak
+ *
+ */
+public class PoseHistory {
+	private final Pose[] poses;
+
+	/**
+	 * The total number of poses ever added. The newest pose is at (count - 1) % length.
+	 */
+	private volatile long count = 0;
+
+	/**
+	 * @param length - The number of poses to remember.
+	 */
+	public PoseHistory(int length) {
+		if (length < 2) {
+			throw new IllegalArgumentException("Pose history must hold at least two poses");
+		}
+
+		poses = new Pose[length];
+	}
+
+	public void add(Pose pose) {
+		poses[(int) (count % poses.length)] = pose;
+		count = count + 1;
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * @return The most recently added pose, or null if the history is empty.
+	 */
+	public Pose getLatest() {
+		long currentCount = count;
+
+		if (currentCount == 0) {
+			return null;
+		}
+
+		return poses[(int) ((currentCount - 1) % poses.length)];
+	}
+
+	/**
+	 * Estimates the pose of the robot at the given time by interpolating between the two
+	 * closest poses in the history.
+	 * 
+	 * Timestamps newer than the latest pose return the latest pose, and timestamps older than
+	 * anything in the history return the oldest remembered pose.
+	 * 
+	 * @param timestamp - The FPGA time, in seconds.
+	 * @return The interpolated pose, or null if the history is empty.
+	 */
+	public Pose getPoseAt(double timestamp) {
+		long currentCount = count;
+
+		if (currentCount == 0) {
+			return null;
+		}
+
+		// leave one slot of margin, since the writer may be overwriting the oldest pose as we read
+		long oldest = Math.max(0, currentCount - poses.length + 1);
+
+		Pose later = poses[(int) ((currentCount - 1) % poses.length)];
+		if (timestamp >= later.timestamp) {
+			return later;
+		}
+
+		for (long index = currentCount - 2; index >= oldest; index--) {
+			Pose earlier = poses[(int) (index % poses.length)];
+
+			// this slot was overwritten by a newer pose while we were reading
+			if (earlier.timestamp > later.timestamp) {
+				break;
+			}
+
+			if (earlier.timestamp <= timestamp) {
+				return earlier.interpolate(later, timestamp);
+			}
+
+			later = earlier;
+		}
+
+		return later;
+	}
+}
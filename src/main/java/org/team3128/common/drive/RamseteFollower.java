@@ -0,0 +1,270 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Follows a {@link PrecomputedRoute} in closed loop with the Ramsete controller, which steers the robot
+ * back onto the route from wherever its measured {@link Pose} says it is.
+ *
+ * Each update looks up where the route says the robot should be at the current time, expresses the
+ * difference from the measured pose in the robot's frame, and corrects the route's own linear and
+ * angular velocity for it. The gains fall off with the route's speed, so the correction is gentler when
+ * the robot is moving slowly. Any pose source works, such as the {@link Odometer} or a {@link StateEstimator}.
+ *
+ * The cross-track error (how far the robot is to the side of the route, left positive) is tracked while
+ * following so that the tracking can be judged afterwards.
+ *
+ * Nothing is allocated per update.
+ *
+ * @author Narwhal
+ *
+ */
+public class RamseteFollower {
+	/**
+	 * How aggressively to correct position error, in 1/cm^2. Equivalent to 2 in meters.
+	 */
+	public static final double DEFAULT_B = 2e-4;
+
+	/**
+	 * How much to damp the correction, from 0 to 1.
+	 */
+	public static final double DEFAULT_ZETA = .7;
+
+	/**
+	 * The least the gain is allowed to fall to as the route slows down, in rad/s, so that the robot still
+	 * settles onto the end of the route once the route itself has stopped.
+	 */
+	private static final double MINIMUM_NATURAL_FREQUENCY = 3;
+
+	private final PrecomputedRoute route;
+
+	private final double b, zeta;
+	private final double wheelBase, wheelCircumference;
+
+	/**
+	 * times[i] is when the robot should be at point i, in seconds from the start of the route.
+	 */
+	private final double[] times;
+
+	private int index;
+
+	// the reference at the last update
+	private double referenceX, referenceY, referenceHeading;
+	private double referenceVelocity, referenceAngularVelocity;
+
+	private double leftVelocity, rightVelocity;
+
+	private double crossTrackError, alongTrackError, headingError;
+	private double maxCrossTrackError, sumSquaredCrossTrackError;
+	private int numUpdates;
+
+	/**
+	 * @param route - The route to follow.
+	 * @param b - How aggressively to correct position error, in 1/cm^2.
+	 * @param zeta - How much to damp the correction, from 0 to 1.
+	 * @param wheelBase - The distance between the left and right wheels, in cm.
+	 * @param wheelCircumference - The circumference of the drive wheels, in cm.
+	 */
+	public RamseteFollower(PrecomputedRoute route, double b, double zeta, double wheelBase, double wheelCircumference) {
+		this.route = route;
+
+		this.b = b;
+		this.zeta = zeta;
+
+		this.wheelBase = wheelBase;
+		this.wheelCircumference = wheelCircumference;
+
+		times = new double[route.getLength()];
+		for (int i = 1; i < times.length; i++) {
+			times[i] = times[i - 1] + route.getDurationMs(i - 1) / 1000.0;
+		}
+
+		reset();
+	}
+
+	public RamseteFollower(PrecomputedRoute route, double wheelBase, double wheelCircumference) {
+		this(route, DEFAULT_B, DEFAULT_ZETA, wheelBase, wheelCircumference);
+	}
+
+	/**
+	 * Goes back to the start of the route and clears the error statistics.
+	 */
+	public void reset() {
+		index = 0;
+
+		leftVelocity = rightVelocity = 0;
+
+		crossTrackError = alongTrackError = headingError = 0;
+		maxCrossTrackError = sumSquaredCrossTrackError = 0;
+		numUpdates = 0;
+	}
+
+	/**
+	 * Computes the wheel velocities to use until the next update.
+	 *
+	 * @param pose - Where the robot is.
+	 * @param time - The time since the robot started following the route, in seconds.
+	 */
+	public void update(Pose pose, double time) {
+		update(pose.x, pose.y, pose.angle, time);
+	}
+
+	/**
+	 * Computes the wheel velocities to use until the next update.
+	 *
+	 * @param x - The x position of the robot, in cm.
+	 * @param y - The y position of the robot, in cm.
+	 * @param angle - The heading of the robot, counterclockwise positive, in degrees.
+	 * @param time - The time since the robot started following the route, in seconds.
+	 */
+	public void update(double x, double y, double angle, double time) {
+		updateReference(time);
+
+		double dx = referenceX - x;
+		double dy = referenceY - y;
+
+		double heading = Math.toRadians(angle);
+		double cos = Math.cos(heading);
+		double sin = Math.sin(heading);
+
+		// the error in the robot's frame
+		double errorX = cos * dx + sin * dy;
+		double errorY = -sin * dx + cos * dy;
+		double errorHeading = Math.toRadians(RobotMath.angleDistance(angle, referenceHeading, true));
+
+		double naturalFrequency = Math.sqrt(referenceAngularVelocity * referenceAngularVelocity + b * referenceVelocity * referenceVelocity);
+		double k = 2 * zeta * Math.max(naturalFrequency, MINIMUM_NATURAL_FREQUENCY);
+		double sinc = (Math.abs(errorHeading) < 1e-6) ? 1 - errorHeading * errorHeading / 6 : Math.sin(errorHeading) / errorHeading;
+
+		double velocity = referenceVelocity * Math.cos(errorHeading) + k * errorX;
+		double angularVelocity = referenceAngularVelocity + k * errorHeading + b * referenceVelocity * sinc * errorY;
+
+		leftVelocity = velocity - angularVelocity * wheelBase / 2;
+		rightVelocity = velocity + angularVelocity * wheelBase / 2;
+
+		// the error in the route's frame
+		double referenceCos = RobotMath.cos(referenceHeading);
+		double referenceSin = RobotMath.sin(referenceHeading);
+
+		alongTrackError = referenceCos * dx + referenceSin * dy;
+		crossTrackError = referenceSin * dx - referenceCos * dy;
+		headingError = Math.toDegrees(errorHeading);
+
+		maxCrossTrackError = Math.max(maxCrossTrackError, Math.abs(crossTrackError));
+		sumSquaredCrossTrackError += crossTrackError * crossTrackError;
+		numUpdates++;
+	}
+
+	/**
+	 * Interpolates the route's position and velocities at the given time.
+	 */
+	private void updateReference(double time) {
+		int last = times.length - 1;
+
+		while (index < last && times[index + 1] <= time) {
+			index++;
+		}
+
+		if (index == last) {
+			// hold the end of the route
+			referenceX = route.getX(last);
+			referenceY = route.getY(last);
+			referenceHeading = route.getHeading(last);
+			referenceVelocity = referenceAngularVelocity = 0;
+
+			return;
+		}
+
+		double duration = times[index + 1] - times[index];
+		double fraction = (duration > 0) ? RobotMath.clamp((time - times[index]) / duration, 0, 1) : 1;
+
+		referenceX = interpolate(route.getX(index), route.getX(index + 1), fraction);
+		referenceY = interpolate(route.getY(index), route.getY(index + 1), fraction);
+		referenceHeading = route.getHeading(index) + fraction * RobotMath.angleDistance(route.getHeading(index), route.getHeading(index + 1), true);
+		referenceVelocity = interpolate(getVelocity(index), getVelocity(index + 1), fraction);
+		referenceAngularVelocity = interpolate(getAngularVelocity(index), getAngularVelocity(index + 1), fraction);
+	}
+
+	/**
+	 * @return The linear velocity of the robot at a point of the route, in cm/s.
+	 */
+	private double getVelocity(int point) {
+		return Convert.velocityCTREtoCMS((route.getLeftSpeed(point) + route.getRightSpeed(point)) / 2, wheelCircumference);
+	}
+
+	/**
+	 * @return The counterclockwise angular velocity of the robot at a point of the route, in rad/s.
+	 */
+	private double getAngularVelocity(int point) {
+		return Convert.velocityCTREtoCMS(route.getRightSpeed(point) - route.getLeftSpeed(point), wheelCircumference) / wheelBase;
+	}
+
+	private static double interpolate(double a, double b, double fraction) {
+		return a + fraction * (b - a);
+	}
+
+	/**
+	 * @return The left wheel velocity to drive at, in cm/s.
+	 */
+	public double getLeftVelocity() {
+		return leftVelocity;
+	}
+
+	/**
+	 * @return The right wheel velocity to drive at, in cm/s.
+	 */
+	public double getRightVelocity() {
+		return rightVelocity;
+	}
+
+	/**
+	 * @return Whether the route has ended at the given time since the robot started following it.
+	 */
+	public boolean isFinished(double time) {
+		return time >= times[times.length - 1];
+	}
+
+	/**
+	 * @return How long the route takes to follow, in seconds.
+	 */
+	public double getTotalTime() {
+		return times[times.length - 1];
+	}
+
+	/**
+	 * @return How far the robot was to the side of the route at the last update, left positive, in cm.
+	 */
+	public double getCrossTrackError() {
+		return crossTrackError;
+	}
+
+	/**
+	 * @return How far the robot was behind where the route says it should be at the last update, in cm.
+	 */
+	public double getAlongTrackError() {
+		return alongTrackError;
+	}
+
+	/**
+	 * @return How far the robot needed to turn counterclockwise to match the route at the last update, in degrees.
+	 */
+	public double getHeadingError() {
+		return headingError;
+	}
+
+	/**
+	 * @return The largest cross-track error since the last reset, in cm.
+	 */
+	public double getMaxCrossTrackError() {
+		return maxCrossTrackError;
+	}
+
+	/**
+	 * @return The RMS cross-track error since the last reset, in cm.
+	 */
+	public double getRMSCrossTrackError() {
+		return (numUpdates > 0) ? Math.sqrt(sumSquaredCrossTrackError / numUpdates) : 0;
+	}
+}
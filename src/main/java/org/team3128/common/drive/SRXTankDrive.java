@@ -2,15 +2,20 @@ package org.team3128.common.drive;
 
 import edu.wpi.first.wpilibj.DriverStation;
 import org.team3128.common.drive.routemaker.Routemaker;
-import org.team3128.common.drive.routemaker.ProfilePoint;
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.drive.routemaker.TrajectoryGenerator;
 import org.team3128.common.drive.routemaker.Waypoint;
 import org.team3128.common.hardware.limelight.Limelight;
 import org.team3128.common.hardware.limelight.LimelightData;
 import org.team3128.common.hardware.misc.TwoSpeedGearshift;
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.hardware.motor.SRXMotorController;
 import org.team3128.common.hardware.navigation.Gyro;
 import org.team3128.common.narwhaldashboard.NarwhalDashboard;
 import org.team3128.common.util.Assert;
 import org.team3128.common.util.Constants;
+import org.team3128.common.util.ControlScheduler;
+import org.team3128.common.util.Convert;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
 import org.team3128.common.util.datatypes.PIDConstants;
@@ -19,21 +24,18 @@ import org.team3128.common.util.units.Angle;
 import org.team3128.common.util.units.AngularSpeed;
 import org.team3128.common.util.units.Length;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import com.ctre.phoenix.motion.MotionProfileStatus;
-import com.ctre.phoenix.motion.TrajectoryPoint;
 import com.ctre.phoenix.motorcontrol.ControlMode;
 import com.ctre.phoenix.motorcontrol.NeutralMode;
 import com.ctre.phoenix.motorcontrol.can.SlotConfiguration;
 import com.ctre.phoenix.motorcontrol.can.TalonSRX;
 
-import edu.wpi.first.wpilibj.Notifier;
 import edu.wpi.first.wpilibj.RobotController;
 import edu.wpi.first.wpilibj.Talon;
 import edu.wpi.first.wpilibj.command.Command;
-import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 /**
  * Class which represents a tank drive powered by Talon SRXs on a robot.
@@ -54,13 +56,13 @@ import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
  *
  */
 public class SRXTankDrive implements ITankDrive {
-	private TalonSRX leftMotors, rightMotors;
+	private ISmartMotorController leftMotors, rightMotors;
 
-	public TalonSRX getLeftMotors() {
+	public ISmartMotorController getLeftMotors() {
 		return leftMotors;
 	}
 
-	public TalonSRX getRightMotors() {
+	public ISmartMotorController getRightMotors() {
 		return rightMotors;
 	}
 
@@ -104,6 +106,11 @@ public class SRXTankDrive implements ITankDrive {
 	 */
 	private double leftSpeedScalar, rightSpeedScalar;
 
+	/**
+	 * The effective wheelbase and feed-forward multipliers by angular velocity, from past calibration runs.
+	 */
+	private DriveCalibrationTable calibration;
+
 	private enum DriveMode {
 		TELEOP(NeutralMode.Coast), AUTONOMOUS(NeutralMode.Brake);
 
@@ -125,7 +132,7 @@ public class SRXTankDrive implements ITankDrive {
 	 * Profile control mode as well as velocity control mode.
 	 */
 	public PIDConstants leftMotionProfilePID;
-	// private PIDConstants leftVelocityPID, rightVelocityPID;
+	public PIDConstants leftVelocityPID, rightVelocityPID;
 
 	public PIDConstants rightMotionProfilePID;
 
@@ -171,10 +178,22 @@ public class SRXTankDrive implements ITankDrive {
 	 */
 	public static void initialize(TalonSRX leftMotors, TalonSRX rightMotors, double wheelCircumfrence, double wheelBase,
 			int robotMaxSpeed) {
+		initialize(new SRXMotorController(leftMotors), new SRXMotorController(rightMotors), wheelCircumfrence, wheelBase, robotMaxSpeed);
+	}
+
+	/**
+	 * Initializes the drive with any kind of motor controller, such as a
+	 * {@link org.team3128.common.simulation.SimulatedMotorController} when
+	 * running off of the robot.
+	 *
+	 * @see #initialize(TalonSRX, TalonSRX, double, double, int)
+	 */
+	public static void initialize(ISmartMotorController leftMotors, ISmartMotorController rightMotors, double wheelCircumfrence, double wheelBase,
+			int robotMaxSpeed) {
 		instance = new SRXTankDrive(leftMotors, rightMotors, wheelCircumfrence, wheelBase, robotMaxSpeed);
 	}
 
-	private SRXTankDrive(TalonSRX leftMotors, TalonSRX rightMotors, double wheelCircumfrence, double wheelBase,
+	private SRXTankDrive(ISmartMotorController leftMotors, ISmartMotorController rightMotors, double wheelCircumfrence, double wheelBase,
 			int robotMaxSpeed) {
 		this.leftMotors = leftMotors;
 		this.rightMotors = rightMotors;
@@ -187,6 +206,8 @@ public class SRXTankDrive implements ITankDrive {
 		leftSpeedScalar = 1;
 		rightSpeedScalar = 1;
 
+		calibration = DriveCalibrationTable.loadOrEmpty(DriveCalibrationTable.DEFAULT_FILE);
+
 		configureDriveMode(DriveMode.TELEOP);
 
 		loadSRXPIDConstants();
@@ -264,6 +285,33 @@ public class SRXTankDrive implements ITankDrive {
 		rightSpeedScalar = scalar;
 	}
 
+	public DriveCalibrationTable getCalibration() {
+		return calibration;
+	}
+
+	/**
+	 * Writes the calibration table to {@link DriveCalibrationTable#DEFAULT_FILE}, so that it is used from the next time the robot starts.
+	 */
+	public void saveCalibration() {
+		try {
+			calibration.save(DriveCalibrationTable.DEFAULT_FILE);
+			Log.info("SRXTankDrive", "Saved drive calibration to " + DriveCalibrationTable.DEFAULT_FILE);
+		}
+		catch (IOException e) {
+			Log.recoverable("SRXTankDrive", "Could not save drive calibration to " + DriveCalibrationTable.DEFAULT_FILE + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Get the wheelbase to use for turning at an angular velocity: the calibrated effective wheelbase if there is a
+	 * calibration table, or the measured one if there isn't.
+	 *
+	 * @param angularVelocity - The angular velocity, in deg/s.
+	 */
+	public double getEffectiveWheelBase(double angularVelocity) {
+		return calibration.getWheelbase(angularVelocity, wheelBase);
+	}
+
 	/**
 	 * Drive by providing motor powers for each side.
 	 *
@@ -396,19 +444,17 @@ public class SRXTankDrive implements ITankDrive {
 		leftMotionProfilePID = new PIDConstants(configs.kF, configs.kP, configs.kI, configs.kD);
 		Log.info("SRXTankDrive", "Left MP: " + leftMotionProfilePID);
 
-		// leftMotors.getSlotConfigs(configs, 1, Constants.CAN_TIMEOUT);
-		// leftVelocityPID = new PIDConstants(configs.kF, configs.kP, configs.kI,
-		// configs.kD);
-		// Log.info("SRXTankDrive", "Left V: " + leftVelocityPID);
+		leftMotors.getSlotConfigs(configs, CmdRamseteRouteDrive.VELOCITY_SLOT, Constants.CAN_TIMEOUT);
+		leftVelocityPID = new PIDConstants(configs.kF, configs.kP, configs.kI, configs.kD);
+		Log.info("SRXTankDrive", "Left V: " + leftVelocityPID);
 
 		rightMotors.getSlotConfigs(configs, 0, Constants.CAN_TIMEOUT);
 		rightMotionProfilePID = new PIDConstants(configs.kF, configs.kP, configs.kI, configs.kD);
 		Log.info("SRXTankDrive", "Right MP: " + rightMotionProfilePID);
 
-		// rightMotors.getSlotConfigs(configs, 1, Constants.CAN_TIMEOUT);
-		// rightVelocityPID = new PIDConstants(configs.kF, configs.kP, configs.kI,
-		// configs.kD);
-		// Log.info("SRXTankDrive", "Right V: " + rightVelocityPID);
+		rightMotors.getSlotConfigs(configs, CmdRamseteRouteDrive.VELOCITY_SLOT, Constants.CAN_TIMEOUT);
+		rightVelocityPID = new PIDConstants(configs.kF, configs.kP, configs.kI, configs.kD);
+		Log.info("SRXTankDrive", "Right V: " + rightVelocityPID);
 	}
 
 	public void setPID() {
@@ -424,15 +470,23 @@ public class SRXTankDrive implements ITankDrive {
 		rightMotors.config_kI(0, rightMotionProfilePID.kI);
 		rightMotors.config_kD(0, rightMotionProfilePID.kD);
 
-		// leftMotors.config_kF(1, leftVelocityPID.kF);
-		// leftMotors.config_kP(1, leftVelocityPID.kP);
-		// leftMotors.config_kI(1, leftVelocityPID.kI);
-		// leftMotors.config_kD(1, leftVelocityPID.kD);
+		leftMotors.config_kF(CmdRamseteRouteDrive.VELOCITY_SLOT, leftVelocityPID.kF);
+		leftMotors.config_kP(CmdRamseteRouteDrive.VELOCITY_SLOT, leftVelocityPID.kP);
+		leftMotors.config_kI(CmdRamseteRouteDrive.VELOCITY_SLOT, leftVelocityPID.kI);
+		leftMotors.config_kD(CmdRamseteRouteDrive.VELOCITY_SLOT, leftVelocityPID.kD);
 
-		// rightMotors.config_kF(1, rightVelocityPID.kF);
-		// rightMotors.config_kP(1, rightVelocityPID.kP);
-		// rightMotors.config_kI(1, rightVelocityPID.kI);
-		// rightMotors.config_kD(1, rightVelocityPID.kD);
+		rightMotors.config_kF(CmdRamseteRouteDrive.VELOCITY_SLOT, rightVelocityPID.kF);
+		rightMotors.config_kP(CmdRamseteRouteDrive.VELOCITY_SLOT, rightVelocityPID.kP);
+		rightMotors.config_kI(CmdRamseteRouteDrive.VELOCITY_SLOT, rightVelocityPID.kI);
+		rightMotors.config_kD(CmdRamseteRouteDrive.VELOCITY_SLOT, rightVelocityPID.kD);
+	}
+
+	/**
+	 * @return Whether both sides have a feed-forward or proportional gain for the velocity loop, without which
+	 * the Talons won't drive in velocity mode.
+	 */
+	public boolean hasVelocityPID() {
+		return (leftVelocityPID.kF != 0 || leftVelocityPID.kP != 0) && (rightVelocityPID.kF != 0 || rightVelocityPID.kP != 0);
 	}
 
 	/**
@@ -521,6 +575,8 @@ public class SRXTankDrive implements ITankDrive {
 
 		boolean useScalars;
 
+		boolean calibratedFeedForward;
+
 		/**
 		 * @param endMode    - The MoveEndMode for this command.
 		 * @param leftAngle  - Degrees to rotate the left wheel
@@ -586,6 +642,23 @@ public class SRXTankDrive implements ITankDrive {
 				leftSpeed *= Math.abs(leftAngle / rightAngle);
 			}
 
+			// the calibration table replaces the fixed feed-forward with the one measured at this move's angular velocity
+			calibratedFeedForward = calibration.hasFeedForwardMultipliers();
+			if (calibratedFeedForward) {
+				double leftVelocity = Math.signum(leftAngle) * leftSpeed;
+				double rightVelocity = Math.signum(rightAngle) * rightSpeed;
+				double angularVelocity = Math.toDegrees(Convert.velocityCTREtoCMS(rightVelocity - leftVelocity, wheelCircumfrence) / wheelBase);
+
+				double voltageCompensation = 12.0 / RobotController.getBatteryVoltage();
+				double leftKF = 1023 * calibration.getLeftMultiplier(angularVelocity, 0) * voltageCompensation;
+				double rightKF = 1023 * calibration.getRightMultiplier(angularVelocity, 0) * voltageCompensation;
+
+				leftMotors.config_kF(0, leftKF);
+				rightMotors.config_kF(0, rightKF);
+
+				Log.debug("CmdMotionMagicMove", "Calibrated feed-forward at " + angularVelocity + " deg/s: L=" + leftKF + ", R=" + rightKF);
+			}
+
 			ControlMode leftMode = ControlMode.MotionMagic;
 			ControlMode rightMode = ControlMode.MotionMagic;
 
@@ -681,6 +754,7 @@ public class SRXTankDrive implements ITankDrive {
 					"Final Errors:\n" + "  L=" + leftError + "deg\n" + "  R=" + rightError + "deg");
 
 			stopMovement();
+			restoreFeedForward();
 		}
 
 		// Called when another command which requires one or more of the same
@@ -689,6 +763,19 @@ public class SRXTankDrive implements ITankDrive {
 			Log.info("CmdMotionMagicMove", "Interrupted.");
 
 			stopMovement();
+			restoreFeedForward();
+		}
+
+		/**
+		 * Put back the feed-forward that was configured before the move, for the other commands which use slot 0.
+		 */
+		private void restoreFeedForward() {
+			if (calibratedFeedForward) {
+				leftMotors.config_kF(0, leftMotionProfilePID.kF);
+				rightMotors.config_kF(0, rightMotionProfilePID.kF);
+
+				calibratedFeedForward = false;
+			}
 		}
 	}
 
@@ -728,9 +815,13 @@ public class SRXTankDrive implements ITankDrive {
 		public CmdArcTurn(double radius, double angle, Direction dir, double power, int timeoutMs) {
 			super(MoveEndMode.BOTH, 0, 0, power, false, timeoutMs);
 
+			// the outer wheel goes at full power
+			double outerVelocity = Convert.velocityCTREtoCMS(robotMaxSpeed * power, wheelCircumfrence);
+			double effectiveWheelBase = getEffectiveWheelBase(Math.toDegrees(outerVelocity / (radius + 0.5 * wheelBase)));
+
 			// this formula is explained on the info repository wiki
-			double innerAngularDist = cmToEncDegrees((angle * Math.PI / 180.0) * (radius - 0.5 * wheelBase));
-			double outerAngularDist = cmToEncDegrees((angle * Math.PI / 180.0) * (radius + 0.5 * wheelBase));
+			double innerAngularDist = cmToEncDegrees((angle * Math.PI / 180.0) * (radius - 0.5 * effectiveWheelBase));
+			double outerAngularDist = cmToEncDegrees((angle * Math.PI / 180.0) * (radius + 0.5 * effectiveWheelBase));
 
 			if (dir == Direction.RIGHT) {
 				rightAngle = innerAngularDist;
@@ -760,8 +851,11 @@ public class SRXTankDrive implements ITankDrive {
 			// them until after the super constructor
 			super(MoveEndMode.BOTH, 0, 0, power, false, timeoutMs);
 
+			double wheelVelocity = Convert.velocityCTREtoCMS(robotMaxSpeed * power, wheelCircumfrence);
+			double effectiveWheelBase = getEffectiveWheelBase(Math.toDegrees(2 * wheelVelocity / wheelBase));
+
 			// this formula is explained in the info repository wiki
-			double wheelAngularDist = cmToEncDegrees((Math.PI * wheelBase) * (angle / 360.0));
+			double wheelAngularDist = cmToEncDegrees((Math.PI * effectiveWheelBase) * (angle / 360.0));
 
 			if (dir == Direction.RIGHT) {
 				leftAngle = wheelAngularDist;
@@ -820,28 +914,44 @@ public class SRXTankDrive implements ITankDrive {
 		}
 	}
 
+	/**
+	 * Command to follow a route through the given waypoints using the TalonSRX motion profile mode.
+	 *
+	 * The route is generated (or fetched from the {@link Routemaker} cache) when the command is
+	 * constructed, so construct it while setting up the autonomous programs.
+	 */
 	public class CmdStaticRouteDrive extends CmdMotionProfileMove {
-		private MotionProfileStatus leftStatus, rightStatus;
-		private Waypoint[] waypoints;
-		private double power;
+		/**
+		 * The number of points to keep queued in each Talon ahead of the one being executed.
+		 */
+		public static final int DEFAULT_LOOKAHEAD = 25;
+
+		private PrecomputedRoute route;
 
-		private Notifier processNotifier;
+		private MotionProfileStreamer leftStreamer, rightStreamer;
 
 		public CmdStaticRouteDrive(double power, double timeoutMs, Waypoint... waypoints) {
-			super(timeoutMs);
+			this(power, timeoutMs, DEFAULT_LOOKAHEAD, waypoints);
+		}
 
-			this.power = power;
-			this.waypoints = waypoints;
+		public CmdStaticRouteDrive(double power, double timeoutMs, int lookahead, Waypoint... waypoints) {
+			this(Routemaker.getPrecomputedRoute(power, waypoints), timeoutMs, lookahead);
+		}
 
-			leftStatus = new MotionProfileStatus();
-			leftStatus.isLast = false;
-			rightStatus = new MotionProfileStatus();
-			rightStatus.isLast = false;
+		/**
+		 * Follows a route generated some other way, such as by a {@link TrajectoryGenerator}.
+		 */
+		public CmdStaticRouteDrive(PrecomputedRoute route, double timeoutMs) {
+			this(route, timeoutMs, DEFAULT_LOOKAHEAD);
+		}
 
-			processNotifier = new Notifier(() -> {
-				leftMotors.processMotionProfileBuffer();
-				rightMotors.processMotionProfileBuffer();
-			});
+		public CmdStaticRouteDrive(PrecomputedRoute route, double timeoutMs, int lookahead) {
+			super(timeoutMs);
+
+			this.route = route;
+
+			leftStreamer = new MotionProfileStreamer(leftMotors, lookahead);
+			rightStreamer = new MotionProfileStreamer(rightMotors, lookahead);
 		}
 
 		@Override
@@ -854,91 +964,204 @@ public class SRXTankDrive implements ITankDrive {
 			leftMotors.changeMotionControlFramePeriod((int) (Routemaker.durationMs / 2.3));
 			rightMotors.changeMotionControlFramePeriod((int) (Routemaker.durationMs / 2.3));
 
-			Routemaker rm = new Routemaker(power, waypoints);
+			// the route's distances are measured from its start, where the encoders were just zeroed
+			leftStreamer.load(route.getLength(), (index, point) -> {
+				point.profileSlotSelect0 = 0;
+				point.timeDur = route.getDurationMs(index);
+				point.position = route.getLeftDistance(index);
+				point.velocity = route.getLeftSpeed(index);
+			});
+			rightStreamer.load(route.getLength(), (index, point) -> {
+				point.profileSlotSelect0 = 0;
+				point.timeDur = route.getDurationMs(index);
+				point.position = route.getRightDistance(index);
+				point.velocity = route.getRightSpeed(index);
+			});
 
-			double speed;
+			leftStreamer.start(Routemaker.durationSec);
+			rightStreamer.start(Routemaker.durationSec);
+		}
 
-			TrajectoryPoint trajPoint = new TrajectoryPoint();
-			trajPoint.profileSlotSelect0 = 0;
-			trajPoint.zeroPos = true;
-			trajPoint.isLastPoint = false;
+		@Override
+		protected synchronized boolean isFinished() {
+			if (super.isFinished()) {
+				Log.info("CmdStaticRouteDrive", "Timed out.");
+			}
 
-			ProfilePoint profilePoint;
+			return super.isFinished() /* || leftStreamer.isFinished() && rightStreamer.isFinished() */;
+		}
 
-			boolean first = true;
+		@Override
+		public void interrupted() {
+			end();
 
-			do {
-				speed = 1.0;
-				if (rm.s < 0.2) {
-					speed = (0.1 + rm.s) / 0.3;
-				} else if (rm.s > 0.8) {
-					speed = (1.1 - rm.s) / 0.7;
-				}
+			Log.info("CmdStaticRouteDrive", "Interrupted.");
 
-				profilePoint = rm.getNextPoint(speed);
-				// System.out.println(profilePoint.x + "," + profilePoint.y + " (" +
-				// profilePoint.durationMs + ")");
-				System.out.println(profilePoint.leftDistance + "," + profilePoint.rightDistance);
+		}
 
-				SmartDashboard.putNumber("Desired Left", profilePoint.leftDistance);
-				SmartDashboard.putNumber("Desired Right", profilePoint.rightDistance);
+		@Override
+		protected synchronized void end() {
+			leftStreamer.stop();
+			rightStreamer.stop();
 
-				if (profilePoint.last)
-					trajPoint.isLastPoint = true;
+			super.end();
 
-				trajPoint.timeDur = profilePoint.durationMs;
+			Log.info("CmdStaticRouteDrive", "Finished. Underruns: " + leftStreamer.getUnderrunCount() + " left, " + rightStreamer.getUnderrunCount()
+					+ " right. Peak buffer occupancy: " + leftStreamer.getPeakOccupancy() + " left, " + rightStreamer.getPeakOccupancy() + " right.");
+		}
+	}
+
+	/**
+	 * Command to follow a route in closed loop with a {@link RamseteFollower}, using the {@link Odometer}'s pose
+	 * and the Talons' velocity loops.
+	 *
+	 * The route is placed so that it starts wherever the robot is when the command starts. The follower runs on
+	 * the {@link ControlScheduler} every {@link ControlScheduler#BASE_PERIOD}, independent of the main loop, so the
+	 * odometer should be updating in the background at a similar rate. The velocity loop gains go in profile slot
+	 * {@link #VELOCITY_SLOT} of each Talon, and the command won't drive without them.
+	 *
+	 * The route's time is {@link #timeSinceInitialized()}, so that the route follows the virtual clock when the
+	 * autonomous program is replayed in simulation.
+	 */
+	public class CmdRamseteRouteDrive extends Command {
+		public static final int VELOCITY_SLOT = 1;
 
-				trajPoint.position = profilePoint.leftDistance;
-				trajPoint.velocity = profilePoint.leftSpeed;
-				leftMotors.pushMotionProfileTrajectory(trajPoint);
+		private final PrecomputedRoute route;
+		private final RamseteFollower follower;
+		private final Odometer odometer;
 
-				// System.out.println("left: " + trajPoint.position);
+		private ControlScheduler.Task task;
 
-				trajPoint.position = profilePoint.rightDistance;
-				trajPoint.velocity = profilePoint.rightSpeed;
-				rightMotors.pushMotionProfileTrajectory(trajPoint);
+		// where the robot started, and the rotation from the odometer's frame into the route's
+		private double startX, startY, startAngle;
+		private double rotationCos, rotationSin;
 
-				// System.out.println("right: " + trajPoint.position);
-				// System.out.println("");
+		private volatile boolean finished;
 
-				if (first) {
-					processNotifier.startPeriodic(Routemaker.durationSec / 2);
+		// set once the motors have been stopped, after which the follower must not drive them again
+		private volatile boolean stopped;
+		private final Object outputLock = new Object();
 
-					leftMotors.set(ControlMode.MotionProfile, 1);
-					rightMotors.set(ControlMode.MotionProfile, 1);
+		public CmdRamseteRouteDrive(PrecomputedRoute route, double timeoutMs) {
+			this(route, new RamseteFollower(route, wheelBase, wheelCircumfrence), timeoutMs);
+		}
 
-					first = false;
-				}
+		/**
+		 * @param follower - A follower for the route, for using gains other than the defaults.
+		 */
+		public CmdRamseteRouteDrive(PrecomputedRoute route, RamseteFollower follower, double timeoutMs) {
+			super(timeoutMs / 1000.0);
 
-			} while (!profilePoint.last);
+			this.route = route;
+			this.follower = follower;
+			odometer = Odometer.getInstance();
 		}
 
 		@Override
-		protected synchronized boolean isFinished() {
-			leftMotors.getMotionProfileStatus(leftStatus);
-			rightMotors.getMotionProfileStatus(rightStatus);
+		protected void initialize() {
+			configureDriveMode(DriveMode.AUTONOMOUS);
 
-			if (super.isFinished()) {
-				Log.info("CmdStaticRouteDrive", "Timed out.");
+			task = null;
+			if (!hasVelocityPID()) {
+				Log.recoverable("CmdRamseteRouteDrive", "No velocity gains in profile slot " + VELOCITY_SLOT + ", not following the route.");
+
+				stopped = true;
+				finished = true;
+				return;
 			}
 
-			return super.isFinished() /* || leftStatus.isLast && rightStatus.isLast */;
+			leftMotors.selectProfileSlot(VELOCITY_SLOT, 0);
+			rightMotors.selectProfileSlot(VELOCITY_SLOT, 0);
+
+			Pose start = odometer.getPose();
+			startX = start.x;
+			startY = start.y;
+			startAngle = start.angle;
+
+			double rotation = route.getHeading(0) - startAngle;
+			rotationCos = RobotMath.cos(rotation);
+			rotationSin = RobotMath.sin(rotation);
+
+			follower.reset();
+			finished = false;
+			stopped = false;
+
+			task = ControlScheduler.getInstance().schedule("CmdRamseteRouteDrive", 1, this::followStep);
+		}
+
+		void followStep() {
+			if (stopped) {
+				return;
+			}
+
+			// outside of outputLock, since this waits for the command's lock, which end() is called with
+			double time = timeSinceInitialized();
+			Pose pose = odometer.getPose();
+
+			// move the measured pose into the route's frame
+			double dx = pose.x - startX;
+			double dy = pose.y - startY;
+
+			follower.update(
+				route.getX(0) + rotationCos * dx - rotationSin * dy,
+				route.getY(0) + rotationSin * dx + rotationCos * dy,
+				route.getHeading(0) + pose.angle - startAngle,
+				time
+			);
+
+			boolean routeFinished = follower.isFinished(time);
+
+			synchronized (outputLock) {
+				if (stopped) {
+					return;
+				}
+
+				if (routeFinished) {
+					// hold still until the command ends, rather than keep the last tick's correction
+					leftMotors.set(ControlMode.Velocity, 0);
+					rightMotors.set(ControlMode.Velocity, 0);
+
+					stopped = true;
+				} else {
+					leftMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getLeftVelocity(), wheelCircumfrence));
+					rightMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getRightVelocity(), wheelCircumfrence));
+				}
+			}
+
+			finished = routeFinished;
 		}
 
 		@Override
-		public void interrupted() {
-			end();
+		protected boolean isFinished() {
+			if (isTimedOut()) {
+				Log.info("CmdRamseteRouteDrive", "Timed out.");
+			}
 
-			Log.info("CmdStaticRouteDrive", "Interrupted.");
+			return finished || isTimedOut();
+		}
+
+		@Override
+		protected void end() {
+			// the scheduler may be in the middle of a tick, so make sure that it can't drive the motors after they're stopped
+			synchronized (outputLock) {
+				stopped = true;
+				tankDrive(0, 0);
+			}
+
+			if (task == null) {
+				return;
+			}
+			task.cancel();
 
+			Log.info("CmdRamseteRouteDrive", String.format("Finished. Cross-track error: %.1f cm RMS, %.1f cm max, %.1f cm at the end. Along-track error at the end: %.1f cm.",
+					follower.getRMSCrossTrackError(), follower.getMaxCrossTrackError(), follower.getCrossTrackError(), follower.getAlongTrackError()));
 		}
 
 		@Override
-		protected synchronized void end() {
-			super.end();
+		protected void interrupted() {
+			end();
 
-			processNotifier.close();
-			Log.info("CmdStaticRouteDrive", "Finished.");
+			Log.info("CmdRamseteRouteDrive", "Interrupted.");
 		}
 	}
 
@@ -999,7 +1222,7 @@ public class SRXTankDrive implements ITankDrive {
 
 		PIDConstants innerPID, outerPID;
 
-		private TalonSRX outerMotors, innerMotors;
+		private ISmartMotorController outerMotors, innerMotors;
 
 		private double vOuterCruise;
 		private double wCruise;
@@ -1452,6 +1675,11 @@ public class SRXTankDrive implements ITankDrive {
 			"\t\tRight Velocity: " + avgVR
 			);
 			wheelbaseSet.setAverage(avgWheelbase, avgRadius, avgAngularVelocity, avgLinearVelocity, avgVL, avgVR);
+
+			if (inRangeCount > 0) {
+				calibration.addWheelbase(Math.toDegrees(avgAngularVelocity), avgWheelbase);
+				saveCalibration();
+			}
 		}
 	}
 	
@@ -1639,6 +1867,11 @@ public class SRXTankDrive implements ITankDrive {
 			);
 			
 			feedForwardPowerMultiplierSet.setAverage(angularVelocitySum/inRangeCount, ffpmLSum/inRangeCount, ffpmRSum/inRangeCount);
+
+			if (inRangeCount > 0) {
+				calibration.addFeedForwardMultipliers(avgAngularVelocity, ffpmLAvg, ffpmRAvg);
+				saveCalibration();
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,530 @@
+package org.team3128.common.drive;
+
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Extended Kalman filter which fuses the drive encoders, gyro, Limelight, and an ultrasonic sensor into one estimate
+ * of where the robot is and where a vision target is relative to it.
+ *
+ * The state is the robot's x, y, and heading, plus the x and y of the target on the field. The encoders and gyro
+ * move the robot forward in time ({@link #predict(double, double, double)}), while the Limelight's range and bearing
+ * to the target ({@link #addVisionMeasurement(double, double, double)}) and the ultrasonic's distance straight ahead
+ * ({@link #addRangeMeasurement(double, double)}) correct it. Each sensor has its own noise in the {@link NoiseModel},
+ * and every estimate comes with its covariance.
+ *
+ * Vision measurements are timestamped with their capture time. The filter remembers where it thought the robot
+ * was over the last moments, so a delayed measurement is compared against the pose the robot had when it was taken.
+ *
+ * Updates use fixed-size arrays allocated up front and never allocate, so they can run at the control rate.
+ * Distances are in centimeters and angles in degrees, counterclockwise positive as with the {@link Pose}.
+ *
+ * @author Narwhal
+ *
+ */
+public class StateEstimator {
+	/**
+	 * Indices of each value in the state and covariance.
+	 */
+	public static final int X = 0, Y = 1, HEADING = 2, TARGET_X = 3, TARGET_Y = 4;
+
+	private static final int STATE_SIZE = 5;
+
+	/**
+	 * How many past poses are remembered to match delayed measurements against. At 200 Hz, this is 0.64 seconds.
+	 */
+	private static final int HISTORY_LENGTH = 128;
+
+	/**
+	 * Measurements further than this many standard deviations from the estimate are thrown out as outliers.
+	 */
+	private static final double OUTLIER_THRESHOLD = 4;
+
+	private static final double DEGREES_PER_RADIAN = 180 / Math.PI;
+
+	/**
+	 * The standard deviation of each sensor's error.
+	 */
+	public static class NoiseModel {
+		/**
+		 * Error in the distance driven, as a fraction of that distance.
+		 */
+		public double encoderFraction = .02;
+
+		/**
+		 * Error in the gyro's change in heading, as a fraction of that change, in addition to its drift.
+		 */
+		public double gyroFraction = .01;
+
+		/**
+		 * Gyro drift, in degrees per second.
+		 */
+		public double gyroDrift = .05;
+
+		/**
+		 * Error in the Limelight's bearing to the target, in degrees.
+		 */
+		public double visionBearing = 1;
+
+		/**
+		 * Error in the Limelight's range to the target, as a fraction of that range.
+		 */
+		public double visionRangeFraction = .05;
+
+		/**
+		 * Error in the ultrasonic's distance, in centimeters.
+		 */
+		public double ultrasonic = 2;
+	}
+
+	private final NoiseModel noise;
+
+	// state and covariance
+	private final double[] state = new double[STATE_SIZE];
+	private final double[][] covariance = new double[STATE_SIZE][STATE_SIZE];
+
+	private boolean targetInitialized = false;
+	private long rejectedMeasurements = 0;
+
+	// last sensor readings, to work out how far the robot moved
+	private double lastEncoderDistance, lastGyroHeading, lastTimestamp;
+	private boolean hasSensorBaseline = false;
+
+	// past robot poses, as a ring buffer
+	private final double[] historyTime = new double[HISTORY_LENGTH];
+	private final double[] historyX = new double[HISTORY_LENGTH];
+	private final double[] historyY = new double[HISTORY_LENGTH];
+	private final double[] historyHeading = new double[HISTORY_LENGTH];
+	private int historyCount = 0;
+	private int historyNewest = -1;
+
+	// scratch space for the filter math
+	private final double[][] scratch = new double[STATE_SIZE][STATE_SIZE];
+	private final double[] jacobian = new double[STATE_SIZE];
+	private final double[] covarianceTimesJacobian = new double[STATE_SIZE];
+	private final double[] pastPose = new double[3];
+
+	public StateEstimator(NoiseModel noise) {
+		this.noise = noise;
+	}
+
+	public StateEstimator() {
+		this(new NoiseModel());
+	}
+
+	/**
+	 * Start estimating from a known pose, forgetting the target.
+	 *
+	 * @param heading - The robot heading, in degrees.
+	 * @param timestamp - The FPGA time, in seconds.
+	 */
+	public synchronized void reset(double x, double y, double heading, double timestamp) {
+		state[X] = x;
+		state[Y] = y;
+		state[HEADING] = heading;
+		state[TARGET_X] = 0;
+		state[TARGET_Y] = 0;
+
+		for (int row = 0; row < STATE_SIZE; row++) {
+			for (int col = 0; col < STATE_SIZE; col++) {
+				covariance[row][col] = 0;
+			}
+		}
+
+		targetInitialized = false;
+		hasSensorBaseline = false;
+		historyCount = 0;
+		historyNewest = -1;
+		lastTimestamp = timestamp;
+
+		recordHistory(timestamp);
+	}
+
+	/**
+	 * Forget the target, such as when switching to a different one.
+	 */
+	public synchronized void clearTarget() {
+		targetInitialized = false;
+
+		for (int index = 0; index < STATE_SIZE; index++) {
+			covariance[TARGET_X][index] = covariance[index][TARGET_X] = 0;
+			covariance[TARGET_Y][index] = covariance[index][TARGET_Y] = 0;
+		}
+	}
+
+	/**
+	 * Move the estimate forward using the drive encoders and the gyro. Should be called at the control rate.
+	 *
+	 * @param encoderDistance - The total distance driven according to the encoders (the average of both sides), in centimeters.
+	 * @param gyroHeading - The gyro heading, in degrees.
+	 * @param timestamp - The FPGA time the readings were taken, in seconds.
+	 */
+	public synchronized void predict(double encoderDistance, double gyroHeading, double timestamp) {
+		if (!hasSensorBaseline) {
+			lastEncoderDistance = encoderDistance;
+			lastGyroHeading = gyroHeading;
+			lastTimestamp = timestamp;
+			hasSensorBaseline = true;
+
+			return;
+		}
+
+		double distance = encoderDistance - lastEncoderDistance;
+		double headingChange = gyroHeading - lastGyroHeading;
+		double dt = Math.max(0, timestamp - lastTimestamp);
+
+		lastEncoderDistance = encoderDistance;
+		lastGyroHeading = gyroHeading;
+		lastTimestamp = timestamp;
+
+		// drive along the chord at the average heading, as the Odometer does
+		double heading = state[HEADING] + headingChange / 2;
+		double cos = RobotMath.cos(heading);
+		double sin = RobotMath.sin(heading);
+
+		state[X] += distance * cos;
+		state[Y] += distance * sin;
+		state[HEADING] += headingChange;
+
+		// P = F P F^T, where F is the identity except for how x and y depend on the heading.
+		// Only the x and y rows and columns change, so apply F to the rows then the columns.
+		double dXdHeading = -distance * sin / DEGREES_PER_RADIAN;
+		double dYdHeading = distance * cos / DEGREES_PER_RADIAN;
+
+		for (int col = 0; col < STATE_SIZE; col++) {
+			covariance[X][col] += dXdHeading * covariance[HEADING][col];
+			covariance[Y][col] += dYdHeading * covariance[HEADING][col];
+		}
+		for (int row = 0; row < STATE_SIZE; row++) {
+			covariance[row][X] += dXdHeading * covariance[row][HEADING];
+			covariance[row][Y] += dYdHeading * covariance[row][HEADING];
+		}
+
+		// process noise: distance error is along the direction of travel
+		double distanceVariance = RobotMath.square(noise.encoderFraction * distance);
+		covariance[X][X] += distanceVariance * cos * cos;
+		covariance[X][Y] += distanceVariance * cos * sin;
+		covariance[Y][X] += distanceVariance * cos * sin;
+		covariance[Y][Y] += distanceVariance * sin * sin;
+		covariance[HEADING][HEADING] += RobotMath.square(noise.gyroFraction * headingChange) + RobotMath.square(noise.gyroDrift * dt);
+
+		recordHistory(timestamp);
+	}
+
+	/**
+	 * Correct the estimate with the Limelight's view of the target.
+	 *
+	 * @param horizontalOffset - The target's horizontal offset (tx), in degrees. Positive is to the right.
+	 * @param range - The straight-line distance to the target along the ground, in centimeters, not just the distance
+	 * straight ahead of the camera.
+	 * @param captureTime - The FPGA time the image was captured, in seconds.
+	 * @return false if the measurement was rejected as an outlier.
+	 */
+	public synchronized boolean addVisionMeasurement(double horizontalOffset, double range, double captureTime) {
+		getPastPose(captureTime);
+
+		// the estimate's pose has moved this much since the image was captured
+		double movedX = state[X] - pastPose[0];
+		double movedY = state[Y] - pastPose[1];
+		double movedHeading = state[HEADING] - pastPose[2];
+
+		double bearing = -horizontalOffset;
+
+		if (!targetInitialized) {
+			initializeTarget(pastPose[0], pastPose[1], pastPose[2], bearing, range);
+			return true;
+		}
+
+		double dx = state[TARGET_X] - (state[X] - movedX);
+		double dy = state[TARGET_Y] - (state[Y] - movedY);
+		double predictedRange = Math.sqrt(dx * dx + dy * dy);
+
+		if (predictedRange < 1) {
+			return false;
+		}
+
+		// range
+		clearJacobian();
+		jacobian[X] = -dx / predictedRange;
+		jacobian[Y] = -dy / predictedRange;
+		jacobian[TARGET_X] = dx / predictedRange;
+		jacobian[TARGET_Y] = dy / predictedRange;
+
+		boolean accepted = scalarUpdate(range - predictedRange, RobotMath.square(noise.visionRangeFraction * range));
+
+		// bearing, recomputed since the range update moved the state
+		dx = state[TARGET_X] - (state[X] - movedX);
+		dy = state[TARGET_Y] - (state[Y] - movedY);
+		double rangeSquared = dx * dx + dy * dy;
+
+		double predictedBearing = RobotMath.atan2(dx, dy) - (state[HEADING] - movedHeading);
+
+		clearJacobian();
+		jacobian[X] = dy / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[Y] = -dx / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[HEADING] = -1;
+		jacobian[TARGET_X] = -dy / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[TARGET_Y] = dx / rangeSquared * DEGREES_PER_RADIAN;
+
+		accepted &= scalarUpdate(RobotMath.angleDistance(predictedBearing, bearing, true), RobotMath.square(noise.visionBearing));
+
+		return accepted;
+	}
+
+	/**
+	 * Correct the estimate with an ultrasonic sensor pointing straight ahead at the target's wall.
+	 *
+	 * @param range - The measured distance, in centimeters.
+	 * @param timestamp - The FPGA time of the measurement, in seconds.
+	 * @return false if the measurement was rejected, or if there is no target to measure against.
+	 */
+	public synchronized boolean addRangeMeasurement(double range, double timestamp) {
+		if (!targetInitialized) {
+			return false;
+		}
+
+		getPastPose(timestamp);
+
+		double dx = state[TARGET_X] - pastPose[0];
+		double dy = state[TARGET_Y] - pastPose[1];
+		double cos = RobotMath.cos(pastPose[2]);
+		double sin = RobotMath.sin(pastPose[2]);
+
+		// the distance to the target along the robot's heading
+		double predictedRange = dx * cos + dy * sin;
+
+		clearJacobian();
+		jacobian[X] = -cos;
+		jacobian[Y] = -sin;
+		jacobian[HEADING] = (-dx * sin + dy * cos) / DEGREES_PER_RADIAN;
+		jacobian[TARGET_X] = cos;
+		jacobian[TARGET_Y] = sin;
+
+		return scalarUpdate(range - predictedRange, RobotMath.square(noise.ultrasonic));
+	}
+
+	private void initializeTarget(double x, double y, double heading, double bearing, double range) {
+		double direction = heading + bearing;
+		double cos = RobotMath.cos(direction);
+		double sin = RobotMath.sin(direction);
+
+		state[TARGET_X] = x + range * cos;
+		state[TARGET_Y] = y + range * sin;
+
+		// the target is placed relative to the robot, so it starts out with the robot's position error,
+		// plus the measurement's error along and across the line of sight
+		double rangeVariance = RobotMath.square(noise.visionRangeFraction * range);
+		double crossVariance = RobotMath.square(range * noise.visionBearing / DEGREES_PER_RADIAN);
+
+		for (int index = 0; index < STATE_SIZE; index++) {
+			covariance[TARGET_X][index] = covariance[index][TARGET_X] = index < TARGET_X ? covariance[X][index] : 0;
+			covariance[TARGET_Y][index] = covariance[index][TARGET_Y] = index < TARGET_X ? covariance[Y][index] : 0;
+		}
+
+		covariance[TARGET_X][TARGET_X] = covariance[X][X] + rangeVariance * cos * cos + crossVariance * sin * sin;
+		covariance[TARGET_Y][TARGET_Y] = covariance[Y][Y] + rangeVariance * sin * sin + crossVariance * cos * cos;
+		covariance[TARGET_X][TARGET_Y] = covariance[TARGET_Y][TARGET_X] = covariance[X][Y] + (rangeVariance - crossVariance) * cos * sin;
+
+		targetInitialized = true;
+	}
+
+	private void clearJacobian() {
+		for (int index = 0; index < STATE_SIZE; index++) {
+			jacobian[index] = 0;
+		}
+	}
+
+	/**
+	 * Kalman update with one scalar measurement, using the current contents of {@link #jacobian}.
+	 *
+	 * @param innovation - The measurement minus its predicted value.
+	 * @param variance - The measurement's noise variance.
+	 * @return false if the measurement was thrown out as an outlier.
+	 */
+	private boolean scalarUpdate(double innovation, double variance) {
+		// PH^T and S = HPH^T + R
+		double innovationVariance = variance;
+		for (int row = 0; row < STATE_SIZE; row++) {
+			double sum = 0;
+			for (int col = 0; col < STATE_SIZE; col++) {
+				sum += covariance[row][col] * jacobian[col];
+			}
+			covarianceTimesJacobian[row] = sum;
+			innovationVariance += jacobian[row] * sum;
+		}
+
+		if (innovationVariance <= 0 || innovation * innovation > RobotMath.square(OUTLIER_THRESHOLD) * innovationVariance) {
+			rejectedMeasurements++;
+			return false;
+		}
+
+		// x += K * innovation, where K = PH^T / S
+		for (int index = 0; index < STATE_SIZE; index++) {
+			state[index] += covarianceTimesJacobian[index] / innovationVariance * innovation;
+		}
+
+		// P -= K H P = PH^T (PH^T)^T / S, since P is symmetric
+		for (int row = 0; row < STATE_SIZE; row++) {
+			for (int col = 0; col < STATE_SIZE; col++) {
+				scratch[row][col] = covarianceTimesJacobian[row] * covarianceTimesJacobian[col] / innovationVariance;
+			}
+		}
+		for (int row = 0; row < STATE_SIZE; row++) {
+			for (int col = 0; col < STATE_SIZE; col++) {
+				covariance[row][col] -= scratch[row][col];
+			}
+		}
+
+		return true;
+	}
+
+	private void recordHistory(double timestamp) {
+		historyNewest = (historyNewest + 1) % HISTORY_LENGTH;
+		historyTime[historyNewest] = timestamp;
+		historyX[historyNewest] = state[X];
+		historyY[historyNewest] = state[Y];
+		historyHeading[historyNewest] = state[HEADING];
+
+		if (historyCount < HISTORY_LENGTH) {
+			historyCount++;
+		}
+	}
+
+	/**
+	 * Fill in {@link #pastPose} with the estimated pose at the given time, interpolating between remembered poses.
+	 * Times newer than the latest update use the current pose, and times older than the history use the oldest one.
+	 */
+	private void getPastPose(double timestamp) {
+		int later = historyNewest;
+
+		if (historyCount == 0 || timestamp >= historyTime[later]) {
+			pastPose[0] = state[X];
+			pastPose[1] = state[Y];
+			pastPose[2] = state[HEADING];
+
+			return;
+		}
+
+		for (int age = 1; age < historyCount; age++) {
+			int earlier = (historyNewest - age + HISTORY_LENGTH) % HISTORY_LENGTH;
+
+			if (historyTime[earlier] <= timestamp) {
+				double dt = historyTime[later] - historyTime[earlier];
+				double fraction = dt <= 0 ? 1 : (timestamp - historyTime[earlier]) / dt;
+
+				pastPose[0] = historyX[earlier] + fraction * (historyX[later] - historyX[earlier]);
+				pastPose[1] = historyY[earlier] + fraction * (historyY[later] - historyY[earlier]);
+				pastPose[2] = historyHeading[earlier] + fraction * (historyHeading[later] - historyHeading[earlier]);
+
+				return;
+			}
+
+			later = earlier;
+		}
+
+		pastPose[0] = historyX[later];
+		pastPose[1] = historyY[later];
+		pastPose[2] = historyHeading[later];
+	}
+
+	public synchronized double getX() {
+		return state[X];
+	}
+
+	public synchronized double getY() {
+		return state[Y];
+	}
+
+	public synchronized double getHeading() {
+		return state[HEADING];
+	}
+
+	/**
+	 * @return The filtered pose. Allocates, so prefer the individual getters in control loops.
+	 */
+	public synchronized Pose getPose() {
+		return new Pose(state[X], state[Y], state[HEADING], lastTimestamp);
+	}
+
+	/**
+	 * @return The covariance between two values of the state, using the index constants such as {@link #X}.
+	 */
+	public synchronized double getCovariance(int row, int col) {
+		return covariance[row][col];
+	}
+
+	public synchronized boolean hasTarget() {
+		return targetInitialized;
+	}
+
+	/**
+	 * @return The distance along the ground from the robot to the target, in centimeters.
+	 */
+	public synchronized double getTargetRange() {
+		double dx = state[TARGET_X] - state[X];
+		double dy = state[TARGET_Y] - state[Y];
+
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * @return The angle from the robot's heading to the target, in degrees, counterclockwise positive.
+	 * This is the negative of the Limelight's horizontal offset.
+	 */
+	public synchronized double getTargetBearing() {
+		return RobotMath.angleDistance(state[HEADING], RobotMath.atan2(state[TARGET_X] - state[X], state[TARGET_Y] - state[Y]), true);
+	}
+
+	/**
+	 * @return The variance of {@link #getTargetRange()}, in square centimeters.
+	 */
+	public synchronized double getTargetRangeVariance() {
+		double dx = state[TARGET_X] - state[X];
+		double dy = state[TARGET_Y] - state[Y];
+		double range = Math.sqrt(dx * dx + dy * dy);
+
+		clearJacobian();
+		jacobian[X] = -dx / range;
+		jacobian[Y] = -dy / range;
+		jacobian[TARGET_X] = dx / range;
+		jacobian[TARGET_Y] = dy / range;
+
+		return projectCovariance();
+	}
+
+	/**
+	 * @return The variance of {@link #getTargetBearing()}, in square degrees.
+	 */
+	public synchronized double getTargetBearingVariance() {
+		double dx = state[TARGET_X] - state[X];
+		double dy = state[TARGET_Y] - state[Y];
+		double rangeSquared = dx * dx + dy * dy;
+
+		clearJacobian();
+		jacobian[X] = dy / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[Y] = -dx / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[HEADING] = -1;
+		jacobian[TARGET_X] = -dy / rangeSquared * DEGREES_PER_RADIAN;
+		jacobian[TARGET_Y] = dx / rangeSquared * DEGREES_PER_RADIAN;
+
+		return projectCovariance();
+	}
+
+	// H P H^T for the current jacobian
+	private double projectCovariance() {
+		double variance = 0;
+		for (int row = 0; row < STATE_SIZE; row++) {
+			for (int col = 0; col < STATE_SIZE; col++) {
+				variance += jacobian[row] * covariance[row][col] * jacobian[col];
+			}
+		}
+
+		return variance;
+	}
+
+	/**
+	 * @return The number of measurements thrown out as outliers since the estimator was created.
+	 */
+	public synchronized long getRejectedMeasurementCount() {
+		return rejectedMeasurements;
+	}
+}
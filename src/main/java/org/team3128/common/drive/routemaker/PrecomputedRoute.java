@@ -0,0 +1,122 @@
+package org.team3128.common.drive.routemaker;
+
+import java.util.ArrayList;
+
+/**
+ * The entire sequence of {@link ProfilePoint}s for a route, generated ahead of time by the
+ * {@link Routemaker} and stored in primitive arrays so that following the route only requires
+ * indexing into them.
+ * 
+ * The wheel distances are cumulative: each one is how far that wheel has travelled from the start of the
+ * route to the point, in native units, which is the position the Talon motion profile mode expects.
+ * Every generator of routes has to fill them in this way.
+ * 
+ * @author Ronak
+ * 
+ */
+public class PrecomputedRoute {
+    private final int length;
+
+    private final double[] x, y;
+    private final double[] heading;
+    private final double[] leftDistance, rightDistance;
+    private final double[] leftSpeed, rightSpeed;
+    private final int[] durationMs;
+
+    PrecomputedRoute(ArrayList<ProfilePoint> points) {
+        length = points.size();
+
+        x = new double[length];
+        y = new double[length];
+        heading = new double[length];
+
+        leftDistance = new double[length];
+        rightDistance = new double[length];
+
+        leftSpeed = new double[length];
+        rightSpeed = new double[length];
+
+        durationMs = new int[length];
+
+        for (int i = 0; i < length; i++) {
+            ProfilePoint point = points.get(i);
+
+            x[i] = point.x;
+            y[i] = point.y;
+            heading[i] = point.heading;
+
+            leftDistance[i] = point.leftDistance;
+            rightDistance[i] = point.rightDistance;
+
+            leftSpeed[i] = point.leftSpeed;
+            rightSpeed[i] = point.rightSpeed;
+
+            durationMs[i] = point.durationMs;
+        }
+    }
+
+    /**
+     * @return The number of points in the route. The last one is at index length - 1.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public boolean isLast(int index) {
+        return index == length - 1;
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    /**
+     * @return The heading of the robot at the point, counterclockwise positive, in degrees.
+     */
+    public double getHeading(int index) {
+        return heading[index];
+    }
+
+    /**
+     * @return How far the left wheel has travelled from the start of the route to the point, in native units.
+     */
+    public double getLeftDistance(int index) {
+        return leftDistance[index];
+    }
+
+    /**
+     * @return How far the right wheel has travelled from the start of the route to the point, in native units.
+     */
+    public double getRightDistance(int index) {
+        return rightDistance[index];
+    }
+
+    public double getLeftSpeed(int index) {
+        return leftSpeed[index];
+    }
+
+    public double getRightSpeed(int index) {
+        return rightSpeed[index];
+    }
+
+    public int getDurationMs(int index) {
+        return durationMs[index];
+    }
+
+    /**
+     * @return The sum of the durations of every point, in milliseconds.
+     */
+    public int getTotalDurationMs() {
+        int total = 0;
+
+        for (int i = 0; i < length; i++) {
+            total += durationMs[i];
+        }
+
+        return total;
+    }
+}
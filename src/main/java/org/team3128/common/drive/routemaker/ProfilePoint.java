@@ -11,17 +11,21 @@ import com.ctre.phoenix.motion.TrajectoryPoint;
  */
 public class ProfilePoint {
     public double x, y;
+    public double heading;
     public boolean last;
     // public double x_r, y_r;
     // public double x_l, y_l;
+    // from the start of the route, in native units
     public double leftDistance, rightDistance;
     public double leftSpeed, rightSpeed;
     public int durationMs;
 
-    public ProfilePoint(double x, double y, boolean last, /* double x_l, double y_l, double x_r, double y_r,*/ double leftDistance, double rightDistance, double leftSpeed, double rightSpeed, int durationMs) {
+    public ProfilePoint(double x, double y, double heading, boolean last, /* double x_l, double y_l, double x_r, double y_r,*/ double leftDistance, double rightDistance, double leftSpeed, double rightSpeed, int durationMs) {
         this.x = x;
         this.y = y;
 
+        this.heading = heading;
+
         this.last = last;
 
         // this.x_l = x_l;
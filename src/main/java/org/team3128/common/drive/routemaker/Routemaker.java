@@ -1,5 +1,9 @@
 package org.team3128.common.drive.routemaker;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
 import org.team3128.common.drive.Odometer;
 import org.team3128.common.drive.SRXTankDrive;
 import org.team3128.common.util.Convert;
@@ -18,7 +22,8 @@ import org.team3128.common.util.units.Length;
  * In order to follow the route, something I'm calling Team 3128's <i>Proprietary, Brute-Force Route-
  * Following Algorithm</i> (or the <i>PBFRFA</i>, pronounced "P buff-ruff-a"). It essenitally iterate through
  * the generated parametric splines in certain increments of the parameter s, hereby known as <i>parametric
- * incrememnts</i>, or <i>parincs</i>.
+ * incrememnts</i>, or <i>parincs</i>. Each parinc is looked up from the spline's arc length table so that it
+ * covers the same distance along the spline, no matter how curved it is.
  * 
  * The PBFRFA uses some more math to figure out the farthest distance how far the robot can travel along
  * this path in a circular arc to arrive at another point on the route during the TrajectoryDuration
@@ -30,6 +35,11 @@ import org.team3128.common.util.units.Length;
  * PBFRFA generates a new spline with starting waypoint located at the estimated robot position calculated by
  * the {@link Odometer}, using that spline to produce the next {@link ProfilePoint}.
  * 
+ * Since the static PBFRFA doesn't depend on anything measured during the motion, entire routes can be
+ * generated ahead of time (e.g. while constructing the autonomous programs) with
+ * {@link #getPrecomputedRoute(double, Waypoint...)}, so that following them doesn't compete with the
+ * control loop.
+ * 
  * @author Ronak
  * 
  */
@@ -38,10 +48,15 @@ public class Routemaker {
     final public static double durationSec = durationMs / 1000.0;
 
     /**
-     * How precise the iterator should be: parincs per meter
+     * How precise the iterator should be: steps per meter
      */
     final private double RESOLUTION = 80;
 
+    /**
+     * The distance along the spline between each point the iterator checks
+     */
+    final private double STEP_LENGTH = Length.m / RESOLUTION;
+
     /**
      * The maximum number of degrees such that a sharp turn can be considered not a loop.
      */
@@ -49,50 +64,109 @@ public class Routemaker {
 
     private Waypoint[] waypoints;
 
-    private double[] parincs;
-    private double[] lengths;
-
     private SRXTankDrive drive;
 
-    private double v_max;
-    private double wb;
+    /**
+     * Identifies a route by the power and the values of its waypoints at the time it was generated.
+     */
+    private static class RouteKey {
+        private final double[] values;
+        private final int hash;
+
+        public RouteKey(double power, Waypoint... waypoints) {
+            values = new double[1 + 6 * waypoints.length];
+
+            values[0] = power;
+            for (int i = 0; i < waypoints.length; i++) {
+                values[1 + 6 * i] = waypoints[i].x;
+                values[2 + 6 * i] = waypoints[i].y;
+                values[3 + 6 * i] = waypoints[i].angle;
+                values[4 + 6 * i] = waypoints[i].fdm;
+                values[5 + 6 * i] = waypoints[i].xpp;
+                values[6 + 6 * i] = waypoints[i].ypp;
+            }
+
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RouteKey && Arrays.equals(values, ((RouteKey) other).values);
+        }
+    }
+
+    private static HashMap<RouteKey, PrecomputedRoute> routeCache = new HashMap<RouteKey, PrecomputedRoute>();
 
     /**
+     * Returns the entire sequence of profile points for a route, generating it the first time
+     * it is requested and caching it for every later request with the same power and waypoints.
+     *
+     * The speed ramps up over the first 20% and down over the last 20% of each segment.
      *
      * @param power - The maximum motor power during the motion.
      * @param waypoints - Array of target {@link Waypoint} objects.
      */
-    public Routemaker(double power, Waypoint... waypoints) {
-        this.waypoints = waypoints;
+    public static synchronized PrecomputedRoute getPrecomputedRoute(double power, Waypoint... waypoints) {
+        RouteKey key = new RouteKey(power, waypoints);
 
-        drive = SRXTankDrive.getInstance();
+        PrecomputedRoute route = routeCache.get(key);
+        if (route == null) {
+            route = generateRoute(power, waypoints);
+            routeCache.put(key, route);
+        }
 
-        v_max = power * Convert.velocityCTREtoCMS(drive.robotMaxSpeed, drive.wheelCircumfrence);
-        wb = drive.wheelBase;
+        return route;
+    }
 
-        parincs = new double[waypoints.length - 1];
-        lengths = new double[waypoints.length - 1];
+    /**
+     * Generates the sequence of profile points for a route without caching it.
+     *
+     * @param power - The maximum motor power during the motion.
+     * @param waypoints - Array of target {@link Waypoint} objects.
+     */
+    public static PrecomputedRoute generateRoute(double power, Waypoint... waypoints) {
+        Routemaker rm = new Routemaker(power, waypoints);
 
-        Segment segment;
+        ArrayList<ProfilePoint> points = new ArrayList<ProfilePoint>();
+        ProfilePoint profilePoint;
 
-        final double STEP = 0.05;
+        double speed;
 
-        for (int i = 0; i < waypoints.length - 1; i++) {
-            segment = new Segment(waypoints[i], waypoints[i + 1]);
-            double length = 0;
+        do {
+            speed = 1.0;
+            if (rm.s < 0.2) {
+                speed = (0.1 + rm.s) / 0.3;
+            } else if (rm.s > 0.8) {
+                speed = (1.1 - rm.s) / 0.7;
+            }
 
-            for (double s = 0; s < 1.0; s += STEP) {
-                length += RobotMath.distance(
-                        segment.getX(s), segment.getY(s),
-                        segment.getX(s + STEP), segment.getY(s + STEP));
+            profilePoint = rm.getNextPoint(speed);
+            points.add(profilePoint);
+        } while (!profilePoint.last);
 
-            }
+        return new PrecomputedRoute(points);
+    }
 
-            parincs[i] = Length.m / (RESOLUTION * length);
+    private double v_max;
+    private double wb;
 
-            System.out.println(parincs[i]);
-            lengths[i] = length;
-        }
+    /**
+     *
+     * @param power - The maximum motor power during the motion.
+     * @param waypoints - Array of target {@link Waypoint} objects.
+     */
+    public Routemaker(double power, Waypoint... waypoints) {
+        this.waypoints = waypoints;
+
+        drive = SRXTankDrive.getInstance();
+
+        v_max = power * Convert.velocityCTREtoCMS(drive.robotMaxSpeed, drive.wheelCircumfrence);
+        wb = drive.wheelBase;
 
         ref_segment = 0;
 
@@ -131,6 +205,10 @@ public class Routemaker {
     private double l_pos;
     private double r_pos;
 
+    // how far each wheel has travelled since the start of the route, in native units
+    private double l_total;
+    private double r_total;
+
     private boolean last = false;
 
     public ProfilePoint getNextPoint(double speed) {
@@ -143,7 +221,7 @@ public class Routemaker {
      * @param y0 - The current y position of the robot, either determined through odometry or assumed from the last calculation.
      * @param a0 - The current heading of the robot, either determined through odometry or assumed from the last calculation.
      * @param speed - Fraction from 0.0 to 1.0, as to how much of maximum speed the robot should be travelling.
-     * @return
+     * @return The next point, with the wheel distances measured from the start of the route.
      */
     public ProfilePoint getNextPoint(double x0, double y0, double a0, double speed) {
         x_tp = x0;
@@ -167,7 +245,8 @@ public class Routemaker {
 
         while (dt < durationSec) {
             while (s <= 1) {
-                s += parincs[ref_segment];
+                // step a fixed distance along the spline, so the points checked are evenly spaced
+                s = spline.getS(spline.getDistance(s) + STEP_LENGTH);
 
                 x = spline.getX(s);
                 y = spline.getY(s);
@@ -195,14 +274,17 @@ public class Routemaker {
                 ref_segment++;
                 s = 0;
 
-                if (ref_segment == waypoints.length - 1) {
+                if (ref_segment < waypoints.length - 1) {
+                    // carry on along the next segment's spline from its start
+                    spline = new Segment(waypoints[ref_segment], waypoints[ref_segment + 1]);
+                } else {
                     Waypoint lastPoint = waypoints[waypoints.length - 1];
 
                     s = 1.0;
 
                     x = lastPoint.x;
                     y = lastPoint.y;
-                    y = lastPoint.angle;
+                    a = lastPoint.angle;
 
                     last = true;
 
@@ -238,8 +320,11 @@ public class Routemaker {
         l_pos = ((v_l < 0) ? -1 : 1) * Convert.lengthCMtoCTRE(r_l * rad, drive.wheelCircumfrence);
         r_pos = ((v_r < 0) ? -1 : 1) * Convert.lengthCMtoCTRE(r_r * rad, drive.wheelCircumfrence);
 
+        l_total += l_pos;
+        r_total += r_pos;
+
         wp_target = spline.getIntermediateWaypoint(s);
 
-        return (new ProfilePoint(wp_target.x, wp_target.y, last, l_pos, r_pos, (last) ? 0 : v_l, (last) ? 0 : v_r, (int) Math.ceil(1000 * dt)));
+        return (new ProfilePoint(wp_target.x, wp_target.y, wp_target.angle, last, l_total, r_total, (last) ? 0 : v_l, (last) ? 0 : v_r, (int) Math.ceil(1000 * dt)));
     }
 }
\ No newline at end of file
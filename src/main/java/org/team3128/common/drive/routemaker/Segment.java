@@ -6,6 +6,10 @@ import org.team3128.common.util.RobotMath;
  * Represents a single quintic spline that makes up part of the entire
  * parameterized trajectory.
  * 
+ * The arc length of the spline is tabulated the first time it is needed, so that
+ * the distance along the spline at a parameter s, and the parameter s at a distance
+ * along the spline, can be looked up without re-integrating.
+ * 
  * @author Ronak
  *
  */
@@ -23,6 +27,34 @@ public class Segment {
 	private double ax, bx, cx, dx, ex, fx;
 	private double ay, by, cy, dy, ey, fy;
 
+	/**
+	 * The number of intervals in the arc length lookup table.
+	 */
+	private static final int ARC_LENGTH_INTERVALS = 64;
+
+	/**
+	 * The absolute error (in the units of the waypoints) tolerated when integrating each interval.
+	 */
+	private static final double ARC_LENGTH_TOLERANCE = 1e-6;
+	private static final int MAX_INTEGRATION_DEPTH = 12;
+
+	// 5-point Gauss-Legendre nodes and weights on [-1, 1]
+	private static final double[] GL_NODES = {
+		0,
+		-0.5384693101056831, 0.5384693101056831,
+		-0.9061798459386640, 0.9061798459386640
+	};
+	private static final double[] GL_WEIGHTS = {
+		0.5688888888888889,
+		0.4786286704993665, 0.4786286704993665,
+		0.2369268850561891, 0.2369268850561891
+	};
+
+	/**
+	 * arcLengths[i] is the length of the spline from s = 0 to s = i / ARC_LENGTH_INTERVALS.
+	 */
+	private double[] arcLengths;
+
 	/**
 	 * Makes a new {@link Segment} object that goes from a starting {@link Waypoint} to an ending waypoint.
 	 *
@@ -172,6 +204,148 @@ public class Segment {
 		return angle;
 	}
 
+	/**
+	 * Evaluates the magnitude of the first derivative without allocating.
+	 */
+	private double getSpeed(double s) {
+		double xp = (((5 * ax * s + 4 * bx) * s + 3 * cx) * s + 2 * dx) * s + ex;
+		double yp = (((5 * ay * s + 4 * by) * s + 3 * cy) * s + 2 * dy) * s + ey;
+
+		return Math.sqrt(xp * xp + yp * yp);
+	}
+
+	private double integrateGaussLegendre(double s0, double s1) {
+		double halfWidth = (s1 - s0) / 2;
+		double center = (s0 + s1) / 2;
+
+		double sum = 0;
+		for (int i = 0; i < GL_NODES.length; i++) {
+			sum += GL_WEIGHTS[i] * getSpeed(center + halfWidth * GL_NODES[i]);
+		}
+
+		return halfWidth * sum;
+	}
+
+	/**
+	 * Integrates the arc length from s0 to s1, subdividing the interval until both halves
+	 * agree with the whole to within the tolerance.
+	 */
+	private double integrateAdaptive(double s0, double s1, double whole, double tolerance, int depth) {
+		double mid = (s0 + s1) / 2;
+
+		double left = integrateGaussLegendre(s0, mid);
+		double right = integrateGaussLegendre(mid, s1);
+
+		if (depth >= MAX_INTEGRATION_DEPTH || Math.abs(left + right - whole) < tolerance) {
+			return left + right;
+		}
+
+		return integrateAdaptive(s0, mid, left, tolerance / 2, depth + 1)
+			+ integrateAdaptive(mid, s1, right, tolerance / 2, depth + 1);
+	}
+
+	private double integrateArcLength(double s0, double s1) {
+		return integrateAdaptive(s0, s1, integrateGaussLegendre(s0, s1), ARC_LENGTH_TOLERANCE, 0);
+	}
+
+	private void buildArcLengthTable() {
+		double[] table = new double[ARC_LENGTH_INTERVALS + 1];
+
+		for (int i = 0; i < ARC_LENGTH_INTERVALS; i++) {
+			table[i + 1] = table[i] + integrateArcLength((double) i / ARC_LENGTH_INTERVALS, (double) (i + 1) / ARC_LENGTH_INTERVALS);
+		}
+
+		arcLengths = table;
+	}
+
+	/**
+	 * @return The arc length of the spline from s = 0 to s = 1.
+	 */
+	public double getLength() {
+		if (arcLengths == null) buildArcLengthTable();
+
+		return arcLengths[ARC_LENGTH_INTERVALS];
+	}
+
+	/**
+	 * Gets the distance along the spline from s = 0 to the given s. Values of s outside of
+	 * [0, 1] are extrapolated along the tangent at the nearest end.
+	 */
+	public double getDistance(double s) {
+		if (arcLengths == null) buildArcLengthTable();
+
+		if (s <= 0) {
+			return s * getSpeed(0);
+		}
+		else if (s >= 1) {
+			return arcLengths[ARC_LENGTH_INTERVALS] + (s - 1) * getSpeed(1);
+		}
+
+		int interval = (int) (s * ARC_LENGTH_INTERVALS);
+		double intervalStart = (double) interval / ARC_LENGTH_INTERVALS;
+
+		return arcLengths[interval] + integrateGaussLegendre(intervalStart, s);
+	}
+
+	/**
+	 * Gets the parameter s at which the spline has travelled the given distance from s = 0.
+	 * Distances outside of [0, {@link #getLength()}] are extrapolated along the tangent at
+	 * the nearest end.
+	 *
+	 * Binary searches the arc length table, then refines with one Newton step.
+	 */
+	public double getS(double distance) {
+		if (arcLengths == null) buildArcLengthTable();
+
+		if (distance <= 0) {
+			return distance / getSpeed(0);
+		}
+		else if (distance >= arcLengths[ARC_LENGTH_INTERVALS]) {
+			return 1 + (distance - arcLengths[ARC_LENGTH_INTERVALS]) / getSpeed(1);
+		}
+
+		// find the interval such that arcLengths[low] <= distance < arcLengths[low + 1]
+		int low = 0;
+		int high = ARC_LENGTH_INTERVALS;
+		while (high - low > 1) {
+			int mid = (low + high) >>> 1;
+
+			if (arcLengths[mid] <= distance) {
+				low = mid;
+			}
+			else {
+				high = mid;
+			}
+		}
+
+		double intervalLength = arcLengths[low + 1] - arcLengths[low];
+		double fraction = (intervalLength > 0) ? (distance - arcLengths[low]) / intervalLength : 0;
+		double s = (low + fraction) / ARC_LENGTH_INTERVALS;
+
+		double speed = getSpeed(s);
+		if (speed > 0) {
+			s -= (getDistance(s) - distance) / speed;
+		}
+
+		return s;
+	}
+
+	/**
+	 * Gets the signed curvature of the spline at s, the reciprocal of the turning radius.
+	 * Positive when the spline turns counterclockwise (to the left).
+	 */
+	public double getCurvature(double s) {
+		double xp = getXp(s);
+		double yp = getYp(s);
+
+		double speedSquared = xp * xp + yp * yp;
+		if (speedSquared == 0) {
+			return 0;
+		}
+
+		return (xp * getYpp(s) - yp * getXpp(s)) / (speedSquared * Math.sqrt(speedSquared));
+	}
+
 	public double getFDM(double s) {
 		return Math.sqrt(RobotMath.square(getXp(s)) + RobotMath.square(getYp(s)));
 	}
@@ -0,0 +1,242 @@
+package org.team3128.common.drive.routemaker;
+
+import java.util.ArrayList;
+
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Generates a time-optimal route through a series of {@link Waypoint}s, as an alternative to the
+ * PBFRFA in {@link Routemaker}.
+ *
+ * The splines between the waypoints are sampled at even distances along the path, and each sample
+ * gets a speed limit from its curvature: neither wheel may go faster than the maximum velocity, and the
+ * centripetal acceleration may not exceed its own limit. A forward pass then limits how quickly the
+ * robot can speed up from a standstill at the start, and a backward pass limits how late it can start
+ * braking for the tight turns and the stop at the end. The result is the fastest speed profile that
+ * respects all three limits, which is resampled in time into {@link ProfilePoint}s of
+ * {@link Routemaker#durationMs} each.
+ *
+ * The acceleration limit applies to the robot's center; in a turn the outer wheel accelerates a little
+ * harder than that.
+ *
+ * Like the Routemaker's, the wheel positions in the generated points are measured from the start of the
+ * route, as {@link PrecomputedRoute} requires.
+ *
+ * @author Narwhal
+ *
+ */
+public class TrajectoryGenerator {
+    /**
+     * The greatest distance between the points the path is sampled at, in cm.
+     */
+    private static final double SAMPLE_SPACING = 1;
+
+    private final double maxVelocity, maxAcceleration, maxCentripetalAcceleration;
+    private final double wheelBase, wheelCircumference;
+
+    // the path, sampled evenly by distance
+    private int numSamples;
+    private double[] distances, xs, ys, headings, curvatures;
+    private double[] leftDistances, rightDistances;
+    private double[] velocities, times;
+
+    /**
+     * @param maxVelocity - The fastest either wheel may go, in cm/s.
+     * @param maxAcceleration - The fastest the robot may speed up or slow down, in cm/s^2.
+     * @param maxCentripetalAcceleration - The greatest acceleration towards the center of a turn, in cm/s^2.
+     * @param wheelBase - The distance between the left and right wheels, in cm.
+     * @param wheelCircumference - The circumference of the drive wheels, in cm.
+     */
+    public TrajectoryGenerator(double maxVelocity, double maxAcceleration, double maxCentripetalAcceleration, double wheelBase, double wheelCircumference) {
+        this.maxVelocity = maxVelocity;
+        this.maxAcceleration = maxAcceleration;
+        this.maxCentripetalAcceleration = maxCentripetalAcceleration;
+
+        this.wheelBase = wheelBase;
+        this.wheelCircumference = wheelCircumference;
+    }
+
+    /**
+     * Makes a generator for the {@link SRXTankDrive}.
+     *
+     * @param power - The maximum motor power during the motion.
+     * @param maxAcceleration - The fastest the robot may speed up or slow down, in cm/s^2.
+     * @param maxCentripetalAcceleration - The greatest acceleration towards the center of a turn, in cm/s^2.
+     */
+    public TrajectoryGenerator(double power, double maxAcceleration, double maxCentripetalAcceleration) {
+        this(power * Convert.velocityCTREtoCMS(SRXTankDrive.getInstance().robotMaxSpeed, SRXTankDrive.getInstance().wheelCircumfrence),
+                maxAcceleration, maxCentripetalAcceleration, SRXTankDrive.getInstance().wheelBase, SRXTankDrive.getInstance().wheelCircumfrence);
+    }
+
+    /**
+     * Generates the route through the waypoints, starting and ending at rest.
+     *
+     * @param waypoints - Array of target {@link Waypoint} objects.
+     */
+    public PrecomputedRoute generate(Waypoint... waypoints) {
+        samplePath(waypoints);
+        computeVelocities();
+
+        return new PrecomputedRoute(resample());
+    }
+
+    /**
+     * Fills in the position, curvature and wheel distances at evenly spaced points along the path.
+     */
+    private void samplePath(Waypoint... waypoints) {
+        Segment[] segments = new Segment[waypoints.length - 1];
+        int[] intervals = new int[segments.length];
+
+        numSamples = 1;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(waypoints[i], waypoints[i + 1]);
+            intervals[i] = Math.max(1, (int) Math.ceil(segments[i].getLength() / SAMPLE_SPACING));
+
+            numSamples += intervals[i];
+        }
+
+        distances = new double[numSamples];
+        xs = new double[numSamples];
+        ys = new double[numSamples];
+        headings = new double[numSamples];
+        curvatures = new double[numSamples];
+        leftDistances = new double[numSamples];
+        rightDistances = new double[numSamples];
+
+        xs[0] = segments[0].getX(0);
+        ys[0] = segments[0].getY(0);
+        headings[0] = segments[0].getAngle(0);
+        curvatures[0] = segments[0].getCurvature(0);
+
+        int sample = 1;
+        double segmentStart = 0;
+
+        for (int i = 0; i < segments.length; i++) {
+            double spacing = segments[i].getLength() / intervals[i];
+
+            // the first point of each segment is the last point of the one before it
+            for (int interval = 1; interval <= intervals[i]; interval++, sample++) {
+                double s = (interval == intervals[i]) ? 1 : segments[i].getS(interval * spacing);
+
+                distances[sample] = segmentStart + interval * spacing;
+                xs[sample] = segments[i].getX(s);
+                ys[sample] = segments[i].getY(s);
+                // unwrapped, so that headings can be interpolated across 0 degrees
+                headings[sample] = headings[sample - 1] + RobotMath.angleDistance(headings[sample - 1], segments[i].getAngle(s), true);
+                curvatures[sample] = segments[i].getCurvature(s);
+
+                // the inside wheel travels less than the center, and the outside wheel more
+                double step = distances[sample] - distances[sample - 1];
+                double averageCurvature = (curvatures[sample] + curvatures[sample - 1]) / 2;
+
+                leftDistances[sample] = leftDistances[sample - 1] + step * (1 - averageCurvature * wheelBase / 2);
+                rightDistances[sample] = rightDistances[sample - 1] + step * (1 + averageCurvature * wheelBase / 2);
+            }
+
+            segmentStart += segments[i].getLength();
+        }
+    }
+
+    /**
+     * Finds the fastest speed at each sample that respects the limits, and the time the robot gets there.
+     */
+    private void computeVelocities() {
+        velocities = new double[numSamples];
+        times = new double[numSamples];
+
+        for (int i = 0; i < numSamples; i++) {
+            double curvature = Math.abs(curvatures[i]);
+
+            velocities[i] = maxVelocity / (1 + curvature * wheelBase / 2);
+            if (curvature > 0) {
+                velocities[i] = Math.min(velocities[i], Math.sqrt(maxCentripetalAcceleration / curvature));
+            }
+        }
+
+        velocities[0] = 0;
+        velocities[numSamples - 1] = 0;
+
+        // forward pass: accelerate as hard as allowed
+        for (int i = 1; i < numSamples; i++) {
+            double step = distances[i] - distances[i - 1];
+            velocities[i] = Math.min(velocities[i], Math.sqrt(velocities[i - 1] * velocities[i - 1] + 2 * maxAcceleration * step));
+        }
+
+        // backward pass: brake as late as allowed
+        for (int i = numSamples - 2; i >= 0; i--) {
+            double step = distances[i + 1] - distances[i];
+            velocities[i] = Math.min(velocities[i], Math.sqrt(velocities[i + 1] * velocities[i + 1] + 2 * maxAcceleration * step));
+        }
+
+        // the acceleration is constant between samples, so the velocity averages out
+        for (int i = 1; i < numSamples; i++) {
+            double step = distances[i] - distances[i - 1];
+            double averageVelocity = (velocities[i - 1] + velocities[i]) / 2;
+
+            times[i] = times[i - 1] + ((averageVelocity > 0) ? step / averageVelocity : 0);
+        }
+    }
+
+    /**
+     * Turns the speed profile into a point every {@link Routemaker#durationMs} starting from the beginning of the route,
+     * plus one where the robot comes to rest.
+     */
+    private ArrayList<ProfilePoint> resample() {
+        ArrayList<ProfilePoint> points = new ArrayList<ProfilePoint>();
+
+        double totalTime = times[numSamples - 1];
+        int i = 0;
+
+        for (int point = 0; point * Routemaker.durationSec < totalTime; point++) {
+            double time = point * Routemaker.durationSec;
+
+            while (times[i + 1] < time) {
+                i++;
+            }
+
+            double step = distances[i + 1] - distances[i];
+            double acceleration = (velocities[i + 1] * velocities[i + 1] - velocities[i] * velocities[i]) / (2 * step);
+            double elapsed = time - times[i];
+
+            double velocity = velocities[i] + acceleration * elapsed;
+            double fraction = Math.min(1, (velocities[i] * elapsed + acceleration * elapsed * elapsed / 2) / step);
+            double curvature = interpolate(curvatures, i, fraction);
+
+            points.add(makePoint(interpolate(xs, i, fraction), interpolate(ys, i, fraction), interpolate(headings, i, fraction), false,
+                    interpolate(leftDistances, i, fraction), interpolate(rightDistances, i, fraction),
+                    velocity * (1 - curvature * wheelBase / 2), velocity * (1 + curvature * wheelBase / 2)));
+        }
+
+        int last = numSamples - 1;
+        points.add(makePoint(xs[last], ys[last], headings[last], true, leftDistances[last], rightDistances[last], 0, 0));
+
+        return points;
+    }
+
+    private ProfilePoint makePoint(double x, double y, double heading, boolean last, double leftDistance, double rightDistance, double leftVelocity, double rightVelocity) {
+        return new ProfilePoint(x, y, heading, last,
+                Convert.lengthCMtoCTRE(leftDistance, wheelCircumference), Convert.lengthCMtoCTRE(rightDistance, wheelCircumference),
+                Convert.velocityCMStoCTRE(leftVelocity, wheelCircumference), Convert.velocityCMStoCTRE(rightVelocity, wheelCircumference),
+                Routemaker.durationMs);
+    }
+
+    private static double interpolate(double[] values, int index, double fraction) {
+        return values[index] + fraction * (values[index + 1] - values[index]);
+    }
+
+    /**
+     * @return The time it takes to drive the route last generated, in seconds.
+     */
+    public double getTotalTime() {
+        return times[numSamples - 1];
+    }
+
+    /**
+     * @return The length of the route last generated, in cm.
+     */
+    public double getTotalDistance() {
+        return distances[numSamples - 1];
+    }
+}
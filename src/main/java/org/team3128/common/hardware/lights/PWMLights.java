@@ -1,16 +1,18 @@
 package org.team3128.common.hardware.lights;
 
 import org.team3128.common.hardware.lights.LightsSequence.Step;
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
-import org.team3128.common.util.RobotMath;
 
 import edu.wpi.first.wpilibj.PWM;
 import edu.wpi.first.wpilibj.PWM.PeriodMultiplier;
+import edu.wpi.first.wpilibj.Timer;
 
 /**
  * Controls a RGB light strip through three PWM outputs, one for each color.
  * 
- * It can also fade the lights on and off.
+ * It can also fade the lights on and off.  Sequences are played by a {@link ControlScheduler}
+ * task, which works out where in the current step it is from the FPGA clock each time it runs.
  * @author Jamie
  *
  */
@@ -20,7 +22,18 @@ public class PWMLights
 	PWM greenLights;
 	PWM blueLights;
 	
-	Thread sequenceThread;
+	/**
+	 * How long it takes to fade between two steps of a sequence, in seconds.
+	 */
+	private static final double FADE_TIME = 2;
+
+	/**
+	 * How many times per second the color is updated while fading.
+	 */
+	private static final int FADE_RESOLUTION = 30;
+
+	// the sequence currently being played, or null
+	private SequencePlayer sequencePlayer;
 	
 	/**
 	 * Construct a PWMLights object from the three PWM ports on the roboRIO it is attached to.
@@ -51,7 +64,7 @@ public class PWMLights
 	 * @param b
 	 */
 	//there are no short literals in Java, so the function takes ints for convenience.
-	public void setColor(LightsColor color)
+	public synchronized void setColor(LightsColor color)
 	{
 		//Make sure that the worker thread is not setting these values at the same time.
 		shutDownSequenceThread();
@@ -99,123 +112,134 @@ public class PWMLights
 	 * 
 	 * Called by setColor() and setOff()
 	 */
-	public void shutDownSequenceThread()
+	public synchronized void shutDownSequenceThread()
 	{
-		if(sequenceThread != null && sequenceThread.isAlive())
+		if(sequencePlayer != null)
 		{
-			sequenceThread.interrupt();
-			try
-			{
-				sequenceThread.join();
-			}
-			catch (InterruptedException e)
-			{
-				e.printStackTrace();
-			}
+			sequencePlayer.task.cancel();
+			sequencePlayer = null;
 		}
 	}
 	
+	private void setRaw(int r, int g, int b)
+	{
+		redLights.setRaw(r);
+		greenLights.setRaw(g);
+		blueLights.setRaw(b);
+	}
+	
 	/**
-	 * Function run from the worker thread to fade the lights.
-	 * It takes the base color the lights should fade from in 11 bit form as the first parameter. 
-	 *
-	 * @param time how long the fade operation should take.
-	 * @param resolution how many steps per second to do the fade in.
+	 * Execute a sequence of lights changes.
+	 * @param sequence
 	 */
-	private void faderLoop(LightsColor originalColor, LightsColor newColor, long time, int resolution)
+	public synchronized void executeSequence(LightsSequence sequence)
 	{
-		//Log.debug("PWMLights", "Fader Loop Starting");
-		
-		double currentR = originalColor.getR();
-		double currentG = originalColor.getG();
-		double currentB = originalColor.getB();
-		
-		int numSteps = RobotMath.ceil((time / 1000.0) * resolution);
-		int sleepTime = RobotMath.ceil(1000.0 / resolution);
-		
-		int differenceR = newColor.getR() - originalColor.getR();
-		double incrementR = differenceR / (double)numSteps;
-		
-		int differenceG = newColor.getG() - originalColor.getG();
-		double incrementG = differenceG / (double)numSteps;
-		
-		int differenceB = newColor.getB() - originalColor.getB();
-		double incrementB = differenceB / (double)numSteps;
-		
-		//Log.debug("PWMLights", "numSteps: " + numSteps + " incrementR: " + incrementR + " incrementG: " + incrementG + " incrementB: " + incrementB);
+		shutDownSequenceThread();
+		Log.debug("PWMLights", "Executing lights sequence.");
 		
-		for(int currentStep = 0; currentStep < numSteps; ++currentStep)
+		if(sequence.sequenceSteps.isEmpty())
 		{
-			currentR += incrementR;
-			currentG += incrementG;
-			currentB += incrementB;
-			
-			//actually set the values
-			redLights.setRaw((int)currentR);
-			greenLights.setRaw((int)currentG);
-			blueLights.setRaw((int)currentB);
-			
-			//Log.debug("PWMLights", String.format("R: %.02f, G: %.02f, B: %.02f", currentR, currentG, currentB));
-			
-			try
-			{
-				Thread.sleep(sleepTime);
-			}
-			catch (InterruptedException e)
-			{
-				//Log.debug("PWMLights", "Fader Thread Shutting Down");
-			}
+			return;
 		}
+		
+		sequencePlayer = new SequencePlayer(sequence);
 	}
 	
 	/**
-	 * Execute a sequence of lights changes.
-	 * @param sequence
+	 * Steps through a sequence each time it is run by the scheduler.
 	 */
-	public void executeSequence(LightsSequence sequence)
+	private class SequencePlayer
 	{
+		final LightsSequence sequence;
+		final ControlScheduler.Task task;
 		
-		shutDownSequenceThread();
-		Log.debug("PWMLights", "Executing lights sequence.");
+		int stepIndex = 0;
+		boolean fading = false;
 		
-		sequenceThread = new Thread(() ->
+		// FPGA time at which the current step (or its fade) started, in seconds
+		double phaseStartTime;
+		
+		SequencePlayer(LightsSequence sequence)
 		{
-			do
+			this.sequence = sequence;
+			
+			startStep(Timer.getFPGATimestamp());
+			task = ControlScheduler.getInstance().schedule("PWMLights", ControlScheduler.ticksForPeriod(1.0 / FADE_RESOLUTION), this::step);
+		}
+		
+		private void startStep(double time)
+		{
+			LightsColor color = sequence.sequenceSteps.get(stepIndex).getColor();
+			setRaw(color.getR(), color.getG(), color.getB());
+			
+			fading = false;
+			phaseStartTime = time;
+		}
+		
+		private void step()
+		{
+			synchronized(PWMLights.this)
 			{
-				for(int counter = 0; counter < sequence.sequenceSteps.size(); ++counter)
+				//setColor() or another sequence may have replaced us after the scheduler picked up this tick
+				if(sequencePlayer != this)
 				{
-					Step currentStep = sequence.sequenceSteps.get(counter);
-					
-					//avoid calling setColor() because it shuts down the thread
-					redLights.setRaw(currentStep.getColor().getR());
-					greenLights.setRaw(currentStep.getColor().getG());
-					blueLights.setRaw(currentStep.getColor().getB());
-					
-					if(currentStep.getTimeInMillis() > 0)
+					return;
+				}
+				
+				double time = Timer.getFPGATimestamp();
+				Step currentStep = sequence.sequenceSteps.get(stepIndex);
+				
+				if(!fading)
+				{
+					if(time - phaseStartTime < currentStep.getTimeInMillis() / 1000.0)
 					{
-						try
-						{
-							Thread.sleep(currentStep.getTimeInMillis());
-						}
-						catch(InterruptedException ex)
-						{
-							return;
-						}
+						return;
 					}
 					
-					if(currentStep.fadeToNext())
+					if(!currentStep.fadeToNext())
 					{
-						//wrap around to the first step if this is the last step
-						LightsColor newColor = sequence.sequenceSteps.get(counter == sequence.sequenceSteps.size() - 1 ? 0 : counter + 1).getColor();
-						faderLoop(currentStep.getColor(), newColor, 2000, 30);
+						nextStep(time);
+						return;
 					}
+					
+					fading = true;
+					phaseStartTime = time;
+				}
+				
+				double fraction = (time - phaseStartTime) / FADE_TIME;
+				if(fraction >= 1)
+				{
+					nextStep(time);
+					return;
 				}
+				
+				//wrap around to the first step if this is the last step
+				LightsColor originalColor = currentStep.getColor();
+				LightsColor newColor = sequence.sequenceSteps.get(stepIndex == sequence.sequenceSteps.size() - 1 ? 0 : stepIndex + 1).getColor();
+				
+				setRaw((int) (originalColor.getR() + (newColor.getR() - originalColor.getR()) * fraction),
+						(int) (originalColor.getG() + (newColor.getG() - originalColor.getG()) * fraction),
+						(int) (originalColor.getB() + (newColor.getB() - originalColor.getB()) * fraction));
 			}
-			while(sequence.shouldRepeat());
-		
-			Log.debug("PWMLights", "Finished lights sequence.");
-		});
+		}
 		
-		sequenceThread.start();
+		private void nextStep(double time)
+		{
+			++stepIndex;
+			
+			if(stepIndex == sequence.sequenceSteps.size())
+			{
+				if(!sequence.shouldRepeat())
+				{
+					Log.debug("PWMLights", "Finished lights sequence.");
+					shutDownSequenceThread();
+					return;
+				}
+				
+				stepIndex = 0;
+			}
+			
+			startStep(time);
+		}
 	}
 }
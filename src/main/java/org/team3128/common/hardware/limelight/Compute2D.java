@@ -1,6 +1,9 @@
 package org.team3128.common.hardware.limelight;
 
+import org.team3128.common.drive.Odometer;
 import org.team3128.common.util.RobotMath;
+import org.team3128.common.vision.LatencyCompensator;
+import org.team3128.common.vision.LatencyCompensator.Observation;
 import org.team3128.common.util.units.Length;
 
 public class Compute2D {
@@ -29,18 +32,44 @@ public class Compute2D {
 
     public static class Compute2DInput {
         public double horizontalOffsetAngle, verticalOffsetAngle, boundingBoxPixelWidth;
+
+        /**
+         * The FPGA time, in seconds, that the image these values came from was captured.
+         */
+        public double captureTime;
     }
 
     public static Compute2DInput getInput(Limelight limelight, int numSamples) {
         Compute2DInput input = new Compute2DInput();
 
-        input.horizontalOffsetAngle = limelight.getValue(LimelightKey.HORIZONTAL_OFFSET, numSamples);
-        input.verticalOffsetAngle = limelight.getValue(LimelightKey.VERTICAL_OFFSET, numSamples);
-        input.boundingBoxPixelWidth = limelight.getValue(LimelightKey.LENGTH_HORIZONTAL, numSamples);
+        LimelightSnapshot snapshot = new LimelightSnapshot();
+        limelight.getSnapshot(numSamples, snapshot);
+
+        input.horizontalOffsetAngle = snapshot.getValue(LimelightKey.HORIZONTAL_OFFSET);
+        input.verticalOffsetAngle = snapshot.getValue(LimelightKey.VERTICAL_OFFSET);
+        input.boundingBoxPixelWidth = snapshot.getValue(LimelightKey.LENGTH_HORIZONTAL);
+        input.captureTime = snapshot.getCaptureTime();
 
         return input;
     }
 
+    /**
+     * Moves the target's offset angles to where they would be if the image had been captured now,
+     * using where the odometer says the robot has moved since then.  The bounding box width is left as is.
+     */
+    public static void compensateForLatency(Limelight limelight, Compute2DInput input, double targetHeight, Odometer odometer) {
+        // distance along the ground from the camera
+        double forwardDistance = limelight.calculateYPrimeFromTY(input.verticalOffsetAngle, targetHeight) + limelight.frontDistance;
+        double distance = forwardDistance / RobotMath.cos(input.horizontalOffsetAngle);
+
+        Observation current = new Observation();
+        LatencyCompensator.reproject(input.horizontalOffsetAngle, distance, input.captureTime, odometer, current);
+
+        input.horizontalOffsetAngle = current.horizontalOffset;
+        input.verticalOffsetAngle = limelight.calculateTYFromYPrime(current.distance * RobotMath.cos(current.horizontalOffset) - limelight.frontDistance, targetHeight);
+        input.captureTime = odometer.getPose().timestamp;
+    }
+
     public static Compute2DLocalization compute2D(Limelight limelight, Compute2DInput inputData, double targetHeight) {
         Compute2DLocalization outputData = new Compute2DLocalization();
 
@@ -1,12 +1,18 @@
 package org.team3128.common.hardware.limelight;
 
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.EntryNotification;
 import edu.wpi.first.networktables.NetworkTable;
-//import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableEntry;
 import edu.wpi.first.networktables.NetworkTableInstance;
-//import edu.wpi.first.networktables.TableEntryListener;
 
 import org.team3128.common.util.RobotMath;
 
+import edu.wpi.first.wpilibj.Timer;
+
 /**
  * Software wrapper to obtain data from and send data to the physical Limelight.
  * 
@@ -14,11 +20,55 @@ import org.team3128.common.util.RobotMath;
  *  - When the target is right of the vertical centerline, tx is positive.
  *  - When the target is above the horizontal centerline, ty is positive.
  * 
+ * The Limelight publishes a new latency ("tl") with every frame it processes, so a listener on
+ * that entry copies each frame's values into a preallocated history as it arrives.  Averaging N
+ * samples then averages the last N distinct frames, instead of reading the same value N times.
+ * 
+ * Each frame is also stamped with the FPGA time its image was captured, worked out from the
+ * pipeline latency, so that measurements can be matched to where the robot was at that time.
+ * Frames captured more than {@link #MAX_FRAME_AGE} ago are left out of averages, so that a Limelight
+ * which stops publishing doesn't leave old frames mixed in with new ones.
  * 
  * @author Adham Elarabawy, Mason Holst, Jude Lifset
  *
  */
 public class Limelight {   
+    /**
+     * The number of past frames kept, and so the most samples which can be averaged.
+     */
+    public static final int FRAME_HISTORY_LENGTH = 32;
+
+    /**
+     * The oldest a frame can be, in seconds since its image was captured, and still be averaged.
+     */
+    public static final double MAX_FRAME_AGE = 0.5;
+
+    /**
+     * Time it takes the Limelight to capture an image, on top of the pipeline latency it reports, in milliseconds.
+     */
+    public static final double IMAGE_CAPTURE_LATENCY = 11;
+
+    private static final LimelightKey[] KEYS = LimelightKey.values();
+    private static final int CAMTRAN_LENGTH = LimelightConstants.valueKeysPnP.length;
+
+    // each frame holds the value of every LimelightKey, by ordinal, followed by camtran and then the capture time
+    static final int CAPTURE_TIME_INDEX = KEYS.length + CAMTRAN_LENGTH;
+    static final int FRAME_SIZE = CAPTURE_TIME_INDEX + 1;
+
+    private static final double[] EMPTY_CAMTRAN = new double[CAMTRAN_LENGTH];
+
+    // the index in a frame of each of LimelightConstants.valueKeys
+    private static final int[] VALUE_KEY_INDICES = new int[LimelightConstants.valueKeys.length];
+    static {
+        for (int index = 0; index < VALUE_KEY_INDICES.length; index++) {
+            for (LimelightKey key : KEYS) {
+                if (key.getKey().equals(LimelightConstants.valueKeys[index])) {
+                    VALUE_KEY_INDICES[index] = key.ordinal();
+                }
+            }
+        }
+    }
+
     public String hostname;
     public double cameraAngle;
     public double cameraHeight;
@@ -28,6 +78,24 @@ public class Limelight {
 
     public NetworkTable limelightTable;
 
+    private NetworkTableEntry[] keyEntries;
+    private NetworkTableEntry camtranEntry, ledModeEntry, streamEntry;
+
+    // guarded by frameLock
+    private final Object frameLock = new Object();
+    private final double[][] frameHistory = new double[FRAME_HISTORY_LENGTH][FRAME_SIZE];
+    private long frameCount = 0;
+    private ArrayList<FrameRequest> frameRequests = new ArrayList<>();
+
+    // only used by the NetworkTables listener thread, to read each frame before taking frameLock
+    private final double[] receivedFrame = new double[FRAME_SIZE];
+
+    private static class FrameRequest {
+        long completionFrame;
+        int numSamples;
+        CompletableFuture<LimelightData> future;
+    }
+
     /**
      * 
      * @param cameraAngle - The vertical angle of the limelight
@@ -46,25 +114,192 @@ public class Limelight {
         this.targetWidth = targetWidth;
 
         limelightTable = NetworkTableInstance.getDefault().getTable(hostname);
+
+        keyEntries = new NetworkTableEntry[KEYS.length];
+        for (LimelightKey key : KEYS) {
+            keyEntries[key.ordinal()] = limelightTable.getEntry(key.getKey());
+        }
+
+        camtranEntry = limelightTable.getEntry("camtran");
+        ledModeEntry = limelightTable.getEntry("ledMode");
+        streamEntry = limelightTable.getEntry("stream");
+
+        keyEntries[LimelightKey.LATENCY.ordinal()].addListener(this::onFrame, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
     }
 
     /**
-     * Gets the average value of the data value in a certain key output by the Limelight.
+     * Called by the NetworkTables listener thread whenever the Limelight publishes a new frame.
+     * 
+     * The frame is read from NetworkTables before taking frameLock, so that the control loops which
+     * average frames never wait on the NetworkTables library.
+     */
+    private void onFrame(EntryNotification notification) {
+        readCurrentFrame(receivedFrame, Timer.getFPGATimestamp());
+
+        ArrayList<FrameRequest> completedRequests = null;
+
+        synchronized (frameLock) {
+            System.arraycopy(receivedFrame, 0, frameHistory[(int) (frameCount % FRAME_HISTORY_LENGTH)], 0, FRAME_SIZE);
+
+            frameCount++;
+
+            if (!frameRequests.isEmpty()) {
+                for (int index = frameRequests.size() - 1; index >= 0; index--) {
+                    if (frameRequests.get(index).completionFrame <= frameCount) {
+                        if (completedRequests == null) {
+                            completedRequests = new ArrayList<>();
+                        }
+                        completedRequests.add(frameRequests.remove(index));
+                    }
+                }
+            }
+        }
+
+        // complete the futures outside of the lock, since they may run callbacks
+        if (completedRequests != null) {
+            for (FrameRequest request : completedRequests) {
+                double[] average = new double[FRAME_SIZE];
+                averageRecentFrames(request.numSamples, average);
+
+                request.future.complete(toLimelightData(average));
+            }
+        }
+    }
+
+    /**
+     * Counts how many of the most recent frames, up to numSamples, were captured within {@link #MAX_FRAME_AGE}
+     * of the given time.  Must be called with frameLock held.
+     */
+    private int countRecentFrames(int numSamples, double time) {
+        int available = (int) Math.min(Math.min(numSamples, FRAME_HISTORY_LENGTH), frameCount);
+
+        int count = 0;
+        while (count < available && time - frameHistory[(int) ((frameCount - 1 - count) % FRAME_HISTORY_LENGTH)][CAPTURE_TIME_INDEX] <= MAX_FRAME_AGE) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the values the Limelight is publishing now into the frame, stamped with the time its image
+     * was captured, worked out from the time it was read.
+     */
+    private void readCurrentFrame(double[] frame, double readTime) {
+        for (int index = 0; index < KEYS.length; index++) {
+            frame[index] = keyEntries[index].getDouble(0.0);
+        }
+
+        double[] camtran = camtranEntry.getDoubleArray(EMPTY_CAMTRAN);
+        for (int index = 0; index < CAMTRAN_LENGTH; index++) {
+            frame[KEYS.length + index] = index < camtran.length ? camtran[index] : 0.0;
+        }
+
+        frame[CAPTURE_TIME_INDEX] = readTime - (frame[LimelightKey.LATENCY.ordinal()] + IMAGE_CAPTURE_LATENCY) / 1000.0;
+    }
+
+    /**
+     * Averages the last numSamples frames (or all of the recent ones, if there are fewer) into the array.
+     * If there are no recent frames, reads the current values instead.
+     * 
+     * @return the number of frames which had been received when they were averaged
+     */
+    private long averageRecentFrames(int numSamples, double[] average) {
+        double time = Timer.getFPGATimestamp();
+        long averagedFrameCount;
+
+        synchronized (frameLock) {
+            averagedFrameCount = frameCount;
+
+            int count = countRecentFrames(numSamples, time);
+            if (count > 0) {
+                for (int index = 0; index < FRAME_SIZE; index++) {
+                    average[index] = 0;
+                }
+
+                for (long frameNumber = frameCount - count; frameNumber < frameCount; frameNumber++) {
+                    double[] frame = frameHistory[(int) (frameNumber % FRAME_HISTORY_LENGTH)];
+                    for (int index = 0; index < FRAME_SIZE; index++) {
+                        average[index] += frame[index];
+                    }
+                }
+
+                for (int index = 0; index < FRAME_SIZE; index++) {
+                    average[index] /= count;
+                }
+
+                return averagedFrameCount;
+            }
+        }
+
+        // read from NetworkTables outside of the lock
+        readCurrentFrame(average, time);
+
+        return averagedFrameCount;
+    }
+
+    private static LimelightData toLimelightData(double[] frame) {
+        LimelightData data = new LimelightData();
+
+        for (int index = 0; index < VALUE_KEY_INDICES.length; index++) {
+            data.set(LimelightConstants.valueKeys[index], frame[VALUE_KEY_INDICES[index]]);
+        }
+        for (int index = 0; index < CAMTRAN_LENGTH; index++) {
+            data.set(LimelightConstants.valueKeysPnP[index], frame[KEYS.length + index]);
+        }
+
+        return data;
+    }
+
+    /**
+     * Gets the number of frames received from the Limelight since it was constructed.
+     */
+    public long getFrameCount() {
+        synchronized (frameLock) {
+            return frameCount;
+        }
+    }
+
+    /**
+     * Gets the average value of the data value in a certain key output by the Limelight
+     * over the most recent frames.
+     * 
+     * To use more than one value, or a value along with the time it was captured, take a
+     * {@link #getSnapshot(int, LimelightSnapshot) snapshot} instead, so that they all come from the same frames.
      * 
      * @param key - the LimelightKey corresponding to the desired value.
-     * @param numSamples - how many samples of the value to average out.
+     * @param numSamples - how many frames to average the value over, at most {@link #FRAME_HISTORY_LENGTH}.
      * @return
      */
     public double getValue(LimelightKey key, int numSamples) {
-        double runningTotal = 0;
-        int count = 0;
+        double time = Timer.getFPGATimestamp();
+
+        synchronized (frameLock) {
+            int count = countRecentFrames(numSamples, time);
 
-        while (count <= numSamples) {
-            runningTotal += limelightTable.getEntry(key.getKey()).getDouble(0.0);
-            count += 1;
+            if (count > 0) {
+                double runningTotal = 0;
+                for (long frameNumber = frameCount - count; frameNumber < frameCount; frameNumber++) {
+                    runningTotal += frameHistory[(int) (frameNumber % FRAME_HISTORY_LENGTH)][key.ordinal()];
+                }
+
+                return runningTotal / count;
+            }
         }
 
-        return runningTotal / numSamples;
+        // read from NetworkTables outside of the lock
+        return keyEntries[key.ordinal()].getDouble(0.0);
+    }
+
+    /**
+     * Averages every value output by the Limelight, and the time its images were captured, over
+     * the same recent frames.
+     * 
+     * @param numSamples - how many frames to average over, at most {@link #FRAME_HISTORY_LENGTH}.
+     * @param snapshot - filled with the averages.
+     */
+    public void getSnapshot(int numSamples, LimelightSnapshot snapshot) {
+        snapshot.frameCount = averageRecentFrames(numSamples, snapshot.frame);
     }
 
     /**
@@ -74,37 +309,35 @@ public class Limelight {
         return getValue(LimelightKey.VALID_TARGET, 1) > 0.99;
     }
 
+    /**
+     * Gets the average of every value output by the Limelight, including the 3D pose, over the most recent frames.
+     * 
+     * @param numSamples - how many frames to average over, at most {@link #FRAME_HISTORY_LENGTH}.
+     */
     public LimelightData getValues(int numSamples) {
-        LimelightData data = new LimelightData();
-        double runningTotal;
-        double[] camtranArray;
-        int index = 0;
-        runningTotal = 0;
-        for(int a = 0; a < numSamples; a++) {
+        double[] average = new double[FRAME_SIZE];
+        averageRecentFrames(numSamples, average);
+
+        return toLimelightData(average);
+    }
 
-            for (String valueKey : LimelightConstants.valueKeys) {
-                runningTotal += limelightTable.getEntry(valueKey).getDouble(0.0);
+    /**
+     * Waits, without blocking, for the Limelight to process new frames.
+     * 
+     * @param numSamples - how many new frames to average over, at most {@link #FRAME_HISTORY_LENGTH}.
+     * @return a future which completes with the average of the frames once they have all arrived.
+     */
+    public CompletableFuture<LimelightData> sampleNewFrames(int numSamples) {
+        FrameRequest request = new FrameRequest();
+        request.numSamples = Math.min(Math.max(numSamples, 1), FRAME_HISTORY_LENGTH);
+        request.future = new CompletableFuture<>();
 
-            }
-        }
-        for (String valueKey : LimelightConstants.valueKeys) {
-            data.set(valueKey, runningTotal / numSamples);
+        synchronized (frameLock) {
+            request.completionFrame = frameCount + request.numSamples;
+            frameRequests.add(request);
         }
 
-        //load the camtranArray
-        camtranArray = limelightTable.getEntry("camtran").getDoubleArray(new double[6]);
-        //add each element in the array to the updated values for however many times numSamples dictates(minus 1 because the array is initially loaded in with values)
-        for(int a = 0; a < numSamples - 1; a++){
-            for(int b = 0; b < camtranArray.length; b++){
-                camtranArray[b] += limelightTable.getEntry("camtran").getDoubleArray(new double[6])[b];
-            }
-        }
-        for(String valueKey : LimelightConstants.valueKeysPnP) {
-            data.set(valueKey, camtranArray[index] / numSamples);
-            index++;
-        }
-        
-        return data;
+        return request.future;
     }
 
     public double getYPrime(double targetHeight, int n) {
@@ -117,11 +350,18 @@ public class Limelight {
         return (targetHeight - cameraHeight) / RobotMath.tan(ty + cameraAngle) - frontDistance;
     }
 
+    /**
+     * The inverse of {@link #calculateYPrimeFromTY(double, double)}.
+     */
+    public double calculateTYFromYPrime(double yPrime, double targetHeight) {
+        return RobotMath.atan((targetHeight - cameraHeight) / (yPrime + frontDistance)) - cameraAngle;
+    }
+
     public void setLEDMode(LEDMode mode) {
-        limelightTable.getEntry("ledMode").setNumber(mode.getLEDMode());
+        ledModeEntry.setNumber(mode.getLEDMode());
     }
 
     public void setStreamMode(StreamMode mode) {
-        limelightTable.getEntry("stream").setNumber(mode.getStream());
+        streamEntry.setNumber(mode.getStream());
     }
 }
@@ -0,0 +1,48 @@
+package org.team3128.common.hardware.limelight;
+
+/**
+ * The averages of the Limelight's most recent frames, along with the time they were captured, all taken
+ * from the same frames by {@link Limelight#getSnapshot(int, LimelightSnapshot)}.
+ *
+ * Reading each value from the Limelight separately can average a different set of frames each time if a
+ * new frame arrives in between, which pairs offsets from one image with the capture time of another.
+ *
+ * A snapshot can be filled again and again, so code which runs every loop doesn't need to allocate one each time.
+ *
+ * @author Narwhal
+ *
+ */
+public class LimelightSnapshot {
+    // laid out the same as Limelight's frames
+    final double[] frame = new double[Limelight.FRAME_SIZE];
+    long frameCount;
+
+    /**
+     * Gets the average value of a key over the frames in this snapshot.
+     */
+    public double getValue(LimelightKey key) {
+        return frame[key.ordinal()];
+    }
+
+    /**
+     * Gets the average FPGA time, in seconds, at which the frames in this snapshot were captured.
+     */
+    public double getCaptureTime() {
+        return frame[Limelight.CAPTURE_TIME_INDEX];
+    }
+
+    /**
+     * Checks whether every frame in this snapshot saw a valid target.
+     */
+    public boolean hasValidTarget() {
+        return getValue(LimelightKey.VALID_TARGET) > 0.99;
+    }
+
+    /**
+     * Gets the number of frames the Limelight had received when this snapshot was taken, so that a new
+     * snapshot of the same frames can be told apart from one with a new frame in it.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+}
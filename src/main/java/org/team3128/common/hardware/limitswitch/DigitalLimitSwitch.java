@@ -0,0 +1,31 @@
+package org.team3128.common.hardware.limitswitch;
+
+import edu.wpi.first.wpilibj.DigitalInput;
+
+/**
+ * {@link ILimitSwitch} wired to a DIO port on the roboRIO.
+ *
+ * @author Narwhal
+ *
+ */
+public class DigitalLimitSwitch implements ILimitSwitch
+{
+	private final DigitalInput input;
+	private final boolean activeLow;
+
+	/**
+	 * @param input the DIO port the switch is wired to
+	 * @param activeLow true if the input reads false when the switch is triggered, which is the case for normally-open switches with the RIO's pull-up resistors.
+	 */
+	public DigitalLimitSwitch(DigitalInput input, boolean activeLow)
+	{
+		this.input = input;
+		this.activeLow = activeLow;
+	}
+
+	@Override
+	public boolean isTriggered()
+	{
+		return input.get() != activeLow;
+	}
+}
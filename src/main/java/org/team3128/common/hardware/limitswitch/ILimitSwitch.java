@@ -0,0 +1,15 @@
+package org.team3128.common.hardware.limitswitch;
+
+/**
+ * Interface for a switch which is triggered when a mechanism reaches a certain position.
+ *
+ * @author Narwhal
+ *
+ */
+public interface ILimitSwitch
+{
+	/**
+	 * @return true if the mechanism is pressing the switch.
+	 */
+	public boolean isTriggered();
+}
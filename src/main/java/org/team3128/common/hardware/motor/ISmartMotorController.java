@@ -0,0 +1,65 @@
+package org.team3128.common.hardware.motor;
+
+import org.team3128.common.drive.MotionProfileTalon;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motorcontrol.NeutralMode;
+import com.ctre.phoenix.motorcontrol.can.SlotConfiguration;
+
+/**
+ * Interface for a motor controller with an attached encoder and its own closed-loop control,
+ * such as a Talon SRX.
+ *
+ * The methods mirror the Phoenix API, so code written against a {@link com.ctre.phoenix.motorcontrol.can.TalonSRX}
+ * only needs its types changed to run on a {@link SRXMotorController} on the robot or on a
+ * {@link org.team3128.common.simulation.SimulatedMotorController} off of it.
+ *
+ * Sensor positions are in native units, and velocities in native units per 100ms.
+ *
+ * @author Narwhal
+ *
+ */
+public interface ISmartMotorController extends MotionProfileTalon
+{
+	public int getSelectedSensorPosition();
+
+	public int getSelectedSensorPosition(int pidIdx);
+
+	public int getSelectedSensorVelocity();
+
+	public int getSelectedSensorVelocity(int pidIdx);
+
+	public ErrorCode setSelectedSensorPosition(int sensorPos);
+
+	public ErrorCode setSelectedSensorPosition(int sensorPos, int pidIdx, int timeoutMs);
+
+	public void setSensorPhase(boolean phase);
+
+	public void setInverted(boolean invert);
+
+	public void setNeutralMode(NeutralMode neutralMode);
+
+	public double getOutputCurrent();
+
+	public void selectProfileSlot(int slotIdx, int pidIdx);
+
+	public ErrorCode config_kP(int slotIdx, double value);
+
+	public ErrorCode config_kI(int slotIdx, double value);
+
+	public ErrorCode config_kD(int slotIdx, double value);
+
+	public ErrorCode config_kF(int slotIdx, double value);
+
+	public void getSlotConfigs(SlotConfiguration slot, int slotIdx, int timeoutMs);
+
+	public ErrorCode configMotionCruiseVelocity(int sensorUnitsPer100ms, int timeoutMs);
+
+	public ErrorCode configMotionAcceleration(int sensorUnitsPer100msPerSec, int timeoutMs);
+
+	public ErrorCode configOpenloopRamp(double secondsFromNeutralToFull, int timeoutMs);
+
+	public ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs);
+
+	public ErrorCode changeMotionControlFramePeriod(int periodMs);
+}
@@ -1,30 +1,48 @@
  package org.team3128.common.hardware.motor;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.team3128.common.RobotProperties;
+import org.team3128.common.util.ControlScheduler;
 
 /**
 * MotorLogic is an abstract superclass for classes that define the behavior of a motor.  
 * This class does all of the boilerplate, like getters and setters, while the subclass
 * implements the actual math and logic.
+*
+* The control loop runs on the {@link ControlScheduler}, so its period is locked to the FPGA clock
+* instead of drifting by however long each step and sleep took.  The actual time between steps is
+* measured in nanoseconds and passed to the subclass, and how far it strays from the nominal period
+* (the jitter) is recorded along with how long each step takes.
 * @author Noah Sutton-Smolin
 */
 public abstract class MotorLogic
 {
-	//owned by the control thread
-	private long lastRuntime = 0;
+	private static final AtomicInteger instanceCount = new AtomicInteger();
+	
+	//unique, so that each instance's scheduler stats are reported separately
+	private final String taskName = getClass().getSimpleName() + "-" + instanceCount.incrementAndGet();
+	
+	//written only by the control task
+	private volatile long lastRuntime = 0;
+	private volatile long stepCount = 0;
+	private volatile long totalJitter = 0, maxJitter = 0;
+	private volatile long totalStepTime = 0, maxStepTime = 0;
+	
+	private long nominalPeriod;
    
 	private MotorGroup controlledMotor = null;
-	private Thread thread;
+	private ControlScheduler.Task task;
 	
-	private HashSet<Limiter> limiters;
+	//replaced, never modified, when limiters are added or removed, so the control step can iterate it without locking
+	private volatile Limiter[] limiters = new Limiter[0];
+	private final Object limitersLock = new Object();
 	
 	protected int _refreshTime = RobotProperties.motorControlUpdateFrequency;
 		
 	public MotorLogic()
 	{
-		limiters = new HashSet<Limiter>();
 	}
 
 	protected synchronized void setControlledMotor(MotorGroup m)
@@ -47,19 +65,19 @@ public abstract class MotorLogic
    
    /**
     * Update the speed control.
-    * @param dt the time im milliseconds since the last update.  Actually working since 4-6-2015!
+    * @param dt the time in nanoseconds since the last update.
     * @return
     */
-   public abstract double speedControlStep(double dt);
+   public abstract double speedControlStep(long dt);
    
    /**
-    * Return true if the motor control is finished and the thread should stop running.
+    * Return true if the motor control is finished and the control loop should stop running.
     */
    public abstract boolean isComplete();
 
    /**
     *
-    * @return the last runtime in system clock milliseconds
+    * @return the {@link System#nanoTime()} at which the control loop last ran
     */
    public final long getLastRuntime()
    {
@@ -72,7 +90,17 @@ public abstract class MotorLogic
     */
    public void addLimiter(Limiter limiter)
    {
-	   limiters.add(limiter);
+	   synchronized(limitersLock)
+	   {
+		   if(Arrays.asList(limiters).contains(limiter))
+		   {
+			   return;
+		   }
+		   
+		   Limiter[] newLimiters = Arrays.copyOf(limiters, limiters.length + 1);
+		   newLimiters[limiters.length] = limiter;
+		   limiters = newLimiters;
+	   }
    }
    
    /**
@@ -93,20 +121,75 @@ public abstract class MotorLogic
     */
    public void removeLimiter(Limiter limiter)
    {
-	   limiters.remove(limiter);
+	   synchronized(limitersLock)
+	   {
+		   Limiter[] newLimiters = new Limiter[limiters.length];
+		   int numLimiters = 0;
+		   for(Limiter currentLimiter : limiters)
+		   {
+			   if(!currentLimiter.equals(limiter))
+			   {
+				   newLimiters[numLimiters++] = currentLimiter;
+			   }
+		   }
+		   
+		   limiters = Arrays.copyOf(newLimiters, numLimiters);
+	   }
    }
 
    /**
     *
-    * @return how long ago the event was last called (used for dT)
+    * @return how long ago the control loop last ran, in nanoseconds (used for dT)
     */
    public final long getLastRuntimeDist()
    {
-	   return System.currentTimeMillis() - lastRuntime;
+	   return System.nanoTime() - lastRuntime;
+   }
+   
+   /**
+    * Get the number of control steps run since the loop was last started.
+    */
+   public long getStepCount()
+   {
+	   return stepCount;
+   }
+   
+   /**
+    * Get the average difference between the actual and nominal time between steps, in milliseconds.
+    */
+   public double getAverageJitter()
+   {
+	   long periods = stepCount - 1;
+	   return periods <= 0 ? 0 : totalJitter / 1e6 / periods;
+   }
+   
+   /**
+    * Get the largest difference between the actual and nominal time between steps, in milliseconds.
+    */
+   public double getMaxJitter()
+   {
+	   return maxJitter / 1e6;
+   }
+   
+   /**
+    * Get the average time a control step (including limiters) takes, in milliseconds.
+    */
+   public double getAverageStepTime()
+   {
+	   long steps = stepCount;
+	   return steps == 0 ? 0 : totalStepTime / 1e6 / steps;
    }
    
    /**
-    * Sets the speed update time in msec
+    * Get the longest time a control step (including limiters) has taken, in milliseconds.
+    */
+   public double getMaxStepTime()
+   {
+	   return maxStepTime / 1e6;
+   }
+   
+   /**
+    * Sets the speed update time in msec.  Takes effect the next time the control loop is started.
     *
     * @param refreshTime time between updates in msec
     */
@@ -116,87 +199,102 @@ public abstract class MotorLogic
    }
 
    /**
-    * internal thread
+    * Run one period of the control loop.  Called by the {@link ControlScheduler}.
     */
-   public final void run() 
+   private void step()
    {
-	   while(true)
+	   long startTime = System.nanoTime();
+	   long dt = startTime - lastRuntime;
+	   lastRuntime = startTime;
+	   
+	   double newSpeed;
+	   synchronized(this)
 	   {
-		   synchronized(this)
-		   {
-		       if(this.isComplete())
-		       {
-		           this.controlledMotor.setInternalSpeed(0);
-		           reset();
-		           return;
-		       }
-		       else
-		       {
-		    	   double newSpeed = speedControlStep(getLastRuntimeDist());
-		    	   for(Limiter currentLimiter : limiters)
-		    	   {
-			    	   if(!currentLimiter.canMove(newSpeed))
-			    	   {
-			    		   newSpeed = 0;
-			    	   }
-		    	   }
-
-		    	   controlledMotor.setInternalSpeed(newSpeed);
-		       }
-		   }
-		   
-	       lastRuntime = System.currentTimeMillis();
+	       if(this.isComplete())
+	       {
+	           this.controlledMotor.setInternalSpeed(0);
+	           reset();
+	           shutDown();
+	           return;
+	       }
 	       
-		   try
-		   {
-			   Thread.sleep(_refreshTime);
-		   }
-		   catch (InterruptedException e)
+	       newSpeed = speedControlStep(dt);
+	   }
+	   
+	   for(Limiter currentLimiter : limiters)
+	   {
+		   if(!currentLimiter.canMove(newSpeed))
 		   {
-			   return;
+			   newSpeed = 0;
 		   }
 	   }
+
+	   controlledMotor.setInternalSpeed(newSpeed);
+	   
+	   recordStep(dt, System.nanoTime() - startTime);
    }
    
-   public final void shutDown()
+   private void recordStep(long period, long stepTime)
    {
-	   if(thread != null)
+	   //the first step is measured from when the loop was started, not from a previous step, so it has no jitter
+	   if(stepCount > 0)
 	   {
-		   thread.interrupt();
-		   try
-		   {
-			   thread.join();
-		   } 
-		   catch (InterruptedException e)
+		   long jitter = Math.abs(period - nominalPeriod);
+		   
+		   totalJitter += jitter;
+		   if(jitter > maxJitter)
 		   {
-				e.printStackTrace();
-				return;
+			   maxJitter = jitter;
 		   }
 	   }
 	   
+	   totalStepTime += stepTime;
+	   if(stepTime > maxStepTime)
+	   {
+		   maxStepTime = stepTime;
+	   }
+	   
+	   ++stepCount;
    }
    
    /**
-    * Start the controller thread if it is stopped, which it is when you construct the object.
+    * Stop the control loop.
     */
-   public void start()
+   public final synchronized void shutDown()
    {
-	   if(thread == null || !thread.isAlive())
+	   if(task != null)
 	   {
-		   thread = new Thread(this::run, "MotorLogic Thread");
-		   thread.start();
+		   task.cancel();
+		   task = null;
 	   }
    }
    
-   public boolean isRunning()
+   /**
+    * Start the control loop if it is stopped, which it is when you construct the object.
+    * 
+    * The refresh time is rounded to a multiple of {@link ControlScheduler#BASE_PERIOD}.
+    */
+   public synchronized void start()
    {
-	   if(thread == null)
+	   if(task == null)
 	   {
-		   return false;
+		   int rateDivisor = ControlScheduler.ticksForPeriod(_refreshTime / 1000.0);
+		   nominalPeriod = (long) (rateDivisor * ControlScheduler.BASE_PERIOD * 1e9);
+		   
+		   stepCount = 0;
+		   totalJitter = 0;
+		   maxJitter = 0;
+		   totalStepTime = 0;
+		   maxStepTime = 0;
+		   
+		   lastRuntime = System.nanoTime();
+		   task = ControlScheduler.getInstance().schedule(taskName, rateDivisor, this::step);
 	   }
-	   
-	   return thread.isAlive();
+   }
+   
+   public synchronized boolean isRunning()
+   {
+	   return task != null;
    }
    
 }
-
@@ -0,0 +1,195 @@
+package org.team3128.common.hardware.motor;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.NeutralMode;
+import com.ctre.phoenix.motorcontrol.can.SlotConfiguration;
+import com.ctre.phoenix.motorcontrol.can.TalonSRX;
+
+/**
+ * {@link ISmartMotorController} backed by a real Talon SRX.
+ *
+ * @author Narwhal
+ *
+ */
+public class SRXMotorController implements ISmartMotorController
+{
+	private final TalonSRX talon;
+
+	public SRXMotorController(TalonSRX talon)
+	{
+		this.talon = talon;
+	}
+
+	/**
+	 * Get the underlying Talon, for configuration not covered by {@link ISmartMotorController}.
+	 */
+	public TalonSRX getTalon()
+	{
+		return talon;
+	}
+
+	@Override
+	public void set(ControlMode mode, double value)
+	{
+		talon.set(mode, value);
+	}
+
+	@Override
+	public int getSelectedSensorPosition()
+	{
+		return talon.getSelectedSensorPosition();
+	}
+
+	@Override
+	public int getSelectedSensorPosition(int pidIdx)
+	{
+		return talon.getSelectedSensorPosition(pidIdx);
+	}
+
+	@Override
+	public int getSelectedSensorVelocity()
+	{
+		return talon.getSelectedSensorVelocity();
+	}
+
+	@Override
+	public int getSelectedSensorVelocity(int pidIdx)
+	{
+		return talon.getSelectedSensorVelocity(pidIdx);
+	}
+
+	@Override
+	public ErrorCode setSelectedSensorPosition(int sensorPos)
+	{
+		return talon.setSelectedSensorPosition(sensorPos);
+	}
+
+	@Override
+	public ErrorCode setSelectedSensorPosition(int sensorPos, int pidIdx, int timeoutMs)
+	{
+		return talon.setSelectedSensorPosition(sensorPos, pidIdx, timeoutMs);
+	}
+
+	@Override
+	public void setSensorPhase(boolean phase)
+	{
+		talon.setSensorPhase(phase);
+	}
+
+	@Override
+	public void setInverted(boolean invert)
+	{
+		talon.setInverted(invert);
+	}
+
+	@Override
+	public void setNeutralMode(NeutralMode neutralMode)
+	{
+		talon.setNeutralMode(neutralMode);
+	}
+
+	@Override
+	public double getOutputCurrent()
+	{
+		return talon.getOutputCurrent();
+	}
+
+	@Override
+	public void selectProfileSlot(int slotIdx, int pidIdx)
+	{
+		talon.selectProfileSlot(slotIdx, pidIdx);
+	}
+
+	@Override
+	public ErrorCode config_kP(int slotIdx, double value)
+	{
+		return talon.config_kP(slotIdx, value);
+	}
+
+	@Override
+	public ErrorCode config_kI(int slotIdx, double value)
+	{
+		return talon.config_kI(slotIdx, value);
+	}
+
+	@Override
+	public ErrorCode config_kD(int slotIdx, double value)
+	{
+		return talon.config_kD(slotIdx, value);
+	}
+
+	@Override
+	public ErrorCode config_kF(int slotIdx, double value)
+	{
+		return talon.config_kF(slotIdx, value);
+	}
+
+	@Override
+	public void getSlotConfigs(SlotConfiguration slot, int slotIdx, int timeoutMs)
+	{
+		talon.getSlotConfigs(slot, slotIdx, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode configMotionCruiseVelocity(int sensorUnitsPer100ms, int timeoutMs)
+	{
+		return talon.configMotionCruiseVelocity(sensorUnitsPer100ms, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode configMotionAcceleration(int sensorUnitsPer100msPerSec, int timeoutMs)
+	{
+		return talon.configMotionAcceleration(sensorUnitsPer100msPerSec, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode configOpenloopRamp(double secondsFromNeutralToFull, int timeoutMs)
+	{
+		return talon.configOpenloopRamp(secondsFromNeutralToFull, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs)
+	{
+		return talon.configMotionProfileTrajectoryPeriod(baseTrajDurationMs, timeoutMs);
+	}
+
+	@Override
+	public ErrorCode changeMotionControlFramePeriod(int periodMs)
+	{
+		return talon.changeMotionControlFramePeriod(periodMs);
+	}
+
+	@Override
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint point)
+	{
+		return talon.pushMotionProfileTrajectory(point);
+	}
+
+	@Override
+	public void processMotionProfileBuffer()
+	{
+		talon.processMotionProfileBuffer();
+	}
+
+	@Override
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus status)
+	{
+		return talon.getMotionProfileStatus(status);
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs)
+	{
+		return talon.clearMotionProfileHasUnderrun(timeoutMs);
+	}
+
+	@Override
+	public void clearMotionProfileTrajectories()
+	{
+		talon.clearMotionProfileTrajectories();
+	}
+}
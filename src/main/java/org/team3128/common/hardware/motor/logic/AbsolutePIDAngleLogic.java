@@ -66,7 +66,7 @@ public class AbsolutePIDAngleLogic extends MotorLogic
     }
 
     @Override
-    public double speedControlStep(double dt)
+    public double speedControlStep(long dt)
     {
     	double angle = _encoder.getAngle();
     	
@@ -85,7 +85,7 @@ public class AbsolutePIDAngleLogic extends MotorLogic
     		//errorSum = -errorLimit;
     	}
     	
-        double output = error * kP + errorSum * kI + kD * (error - prevError) / dt;
+        double output = error * kP + errorSum * kI + kD * (error - prevError) / (dt / 1e6);
         
         prevError = error;
         
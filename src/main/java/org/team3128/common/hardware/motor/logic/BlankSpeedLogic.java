@@ -28,7 +28,7 @@ public class BlankSpeedLogic extends MotorLogic
     }
 
     @Override
-    public double speedControlStep(double dt)
+    public double speedControlStep(long dt)
     {
         return tgtSpeed;
     }
@@ -45,7 +45,7 @@ public class ConstantCurrentLogic extends MotorLogic
     }
 
     @Override
-    public double speedControlStep(double dt)
+    public double speedControlStep(long dt)
     {
         double currentCurrent = panel.getCurrent(motorPort);
         pidCalc.update(currentCurrent);
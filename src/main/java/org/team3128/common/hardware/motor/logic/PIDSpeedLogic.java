@@ -77,7 +77,7 @@ public class PIDSpeedLogic extends MotorLogic
     }
 
     @Override
-    public double speedControlStep(double dt)
+    public double speedControlStep(long dt)
     {
     	double speed = -1 * _encoder.getAngularSpeed();
     	if(Math.abs(speed) < 5.0)
@@ -88,7 +88,8 @@ public class PIDSpeedLogic extends MotorLogic
         
         double output = RobotMath.clampPosNeg1(_pidCalculator.getOutput());
         
-        Log.debug("PIDSpeedLogic", "Current RPM: " + speed + " Output: " + output);
+        final double currentSpeed = speed;
+        Log.debug("PIDSpeedLogic", () -> "Current RPM: " + currentSpeed + " Output: " + output);
         
         
         return output;
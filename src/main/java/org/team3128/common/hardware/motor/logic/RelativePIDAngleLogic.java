@@ -101,7 +101,7 @@ public class RelativePIDAngleLogic extends MotorLogic
     }
 
     @Override
-    public double speedControlStep(double dt)
+    public double speedControlStep(long dt)
     {
     	
     	double power = 0;
@@ -140,7 +140,7 @@ public class RelativePIDAngleLogic extends MotorLogic
 	    		//errorSum = -errorLimit;
 	    	}
 	    	
-	        double output = error * kP + errorSum * kI + kD * (error - prevError) / dt;
+	        double output = error * kP + errorSum * kI + kD * (error - prevError) / (dt / 1e6);
 	        
 	        prevError = error;
 	        
@@ -2,6 +2,7 @@ package org.team3128.common.hardware.ultrasonic;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.datatypes.Pair;
 import org.team3128.common.util.units.Length;
@@ -17,6 +18,8 @@ import edu.wpi.first.wpilibj.SerialPort.StopBits;
  * It is accurate to a few millimeters and has a max range of 500 cm.
  * 
  * The distance is updated asynchronously every half-second in auto-ping mode.
+ * The serial port is polled by a {@link ControlScheduler} task, which only reads
+ * once a whole response has arrived so that it never blocks the scheduler thread.
  * 
  * @author Jamie
  *
@@ -28,7 +31,7 @@ public class MaxSonar implements IUltrasonic
 	
 	DigitalOutput rangingPin;
 	
-	Thread readerThread;
+	ControlScheduler.Task readerTask;
 	
 	//in whatever unit the sensor sends back
 	AtomicInteger distance;
@@ -86,8 +89,7 @@ public class MaxSonar implements IUltrasonic
 		rangingPin = new DigitalOutput(rangingPinDIONumber);
 		rangingPin.set(true);
 		
-		readerThread = new Thread(this::readerLoop);
-		readerThread.start();
+		startReading();
 	}
 	
 	private Pair<Boolean, Integer> getDistanceFromResponse(String response)
@@ -118,41 +120,39 @@ public class MaxSonar implements IUltrasonic
 		
 	}
 	
-	private void readerLoop()
+	private void startReading()
 	{
-		while(true)
+		readerTask = ControlScheduler.getInstance().schedule("MaxSonar", ControlScheduler.ticksForPeriod(.01), this::pollSensor);
+	}
+
+	private void pollSensor()
+	{
+		if(ultrasonicPort.getBytesReceived() < sensorResolution.bytesPerResponse)
 		{
-			//Log.debug("MaxSonar", "Waiting for response");			
+			return;
+		}
 
-			String response;
-			
-			try
-			{
-				response = ultrasonicPort.readString(sensorResolution.bytesPerResponse);
-	
-			}
-			catch(StringIndexOutOfBoundsException ex)
-			{
-				ex.printStackTrace();
-				continue;
-			}
-			
-			if(readerThread.isInterrupted())
-			{
-				return;
-			}
-			
-			Pair<Boolean, Integer> result = getDistanceFromResponse(response);
-			
-			if(result.left == true)
-			{
-				distance.set(result.right);
-			}
-			else
-			{
-				ultrasonicPort.reset();
-			}
+		String response;
+
+		try
+		{
+			response = ultrasonicPort.readString(sensorResolution.bytesPerResponse);
+		}
+		catch(StringIndexOutOfBoundsException ex)
+		{
+			ex.printStackTrace();
+			return;
+		}
+
+		Pair<Boolean, Integer> result = getDistanceFromResponse(response);
 
+		if(result.left == true)
+		{
+			distance.set(result.right);
+		}
+		else
+		{
+			ultrasonicPort.reset();
 		}
 	}
 
@@ -209,32 +209,20 @@ public class MaxSonar implements IUltrasonic
 		
 		if(autoPing)
 		{
-			if(!readerThread.isAlive())
+			if(readerTask == null)
 			{
-				readerThread = new Thread(this::readerLoop);
-				readerThread.start();
+				startReading();
 			}
 		}
 		else
 		{
-			if(readerThread.isAlive())
+			if(readerTask != null)
 			{
-				readerThread.interrupt();
-				long startTime = System.currentTimeMillis();
-				try
-				{
-					readerThread.join();
-				}
-				catch(InterruptedException e)
-				{
-					e.printStackTrace();
-				}
-				Log.debug("MaxSonar", "Shutting down thread took " + (System.currentTimeMillis() - startTime) + " ms");
-				
+				readerTask.cancel();
+				readerTask = null;
+
 				ultrasonicPort.reset();
 			}
-			
-			
 		}
 	}
 	
@@ -1,12 +1,9 @@
 package org.team3128.common.listener;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.team3128.common.listener.callbacks.AxisListenerCallback;
@@ -19,8 +16,7 @@ import org.team3128.common.listener.controltypes.POV;
 import org.team3128.common.util.Assert;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
-import org.team3128.common.util.datatypes.Pair;
-import org.team3128.common.util.datatypes.SynchronizedMultimap;
+import org.team3128.common.util.datatypes.CopyOnWriteMultimap;
 
 import edu.wpi.first.wpilibj.Joystick;
 
@@ -36,6 +32,10 @@ import edu.wpi.first.wpilibj.Joystick;
  * different controls, those listeners will both be invoked if both controls
  * change.
  * 
+ * Control values are double-buffered in primitive arrays indexed by control number, and
+ * listeners are flattened into per-index callback arrays whenever they are changed, so
+ * tick() does not allocate once the robot is running.
+ * 
  * @author Jamie
  *
  */
@@ -45,12 +45,24 @@ public class ListenerManager
 	// when this is locked no one should touch _joystickValues or _buttonValues
 	private ReentrantLock _controlValuesMutex;
 
-	// maps the listeners to the control inputs
-	private SynchronizedMultimap<Control, AxisListenerCallback> axisListeners = new SynchronizedMultimap<Control, AxisListenerCallback>();
-	private SynchronizedMultimap<Control, Pair<TypelessListenerCallback, Boolean>> buttonListeners = new SynchronizedMultimap<Control, Pair<TypelessListenerCallback, Boolean>>();
-	private SynchronizedMultimap<Control, POVListenerCallback> povListeners = new SynchronizedMultimap<Control, POVListenerCallback>();
-	private SynchronizedMultimap<Control, TypelessListenerCallback> genericListeners = new SynchronizedMultimap<Control, TypelessListenerCallback>();
-
+	// maps the listeners to the control inputs.  Listeners can be added from any thread while tick() reads these.
+	private CopyOnWriteMultimap<Control, AxisListenerCallback> axisListeners = new CopyOnWriteMultimap<Control, AxisListenerCallback>(AxisListenerCallback[]::new);
+	private CopyOnWriteMultimap<Control, TypelessListenerCallback> buttonDownListeners = new CopyOnWriteMultimap<Control, TypelessListenerCallback>(TypelessListenerCallback[]::new);
+	private CopyOnWriteMultimap<Control, TypelessListenerCallback> buttonUpListeners = new CopyOnWriteMultimap<Control, TypelessListenerCallback>(TypelessListenerCallback[]::new);
+	private CopyOnWriteMultimap<Control, POVListenerCallback> povListeners = new CopyOnWriteMultimap<Control, POVListenerCallback>(POVListenerCallback[]::new);
+	private CopyOnWriteMultimap<Control, TypelessListenerCallback> genericListeners = new CopyOnWriteMultimap<Control, TypelessListenerCallback>(TypelessListenerCallback[]::new);
+
+	// flattened copies of the multimaps above, indexed by control number. Rebuilt by tick() whenever a listener is added or removed.
+	private TypelessListenerCallback[][] buttonDownCallbacks, buttonUpCallbacks;
+	private AxisListenerCallback[][] axisCallbacks;
+	private POVListenerCallback[][] povCallbacks;
+	
+	// each distinct generic listener is stored once, and controls refer to it by index so that it is only invoked once per tick
+	private TypelessListenerCallback[] genericCallbacks;
+	private boolean[] genericCallbacksPending;
+	private int[][] buttonGenericIndices, axisGenericIndices, povGenericIndices;
+	
+	private volatile boolean callbacksChanged = true;
 	
 	private HashMap<String, Control> controlNames;
 
@@ -62,20 +74,43 @@ public class ListenerManager
 	
 	private static class ControlValues
 	{
-		public Set<Button> buttonValues;
+		// bitset of pressed buttons, indexed by button number
+		public long[] buttonValues;
+		
+		public double[] joystickValues;
+		
+		// POV direction values, see POVValue
+		public int[] povValues;
+		
+		ControlValues(int numButtons, int numAxes, int numPOVs)
+		{
+			buttonValues = new long[(numButtons >> 6) + 1];
+			joystickValues = new double[numAxes];
+			povValues = new int[numPOVs];
+		}
 		
-		public HashMap<Axis, Double> joystickValues;
+		public boolean getButton(int index)
+		{
+			return (buttonValues[index >> 6] & (1L << index)) != 0;
+		}
+		
+		public void setButton(int index)
+		{
+			buttonValues[index >> 6] |= (1L << index);
+		}
 		
-		public HashMap<POV, POVValue> povValues;
-		ControlValues()
+		public void clear()
 		{
-			buttonValues = new HashSet<>();
-			joystickValues = new HashMap<Axis, Double>();
-			povValues = new HashMap<POV, POVValue>();
+			Arrays.fill(buttonValues, 0);
+			Arrays.fill(joystickValues, 0);
+			Arrays.fill(povValues, 0);
 		}
 	}
 	
 	private ControlValues currentControls;
+	
+	// the buffer which the next tick() will read the joysticks into.  Swapped with currentControls every tick.
+	private ControlValues spareControls;
 
 	//zero indexed
 	private int numAxes, numPOVs;
@@ -140,6 +175,7 @@ public class ListenerManager
 		checkControlName(name, null);
 
 		genericListeners.put(controlNames.get(name), listener);
+		callbacksChanged = true;
 	}
 	
 	/**
@@ -150,6 +186,7 @@ public class ListenerManager
 		checkControlName(name, POV.class);
 
 		povListeners.put(controlNames.get(name), listener);
+		callbacksChanged = true;
 	}
 	
 	/**
@@ -159,7 +196,8 @@ public class ListenerManager
 	{
 		checkControlName(name, Button.class);
 
-		buttonListeners.put(controlNames.get(name), new Pair<>(listener, true));
+		buttonDownListeners.put(controlNames.get(name), listener);
+		callbacksChanged = true;
 	}
 	
 	/**
@@ -169,7 +207,8 @@ public class ListenerManager
 	{
 		checkControlName(name, Button.class);
 
-		buttonListeners.put(controlNames.get(name), new Pair<>(listener, false));
+		buttonUpListeners.put(controlNames.get(name), listener);
+		callbacksChanged = true;
 	}
 	
 	
@@ -183,6 +222,7 @@ public class ListenerManager
 		checkControlName(name, Axis.class);
 
 		axisListeners.put(controlNames.get(name), listener);
+		callbacksChanged = true;
 	}
 	
 	/**
@@ -221,6 +261,8 @@ public class ListenerManager
 			genericListeners.put(controlNames.get(controlName), listener);
 
 		}
+		
+		callbacksChanged = true;
 	}
 
 	/**
@@ -234,7 +276,8 @@ public class ListenerManager
 		
 		if(control instanceof Button)
 		{
-			buttonListeners.removeAll(control);
+			buttonDownListeners.removeAll(control);
+			buttonUpListeners.removeAll(control);
 		}
 		else if(control instanceof Axis)
 		{
@@ -244,6 +287,8 @@ public class ListenerManager
 		{
 			povListeners.removeAll(control);
 		}
+		
+		callbacksChanged = true;
 	}
 
 	//
@@ -259,11 +304,16 @@ public class ListenerManager
 	{
 		checkControlName(name, Button.class);
 		
+		int index = controlNames.get(name).getIndex();
+
 		_controlValuesMutex.lock();
 		
-		boolean retval;
+		boolean retval = false;
 
-		retval = currentControls.buttonValues.contains(controlNames.get(name));
+		if(index <= numButtons)
+		{
+			retval = currentControls.getButton(index);
+		}
 		_controlValuesMutex.unlock();
 		
 		return retval;
@@ -283,14 +333,14 @@ public class ListenerManager
 	{
 		checkControlName(name, Axis.class);
 		
+		int index = controlNames.get(name).getIndex();
+
 		_controlValuesMutex.lock();
 		double retval = 0.0;
 		
-		Control axis = controlNames.get(name);
-		
-		if(currentControls.joystickValues.containsKey(axis))
+		if(index < currentControls.joystickValues.length)
 		{
-			retval = currentControls.joystickValues.get(axis);
+			retval = currentControls.joystickValues[index];
 		}
 		
 		_controlValuesMutex.unlock();
@@ -309,96 +359,147 @@ public class ListenerManager
 	{
 		checkControlName(name, POV.class);
 		
+		int index = controlNames.get(name).getIndex();
+
 		_controlValuesMutex.lock();
 		POVValue retval = null;
 
-		retval = currentControls.povValues.get(controlNames.get(name));
+		if(index < currentControls.povValues.length)
+		{
+			retval = POVValue.fromDirectionValue(currentControls.povValues[index]);
+		}
 		
 		_controlValuesMutex.unlock();
 		return retval;
 	}
 	
 	/**
-	 * Collect control information from all joysticks.
-	 * @return
+	 * Collect control information from all joysticks into the provided buffer.
 	 */
-	ControlValues pollAllJoysticks()
+	void pollAllJoysticks(ControlValues newControls)
 	{
-		ControlValues newControls = new ControlValues();
-
-		
 		_controlValuesMutex.lock();
 
+		newControls.clear();
+
 		for(int index = _joysticks.size() - 1; index >= 0; --index)
 		{
 			Joystick currentJoystick = _joysticks.get(index);			
+			boolean firstJoystick = index == _joysticks.size() - 1;
+
 			// read button values
 			for (int counter = 1; counter <= numButtons; counter++)
 			{
-				boolean buttonValue = currentJoystick.getRawButton(counter);
-
-				if(buttonValue)
+				if(currentJoystick.getRawButton(counter))
 				{
-					newControls.buttonValues.add(new Button(counter));
+					newControls.setButton(counter);
 				}
 			}
-			
-			//Log.debug(LOG_TAG, "Buttons: " + newControls.buttonValues.toString());
 
 			// read joystick values
 			for (int counter = 0; counter <= numAxes; counter++)
 			{
-				Axis currAxis = new Axis(counter);
 				double thisJoystickValue = RobotMath.thresh(currentJoystick.getRawAxis(counter), JOYSTICK_DEADZONE);
-				if((!newControls.joystickValues.containsKey(currAxis)) || Math.abs(thisJoystickValue) > JOYSTICK_DEADZONE)
+				if(firstJoystick || Math.abs(thisJoystickValue) > JOYSTICK_DEADZONE)
 				{
-					newControls.joystickValues.put(currAxis, thisJoystickValue);
+					newControls.joystickValues[counter] = thisJoystickValue;
 				}
 			}
 			
 			// read POV values
 			for (int counter = 0; counter <= numPOVs; counter++)
 			{
-				POVValue value = POVValue.fromWPILibAngle(currentJoystick.getPOV(counter));
-				if(newControls.povValues.size() - 1 <= counter)
-				{
-					POVValue oldValue = newControls.povValues.get(new POV(counter));
-					if(oldValue == null || oldValue.getDirectionValue() == 0)
-					{
-						newControls.povValues.put(new POV(counter), value);
-					}
-					
-					//else, use the preexisting value
-				}
-				else
+				//use the preexisting value unless it is centered
+				if(newControls.povValues[counter] == 0)
 				{
-					//add a new value
-					newControls.povValues.put(new POV(counter), value);
-
+					newControls.povValues[counter] = POVValue.directionValueFromWPILibAngle(currentJoystick.getPOV(counter));
 				}
-			
 			}
 		}
 		_controlValuesMutex.unlock();
-				
-		return newControls;
-
 	}
 	
-	private void addTypelessListenersForControl(Set<TypelessListenerCallback> listeners, Control control)
+	/**
+	 * Flatten the listener multimaps into the per-index callback arrays used by invokeListeners().
+	 *
+	 * The multimaps' value arrays are never modified, so they are used as they are.
+	 * Allocates, so it is only run when the registered listeners have changed.
+	 */
+	private void rebuildCallbacks()
+	{
+		//clear the flag first, so that a listener added while we are rebuilding will trigger another rebuild
+		callbacksChanged = false;
+
+		HashMap<TypelessListenerCallback, Integer> genericIndices = new HashMap<>();
+		ArrayList<TypelessListenerCallback> genericList = new ArrayList<>();
+
+		buttonDownCallbacks = new TypelessListenerCallback[numButtons + 1][];
+		buttonUpCallbacks = new TypelessListenerCallback[numButtons + 1][];
+		buttonGenericIndices = new int[numButtons + 1][];
+		for(int index = 0; index <= numButtons; ++index)
+		{
+			Button button = new Button(index);
+
+			buttonDownCallbacks[index] = buttonDownListeners.get(button);
+			buttonUpCallbacks[index] = buttonUpListeners.get(button);
+			buttonGenericIndices[index] = indexGenericListeners(button, genericIndices, genericList);
+		}
+
+		axisCallbacks = new AxisListenerCallback[numAxes + 1][];
+		axisGenericIndices = new int[numAxes + 1][];
+		for(int index = 0; index <= numAxes; ++index)
+		{
+			Axis axis = new Axis(index);
+
+			axisCallbacks[index] = axisListeners.get(axis);
+			axisGenericIndices[index] = indexGenericListeners(axis, genericIndices, genericList);
+		}
+
+		povCallbacks = new POVListenerCallback[numPOVs + 1][];
+		povGenericIndices = new int[numPOVs + 1][];
+		for(int index = 0; index <= numPOVs; ++index)
+		{
+			POV pov = new POV(index);
+
+			povCallbacks[index] = povListeners.get(pov);
+			povGenericIndices[index] = indexGenericListeners(pov, genericIndices, genericList);
+		}
+
+		genericCallbacks = genericList.toArray(new TypelessListenerCallback[0]);
+		genericCallbacksPending = new boolean[genericCallbacks.length];
+	}
+
+	/**
+	 * Get the indices in genericCallbacks of every generic listener registered for the control, adding them to it if they aren't there yet.
+	 */
+	private int[] indexGenericListeners(Control control, HashMap<TypelessListenerCallback, Integer> genericIndices, ArrayList<TypelessListenerCallback> genericList)
 	{
-		// get all its registered listeners
-		Collection<TypelessListenerCallback> foundListeners = genericListeners.get(control);
+		TypelessListenerCallback[] foundListeners = genericListeners.get(control);
 
-		if (foundListeners != null && !foundListeners.isEmpty())
+		int[] indices = new int[foundListeners.length];
+		int counter = 0;
+		for(TypelessListenerCallback callback : foundListeners)
 		{
-			// loop through them
-			for (TypelessListenerCallback callback : foundListeners)
+			Integer genericIndex = genericIndices.get(callback);
+			if(genericIndex == null)
 			{
-				listeners.add(callback);
+				genericIndex = genericList.size();
+				genericList.add(callback);
+				genericIndices.put(callback, genericIndex);
 			}
+
+			indices[counter++] = genericIndex;
 		}
 
+		return indices;
+	}
+
+	private void markGenericListeners(int[] indices)
+	{
+		for(int index : indices)
+		{
+			genericCallbacksPending[index] = true;
+		}
 	}
 
 	/**
@@ -406,7 +507,8 @@ public class ListenerManager
 	 */
 	public void tick()
 	{
-		ControlValues newControls = pollAllJoysticks();
+		ControlValues newControls = spareControls;
+		pollAllJoysticks(newControls);
 			
 		//don't need to lock _controlValuesMutex here because we know it's not going to be modified, because we're the only ones modifying it
 
@@ -417,6 +519,7 @@ public class ListenerManager
 		{
 			_controlValuesMutex.lock();
 			currentControls = newControls;
+			spareControls = oldControls;
 			_controlValuesMutex.unlock();
 		}
 		
@@ -433,133 +536,84 @@ public class ListenerManager
 	 */
 	private void invokeListeners(ControlValues oldControls, ControlValues newControls)
 	{
+		if(callbacksChanged)
+		{
+			rebuildCallbacks();
+		}
+
+		//if the same generic listener is registered for multiple types of control, we need to execute it only once
+		//so we flag all of the generic listeners to execute in here to de-duplicate them.
+		Arrays.fill(genericCallbacksPending, false);
+
 		try
 		{
-			//if the same generic listener is registered for multiple types of control, we need to execute it only once
-			//so we collect all of the generic listeners to execute in here to de-duplicate them.
-			Set<TypelessListenerCallback> genericListenersToInvoke = new HashSet<TypelessListenerCallback>();
-			
 			//buttons
 			//--------------------------------------------------------------------------------------------------------------------------------------------------
 	
-			//check for pressed buttons
-			for(Button button : newControls.buttonValues)
+			for(int index = 1; index <= numButtons; ++index)
 			{
-				if(!oldControls.buttonValues.contains(button))
+				boolean pressed = newControls.getButton(index);
+
+				if(pressed != oldControls.getButton(index))
 				{
-					addTypelessListenersForControl(genericListenersToInvoke, button);
+					markGenericListeners(buttonGenericIndices[index]);
 					
-					// get all its registered listeners
-					HashSet<Pair<TypelessListenerCallback, Boolean>> foundListeners = buttonListeners.get(button);
-	
-					if (foundListeners != null && !foundListeners.isEmpty())
+					//button-press or button-release listeners
+					for(TypelessListenerCallback callback : (pressed ? buttonDownCallbacks[index] : buttonUpCallbacks[index]))
 					{
-						// loop through them
-						for (Pair<TypelessListenerCallback, Boolean> callbackPair : foundListeners)
-						{
-							//button-press listener
-							if(callbackPair.right)
-							{
-								callbackPair.left.onListener();
-							}
-						}
+						callback.onListener();
 					}
 				}
 			}
 			
-			//check for unpressed buttons
-			for(Button button : oldControls.buttonValues)
-			{
-				if(!newControls.buttonValues.contains(button))
-				{
-					addTypelessListenersForControl(genericListenersToInvoke, button);
-					
-					// get all its registered listeners
-					HashSet<Pair<TypelessListenerCallback, Boolean>> foundListeners = buttonListeners.get(button);
-	
-					if (foundListeners != null && !foundListeners.isEmpty())
-					{
-						// loop through them
-						for (Pair<TypelessListenerCallback, Boolean> callbackPair : foundListeners)
-						{
-							//button-release listener
-							if(!callbackPair.right)
-							{
-								callbackPair.left.onListener();
-							}
-						}
-					}
-				}
-			}
+			//axes
+			//--------------------------------------------------------------------------------------------------------------------------------------------------
 
-		// loop through joystick values
-		for (Axis axis : newControls.joystickValues.keySet())
-		{
-			if(currentControls.joystickValues.containsKey(axis))
+			//sanity check to prevent going out of bounds if the axes have changed
+			int numCommonAxes = Math.min(oldControls.joystickValues.length, newControls.joystickValues.length);
+			for(int index = 0; index < numCommonAxes; ++index)
 			{
+				double newValue = newControls.joystickValues[index];
+
 				// has this particular value changed?
-				if(oldControls.joystickValues.containsKey(axis)) //sanity check to prevent NPE if the axes have changed
+				if(Math.abs(oldControls.joystickValues[index] - newValue) > .0001)
 				{
-					double newValue = newControls.joystickValues.get(axis);
+					markGenericListeners(axisGenericIndices[index]);
 					
-					if (Math.abs(oldControls.joystickValues.get(axis) - newValue) > .0001) 
+					for(AxisListenerCallback callback : axisCallbacks[index])
 					{
-						addTypelessListenersForControl(genericListenersToInvoke, axis);
-						
-						// get all its registered listeners
-						HashSet<AxisListenerCallback> foundListeners = axisListeners.get(axis);
-		
-						if (foundListeners != null && !foundListeners.isEmpty())
-						{
-							// loop through them
-							for (AxisListenerCallback callback : foundListeners)
-							{
-								
-								//Log.debug("ListenerManager", "Invoking listener for axis " + axis.getIndex() + " with value " + newValue);
-
-								callback.onListener(newValue);
-							}
-						}
-		
+						callback.onListener(newValue);
 					}
 				}
-				}
 			}
 			
 			//POVs
 			//--------------------------------------------------------------------------------------------------------------------------------------------------
 						
-			for(Map.Entry<POV, POVValue> newPOVEntry : newControls.povValues.entrySet())
+			int numCommonPOVs = Math.min(oldControls.povValues.length, newControls.povValues.length);
+			for(int index = 0; index < numCommonPOVs; ++index)
 			{
-				POVValue oldPOVValue = oldControls.povValues.get(newPOVEntry.getKey());
-				
-				//Log.debug("ListenerManager", "old POV: " + String.valueOf(oldPOVValue) + " new POV: " + newPOVEntry.toString());
-
+				int newValue = newControls.povValues[index];
 				
-				if(oldPOVValue != null && !oldPOVValue.equals(newPOVEntry.getValue()))
+				if(oldControls.povValues[index] != newValue)
 				{
-					addTypelessListenersForControl(genericListenersToInvoke, newPOVEntry.getKey());
-					
-					// get all its registered listeners
-					HashSet<POVListenerCallback> foundListeners = povListeners.get(newPOVEntry.getKey());
-	
-					if (foundListeners != null && !foundListeners.isEmpty())
+					markGenericListeners(povGenericIndices[index]);
+
+					POVValue newPOVValue = POVValue.fromDirectionValue(newValue);
+					for(POVListenerCallback callback : povCallbacks[index])
 					{
-						// loop through them
-						for (POVListenerCallback callback : foundListeners)
-						{
-							callback.onListener(newPOVEntry.getValue());
-						}
+						callback.onListener(newPOVValue);
 					}
 				}
 			}
 	
-	
-	
 			// invoke generic handlers, once they've been merged.
-			for (TypelessListenerCallback listener : genericListenersToInvoke)
+			for(int index = 0; index < genericCallbacks.length; ++index)
 			{
-				listener.onListener();
+				if(genericCallbacksPending[index])
+				{
+					genericCallbacks[index].onListener();
+				}
 			}
 		}
 		
@@ -610,10 +664,15 @@ public class ListenerManager
 		numAxes = joyToTest.getAxisCount() - 1;
 
 		numPOVs = joyToTest.getPOVCount() - 1;
-		_controlValuesMutex.unlock();
 		
 		//remake the controls arrays with the correct length
-		currentControls = pollAllJoysticks();
+		currentControls = new ControlValues(numButtons, numAxes + 1, numPOVs + 1);
+		spareControls = new ControlValues(numButtons, numAxes + 1, numPOVs + 1);
+		_controlValuesMutex.unlock();
+		
+		callbacksChanged = true;
+		
+		pollAllJoysticks(currentControls);
 		
 		Log.info(LOG_TAG, String.format("Joystick: %d buttons, %d axes, %d POVs",  numButtons, numAxes + 1, numPOVs + 1));
 	}
@@ -625,17 +684,8 @@ public class ListenerManager
 	 */
 	public void zeroOutListeners()
 	{
-		ControlValues allZeroValues = new ControlValues();
-		
-		for(int axisIndex = 0; axisIndex <= numAxes; ++axisIndex)
-		{
-			allZeroValues.joystickValues.put(new Axis(axisIndex), 0.0);
-		}
-		
-		for(int povIndex = 0; povIndex <= numPOVs; ++povIndex)
-		{
-			allZeroValues.povValues.put(new POV(povIndex), new POVValue(0));
-		}
+		ControlValues allZeroValues = spareControls;
+		allZeroValues.clear();
 		
 		//save the old controls and swap in the new ones, so that if/when listeners check they will get the new data
 		ControlValues oldControls = currentControls;
@@ -643,6 +693,7 @@ public class ListenerManager
 		{
 			_controlValuesMutex.lock();
 			currentControls = allZeroValues;
+			spareControls = oldControls;
 			_controlValuesMutex.unlock();
 		}
 		
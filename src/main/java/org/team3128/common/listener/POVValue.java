@@ -21,6 +21,17 @@ package org.team3128.common.listener;
  */
 public class POVValue
 {	
+	//POVValues are never modified after construction, so the tick loop can share one instance per direction.
+	private static final POVValue[] directionValues = new POVValue[9];
+	
+	static
+	{
+		for(int index = 0; index < directionValues.length; ++index)
+		{
+			directionValues[index] = new POVValue(index);
+		}
+	}
+	
 	int directionValue;
 
 	public int getDirectionValue() {
@@ -53,21 +64,40 @@ public class POVValue
 	}
 	
 	/**
-	 * Creates a POV control from the value returned by Joystick.getPOV()
+	 * Returns the shared POV control value for the given direction value.  Does not allocate.
+	 * @param directionValue
+	 */
+	public static POVValue fromDirectionValue(int directionValue)
+	{
+		if(directionValue < 0 || directionValue > 8)
+		{
+			throw new IllegalArgumentException("Direction value out of range");
+		}
+		
+		return directionValues[directionValue];
+	}
+	
+	/**
+	 * Converts the value returned by Joystick.getPOV() to a direction value.
 	 * @param angle
 	 */
-	public static POVValue fromWPILibAngle(int angle)
+	public static int directionValueFromWPILibAngle(int angle)
 	{
 		if(angle < 0)
 		{
-			return new POVValue(0);
+			return 0;
 		}
 		
-		int value = 8 - (angle/ 45);
-		
-
-		
-		return new POVValue(value);
+		return 8 - (angle/ 45);
+	}
+	
+	/**
+	 * Creates a POV control from the value returned by Joystick.getPOV()
+	 * @param angle
+	 */
+	public static POVValue fromWPILibAngle(int angle)
+	{
+		return fromDirectionValue(directionValueFromWPILibAngle(angle));
 	}
 	
 	@Override
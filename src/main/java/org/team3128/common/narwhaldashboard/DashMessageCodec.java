@@ -0,0 +1,183 @@
+package org.team3128.common.narwhaldashboard;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads and writes the binary WebSocket messages which NarwhalDashboard clients can send instead of
+ * the text "numData:key:1,2,3" messages.
+ *
+ * Every field is read with absolute gets straight out of the received buffer, and the key is compared
+ * byte by byte against the registered keys, so nothing is allocated to parse a message.  All values are
+ * little-endian, which is the byte order of JavaScript typed arrays.
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  message type ({@link #TYPE_NUM_DATA})
+ *      1     1  value type ({@link #VALUES_FLOAT64}, {@link #VALUES_FLOAT32} or {@link #VALUES_INT32})
+ *      2     2  key length in bytes
+ *      4     2  number of values
+ *      6     n  key, in ASCII
+ *    6+n     -  values
+ * </pre>
+ *
+ * @author Narwhal
+ *
+ */
+public class DashMessageCodec {
+    public static final byte TYPE_NUM_DATA = 1;
+
+    public static final byte VALUES_FLOAT64 = 0;
+    public static final byte VALUES_FLOAT32 = 1;
+    public static final byte VALUES_INT32 = 2;
+
+    public static final int HEADER_SIZE = 6;
+
+    static final int TYPE_OFFSET = 0;
+    static final int VALUE_TYPE_OFFSET = 1;
+    static final int KEY_LENGTH_OFFSET = 2;
+    static final int COUNT_OFFSET = 4;
+
+    private static final int[] VALUE_SIZES = {8, 4, 4};
+
+    /**
+     * Check that a received message is a complete numerical data message, and switch the buffer to little-endian.
+     *
+     * @param message buffer holding the message from its position to its limit
+     * @return the number of values in the message, or -1 if it is not a valid numerical data message
+     */
+    public static int readNumValues(ByteBuffer message) {
+        message.order(ByteOrder.LITTLE_ENDIAN);
+
+        int start = message.position();
+        if (message.remaining() < HEADER_SIZE || message.get(start + TYPE_OFFSET) != TYPE_NUM_DATA) {
+            return -1;
+        }
+
+        int valueType = message.get(start + VALUE_TYPE_OFFSET);
+        if (valueType < 0 || valueType >= VALUE_SIZES.length) {
+            return -1;
+        }
+
+        int numValues = message.getShort(start + COUNT_OFFSET) & 0xFFFF;
+        if (message.remaining() < HEADER_SIZE + readKeyLength(message) + numValues * VALUE_SIZES[valueType]) {
+            return -1;
+        }
+
+        return numValues;
+    }
+
+    public static int readKeyLength(ByteBuffer message) {
+        return message.getShort(message.position() + KEY_LENGTH_OFFSET) & 0xFFFF;
+    }
+
+    /**
+     * @return whether the message's key is the given one, in ASCII
+     */
+    public static boolean keyEquals(ByteBuffer message, byte[] key) {
+        if (readKeyLength(message) != key.length) {
+            return false;
+        }
+
+        int keyStart = message.position() + HEADER_SIZE;
+        for (int i = 0; i < key.length; i++) {
+            if (message.get(keyStart + i) != key[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copy the message's values into the start of an array, converting them to doubles.
+     * Assumes the message has been checked with {@link #readNumValues(ByteBuffer)} and the array is long enough.
+     */
+    public static void readValues(ByteBuffer message, double[] values) {
+        int start = message.position();
+
+        int numValues = message.getShort(start + COUNT_OFFSET) & 0xFFFF;
+        int offset = start + HEADER_SIZE + readKeyLength(message);
+
+        switch (message.get(start + VALUE_TYPE_OFFSET)) {
+        case VALUES_FLOAT64:
+            for (int i = 0; i < numValues; i++, offset += 8) {
+                values[i] = message.getDouble(offset);
+            }
+            break;
+        case VALUES_FLOAT32:
+            for (int i = 0; i < numValues; i++, offset += 4) {
+                values[i] = message.getFloat(offset);
+            }
+            break;
+        case VALUES_INT32:
+            for (int i = 0; i < numValues; i++, offset += 4) {
+                values[i] = message.getInt(offset);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Read the message's key, for logging.  Unlike the other methods, this allocates.
+     */
+    public static String readKey(ByteBuffer message) {
+        byte[] key = new byte[readKeyLength(message)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = message.get(message.position() + HEADER_SIZE + i);
+        }
+
+        return new String(key, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Write a numerical data message of doubles, as a dashboard client does.  The buffer is left ready to send.
+     */
+    public static void writeNumData(ByteBuffer message, byte[] key, double... values) {
+        writeHeader(message, VALUES_FLOAT64, key, values.length);
+
+        for (double value : values) {
+            message.putDouble(value);
+        }
+
+        message.flip();
+    }
+
+    /**
+     * Write a numerical data message of floats, as a dashboard client does.  The buffer is left ready to send.
+     */
+    public static void writeNumData(ByteBuffer message, byte[] key, float... values) {
+        writeHeader(message, VALUES_FLOAT32, key, values.length);
+
+        for (float value : values) {
+            message.putFloat(value);
+        }
+
+        message.flip();
+    }
+
+    /**
+     * Write a numerical data message of ints, as a dashboard client does.  The buffer is left ready to send.
+     */
+    public static void writeNumData(ByteBuffer message, byte[] key, int... values) {
+        writeHeader(message, VALUES_INT32, key, values.length);
+
+        for (int value : values) {
+            message.putInt(value);
+        }
+
+        message.flip();
+    }
+
+    private static void writeHeader(ByteBuffer message, byte valueType, byte[] key, int numValues) {
+        message.clear();
+        message.order(ByteOrder.LITTLE_ENDIAN);
+
+        message.put(TYPE_NUM_DATA);
+        message.put(valueType);
+        message.putShort((short) key.length);
+        message.putShort((short) numValues);
+        message.put(key);
+    }
+}
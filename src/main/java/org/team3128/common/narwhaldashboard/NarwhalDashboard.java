@@ -2,10 +2,18 @@ package org.team3128.common.narwhaldashboard;
 
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.java_websocket.WebSocket;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
@@ -21,14 +29,111 @@ public class NarwhalDashboard extends WebSocketServer {
         return UPDATE_WAVELENGTH;
     }
 
-    private static HashMap<String, String> data = new HashMap<String, String>();
+    /**
+     * A published value, stamped with the data version at which it last changed.
+     */
+    private static class DashValue {
+        public String value;
+        public long version;
+    }
+
+    // guarded by synchronized(data)
+    private static LinkedHashMap<String, DashValue> data = new LinkedHashMap<String, DashValue>();
+    private static long dataVersion = 0;
+
+    /**
+     * What has been sent to a connection.  Only touched by the publisher thread once the connection is open.
+     */
+    private static class ClientState {
+        // the client has every change up to this data version, or none of them if it is -1
+        public long version = -1;
+        public long autoProgramsVersion = -1;
+    }
+
+    private static Map<WebSocket, ClientState> clients = new ConcurrentHashMap<WebSocket, ClientState>();
     private static LinkedHashMap<String, Command> autoPrograms = new LinkedHashMap<String, Command>();
 
+    /**
+     * A numerical data listener, which holds the latest values received for its key until the main loop
+     * hands them to its callback.  If several messages arrive between loops, only the newest is delivered.
+     */
+    private static class NumDataListener {
+        public final String key;
+        public final byte[] keyBytes;
+        public volatile NumericalDataCallback callback;
+
+        // guarded by synchronized(this)
+        private double[] received = new double[0];
+        private int receivedLength;
+        private boolean pending;
+
+        // only touched by the main loop
+        private double[] delivered = new double[0];
+
+        public NumDataListener(String key, NumericalDataCallback callback) {
+            this.key = key;
+            this.keyBytes = key.getBytes(StandardCharsets.US_ASCII);
+            this.callback = callback;
+        }
+
+        private void reserve(int length) {
+            if (received.length < length) {
+                received = new double[length];
+            }
+
+            receivedLength = length;
+            pending = true;
+        }
+
+        /**
+         * Called by the socket thread with a binary message checked by {@link DashMessageCodec#readNumValues(ByteBuffer)}.
+         */
+        public synchronized void receive(ByteBuffer message, int numValues) {
+            reserve(numValues);
+            DashMessageCodec.readValues(message, received);
+        }
+
+        /**
+         * Called by the socket thread with the values of a text message.
+         */
+        public synchronized void receive(double[] values) {
+            reserve(values.length);
+            System.arraycopy(values, 0, received, 0, values.length);
+        }
+
+        /**
+         * Called by the main loop.  Runs the callback if new values have arrived since the last call.
+         */
+        public void deliver() {
+            synchronized (this) {
+                if (!pending) {
+                    return;
+                }
+
+                if (delivered.length != receivedLength) {
+                    delivered = new double[receivedLength];
+                }
+
+                System.arraycopy(received, 0, delivered, 0, receivedLength);
+                pending = false;
+            }
+
+            callback.process(delivered);
+        }
+    }
+
     private static HashMap<String, DashButtonCallback> buttons = new HashMap<String, DashButtonCallback>();
-    private static HashMap<String, NumericalDataCallback> numDataCallbacks = new HashMap<String, NumericalDataCallback>();
 
-    private static String selectedAuto = null;
-    private static boolean autosPushed = false;
+    // replaced, never modified, when a listener is added, so the socket thread can scan it without locking or allocating
+    private static volatile NumDataListener[] numDataListeners = new NumDataListener[0];
+
+    // button presses waiting for the main loop
+    private static ConcurrentLinkedQueue<Runnable> queuedCallbacks = new ConcurrentLinkedQueue<Runnable>();
+
+    private static volatile String selectedAuto = null;
+
+    // incremented by pushAutos() to have the auto program list sent again
+    private static volatile long autoProgramsVersion = 0;
 
     public NarwhalDashboard(int port) throws UnknownHostException {
         super(new InetSocketAddress(port));
@@ -56,15 +161,85 @@ public class NarwhalDashboard extends WebSocketServer {
      * Publishes a string value to NarwhalDashboard
      */
     public static void put(String key, String value) {
-        data.put(key, value);
+        synchronized (data) {
+            DashValue dashValue = data.get(key);
+
+            if (dashValue == null) {
+                dashValue = new DashValue();
+                data.put(key, dashValue);
+            }
+            else if (value.equals(dashValue.value)) {
+                return;
+            }
+
+            dashValue.value = value;
+            dashValue.version = ++dataVersion;
+        }
     }
 
+    /**
+     * Adds a button to NarwhalDashboard.  The callback is run on the main loop thread by {@link #runQueuedCallbacks()}.
+     */
     public static void addButton(String key, DashButtonCallback callback) {
         buttons.put(key, callback);
     }
 
-    public static void addNumDataListener(String key, NumericalDataCallback callback) {
-        numDataCallbacks.put(key, callback);
+    /**
+     * Adds a listener for numerical data sent by NarwhalDashboard, either as text or as a binary {@link DashMessageCodec} message.
+     * 
+     * The callback is run on the main loop thread by {@link #runQueuedCallbacks()}, with only the newest values if more than one
+     * message arrived since the last loop.  The array passed to it is reused for the next values of the same length, so copy it
+     * if it needs to be kept.
+     */
+    public static synchronized void addNumDataListener(String key, NumericalDataCallback callback) {
+        for (NumDataListener listener : numDataListeners) {
+            if (listener.key.equals(key)) {
+                listener.callback = callback;
+                return;
+            }
+        }
+
+        NumDataListener[] listeners = Arrays.copyOf(numDataListeners, numDataListeners.length + 1);
+        listeners[listeners.length - 1] = new NumDataListener(key, callback);
+
+        numDataListeners = listeners;
+    }
+
+    /**
+     * Runs the callbacks of the buttons pressed and the numerical data received since the last call.
+     * 
+     * Called once per loop by {@link org.team3128.common.NarwhalRobot}, so that callbacks never run on the
+     * WebSocket thread at the same time as the robot code they change.
+     */
+    public static void runQueuedCallbacks() {
+        Runnable callback;
+        while ((callback = queuedCallbacks.poll()) != null) {
+            try {
+                callback.run();
+            }
+            catch (RuntimeException e) {
+                Log.recoverable("NarwhalDashboard", "Button callback threw " + e);
+            }
+        }
+
+        for (NumDataListener listener : numDataListeners) {
+            try {
+                listener.deliver();
+            }
+            catch (RuntimeException e) {
+                Log.recoverable("NarwhalDashboard", "Numerical data callback for \"" + listener.key + "\" threw " + e);
+            }
+        }
+    }
+
+    private static NumDataListener findNumDataListener(String key) {
+        for (NumDataListener listener : numDataListeners) {
+            if (listener.key.equals(key)) {
+                return listener;
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -88,7 +263,7 @@ public class NarwhalDashboard extends WebSocketServer {
      * Sends new set of autonomous programs to NarwhalDashboard.
      */
     public static void pushAutos() {
-        autosPushed = false;
+        autoProgramsVersion++;
     }
 
     /**
@@ -126,60 +301,132 @@ public class NarwhalDashboard extends WebSocketServer {
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         Log.info("NarwhalDashboard", conn.getRemoteSocketAddress().getHostName() + " has opened a connection.");
 
-        autosPushed = false;
+        clients.put(conn, new ClientState());
+    }
 
-        (new Thread(() -> {
-            while (conn.isOpen()) {
-                String jsonString = "{";
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        //Log.info("NarwhalDashboard", conn.getRemoteSocketAddress().getHostName() + " has closed its connection.");
+        clients.remove(conn);
+    }
 
-                for (String key : data.keySet()) {
-                    jsonString += "\"" + key + "\":\"" + data.get(key) + "\",";
-                }
+    /**
+     * Appends the JSON for every value whose version is newer than sinceVersion, followed by the selected auto
+     * (and the auto program list, if requested).
+     */
+    private static void appendJson(StringBuilder json, long sinceVersion, boolean includeAutos) {
+        json.setLength(0);
+        json.append('{');
+
+        for (Map.Entry<String, DashValue> entry : data.entrySet()) {
+            if (entry.getValue().version > sinceVersion) {
+                json.append('"').append(entry.getKey()).append("\":\"").append(entry.getValue().value).append("\",");
+            }
+        }
+
+        // always sent, so that a client which missed an update still has it
+        json.append("\"selected_auto\":\"").append(selectedAuto).append('"');
+
+        if (includeAutos) {
+            json.append(",\"auto_programs\":[");
+            for (String autoName : autoPrograms.keySet()) {
+                json.append('"').append(autoName).append("\",");
+            }
+            if (!autoPrograms.isEmpty())
+                json.setLength(json.length() - 1);
+            json.append(']');
+        }
+
+        json.append('}');
+    }
+
+    /**
+     * Runs in its own thread, and sends updates to every connected client every UPDATE_WAVELENGTH.
+     * 
+     * Clients which are in step, having been sent every previous update, share one update holding the values
+     * which have changed since the last one.  It is serialized once and broadcast to all of them.
+     * 
+     * The dashboard protocol has no acknowledgements, so a client counts as having received an update once it
+     * has left the connection's send buffer.  A client which hasn't taken its last update off the socket yet
+     * is skipped instead of having more queued behind it, and once it catches up it is sent everything that
+     * changed since the last update it got.  New clients are caught up the same way, with a full snapshot.
+     */
+    private void publishLoop() {
+        StringBuilder json = new StringBuilder();
+
+        ArrayList<WebSocket> inStepConnections = new ArrayList<>();
+        ArrayList<WebSocket> laggingConnections = new ArrayList<>();
+        ArrayList<String> catchUpUpdates = new ArrayList<>();
+
+        // the data version which in-step clients have
+        long publishedVersion = 0;
+
+        while (true) {
+            inStepConnections.clear();
+            laggingConnections.clear();
+            catchUpUpdates.clear();
+
+            String update = null;
 
-                jsonString += "\"selected_auto\":\"" + selectedAuto + "\"";
-
-                // jsonString += "\"buttons\":[";
-                // for (String buttonName : buttons.keySet()) {
-                //     jsonString += "\"" + buttonName +  "\",";
-                // }
-                // if (!buttons.isEmpty())
-                //     jsonString = jsonString.substring(0, jsonString.length() - 1);
-                // jsonString += "],";
-                
-                if (!autosPushed) {
-                    jsonString += ",\"auto_programs\":[";
-                    for (String autoName : autoPrograms.keySet()) {
-                        jsonString += "\"" + autoName +  "\",";
+            synchronized (data) {
+                long currentAutoProgramsVersion = autoProgramsVersion;
+
+                for (Map.Entry<WebSocket, ClientState> client : clients.entrySet()) {
+                    WebSocket conn = client.getKey();
+                    ClientState state = client.getValue();
+
+                    if (!conn.isOpen() || conn.hasBufferedData()) {
+                        continue;
+                    }
+
+                    if (state.version == publishedVersion && state.autoProgramsVersion == currentAutoProgramsVersion) {
+                        inStepConnections.add(conn);
                     }
-                    if (!autoPrograms.isEmpty())
-                        jsonString = jsonString.substring(0, jsonString.length() - 1);
-                    jsonString += "]";
+                    else {
+                        appendJson(json, state.version, state.autoProgramsVersion != currentAutoProgramsVersion);
 
-                    autosPushed = true;
+                        laggingConnections.add(conn);
+                        catchUpUpdates.add(json.toString());
+                    }
+
+                    state.version = dataVersion;
+                    state.autoProgramsVersion = currentAutoProgramsVersion;
                 }
-                
-                jsonString += "}";
 
-                conn.send(jsonString);
+                if (!inStepConnections.isEmpty()) {
+                    appendJson(json, publishedVersion, false);
+                    update = json.toString();
+                }
 
+                publishedVersion = dataVersion;
+            }
+
+            if (update != null) {
+                broadcast(update, inStepConnections);
+            }
+
+            for (int i = 0; i < laggingConnections.size(); i++) {
                 try {
-                    Thread.sleep(UPDATE_WAVELENGTH);
+                    laggingConnections.get(i).send(catchUpUpdates.get(i));
                 }
-                catch (InterruptedException e) {
-                    e.printStackTrace();
+                catch (WebsocketNotConnectedException e) {
+                    // closed since it was checked, and onClose() will forget it
                 }
             }
-        })).start();
-    }
 
-    @Override
-    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        //Log.info("NarwhalDashboard", conn.getRemoteSocketAddress().getHostName() + " has closed its connection.");
+            try {
+                Thread.sleep(UPDATE_WAVELENGTH);
+            }
+            catch (InterruptedException e) {
+                Log.info("NarwhalDashboard", "Publisher thread shutting down");
+                return;
+            }
+        }
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
-        Log.info("NarwhalDashboard", message);
+        Log.debug("NarwhalDashboard", () -> "Message received: " + message);
         String[] parts = message.split(":");
 
         if (parts[0].equals("selectAuto")) {
@@ -208,19 +455,21 @@ public class NarwhalDashboard extends WebSocketServer {
                 data[i] = Double.parseDouble(stringData[i]);
             }
 
-            if (numDataCallbacks.containsKey(key)) {
-                numDataCallbacks.get(key).process(data);
+            NumDataListener listener = findNumDataListener(key);
+            if (listener != null) {
+                listener.receive(data);
             }
             else {
-                Log.info("NarwhalDashboard", "Recieved, but will not process, numerical data: " + key + " = " + data);
+                Log.debug("NarwhalDashboard", () -> "Recieved, but will not process, numerical data: " + key + " = " + Arrays.toString(data));
             }
         }
         else if (parts[0].equals("button")) {
             String key = parts[1];
             boolean down = parts[2].equals("down");
 
-            if (buttons.containsKey(key)) {
-                buttons.get(key).action(down);
+            DashButtonCallback callback = buttons.get(key);
+            if (callback != null) {
+                queuedCallbacks.add(() -> callback.action(down));
             }
             else {
                 Log.recoverable("NarwhalDashboard", "Button \"" + parts[1] + "\" was never added.");
@@ -231,6 +480,27 @@ public class NarwhalDashboard extends WebSocketServer {
         }
     }
 
+    /**
+     * Handles binary {@link DashMessageCodec} messages.  Parsing and storing the values allocates nothing.
+     */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        int numValues = DashMessageCodec.readNumValues(message);
+        if (numValues < 0) {
+            Log.unusual("NarwhalDashboard", "Received a malformed binary message of " + message.remaining() + " bytes.");
+            return;
+        }
+
+        for (NumDataListener listener : numDataListeners) {
+            if (DashMessageCodec.keyEquals(message, listener.keyBytes)) {
+                listener.receive(message, numValues);
+                return;
+            }
+        }
+
+        Log.debug("NarwhalDashboard", () -> "Recieved, but will not process, numerical data: " + DashMessageCodec.readKey(message));
+    }
+
     @Override
     public void onError(WebSocket conn, Exception ex) {
         ex.printStackTrace();
@@ -238,6 +508,6 @@ public class NarwhalDashboard extends WebSocketServer {
 
     @Override
     public void onStart() {
-
+        (new Thread(this::publishLoop, "NarwhalDashboard Publisher")).start();
     }
 }
@@ -3,9 +3,17 @@ package org.team3128.common.narwhalvision;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.team3128.common.util.Assert;
 import org.team3128.common.util.Log;
@@ -14,42 +22,143 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.ByteBufferOutput;
 
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Receives target information from the vision phone over UDP, and sends it commands.
+ *
+ * Packets can be in one of two formats.  {@link WireFormat#KRYO} is what older phone apps send: one Kryo-serialized
+ * {@link TargetInformation} per datagram, read with a blocking socket.  {@link WireFormat#BINARY} is the flat layout
+ * described in {@link VisionPacketCodec}, with every target of a frame in one datagram.  Binary packets are read from
+ * a non-blocking {@link DatagramChannel} into a single direct buffer and decoded straight into the targets of the frame
+ * that gets published, so receiving them doesn't allocate anything else.  The phone's frame numbers are
+ * used to count dropped frames and to throw away packets which arrive out of order.
+ */
 public class NarwhalVisionReceiver
 {
 	final static String TAG = "NarwhalVisionReceiver";
 
+	public enum WireFormat
+	{
+		/**
+		 * Kryo-serialized objects, one target per packet.  Compatible with older phone apps.
+		 */
+		KRYO,
+
+		/**
+		 * The fixed layout in {@link VisionPacketCodec}, one frame per packet.
+		 */
+		BINARY;
+	}
+
+	public static final int DEFAULT_PORT = 3128;
+
+	/**
+	 * If the phone sends nothing for this long in binary mode, packets are accepted from any address again,
+	 * in case it has come back with a different one.
+	 */
+	private static final long CONNECTION_TIMEOUT_MS = 1000;
+
+	/**
+	 * A packet this many frames or fewer behind the newest one is assumed to have arrived out of order.  Further
+	 * back than that, the phone app is assumed to have restarted its frame numbers.
+	 */
+	private static final int REORDER_WINDOW = 30;
+
+	private final WireFormat wireFormat;
+
+	private volatile boolean running = true;
+
+	// Kryo mode
 	private DatagramSocket visionDataSocket;
-	private Thread internalThread;
-	
+
 	private Kryo kryo;
 	private ByteBufferInput packetReader;
 	private ByteBufferOutput packetWriter;
+
+	// binary mode
+	private DatagramChannel visionDataChannel;
+	private Selector selector;
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(SERIALIZATION_BUFFER_SIZE);
+
+	// owned by the receive thread
+	private boolean hasFrameNumber = false;
+	private int lastFrameNumber;
+
+	private Thread internalThread;
+
+	// reused for every command, in either mode
+	private final ByteBuffer commandBuffer = ByteBuffer.allocate(SERIALIZATION_BUFFER_SIZE);
+
+	private volatile long lastPacketRecvTime = 0;
+	private volatile long badPacketCount = 0;
+	private volatile long droppedFrameCount = 0;
+	private volatile long outOfOrderPacketCount = 0;
+	private volatile SocketAddress coprocessorAddress = null;
+	private volatile String coprocessorIPAddress = "10.31.28.xxx";
 	
-	private long lastPacketRecvTime = 0;
-	private String coprocessorIPAddress = "10.31.28.xxx";
-	
-	//make sure to only access through synchronized functions, updated asynchronously
-	private ArrayList<TargetInformation> mostRecentTargets;
+	// Latest frame, replaced (never modified) by the receive thread.  Readers don't need to lock anything.
+	private final AtomicReference<VisionFrame> mostRecentFrame = new AtomicReference<>(VisionFrame.EMPTY);
+
+	// threads blocked in waitForFrame() wait on this, and the receive thread only takes it when there are some
+	private final Object frameWaitLock = new Object();
+	private volatile int numFrameWaiters = 0;
 	
+	/**
+	 * Receive Kryo packets on the default port.
+	 */
 	public NarwhalVisionReceiver()
 	{
-		try
-		{
-			visionDataSocket = new DatagramSocket(3128);
-		}
-		catch(SocketException e)
-		{
-			e.printStackTrace();
-		}
-		
+		this(WireFormat.KRYO, DEFAULT_PORT);
+	}
+
+	/**
+	 * @param wireFormat the format the phone sends packets in
+	 * @param port the UDP port to receive on
+	 */
+	public NarwhalVisionReceiver(WireFormat wireFormat, int port)
+	{
+		this.wireFormat = wireFormat;
+
 		kryo = new Kryo();
 		kryo.register(TargetInformation.class, 0);
 		kryo.register(SwitchSlotCommand.class, 1);
 		packetReader = new ByteBufferInput();
 		packetWriter = new ByteBufferOutput();
-		mostRecentTargets = new ArrayList<>();
-		
-		internalThread = new Thread(this::receiveLoop);
+
+		if(wireFormat == WireFormat.BINARY)
+		{
+			try
+			{
+				visionDataChannel = DatagramChannel.open();
+				visionDataChannel.bind(new InetSocketAddress(port));
+				visionDataChannel.configureBlocking(false);
+
+				selector = Selector.open();
+				visionDataChannel.register(selector, SelectionKey.OP_READ);
+			}
+			catch(IOException e)
+			{
+				Log.recoverable(TAG, "Failed to open vision channel: " + e.getMessage());
+				e.printStackTrace();
+			}
+
+			internalThread = new Thread(this::binaryReceiveLoop, TAG);
+		}
+		else
+		{
+			try
+			{
+				visionDataSocket = new DatagramSocket(port);
+			}
+			catch(SocketException e)
+			{
+				e.printStackTrace();
+			}
+
+			internalThread = new Thread(this::receiveLoop, TAG);
+		}
+
 		internalThread.start();
 	}
 	
@@ -63,15 +172,19 @@ public class NarwhalVisionReceiver
 		
 		DatagramPacket visionPacket = new DatagramPacket(recvBuffer, SERIALIZATION_BUFFER_SIZE);
 		
-		while(true)
+		while(running)
 		{	
 			try
 			{
-				Log.info(TAG, "Trying to recieve packet.");
 				visionDataSocket.receive(visionPacket);
 			}
 			catch(IOException e)
 			{
+				if(!running)
+				{
+					break;
+				}
+
 				Log.recoverable(TAG, "Failed to receive vision packet: " + e.getMessage());
 				e.printStackTrace();
 				
@@ -80,51 +193,194 @@ public class NarwhalVisionReceiver
 				continue;
 			}
 			
+			coprocessorAddress = visionPacket.getSocketAddress();
 			setCoprocessorIP(visionPacket.getAddress().toString());
 			
-			Log.info(TAG, "Setting buffer...");
+			double receiveTime = RobotController.getFPGATime() / 1e6;
 			packetReader.setBuffer(recvBuffer);
 			
 			try
 			{
-				Log.info(TAG, "Trying to decode a packet.");
 				TargetInformation targetInfo = kryo.readObject(packetReader, TargetInformation.class);
-				onTargetInfoReceived(targetInfo);
-				setLastPacketReceivedTime(System.currentTimeMillis());
+				onTargetInfoReceived(targetInfo, receiveTime);
+				lastPacketRecvTime = System.currentTimeMillis();
 				
-				Log.debug("NarwhalVisionReceiver", "Got a target information packet: " + targetInfo);
+				Log.debug(TAG, () -> "Got a target information packet: " + targetInfo);
 			}
 			catch(ClassCastException ex)
 			{
+				++badPacketCount;
 				Log.recoverable(TAG, "Received the wrong class from the phone: " + ex.getMessage());
 				ex.printStackTrace();
 			}
 			catch(RuntimeException ex)
 			{
+				++badPacketCount;
 				Log.recoverable(TAG, "Error deserializing: " + ex.getMessage());
-				ex.getMessage();
+				ex.printStackTrace();
 			}
 			
 		}
 	}
-	
+
+	private void binaryReceiveLoop()
+	{
+		if(selector == null)
+		{
+			return;
+		}
+
+		while(running)
+		{
+			try
+			{
+				if(selector.select(CONNECTION_TIMEOUT_MS) == 0)
+				{
+					if(running && visionDataChannel.isConnected())
+					{
+						visionDataChannel.disconnect();
+						setCoprocessorIP("Not Connected...");
+
+						// whichever phone comes back will number its frames from wherever it is
+						hasFrameNumber = false;
+					}
+
+					continue;
+				}
+
+				selector.selectedKeys().clear();
+
+				receiveAvailablePackets();
+			}
+			catch(ClosedChannelException | ClosedSelectorException e)
+			{
+				break;
+			}
+			catch(IOException e)
+			{
+				Log.recoverable(TAG, "Failed to receive vision packet: " + e.getMessage());
+			}
+		}
+	}
+
 	/**
-	 * Sends a command to the phone
+	 * Read and decode packets until the channel has none left.
 	 */
-	protected void sendCommand(PhoneCommand command)
+	private void receiveAvailablePackets() throws IOException
 	{
-		ByteBuffer serializedBytes = ByteBuffer.allocate(SERIALIZATION_BUFFER_SIZE);
-		packetWriter.setBuffer(serializedBytes);
+		while(true)
+		{
+			receiveBuffer.clear();
+
+			if(visionDataChannel.isConnected())
+			{
+				if(visionDataChannel.read(receiveBuffer) <= 0)
+				{
+					return;
+				}
+			}
+			else
+			{
+				SocketAddress sender = visionDataChannel.receive(receiveBuffer);
+				if(sender == null)
+				{
+					return;
+				}
+
+				// only listen to this phone from now on.  Reading from a connected channel doesn't
+				// allocate an address for every packet like receive() does.
+				visionDataChannel.connect(sender);
 
-		kryo.writeClassAndObject(packetWriter, command);
+				coprocessorAddress = sender;
+				setCoprocessorIP(sender.toString());
+			}
 
-		packetWriter.flush();
+			receiveBuffer.flip();
+			onBinaryPacketReceived(RobotController.getFPGATime() / 1e6);
+		}
+	}
 
-		DatagramPacket packet = new DatagramPacket(serializedBytes.array(), SERIALIZATION_BUFFER_SIZE);
+	private void onBinaryPacketReceived(double receiveTime)
+	{
+		int numTargets = VisionPacketCodec.readNumTargets(receiveBuffer);
+		if(numTargets < 0)
+		{
+			++badPacketCount;
+			return;
+		}
+
+		int frameNumber = VisionPacketCodec.readFrameNumber(receiveBuffer);
+		if(hasFrameNumber)
+		{
+			// subtracted, so that it works when the frame number wraps around
+			int framesAhead = frameNumber - lastFrameNumber;
+
+			if(framesAhead <= 0 && framesAhead > -REORDER_WINDOW)
+			{
+				++outOfOrderPacketCount;
+				return;
+			}
+			else if(framesAhead > 1)
+			{
+				droppedFrameCount += framesAhead - 1;
+			}
+			else if(framesAhead <= 0)
+			{
+				Log.unusual(TAG, "Frame numbers went back from " + lastFrameNumber + " to " + frameNumber + ", the phone app may have restarted.");
+			}
+		}
+
+		hasFrameNumber = true;
+		lastFrameNumber = frameNumber;
+
+		// new targets for every frame, since readers may keep published frames for as long as they like
+		TargetInformation[] targets = new TargetInformation[numTargets];
+		for(int index = 0; index < numTargets; ++index)
+		{
+			targets[index] = new TargetInformation();
+			VisionPacketCodec.readTarget(receiveBuffer, index, targets[index]);
+		}
+
+		publishFrame(targets, numTargets, receiveTime);
+		lastPacketRecvTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Sends a command to the phone which last sent us a packet
+	 */
+	protected synchronized void sendCommand(PhoneCommand command)
+	{
+		SocketAddress destination = coprocessorAddress;
+		if(destination == null)
+		{
+			Log.unusual(TAG, "Can't send a command before the phone has sent anything.");
+			return;
+		}
 
 		try
 		{
-			visionDataSocket.send(packet);
+			if(wireFormat == WireFormat.BINARY)
+			{
+				if(!(command instanceof SwitchSlotCommand))
+				{
+					Log.recoverable(TAG, "The binary format has no encoding for " + command.getClass().getSimpleName());
+					return;
+				}
+
+				VisionPacketCodec.writeCommand(commandBuffer, VisionPacketCodec.TYPE_SWITCH_SLOT, ((SwitchSlotCommand) command).getNewSlot());
+				visionDataChannel.send(commandBuffer, destination);
+			}
+			else
+			{
+				commandBuffer.clear();
+				packetWriter.setBuffer(commandBuffer);
+
+				kryo.writeClassAndObject(packetWriter, command);
+
+				packetWriter.flush();
+
+				visionDataSocket.send(new DatagramPacket(commandBuffer.array(), SERIALIZATION_BUFFER_SIZE, destination));
+			}
 		}
 		catch (IOException e)
 		{
@@ -132,6 +388,37 @@ public class NarwhalVisionReceiver
 			e.printStackTrace();
 		}
 	}
+
+	/**
+	 * Stop receiving and release the port.
+	 */
+	public void close()
+	{
+		running = false;
+
+		try
+		{
+			if(wireFormat == WireFormat.BINARY)
+			{
+				selector.close();
+				visionDataChannel.close();
+			}
+			else
+			{
+				visionDataSocket.close();
+			}
+
+			internalThread.join();
+		}
+		catch(IOException e)
+		{
+			Log.recoverable(TAG, "Failed to close vision socket: " + e.getMessage());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
 	
 	/**
 	 * Change the target data slot in use on the phone
@@ -143,55 +430,153 @@ public class NarwhalVisionReceiver
 		sendCommand(new SwitchSlotCommand(slot));
 	}
 	
-	//these functions are synchronized because they return data set by the thread
-	
 	/**
 	 * Gets the UNIX timestamp of when the last packet was received.  If the value is 0, no packet has ever been received.
 	 * @return
 	 */
-	public synchronized long getLastPacketReceivedTime()
+	public long getLastPacketReceivedTime()
 	{
 		return lastPacketRecvTime;
 	}
-	
-	private synchronized void setLastPacketReceivedTime(long time)
+
+	/**
+	 * Gets the number of packets which couldn't be decoded.
+	 */
+	public long getBadPacketCount()
+	{
+		return badPacketCount;
+	}
+
+	/**
+	 * Gets the number of frames the phone numbered but which never arrived, in binary mode.
+	 */
+	public long getDroppedFrameCount()
+	{
+		return droppedFrameCount;
+	}
+
+	/**
+	 * Gets the number of packets which were thrown away because a newer frame had already arrived, in binary mode.
+	 */
+	public long getOutOfOrderPacketCount()
+	{
+		return outOfOrderPacketCount;
+	}
+
+	public WireFormat getWireFormat()
 	{
-		lastPacketRecvTime = time;
+		return wireFormat;
 	}
 	
 	/**
 	 * Gets the String literal of the IP Address that the packet was recieved from. If an iteration of the reviever loop has occured without recieving a packet, the IP will return as "Not Connected...".
 	 * @return
 	 */
-	public synchronized String getCoprocessorIP() {
+	public String getCoprocessorIP() {
 		return coprocessorIPAddress;
 	}
 	
-	private synchronized void setCoprocessorIP(String ipLiteral) {
+	private void setCoprocessorIP(String ipLiteral) {
 		coprocessorIPAddress = ipLiteral;
 	}
 	
 	/**
 	 * Get the most recent target information sent by the phone.  Targets are indexed by how closely they fit the criteria; the 0th target is the best match
+	 * 
+	 * Returns a copy of the targets, which the caller is free to keep or modify.  Code that reads targets every
+	 * loop should use {@link #getMostRecentFrame()} instead, which doesn't allocate.
 	 * @return
 	 */
-	public synchronized TargetInformation[] getMostRecentTargets()
+	public TargetInformation[] getMostRecentTargets()
+	{
+		return mostRecentFrame.get().copyTargets();
+	}
+
+	/**
+	 * Get the most recent frame sent by the phone.  Never blocks.
+	 */
+	public VisionFrame getMostRecentFrame()
 	{
-		//make a shallow copy so that when the list is next cleared, it doesn't affect the return value of this method.
-		return mostRecentTargets.toArray(new TargetInformation[mostRecentTargets.size()]);
+		return mostRecentFrame.get();
+	}
+
+	/**
+	 * Wait until a frame newer than the given one has been received.
+	 * 
+	 * In Kryo mode, returns as soon as the first target of the new frame arrives, so the frame may not yet contain every target the phone will send for it.
+	 * 
+	 * @param lastSequence the sequence number of the last frame the caller has seen, or 0 for none
+	 * @param timeoutMs the longest time to wait
+	 * @return the new frame, or null if the timeout expired or the thread was interrupted first
+	 */
+	public VisionFrame waitForFrameAfter(long lastSequence, long timeoutMs)
+	{
+		VisionFrame frame = mostRecentFrame.get();
+		if(frame.sequence > lastSequence)
+		{
+			return frame;
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+		synchronized(frameWaitLock)
+		{
+			++numFrameWaiters;
+
+			try
+			{
+				// check again now that we are registered, in case the frame was published in between
+				while((frame = mostRecentFrame.get()).sequence <= lastSequence)
+				{
+					long remainingNanos = deadline - System.nanoTime();
+					if(remainingNanos <= 0)
+					{
+						return null;
+					}
+
+					TimeUnit.NANOSECONDS.timedWait(frameWaitLock, remainingNanos);
+				}
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			finally
+			{
+				--numFrameWaiters;
+			}
+		}
+
+		return frame;
 	}
 	
-	private synchronized void onTargetInfoReceived(TargetInformation target)
+	private void onTargetInfoReceived(TargetInformation target, double receiveTime)
 	{
-		//if the index is 1, clear the list and start over because we are getting data from the next frame
+		//if the index is 1, start over because we are getting data from the next frame
 		if(target.targetRanking == 1)
 		{
-			mostRecentTargets.clear();
-			mostRecentTargets.add(target);
+			publishFrame(new TargetInformation[] {target}, 1, receiveTime);
 		}
 		else
 		{
-			mostRecentTargets.add(target);
+			mostRecentFrame.set(mostRecentFrame.get().withTarget(target, receiveTime));
+		}
+	}
+
+	/**
+	 * Publish the start of a new frame and wake up anyone waiting for it.
+	 */
+	private void publishFrame(TargetInformation[] targets, int numTargets, double receiveTime)
+	{
+		mostRecentFrame.set(new VisionFrame(mostRecentFrame.get().sequence + 1, receiveTime, targets, numTargets));
+
+		if(numFrameWaiters > 0)
+		{
+			synchronized(frameWaitLock)
+			{
+				frameWaitLock.notifyAll();
+			}
 		}
 	}
 	
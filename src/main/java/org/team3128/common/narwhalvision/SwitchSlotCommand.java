@@ -12,4 +12,9 @@ public class SwitchSlotCommand extends PhoneCommand
 	{
 		this.newSlot = newSlot;
 	}
+
+	public int getNewSlot()
+	{
+		return newSlot;
+	}
 }
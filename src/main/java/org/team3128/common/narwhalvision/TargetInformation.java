@@ -39,6 +39,27 @@ public class TargetInformation
 	{
 	}
 
+	/**
+	 * Copy constructor
+	 */
+	public TargetInformation(TargetInformation other)
+	{
+		area = other.area;
+		boundingRectLeft = other.boundingRectLeft;
+		boundingRectTop = other.boundingRectTop;
+		boundingRectRight = other.boundingRectRight;
+		boundingRectBottom = other.boundingRectBottom;
+		boundingRectHeight = other.boundingRectHeight;
+		boundingRectWidth = other.boundingRectWidth;
+		boundingRectCenterX = other.boundingRectCenterX;
+		boundingRectCenterY = other.boundingRectCenterY;
+		imageWidth = other.imageWidth;
+		imageHeight = other.imageHeight;
+		horizontalFOV = other.horizontalFOV;
+		verticalFOV = other.verticalFOV;
+		targetRanking = other.targetRanking;
+	}
+
 	/**
 	 * Computes the estimated distance to a target using the known height of the target off the ground.
 	 * Only works if the camera is horizontal.
@@ -0,0 +1,88 @@
+package org.team3128.common.narwhalvision;
+
+/**
+ * The targets received from the phone for one frame of video, as published by {@link NarwhalVisionReceiver}.
+ *
+ * Frames and their targets are never modified once they are published, so they can be shared between threads
+ * freely and kept for as long as needed.  While the phone is still sending the targets of a frame, the receiver
+ * publishes a new VisionFrame with the same sequence number each time another target arrives.
+ *
+ * @author Narwhal
+ *
+ */
+public class VisionFrame
+{
+	/**
+	 * Frame published before anything has been received.
+	 */
+	public static final VisionFrame EMPTY = new VisionFrame(0, 0, new TargetInformation[0], 0);
+
+	/**
+	 * Increases by one with each frame received, starting from 1.
+	 */
+	public final long sequence;
+
+	/**
+	 * FPGA time at which the latest target of this frame was received, in seconds.
+	 */
+	public final double receiveTime;
+
+	// Ordered by target ranking.  Only the first numTargets belong to this frame.
+	private final TargetInformation[] targets;
+	private final int numTargets;
+
+	VisionFrame(long sequence, double receiveTime, TargetInformation[] targets, int numTargets)
+	{
+		this.sequence = sequence;
+		this.receiveTime = receiveTime;
+		this.targets = targets;
+		this.numTargets = numTargets;
+	}
+
+	/**
+	 * Create the frame which results from receiving another target of this one.
+	 */
+	VisionFrame withTarget(TargetInformation target, double receiveTime)
+	{
+		TargetInformation[] newTargets = new TargetInformation[numTargets + 1];
+		System.arraycopy(targets, 0, newTargets, 0, numTargets);
+		newTargets[numTargets] = target;
+
+		return new VisionFrame(sequence, receiveTime, newTargets, numTargets + 1);
+	}
+
+	public int getNumTargets()
+	{
+		return numTargets;
+	}
+
+	/**
+	 * Get a target by index.  The 0th target is the best match.
+	 *
+	 * The target is shared with every other reader of this frame, so it must not be modified.  Use
+	 * {@link #copyTargets()} to get targets which can be.
+	 */
+	public TargetInformation getTarget(int index)
+	{
+		if(index >= numTargets)
+		{
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+
+		return targets[index];
+	}
+
+	/**
+	 * Copy this frame's targets into a new array, so that the caller can keep or modify them.
+	 */
+	public TargetInformation[] copyTargets()
+	{
+		TargetInformation[] copy = new TargetInformation[numTargets];
+		for(int index = 0; index < numTargets; ++index)
+		{
+			copy[index] = new TargetInformation(targets[index]);
+		}
+
+		return copy;
+	}
+}
@@ -0,0 +1,149 @@
+package org.team3128.common.narwhalvision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes the flat binary wire format used between the phone and {@link NarwhalVisionReceiver}
+ * in {@link NarwhalVisionReceiver.WireFormat#BINARY} mode.
+ *
+ * Every field is at a fixed offset, so packets are read straight out of the receive buffer with absolute gets
+ * and nothing is allocated beyond the objects being filled in.  All values are big-endian.
+ *
+ * A target packet holds every target of one frame:
+ * <pre>
+ * offset  size  field
+ *      0     1  version ({@link #VERSION})
+ *      1     1  packet type ({@link #TYPE_TARGETS})
+ *      2     2  number of targets
+ *      4     4  the phone's frame number
+ *      8    56  targets, each laid out as below, in order of ranking
+ *
+ * target: area, boundingRectLeft, boundingRectTop, boundingRectRight, boundingRectBottom,
+ *         boundingRectHeight, boundingRectWidth, boundingRectCenterX, boundingRectCenterY (floats),
+ *         imageWidth, imageHeight (ints), horizontalFOV, verticalFOV (floats), targetRanking (int)
+ * </pre>
+ *
+ * A command packet sent to the phone is the version, the packet type, and a four byte argument.
+ *
+ * @author Narwhal
+ *
+ */
+public class VisionPacketCodec
+{
+	public static final byte VERSION = 1;
+
+	public static final byte TYPE_TARGETS = 1;
+	public static final byte TYPE_SWITCH_SLOT = 2;
+
+	public static final int HEADER_SIZE = 8;
+	public static final int TARGET_SIZE = 56;
+	public static final int COMMAND_SIZE = 6;
+
+	static final int VERSION_OFFSET = 0;
+	static final int TYPE_OFFSET = 1;
+	static final int NUM_TARGETS_OFFSET = 2;
+	static final int FRAME_NUMBER_OFFSET = 4;
+	static final int COMMAND_ARGUMENT_OFFSET = 2;
+
+	/**
+	 * The most targets which fit in one packet of {@link NarwhalVisionReceiver#SERIALIZATION_BUFFER_SIZE}.
+	 */
+	public static final int MAX_TARGETS = (NarwhalVisionReceiver.SERIALIZATION_BUFFER_SIZE - HEADER_SIZE) / TARGET_SIZE;
+
+	/**
+	 * Check that a received packet is a complete target packet of this version.
+	 *
+	 * @param packet buffer holding the packet from position 0 to its limit
+	 * @return the number of targets in the packet, or -1 if it is not a valid target packet
+	 */
+	public static int readNumTargets(ByteBuffer packet)
+	{
+		if(packet.limit() < HEADER_SIZE || packet.get(VERSION_OFFSET) != VERSION || packet.get(TYPE_OFFSET) != TYPE_TARGETS)
+		{
+			return -1;
+		}
+
+		int numTargets = packet.getShort(NUM_TARGETS_OFFSET) & 0xFFFF;
+		if(numTargets > MAX_TARGETS || packet.limit() < HEADER_SIZE + numTargets * TARGET_SIZE)
+		{
+			return -1;
+		}
+
+		return numTargets;
+	}
+
+	public static int readFrameNumber(ByteBuffer packet)
+	{
+		return packet.getInt(FRAME_NUMBER_OFFSET);
+	}
+
+	/**
+	 * Fill in a target from a target packet.  Assumes the packet has been checked with {@link #readNumTargets(ByteBuffer)}.
+	 */
+	public static void readTarget(ByteBuffer packet, int index, TargetInformation target)
+	{
+		int offset = HEADER_SIZE + index * TARGET_SIZE;
+
+		target.area = packet.getFloat(offset);
+		target.boundingRectLeft = packet.getFloat(offset + 4);
+		target.boundingRectTop = packet.getFloat(offset + 8);
+		target.boundingRectRight = packet.getFloat(offset + 12);
+		target.boundingRectBottom = packet.getFloat(offset + 16);
+		target.boundingRectHeight = packet.getFloat(offset + 20);
+		target.boundingRectWidth = packet.getFloat(offset + 24);
+		target.boundingRectCenterX = packet.getFloat(offset + 28);
+		target.boundingRectCenterY = packet.getFloat(offset + 32);
+		target.imageWidth = packet.getInt(offset + 36);
+		target.imageHeight = packet.getInt(offset + 40);
+		target.horizontalFOV = packet.getFloat(offset + 44);
+		target.verticalFOV = packet.getFloat(offset + 48);
+		target.targetRanking = packet.getInt(offset + 52);
+	}
+
+	/**
+	 * Write a target packet, as the phone does.  The buffer is left ready to send.
+	 */
+	public static void writeTargets(ByteBuffer packet, int frameNumber, TargetInformation... targets)
+	{
+		packet.clear();
+
+		packet.put(VERSION);
+		packet.put(TYPE_TARGETS);
+		packet.putShort((short) targets.length);
+		packet.putInt(frameNumber);
+
+		for(TargetInformation target : targets)
+		{
+			packet.putFloat(target.area);
+			packet.putFloat(target.boundingRectLeft);
+			packet.putFloat(target.boundingRectTop);
+			packet.putFloat(target.boundingRectRight);
+			packet.putFloat(target.boundingRectBottom);
+			packet.putFloat(target.boundingRectHeight);
+			packet.putFloat(target.boundingRectWidth);
+			packet.putFloat(target.boundingRectCenterX);
+			packet.putFloat(target.boundingRectCenterY);
+			packet.putInt(target.imageWidth);
+			packet.putInt(target.imageHeight);
+			packet.putFloat(target.horizontalFOV);
+			packet.putFloat(target.verticalFOV);
+			packet.putInt(target.targetRanking);
+		}
+
+		packet.flip();
+	}
+
+	/**
+	 * Write a command packet.  The buffer is left ready to send.
+	 */
+	public static void writeCommand(ByteBuffer packet, byte type, int argument)
+	{
+		packet.clear();
+
+		packet.put(VERSION);
+		packet.put(type);
+		packet.putInt(argument);
+
+		packet.flip();
+	}
+}
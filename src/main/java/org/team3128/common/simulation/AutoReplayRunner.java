@@ -0,0 +1,136 @@
+package org.team3128.common.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.team3128.common.util.Log;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.hal.sim.DriverStationSim;
+import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.command.Scheduler;
+
+/**
+ * Runs an autonomous routine headlessly in desktop simulation, as fast as the code allows.
+ *
+ * The WPILib {@link Scheduler} is run in a loop like it would be by the robot's main loop, but
+ * between iterations a {@link VirtualClock} is stepped forward by the loop period and the given
+ * {@link SimulatedSystem}s are advanced by the same amount, instead of waiting for real time to
+ * pass.  A 15 second sandstorm routine normally takes milliseconds to run, as long as none of its
+ * commands sleep or wait on threads of their own.
+ *
+ * The commands in the routine see virtual time through timeSinceInitialized() and isTimedOut(), which
+ * is what command timeouts use.  Anything which reads the FPGA time directly sees real time, since the
+ * simulated HAL can't be made to follow the {@link VirtualClock}.
+ *
+ * The result is a {@link CommandTimeline} of when each command ran and why it ended.
+ *
+ * <pre>
+ * AutoReplayRunner runner = new AutoReplayRunner(AutoReplayRunner.DEFAULT_PERIOD, drivetrain, liftMotor);
+ * runner.run(new CmdAutoPrime(...), AutoReplayRunner.SANDSTORM_LENGTH).log();
+ * </pre>
+ *
+ * @author Narwhal
+ *
+ */
+public class AutoReplayRunner {
+	/**
+	 * The period of the robot's main loop, in seconds.
+	 */
+	public static final double DEFAULT_PERIOD = .02;
+
+	/**
+	 * The length of the sandstorm period, in seconds.
+	 */
+	public static final double SANDSTORM_LENGTH = 15;
+
+	private static boolean halInitialized = false;
+
+	private final double period;
+	private final ArrayList<SimulatedSystem> systems = new ArrayList<>();
+
+	private final VirtualClock clock = new VirtualClock();
+
+	/**
+	 * @param period - The time between scheduler iterations, in seconds.
+	 * @param systems - The physics models to advance alongside the scheduler.
+	 */
+	public AutoReplayRunner(double period, SimulatedSystem... systems) {
+		this.period = period;
+
+		Collections.addAll(this.systems, systems);
+	}
+
+	public void addSystem(SimulatedSystem system) {
+		systems.add(system);
+	}
+
+	/**
+	 * Runs the routine in autonomous mode until it ends or the time limit is reached.
+	 *
+	 * @param routine - The command to run.
+	 * @param timeLimit - The longest to let the routine run, in virtual seconds.
+	 * @return The timeline of the commands in the routine.
+	 */
+	public synchronized CommandTimeline run(Command routine, double timeLimit) {
+		if (!halInitialized) {
+			HAL.initialize(500, 0);
+			halInitialized = true;
+		}
+
+		DriverStationSim driverStation = new DriverStationSim();
+		driverStation.setDsAttached(true);
+		driverStation.setAutonomous(true);
+		driverStation.setEnabled(true);
+		driverStation.notifyNewData();
+
+		Scheduler scheduler = Scheduler.getInstance();
+		scheduler.removeAll();
+
+		CommandTimeline timeline = new CommandTimeline(routine, period);
+		long periodMicroseconds = Math.round(period * 1e6);
+
+		long startTime = System.nanoTime();
+		clock.start();
+
+		try {
+			routine.start();
+
+			while (clock.getTime() < timeLimit) {
+				long iterationStartTime = System.nanoTime();
+				scheduler.run();
+				timeline.update(clock.getTime(), System.nanoTime() - iterationStartTime);
+
+				if (!routine.isRunning()) {
+					break;
+				}
+
+				for (SimulatedSystem system : systems) {
+					system.update(period);
+				}
+				clock.step(periodMicroseconds);
+				timeline.rebaseStartTimes(clock.getTime());
+			}
+
+			timeline.finish(clock.getTime());
+
+			routine.cancel();
+			scheduler.run();
+		}
+		finally {
+			scheduler.removeAll();
+
+			driverStation.setEnabled(false);
+			driverStation.notifyNewData();
+		}
+
+		Log.info("AutoReplayRunner", String.format("Simulated %.2fs of %s in %.1fms.", clock.getTime(), routine.getName(),
+				(System.nanoTime() - startTime) / 1e6));
+
+		return timeline;
+	}
+
+	public VirtualClock getClock() {
+		return clock;
+	}
+}
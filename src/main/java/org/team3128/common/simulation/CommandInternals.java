@@ -0,0 +1,137 @@
+package org.team3128.common.simulation;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import edu.wpi.first.wpilibj.Timer;
+import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.command.CommandGroup;
+
+/**
+ * Reads and writes the private state of WPILib's {@link Command} and {@link CommandGroup} which the replay
+ * tools need, since WPILib has no public way to get at it.
+ *
+ * If a field can't be accessed (because WPILib's internals have changed), an {@link IllegalStateException}
+ * is thrown, rather than replaying with commands silently untracked or on the wrong clock.
+ *
+ * @author Narwhal
+ *
+ */
+final class CommandInternals {
+	private static Field startTimeField, timeoutField, commandsField, entryCommandField;
+
+	private CommandInternals() {
+	}
+
+	private static Field getField(Class<?> type, String name) {
+		try {
+			Field field = type.getDeclaredField(name);
+			field.setAccessible(true);
+
+			return field;
+		}
+		catch (ReflectiveOperationException | RuntimeException e) {
+			throw new IllegalStateException("Can't access " + type.getName() + "." + name + ", WPILib's command internals have changed", e);
+		}
+	}
+
+	private static IllegalStateException accessFailed(Field field, Exception cause) {
+		return new IllegalStateException("Can't access " + field.getDeclaringClass().getName() + "." + field.getName(), cause);
+	}
+
+	/**
+	 * @return The command's timeout, in seconds, or -1 if it has none.
+	 */
+	static synchronized double getTimeout(Command command) {
+		if (timeoutField == null) {
+			timeoutField = getField(Command.class, "m_timeout");
+		}
+
+		try {
+			return timeoutField.getDouble(command);
+		}
+		catch (IllegalAccessException | RuntimeException e) {
+			throw accessFailed(timeoutField, e);
+		}
+	}
+
+	/**
+	 * @return The FPGA time the command was initialized at, in seconds, or a negative number if it hasn't been.
+	 */
+	static synchronized double getStartTime(Command command) {
+		if (startTimeField == null) {
+			startTimeField = getField(Command.class, "m_startTime");
+		}
+
+		try {
+			return startTimeField.getDouble(command);
+		}
+		catch (IllegalAccessException | RuntimeException e) {
+			throw accessFailed(startTimeField, e);
+		}
+	}
+
+	/**
+	 * Sets the FPGA time the command was initialized at, which its timeSinceInitialized() and isTimedOut() count from.
+	 */
+	static synchronized void setStartTime(Command command, double startTime) {
+		if (startTimeField == null) {
+			startTimeField = getField(Command.class, "m_startTime");
+		}
+
+		try {
+			startTimeField.setDouble(command, startTime);
+		}
+		catch (IllegalAccessException | RuntimeException e) {
+			throw accessFailed(startTimeField, e);
+		}
+	}
+
+	/**
+	 * Moves the command's start time so that timeSinceInitialized() returns the given time from now on.
+	 *
+	 * @return The start time which was set.
+	 */
+	static double setTimeSinceInitialized(Command command, double seconds) {
+		double startTime = Timer.getFPGATimestamp() - seconds;
+		setStartTime(command, startTime);
+
+		return startTime;
+	}
+
+	/**
+	 * @return The commands added to the group, sequential and parallel, in the order they were added.
+	 */
+	static synchronized List<Command> getChildren(CommandGroup group) {
+		if (commandsField == null) {
+			commandsField = getField(CommandGroup.class, "m_commands");
+		}
+
+		ArrayList<Command> children = new ArrayList<>();
+
+		Collection<?> entries;
+		try {
+			entries = (Collection<?>) commandsField.get(group);
+		}
+		catch (IllegalAccessException | RuntimeException e) {
+			throw accessFailed(commandsField, e);
+		}
+
+		for (Object entry : entries) {
+			if (entryCommandField == null) {
+				entryCommandField = getField(entry.getClass(), "m_command");
+			}
+
+			try {
+				children.add((Command) entryCommandField.get(entry));
+			}
+			catch (IllegalAccessException | RuntimeException e) {
+				throw accessFailed(entryCommandField, e);
+			}
+		}
+
+		return children;
+	}
+}
@@ -0,0 +1,261 @@
+package org.team3128.common.simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.team3128.common.util.Log;
+
+import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.command.CommandGroup;
+
+/**
+ * Record of when each command in an autonomous routine ran, built up by an {@link AutoReplayRunner}
+ * polling the commands after every scheduler iteration.
+ *
+ * The children of command groups are found by reading the group's private command list, since
+ * WPILib has no public way to get at them.  If that fails, constructing the timeline throws an
+ * {@link IllegalStateException} instead of tracking only part of the routine.
+ *
+ * @author Narwhal
+ *
+ */
+public class CommandTimeline {
+	public enum EndReason {
+		/**
+		 * isFinished() returned true, or the command was interrupted by its parent or another command.
+		 */
+		FINISHED,
+
+		/**
+		 * The command ended at or after its timeout.
+		 */
+		TIMED_OUT,
+
+		/**
+		 * The command was still running when the simulation stopped.
+		 */
+		CUT_OFF
+	}
+
+	/**
+	 * One run of one command.
+	 */
+	public static class Entry {
+		public final String name;
+
+		/**
+		 * How deeply the command is nested in command groups, with the routine itself at zero.
+		 */
+		public final int depth;
+
+		/**
+		 * Virtual times the command started and ended at, in seconds.
+		 */
+		public double startTime, endTime;
+
+		/**
+		 * The real time spent running the scheduler while the command was executing, in milliseconds.
+		 * Shared evenly between all of the (non-group) commands running at once.
+		 */
+		public double executeTime;
+
+		public int iterations;
+
+		public EndReason endReason;
+
+		public Entry(String name, int depth, double startTime) {
+			this.name = name;
+			this.depth = depth;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder indent = new StringBuilder();
+			for (int level = 0; level < depth; level++) {
+				indent.append("  ");
+			}
+
+			return String.format("%s%s: %.3fs - %s, %d iterations, %.3fms executing, %s", indent, name, startTime,
+					endReason == null ? "running" : String.format("%.3fs", endTime), iterations, executeTime, endReason);
+		}
+	}
+
+	private static class TrackedCommand {
+		public final Command command;
+		public final int depth;
+		public final boolean isGroup;
+		public final double timeout;
+
+		public Entry currentEntry;
+
+		/**
+		 * The virtual time the command was last initialized at, and the FPGA start time last written for it.
+		 */
+		public double virtualStartTime;
+		public double rebasedStartTime = Double.NaN;
+
+		public TrackedCommand(Command command, int depth) {
+			this.command = command;
+			this.depth = depth;
+
+			isGroup = command instanceof CommandGroup;
+			timeout = CommandInternals.getTimeout(command);
+		}
+	}
+
+	private final ArrayList<TrackedCommand> tracked = new ArrayList<>();
+	private final ArrayList<Entry> entries = new ArrayList<>();
+
+	private final double period;
+
+	/**
+	 * @param routine - The command whose timeline to record.
+	 * @param period - The time between scheduler iterations, in seconds.
+	 */
+	public CommandTimeline(Command routine, double period) {
+		this.period = period;
+
+		track(routine, 0);
+	}
+
+	private void track(Command command, int depth) {
+		tracked.add(new TrackedCommand(command, depth));
+
+		if (command instanceof CommandGroup) {
+			for (Command child : CommandInternals.getChildren((CommandGroup) command)) {
+				track(child, depth + 1);
+			}
+		}
+	}
+
+	/**
+	 * Checks which commands have started or ended. Call after each scheduler iteration.
+	 *
+	 * @param time - The virtual time of the iteration, in seconds.
+	 * @param iterationNanoseconds - The real time the iteration took.
+	 */
+	public void update(double time, long iterationNanoseconds) {
+		int runningLeaves = 0;
+
+		for (TrackedCommand trackedCommand : tracked) {
+			boolean running = trackedCommand.command.isRunning();
+
+			if (running && trackedCommand.currentEntry == null) {
+				trackedCommand.currentEntry = new Entry(trackedCommand.command.getName(), trackedCommand.depth, time);
+				entries.add(trackedCommand.currentEntry);
+			}
+			else if (!running && trackedCommand.currentEntry != null) {
+				end(trackedCommand, time, false);
+			}
+
+			if (running) {
+				trackedCommand.currentEntry.iterations++;
+
+				if (!trackedCommand.isGroup) {
+					runningLeaves++;
+				}
+			}
+		}
+
+		if (runningLeaves > 0) {
+			double share = iterationNanoseconds / 1e6 / runningLeaves;
+
+			for (TrackedCommand trackedCommand : tracked) {
+				if (!trackedCommand.isGroup && trackedCommand.currentEntry != null) {
+					trackedCommand.currentEntry.executeTime += share;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the start time WPILib keeps for each initialized command, so that its timeSinceInitialized()
+	 * and isTimedOut() count virtual time instead of real time. Call after the virtual clock is stepped,
+	 * before the next scheduler iteration.
+	 *
+	 * @param time - The virtual time of the next iteration, in seconds.
+	 */
+	public void rebaseStartTimes(double time) {
+		for (TrackedCommand trackedCommand : tracked) {
+			double startTime = CommandInternals.getStartTime(trackedCommand.command);
+
+			if (startTime < 0) {
+				// not initialized yet
+				trackedCommand.rebasedStartTime = Double.NaN;
+				continue;
+			}
+
+			if (startTime != trackedCommand.rebasedStartTime) {
+				// WPILib (re)initialized the command during the iteration before the clock was stepped
+				trackedCommand.virtualStartTime = time - period;
+			}
+
+			trackedCommand.rebasedStartTime = CommandInternals.setTimeSinceInitialized(trackedCommand.command, time - trackedCommand.virtualStartTime);
+		}
+	}
+
+	/**
+	 * Closes out every command which is still running. Call before cancelling the routine at the end of the simulation.
+	 */
+	public void finish(double time) {
+		for (TrackedCommand trackedCommand : tracked) {
+			if (trackedCommand.currentEntry != null) {
+				end(trackedCommand, time, true);
+			}
+		}
+	}
+
+	private void end(TrackedCommand trackedCommand, double time, boolean cutOff) {
+		Entry entry = trackedCommand.currentEntry;
+		entry.endTime = time;
+
+		if (cutOff) {
+			entry.endReason = EndReason.CUT_OFF;
+		}
+		else if (trackedCommand.timeout > 0 && time - entry.startTime >= trackedCommand.timeout - period / 2) {
+			entry.endReason = EndReason.TIMED_OUT;
+		}
+		else {
+			entry.endReason = EndReason.FINISHED;
+		}
+
+		trackedCommand.currentEntry = null;
+	}
+
+	/**
+	 * @return Every recorded command run, in the order they started.
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Logs the timeline, one line per command run.
+	 */
+	public void log() {
+		for (Entry entry : entries) {
+			Log.info("CommandTimeline", entry.toString());
+		}
+	}
+
+	/**
+	 * @return The timeline as CSV, with a header row.
+	 */
+	public String toCSV() {
+		StringBuilder csv = new StringBuilder("name,depth,start,end,executeMs,iterations,endReason\n");
+
+		for (Entry entry : entries) {
+			csv.append(entry.name).append(',')
+				.append(entry.depth).append(',')
+				.append(entry.startTime).append(',')
+				.append(entry.endTime).append(',')
+				.append(entry.executeTime).append(',')
+				.append(entry.iterations).append(',')
+				.append(entry.endReason).append('\n');
+		}
+
+		return csv.toString();
+	}
+}
\ No newline at end of file
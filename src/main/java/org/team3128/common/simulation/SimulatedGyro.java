@@ -0,0 +1,64 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.navigation.Gyro;
+
+/**
+ * Simulated {@link Gyro}, turned by a physics model such as {@link SimulatedTankDrivetrain}.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedGyro implements Gyro {
+	private double heading = 0;
+	private double rate = 0;
+
+	private double offset = 0;
+
+	/**
+	 * Rotates the simulated robot.
+	 *
+	 * @param deltaAngle - The change in heading, counterclockwise positive, in degrees.
+	 * @param dt - The time the rotation took, in seconds.
+	 */
+	public void rotate(double deltaAngle, double dt) {
+		heading += deltaAngle;
+		rate = dt > 0 ? deltaAngle / dt : 0;
+	}
+
+	/**
+	 * @return The true heading of the simulated robot, unaffected by resets, in degrees.
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
+	@Override
+	public double getAngle() {
+		return heading - offset;
+	}
+
+	@Override
+	public double getRate() {
+		return rate;
+	}
+
+	@Override
+	public double getPitch() {
+		return 0;
+	}
+
+	@Override
+	public double getRoll() {
+		return 0;
+	}
+
+	@Override
+	public void reset() {
+		offset = heading;
+	}
+
+	@Override
+	public void setAngle(double angle) {
+		offset = heading - angle;
+	}
+}
@@ -0,0 +1,31 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.limitswitch.ILimitSwitch;
+
+/**
+ * Simulated {@link ILimitSwitch} which is triggered while a simulated mechanism is within a range of positions.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedLimitSwitch implements ILimitSwitch {
+	private final SimulatedMotorController motor;
+	private final double minPosition, maxPosition;
+
+	/**
+	 * @param motor - The motor driving the mechanism which presses the switch.
+	 * @param minPosition - The lowest physical position at which the switch is pressed, in native units.
+	 * @param maxPosition - The highest physical position at which the switch is pressed, in native units.
+	 */
+	public SimulatedLimitSwitch(SimulatedMotorController motor, double minPosition, double maxPosition) {
+		this.motor = motor;
+		this.minPosition = minPosition;
+		this.maxPosition = maxPosition;
+	}
+
+	@Override
+	public boolean isTriggered() {
+		double position = motor.getPhysicalPosition();
+		return position >= minPosition && position <= maxPosition;
+	}
+}
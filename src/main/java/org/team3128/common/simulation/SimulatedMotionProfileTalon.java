@@ -0,0 +1,209 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.drive.MotionProfileStreamer;
+import org.team3128.common.drive.MotionProfileTalon;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * Stand-in for a Talon SRX running a motion profile, for exercising a {@link MotionProfileStreamer}
+ * without hardware.
+ *
+ * Models a {@link MotionProfileTalon#TOP_BUFFER_CAPACITY}-point top-level buffer which
+ * {@link #processMotionProfileBuffer()} moves one point at a time into a smaller bottom buffer,
+ * and a profile executor which consumes bottom buffer points as simulated time is advanced with
+ * {@link #advance(int)}.  Not thread safe on its own; the streamer serializes access to it.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedMotionProfileTalon implements MotionProfileTalon {
+	/**
+	 * The number of points the Talon firmware's own buffer can hold.
+	 */
+	public static final int BOTTOM_BUFFER_CAPACITY = 128;
+
+	private final PointQueue topBuffer = new PointQueue(TOP_BUFFER_CAPACITY);
+	private final PointQueue bottomBuffer = new PointQueue(BOTTOM_BUFFER_CAPACITY);
+
+	private final TrajectoryPoint activePoint = new TrajectoryPoint();
+	private boolean activePointValid = false;
+	private int activePointRemainingMs;
+
+	private boolean enabled = false;
+	private boolean hasUnderrun = false;
+	private boolean isUnderrun = false;
+
+	private int pointsExecuted = 0;
+
+	@Override
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint point) {
+		if (topBuffer.isFull()) {
+			return ErrorCode.BufferFull;
+		}
+
+		topBuffer.add(point);
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public void processMotionProfileBuffer() {
+		if (!topBuffer.isEmpty() && !bottomBuffer.isFull()) {
+			bottomBuffer.add(topBuffer.peek());
+			topBuffer.remove();
+		}
+	}
+
+	@Override
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus status) {
+		status.topBufferCnt = topBuffer.size();
+		status.topBufferRem = TOP_BUFFER_CAPACITY - topBuffer.size();
+		status.btmBufferCnt = bottomBuffer.size();
+		status.hasUnderrun = hasUnderrun;
+		status.isUnderrun = isUnderrun;
+		status.activePointValid = activePointValid;
+		status.isLast = activePointValid && activePoint.isLastPoint;
+		status.profileSlotSelect0 = activePoint.profileSlotSelect0;
+		status.timeDurMs = activePoint.timeDur;
+
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs) {
+		hasUnderrun = false;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public void clearMotionProfileTrajectories() {
+		topBuffer.clear();
+		bottomBuffer.clear();
+		activePointValid = false;
+	}
+
+	@Override
+	public void set(ControlMode mode, double value) {
+		enabled = mode == ControlMode.MotionProfile && value == 1;
+	}
+
+	/**
+	 * Runs the profile executor for the given amount of simulated time.
+	 *
+	 * @param elapsedMs - The time to advance by, in milliseconds.
+	 */
+	public void advance(int elapsedMs) {
+		for (int ms = 0; ms < elapsedMs && enabled; ms++) {
+			if (activePointValid && activePointRemainingMs > 0) {
+				activePointRemainingMs--;
+				continue;
+			}
+
+			if (activePointValid && activePoint.isLastPoint) {
+				// hold the final point
+				isUnderrun = false;
+				continue;
+			}
+
+			if (bottomBuffer.isEmpty()) {
+				if (activePointValid) {
+					hasUnderrun = true;
+					isUnderrun = true;
+				}
+				continue;
+			}
+
+			copy(bottomBuffer.peek(), activePoint);
+			bottomBuffer.remove();
+
+			activePointValid = true;
+			activePointRemainingMs = activePoint.timeDur - 1;
+			isUnderrun = false;
+			pointsExecuted++;
+		}
+	}
+
+	/**
+	 * @return The position of the point currently being executed, in native units.
+	 */
+	public double getActivePosition() {
+		return activePoint.position;
+	}
+
+	/**
+	 * @return The velocity of the point currently being executed, in native units per 100ms.
+	 */
+	public double getActiveVelocity() {
+		return activePoint.velocity;
+	}
+
+	public boolean isActivePointValid() {
+		return activePointValid;
+	}
+
+	public int getPointsExecuted() {
+		return pointsExecuted;
+	}
+
+	private static void copy(TrajectoryPoint from, TrajectoryPoint to) {
+		to.position = from.position;
+		to.velocity = from.velocity;
+		to.auxiliaryPos = from.auxiliaryPos;
+		to.profileSlotSelect0 = from.profileSlotSelect0;
+		to.profileSlotSelect1 = from.profileSlotSelect1;
+		to.isLastPoint = from.isLastPoint;
+		to.zeroPos = from.zeroPos;
+		to.timeDur = from.timeDur;
+	}
+
+	/**
+	 * Fixed-capacity FIFO of trajectory points which copies points in rather than keeping references,
+	 * the same as the Talon's buffers do.
+	 */
+	private static class PointQueue {
+		private final TrajectoryPoint[] points;
+		private int head = 0;
+		private int size = 0;
+
+		public PointQueue(int capacity) {
+			points = new TrajectoryPoint[capacity];
+			for (int i = 0; i < capacity; i++) {
+				points[i] = new TrajectoryPoint();
+			}
+		}
+
+		public void add(TrajectoryPoint point) {
+			copy(point, points[(head + size) % points.length]);
+			size++;
+		}
+
+		public TrajectoryPoint peek() {
+			return points[head];
+		}
+
+		public void remove() {
+			head = (head + 1) % points.length;
+			size--;
+		}
+
+		public void clear() {
+			head = 0;
+			size = 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public boolean isFull() {
+			return size == points.length;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.util.RobotMath;
+
+import com.ctre.phoenix.ErrorCode;
+import com.ctre.phoenix.motion.MotionProfileStatus;
+import com.ctre.phoenix.motion.TrajectoryPoint;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.NeutralMode;
+import com.ctre.phoenix.motorcontrol.can.SlotConfiguration;
+
+/**
+ * Simulated Talon SRX driving a motor with an encoder.
+ *
+ * The motor is modeled as a first-order system: with a constant output its velocity approaches
+ * output times the free speed exponentially, with the given time constant.  The simulation only
+ * advances when {@link #update(double)} is called, in fixed 1ms steps (the Talon's own control
+ * loop period), so a run with the same inputs always produces the same results no matter how
+ * fast it is executed.
+ *
+ * Percent output, position, velocity, Motion Magic, and motion profile modes are simulated using
+ * the same gain units as the Talon firmware (output of 1023 is full power).
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedMotorController implements ISmartMotorController, SimulatedSystem {
+	/**
+	 * The length of one simulation step, in seconds.
+	 */
+	public static final double STEP = .001;
+
+	private static final int NUM_SLOTS = 4;
+
+	private final double freeSpeed;
+	private final double timeConstant;
+	private final double stallCurrent;
+
+	// physical state, in native units and native units per 100ms
+	private double position = 0;
+	private double velocity = 0;
+
+	private double sensorOffset = 0;
+	private boolean sensorPhase = false;
+	private boolean inverted = false;
+	private NeutralMode neutralMode = NeutralMode.Coast;
+
+	private ControlMode mode = ControlMode.PercentOutput;
+	private double demand = 0;
+	private double output = 0;
+
+	private final SlotConfiguration[] slots = new SlotConfiguration[NUM_SLOTS];
+	private int selectedSlot = 0;
+	private double integralAccumulator = 0;
+	private double lastError = 0;
+
+	private double openloopRamp = 0;
+	private int cruiseVelocity = 0;
+	private int acceleration = 0;
+
+	// Motion Magic setpoint
+	private double magicPosition = 0;
+	private double magicVelocity = 0;
+
+	private final SimulatedMotionProfileTalon profileExecutor = new SimulatedMotionProfileTalon();
+
+	private double elapsedTime = 0;
+
+	/**
+	 * @param freeSpeed - The speed of the mechanism at 100% output, in native units per 100ms.
+	 * @param timeConstant - The time it takes to reach 63% of a new speed, in seconds.
+	 * @param stallCurrent - The current drawn with the mechanism stalled at 100% output, in amps.
+	 */
+	public SimulatedMotorController(double freeSpeed, double timeConstant, double stallCurrent) {
+		this.freeSpeed = freeSpeed;
+		this.timeConstant = timeConstant;
+		this.stallCurrent = stallCurrent;
+
+		for (int slot = 0; slot < NUM_SLOTS; slot++) {
+			slots[slot] = new SlotConfiguration();
+		}
+	}
+
+	/**
+	 * Advances the simulation.
+	 *
+	 * @param dt - The time to simulate, in seconds. Rounded to a whole number of steps.
+	 */
+	@Override
+	public void update(double dt) {
+		int steps = (int) Math.round(dt / STEP);
+
+		for (int step = 0; step < steps; step++) {
+			output = RobotMath.clamp(computeOutput(), -1, 1);
+
+			double targetVelocity = (inverted ? -output : output) * freeSpeed;
+			double stepTimeConstant = (output == 0 && neutralMode == NeutralMode.Brake) ? timeConstant / 4 : timeConstant;
+
+			velocity += (targetVelocity - velocity) * STEP / stepTimeConstant;
+			position += velocity * 10 * STEP;
+
+			elapsedTime += STEP;
+		}
+	}
+
+	private double computeOutput() {
+		switch (mode) {
+		case PercentOutput:
+			if (openloopRamp <= 0) {
+				return demand;
+			}
+
+			double maxChange = STEP / openloopRamp;
+			return output + RobotMath.clamp(demand - output, -maxChange, maxChange);
+		case Velocity:
+			return closedLoop(demand, getSensorVelocity(), demand);
+		case Position:
+			return closedLoop(demand, getSensorPosition(), 0);
+		case MotionMagic:
+			advanceMagicSetpoint();
+			return closedLoop(magicPosition, getSensorPosition(), magicVelocity);
+		case MotionProfile:
+			profileExecutor.advance(1);
+			if (!profileExecutor.isActivePointValid()) {
+				return 0;
+			}
+
+			return closedLoop(profileExecutor.getActivePosition(), getSensorPosition(), profileExecutor.getActiveVelocity());
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Runs one iteration of the Talon's PIDF loop using the selected slot.
+	 *
+	 * @param feedForwardTarget - The velocity to apply kF to, or zero for none.
+	 */
+	private double closedLoop(double target, double sensor, double feedForwardTarget) {
+		SlotConfiguration gains = slots[selectedSlot];
+
+		double error = target - sensor;
+		integralAccumulator += error;
+
+		double result = gains.kP * error + gains.kI * integralAccumulator + gains.kD * (error - lastError) + gains.kF * feedForwardTarget;
+		lastError = error;
+
+		return result / 1023;
+	}
+
+	/**
+	 * Moves the Motion Magic setpoint one step along a trapezoidal profile toward the demand.
+	 */
+	private void advanceMagicSetpoint() {
+		double remaining = demand - magicPosition;
+		double direction = Math.signum(remaining);
+
+		// velocity change per step, in native units per 100ms
+		double accelerationStep = acceleration * STEP;
+		double stoppingDistance = acceleration == 0 ? 0 : magicVelocity * magicVelocity / (2 * acceleration) * 10;
+
+		if (Math.abs(remaining) <= stoppingDistance) {
+			magicVelocity -= Math.signum(magicVelocity) * Math.min(accelerationStep, Math.abs(magicVelocity));
+		} else {
+			magicVelocity = RobotMath.clamp(magicVelocity + direction * accelerationStep, -cruiseVelocity, cruiseVelocity);
+		}
+
+		double move = magicVelocity * 10 * STEP;
+		if (Math.abs(move) >= Math.abs(remaining) && Math.signum(move) == direction) {
+			magicPosition = demand;
+			magicVelocity = 0;
+		} else {
+			magicPosition += move;
+		}
+	}
+
+	private double getSensorPosition() {
+		return (sensorPhase ? -position : position) + sensorOffset;
+	}
+
+	private double getSensorVelocity() {
+		return sensorPhase ? -velocity : velocity;
+	}
+
+	/**
+	 * @return The true position of the mechanism in native units, unaffected by sensor resets.
+	 */
+	public double getPhysicalPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The true velocity of the mechanism in native units per 100ms.
+	 */
+	public double getPhysicalVelocity() {
+		return velocity;
+	}
+
+	/**
+	 * @return The output applied during the last step, from -1 to 1.
+	 */
+	public double getMotorOutputPercent() {
+		return output;
+	}
+
+	/**
+	 * @return The total time simulated, in seconds.
+	 */
+	public double getElapsedTime() {
+		return elapsedTime;
+	}
+
+	/**
+	 * @return The control mode of the last {@link #set(ControlMode, double)}.
+	 */
+	public ControlMode getControlMode() {
+		return mode;
+	}
+
+	/**
+	 * @return The value of the last {@link #set(ControlMode, double)}.
+	 */
+	public double getDemand() {
+		return demand;
+	}
+
+	@Override
+	public void set(ControlMode mode, double value) {
+		if (mode != this.mode) {
+			integralAccumulator = 0;
+			lastError = 0;
+
+			if (mode == ControlMode.MotionMagic) {
+				magicPosition = getSensorPosition();
+				magicVelocity = getSensorVelocity();
+			}
+		}
+
+		this.mode = mode;
+		this.demand = value;
+
+		profileExecutor.set(mode, value);
+	}
+
+	@Override
+	public int getSelectedSensorPosition() {
+		return (int) Math.round(getSensorPosition());
+	}
+
+	@Override
+	public int getSelectedSensorPosition(int pidIdx) {
+		return getSelectedSensorPosition();
+	}
+
+	@Override
+	public int getSelectedSensorVelocity() {
+		return (int) Math.round(getSensorVelocity());
+	}
+
+	@Override
+	public int getSelectedSensorVelocity(int pidIdx) {
+		return getSelectedSensorVelocity();
+	}
+
+	@Override
+	public ErrorCode setSelectedSensorPosition(int sensorPos) {
+		sensorOffset = sensorPos - (sensorPhase ? -position : position);
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode setSelectedSensorPosition(int sensorPos, int pidIdx, int timeoutMs) {
+		return setSelectedSensorPosition(sensorPos);
+	}
+
+	@Override
+	public void setSensorPhase(boolean phase) {
+		sensorPhase = phase;
+	}
+
+	@Override
+	public void setInverted(boolean invert) {
+		inverted = invert;
+	}
+
+	@Override
+	public void setNeutralMode(NeutralMode neutralMode) {
+		this.neutralMode = neutralMode;
+	}
+
+	@Override
+	public double getOutputCurrent() {
+		// current is proportional to the voltage not cancelled out by back EMF
+		double appliedOutput = inverted ? -output : output;
+		return Math.abs(appliedOutput - velocity / freeSpeed) * stallCurrent;
+	}
+
+	@Override
+	public void selectProfileSlot(int slotIdx, int pidIdx) {
+		selectedSlot = slotIdx;
+	}
+
+	@Override
+	public ErrorCode config_kP(int slotIdx, double value) {
+		slots[slotIdx].kP = value;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode config_kI(int slotIdx, double value) {
+		slots[slotIdx].kI = value;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode config_kD(int slotIdx, double value) {
+		slots[slotIdx].kD = value;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode config_kF(int slotIdx, double value) {
+		slots[slotIdx].kF = value;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public void getSlotConfigs(SlotConfiguration slot, int slotIdx, int timeoutMs) {
+		slot.kP = slots[slotIdx].kP;
+		slot.kI = slots[slotIdx].kI;
+		slot.kD = slots[slotIdx].kD;
+		slot.kF = slots[slotIdx].kF;
+	}
+
+	@Override
+	public ErrorCode configMotionCruiseVelocity(int sensorUnitsPer100ms, int timeoutMs) {
+		cruiseVelocity = sensorUnitsPer100ms;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode configMotionAcceleration(int sensorUnitsPer100msPerSec, int timeoutMs) {
+		acceleration = sensorUnitsPer100msPerSec;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode configOpenloopRamp(double secondsFromNeutralToFull, int timeoutMs) {
+		openloopRamp = secondsFromNeutralToFull;
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode configMotionProfileTrajectoryPeriod(int baseTrajDurationMs, int timeoutMs) {
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode changeMotionControlFramePeriod(int periodMs) {
+		return ErrorCode.OK;
+	}
+
+	@Override
+	public ErrorCode pushMotionProfileTrajectory(TrajectoryPoint point) {
+		return profileExecutor.pushMotionProfileTrajectory(point);
+	}
+
+	@Override
+	public void processMotionProfileBuffer() {
+		profileExecutor.processMotionProfileBuffer();
+	}
+
+	@Override
+	public ErrorCode getMotionProfileStatus(MotionProfileStatus status) {
+		return profileExecutor.getMotionProfileStatus(status);
+	}
+
+	@Override
+	public ErrorCode clearMotionProfileHasUnderrun(int timeoutMs) {
+		return profileExecutor.clearMotionProfileHasUnderrun(timeoutMs);
+	}
+
+	@Override
+	public void clearMotionProfileTrajectories() {
+		profileExecutor.clearMotionProfileTrajectories();
+	}
+}
@@ -0,0 +1,16 @@
+package org.team3128.common.simulation;
+
+/**
+ * A physics model which is advanced in simulated time by an {@link AutoReplayRunner}.
+ *
+ * @author Narwhal
+ *
+ */
+public interface SimulatedSystem {
+	/**
+	 * Advances the model.
+	 *
+	 * @param dt - The time to simulate, in seconds.
+	 */
+	public void update(double dt);
+}
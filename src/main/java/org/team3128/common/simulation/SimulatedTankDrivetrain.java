@@ -0,0 +1,110 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Physics model of a tank drive, which moves a {@link SimulatedGyro} and tracks the true
+ * position of the robot according to how far each side's {@link SimulatedMotorController} has driven.
+ *
+ * Assumes that positive output on both sides drives forward.  The wheels don't slip unless told to with
+ * {@link #setSlip(double, double)}, in which case the encoders keep counting what the motors turned but the
+ * robot only moves part of that distance.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedTankDrivetrain implements SimulatedSystem {
+	private final SimulatedMotorController leftMotors, rightMotors;
+	private final SimulatedGyro gyro;
+
+	private final double wheelCircumference;
+	private final double wheelBase;
+
+	private double leftSlip = 0, rightSlip = 0;
+
+	private double x = 0, y = 0;
+
+	/**
+	 * @param wheelCircumference - The circumference of the wheels, in cm.
+	 * @param wheelBase - The distance between the left and right wheels, in cm.
+	 */
+	public SimulatedTankDrivetrain(SimulatedMotorController leftMotors, SimulatedMotorController rightMotors, SimulatedGyro gyro,
+			double wheelCircumference, double wheelBase) {
+		this.leftMotors = leftMotors;
+		this.rightMotors = rightMotors;
+		this.gyro = gyro;
+
+		this.wheelCircumference = wheelCircumference;
+		this.wheelBase = wheelBase;
+	}
+
+	/**
+	 * Makes each side of the drive lose some of its travel, as if the wheels were slipping on the carpet.
+	 *
+	 * @param leftSlip - The fraction of the left side's travel which is lost, from 0 to 1.
+	 * @param rightSlip - The fraction of the right side's travel which is lost, from 0 to 1.
+	 */
+	public void setSlip(double leftSlip, double rightSlip) {
+		this.leftSlip = leftSlip;
+		this.rightSlip = rightSlip;
+	}
+
+	/**
+	 * Advances both sides of the drive and moves the robot accordingly.
+	 *
+	 * @param dt - The time to simulate, in seconds.
+	 */
+	@Override
+	public void update(double dt) {
+		double oldLeft = leftMotors.getPhysicalPosition();
+		double oldRight = rightMotors.getPhysicalPosition();
+
+		leftMotors.update(dt);
+		rightMotors.update(dt);
+
+		double left = (1 - leftSlip) * Convert.lengthCTREtoCM(leftMotors.getPhysicalPosition() - oldLeft, wheelCircumference);
+		double right = (1 - rightSlip) * Convert.lengthCTREtoCM(rightMotors.getPhysicalPosition() - oldRight, wheelCircumference);
+
+		double deltaAngle = Math.toDegrees((right - left) / wheelBase);
+		double heading = gyro.getHeading() + deltaAngle / 2;
+
+		x += (left + right) / 2 * RobotMath.cos(heading);
+		y += (left + right) / 2 * RobotMath.sin(heading);
+
+		gyro.rotate(deltaAngle, dt);
+	}
+
+	/**
+	 * @return The true x position of the robot relative to where it started, in cm.
+	 */
+	public double getX() {
+		return x;
+	}
+
+	/**
+	 * @return The true y position of the robot relative to where it started, in cm.
+	 */
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * @return The true heading of the robot relative to how it started, counterclockwise positive, in degrees.
+	 */
+	public double getHeading() {
+		return gyro.getHeading();
+	}
+
+	public SimulatedMotorController getLeftMotors() {
+		return leftMotors;
+	}
+
+	public SimulatedMotorController getRightMotors() {
+		return rightMotors;
+	}
+
+	public SimulatedGyro getGyro() {
+		return gyro;
+	}
+}
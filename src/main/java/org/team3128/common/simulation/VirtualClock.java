@@ -0,0 +1,47 @@
+package org.team3128.common.simulation;
+
+/**
+ * Simulated time which only moves when told to, for replaying autonomous routines faster than real time.
+ *
+ * The 2019 simulated HAL always follows real time (its SimHooks can restart the FPGA clock, but not pause or
+ * step it), so this clock doesn't change what {@link edu.wpi.first.wpilibj.Timer#getFPGATimestamp()} returns.
+ * Instead, the {@link AutoReplayRunner} keeps the commands it runs on this clock by moving the start times
+ * WPILib keeps for them, so that their timeSinceInitialized() and isTimedOut() count virtual time.  Code which
+ * reads the FPGA time itself still sees real time.
+ *
+ * @author Narwhal
+ *
+ */
+public class VirtualClock {
+	private long time = 0;
+
+	/**
+	 * Resets the virtual time to zero.
+	 */
+	public void start() {
+		time = 0;
+	}
+
+	/**
+	 * Advances the virtual time.
+	 *
+	 * @param microseconds - The amount of time to advance by.
+	 */
+	public void step(long microseconds) {
+		time += microseconds;
+	}
+
+	/**
+	 * @return The virtual time since {@link #start()}, in microseconds.
+	 */
+	public long getTimeMicroseconds() {
+		return time;
+	}
+
+	/**
+	 * @return The virtual time since {@link #start()}, in seconds.
+	 */
+	public double getTime() {
+		return time / 1e6;
+	}
+}
@@ -0,0 +1,136 @@
+package org.team3128.common.telemetry;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.team3128.common.util.Log;
+
+/**
+ * Does the slow file work of {@link TelemetryRecorder}s on a background thread, so that it never holds up the main loop.
+ *
+ * Creating a recording deletes old ones and extends a new file to its full size before mapping it.  On the FAT-formatted
+ * USB stick, extending the file writes zeros to all of it, which can take seconds.  So a recording is prepared ahead of
+ * time, normally from robotInit() and disabledInit(), and the mode inits just take the one which is ready.  Flushing and
+ * closing a recording also wait for the OS to write it out, so they are done here too.
+ *
+ * @author Narwhal
+ *
+ */
+public class RecordingWorker
+{
+	/**
+	 * The label of a prepared recording until it is taken.  If the robot is turned off first, it stays unused.
+	 */
+	static final String PREPARED_LABEL = "unused";
+
+	private final Supplier<TelemetryRecorder> factory;
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor((Runnable runnable) ->
+	{
+		Thread thread = new Thread(runnable, "Telemetry Recording Worker");
+		thread.setDaemon(true);
+
+		return thread;
+	});
+
+	private final AtomicReference<TelemetryRecorder> ready = new AtomicReference<>();
+	private final AtomicBoolean preparing = new AtomicBoolean(false);
+
+	/**
+	 * Prepares recordings of the default size in the place {@link TelemetryRecorder#createForMatch(String)} picks.
+	 */
+	public RecordingWorker()
+	{
+		this(() -> TelemetryRecorder.createForMatch(PREPARED_LABEL));
+	}
+
+	/**
+	 * @param factory creates a new recording, or returns null if it can't.  Called on the worker thread.
+	 */
+	RecordingWorker(Supplier<TelemetryRecorder> factory)
+	{
+		this.factory = factory;
+	}
+
+	/**
+	 * Start preparing a recording in the background, unless one is already ready or being prepared.
+	 */
+	public void prepare()
+	{
+		if(ready.get() != null || !preparing.compareAndSet(false, true))
+		{
+			return;
+		}
+
+		worker.execute(() ->
+		{
+			try
+			{
+				ready.set(factory.get());
+			}
+			finally
+			{
+				preparing.set(false);
+			}
+		});
+	}
+
+	/**
+	 * @return whether a recording is ready to be taken
+	 */
+	public boolean isReady()
+	{
+		return ready.get() != null;
+	}
+
+	/**
+	 * Take the prepared recording, if there is one.  Never blocks: the recording is renamed after its label in the
+	 * background.
+	 *
+	 * @param label added to the file name to tell what the recording is of, such as "auto"
+	 * @return the recording, or null if none was ready.
+	 */
+	public TelemetryRecorder take(String label)
+	{
+		TelemetryRecorder recorder = ready.getAndSet(null);
+		if(recorder == null)
+		{
+			Log.unusual("RecordingWorker", "No telemetry recording was ready, so " + label + " will not be recorded.");
+			return null;
+		}
+
+		worker.execute(() -> recorder.renameTo(new File(recorder.getFile().getParentFile(), TelemetryRecorder.fileName(label))));
+
+		return recorder;
+	}
+
+	/**
+	 * Write everything the recording has recorded so far to disk, in the background.
+	 */
+	public void force(TelemetryRecorder recorder)
+	{
+		worker.execute(recorder::force);
+	}
+
+	/**
+	 * Stop the recording and write it to disk, in the background.
+	 */
+	public void close(TelemetryRecorder recorder)
+	{
+		worker.execute(recorder::close);
+	}
+
+	/**
+	 * Wait for everything that has been handed to the worker so far to finish.
+	 */
+	void waitForWorker() throws Exception
+	{
+		Future<?> done = worker.submit(() -> {});
+		done.get();
+	}
+}
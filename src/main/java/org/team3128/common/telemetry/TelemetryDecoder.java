@@ -0,0 +1,258 @@
+package org.team3128.common.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.team3128.common.telemetry.TelemetryRecorder.ChannelType;
+
+/**
+ * Reads recordings made by {@link TelemetryRecorder}.  Runs on a desktop computer, not the robot.
+ *
+ * Usage:
+ * <pre>
+ * TelemetryDecoder &lt;recording&gt; [output.csv]
+ *     writes every sample as a "time,channel,value" row, to stdout if no file is given
+ *
+ * TelemetryDecoder &lt;recording&gt; -columns &lt;directory&gt;
+ *     writes one "time,value" file per channel into the directory
+ * </pre>
+ *
+ * Times are in seconds since the recording was created.
+ *
+ * @author Narwhal
+ *
+ */
+public class TelemetryDecoder
+{
+	private ByteBuffer buffer;
+
+	private long startTime;
+
+	private List<String> channelNames = new ArrayList<>();
+	private List<ChannelType> channelTypes = new ArrayList<>();
+
+	private int position = TelemetryRecorder.HEADER_SIZE;
+
+	// the current sample
+	private int channelId;
+	private double time;
+	private long rawValue;
+
+	public TelemetryDecoder(File file) throws IOException
+	{
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+		{
+			buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+		}
+
+		if(buffer.capacity() < TelemetryRecorder.HEADER_SIZE || buffer.getInt(TelemetryRecorder.MAGIC_OFFSET) != TelemetryRecorder.MAGIC)
+		{
+			throw new IOException(file + " is not a telemetry recording");
+		}
+
+		int version = buffer.getInt(TelemetryRecorder.VERSION_OFFSET);
+		if(version != TelemetryRecorder.VERSION)
+		{
+			throw new IOException("Unsupported recording version " + version);
+		}
+
+		startTime = buffer.getLong(TelemetryRecorder.START_TIME_OFFSET);
+
+		int numChannels = buffer.getInt(TelemetryRecorder.NUM_CHANNELS_OFFSET);
+		int tablePosition = TelemetryRecorder.CHANNEL_TABLE_OFFSET;
+		for(int index = 0; index < numChannels; ++index)
+		{
+			channelTypes.add(ChannelType.values()[buffer.get(tablePosition)]);
+
+			byte[] nameBytes = new byte[buffer.getShort(tablePosition + 1)];
+			for(int nameIndex = 0; nameIndex < nameBytes.length; ++nameIndex)
+			{
+				nameBytes[nameIndex] = buffer.get(tablePosition + 3 + nameIndex);
+			}
+			channelNames.add(new String(nameBytes, StandardCharsets.UTF_8));
+
+			tablePosition += 3 + nameBytes.length;
+		}
+	}
+
+	public int getNumChannels()
+	{
+		return channelNames.size();
+	}
+
+	/**
+	 * @param channelId the channel's id, starting at one
+	 */
+	public String getChannelName(int channelId)
+	{
+		return channelNames.get(channelId - 1);
+	}
+
+	public ChannelType getChannelType(int channelId)
+	{
+		return channelTypes.get(channelId - 1);
+	}
+
+	/**
+	 * Move to the next sample in the recording.
+	 *
+	 * @return false if there are no more samples
+	 */
+	public boolean next()
+	{
+		while(position + TelemetryRecorder.RECORD_SIZE <= buffer.capacity())
+		{
+			int recordPosition = position;
+			position += TelemetryRecorder.RECORD_SIZE;
+
+			channelId = buffer.getInt(recordPosition + TelemetryRecorder.RECORD_CHANNEL_OFFSET);
+			if(channelId == 0)
+			{
+				// the end of the data, unless the robot stopped partway through writing this record.
+				// Samples are claimed in order, so look one further to tell the difference.
+				if(position + TelemetryRecorder.RECORD_SIZE > buffer.capacity() || buffer.getInt(position + TelemetryRecorder.RECORD_CHANNEL_OFFSET) == 0)
+				{
+					return false;
+				}
+				continue;
+			}
+
+			if(channelId > channelNames.size())
+			{
+				continue;
+			}
+
+			time = (buffer.getLong(recordPosition + TelemetryRecorder.RECORD_TIME_OFFSET) - startTime) / 1e6;
+			rawValue = buffer.getLong(recordPosition + TelemetryRecorder.RECORD_VALUE_OFFSET);
+
+			return true;
+		}
+
+		return false;
+	}
+
+	public int getChannelId()
+	{
+		return channelId;
+	}
+
+	/**
+	 * Get the time of the current sample, in seconds since the recording was created.
+	 */
+	public double getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Get the value of the current sample as a double, whatever the channel's type.
+	 */
+	public double getValue()
+	{
+		switch(getChannelType(channelId))
+		{
+		case DOUBLE:
+			return Double.longBitsToDouble(rawValue);
+		default:
+			return rawValue;
+		}
+	}
+
+	private String formatValue()
+	{
+		switch(getChannelType(channelId))
+		{
+		case DOUBLE:
+			return Double.toString(Double.longBitsToDouble(rawValue));
+		case BOOLEAN:
+			return rawValue != 0 ? "true" : "false";
+		default:
+			return Long.toString(rawValue);
+		}
+	}
+
+	/**
+	 * Write every sample as a row of a single CSV file, in the order they were recorded.
+	 */
+	public void writeCSV(Writer writer) throws IOException
+	{
+		writer.write("time,channel,value\n");
+		while(next())
+		{
+			writer.write(String.format("%.6f,%s,%s\n", time, getChannelName(channelId), formatValue()));
+		}
+	}
+
+	/**
+	 * Write a separate "time,value" CSV file for each channel into the directory.
+	 */
+	public void writeColumns(File directory) throws IOException
+	{
+		directory.mkdirs();
+
+		Writer[] writers = new Writer[channelNames.size()];
+		try
+		{
+			for(int index = 0; index < writers.length; ++index)
+			{
+				writers[index] = new BufferedWriter(new FileWriter(new File(directory, channelNames.get(index).replaceAll("[^A-Za-z0-9_.-]", "_") + ".csv")));
+				writers[index].write("time,value\n");
+			}
+
+			while(next())
+			{
+				writers[channelId - 1].write(String.format("%.6f,%s\n", time, formatValue()));
+			}
+		}
+		finally
+		{
+			for(Writer writer : writers)
+			{
+				if(writer != null)
+				{
+					writer.close();
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 1 || args.length > 3 || (args.length == 3 && !args[1].equals("-columns")))
+		{
+			System.err.println("Usage: TelemetryDecoder <recording> [output.csv]");
+			System.err.println("       TelemetryDecoder <recording> -columns <directory>");
+			System.exit(1);
+		}
+
+		TelemetryDecoder decoder = new TelemetryDecoder(new File(args[0]));
+
+		if(args.length == 3)
+		{
+			decoder.writeColumns(new File(args[2]));
+		}
+		else if(args.length == 2)
+		{
+			try(Writer writer = new BufferedWriter(new FileWriter(args[1])))
+			{
+				decoder.writeCSV(writer);
+			}
+		}
+		else
+		{
+			Writer writer = new BufferedWriter(new OutputStreamWriter(System.out));
+			decoder.writeCSV(writer);
+			writer.flush();
+		}
+	}
+}
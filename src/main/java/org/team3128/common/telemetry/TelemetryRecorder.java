@@ -0,0 +1,370 @@
+package org.team3128.common.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.team3128.common.util.Log;
+
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Records samples of named channels into a memory-mapped file, fast enough to log
+ * every mechanism at its full control rate without touching the loop budget.
+ *
+ * Channels are registered once by name and type, then each sample is a fixed-width record:
+ * the FPGA timestamp, the value, and the channel id.  Recording a sample claims space with a single
+ * atomic add and writes straight into the mapping, so it never allocates or blocks, and can be done
+ * from any thread.  The OS writes the pages back to the file in the background.
+ *
+ * Once the file is full, further samples are dropped and counted.
+ *
+ * Recordings are turned into CSV files with {@link TelemetryDecoder}.
+ *
+ * @author Narwhal
+ *
+ */
+public class TelemetryRecorder
+{
+	public enum ChannelType
+	{
+		DOUBLE,
+		LONG,
+		BOOLEAN;
+	}
+
+	static final int MAGIC = 0x4E54454C; // "NTEL"
+	static final int VERSION = 1;
+
+	// header layout
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int START_TIME_OFFSET = 8;
+	static final int NUM_CHANNELS_OFFSET = 16;
+	static final int CHANNEL_TABLE_OFFSET = 20;
+
+	/**
+	 * Size of the header, which holds the channel table.  Samples start right after it.
+	 */
+	static final int HEADER_SIZE = 16 * 1024;
+
+	// record layout: timestamp, value, then channel id.  The id is written last, and a zero id marks the end of the data.
+	static final int RECORD_TIME_OFFSET = 0;
+	static final int RECORD_VALUE_OFFSET = 8;
+	static final int RECORD_CHANNEL_OFFSET = 16;
+	static final int RECORD_SIZE = 20;
+
+	/**
+	 * The size of recording that {@link #createForMatch(String)} makes, in bytes.
+	 * Enough for 25 channels at 200 Hz for over ten minutes.
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+	/**
+	 * The number of recordings {@link #createForMatch(String)} keeps in a directory, including the new one.
+	 * At the default size, this is 640 MB.
+	 */
+	public static final int MAX_RECORDINGS = 10;
+
+	private static final String[] RECORDING_DIRECTORIES = {"/u", "/home/lvuser"};
+
+	static final String FILE_PREFIX = "telemetry_";
+	static final String FILE_SUFFIX = ".bin";
+
+	/**
+	 * A named stream of samples in a recording.
+	 */
+	public class Channel
+	{
+		private final int id;
+		private final String name;
+		private final ChannelType type;
+
+		private Channel(int id, String name, ChannelType type)
+		{
+			this.id = id;
+			this.name = name;
+			this.type = type;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public ChannelType getType()
+		{
+			return type;
+		}
+
+		/**
+		 * Record a sample of a DOUBLE channel.
+		 */
+		public void record(double value)
+		{
+			write(id, Double.doubleToRawLongBits(value));
+		}
+
+		/**
+		 * Record a sample of a LONG channel.
+		 */
+		public void record(long value)
+		{
+			write(id, value);
+		}
+
+		/**
+		 * Record a sample of a BOOLEAN channel.
+		 */
+		public void record(boolean value)
+		{
+			write(id, value ? 1 : 0);
+		}
+	}
+
+	private volatile File file;
+	private final RandomAccessFile randomAccessFile;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	private final AtomicLong writePosition = new AtomicLong(HEADER_SIZE);
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	// only touched while registering channels
+	private int numChannels = 0;
+	private int channelTablePosition = CHANNEL_TABLE_OFFSET;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a recording, replacing the file if it exists.
+	 *
+	 * @param file the file to record into
+	 * @param capacity the size of the file, in bytes.  Recording stops once it is full.
+	 */
+	public TelemetryRecorder(File file, int capacity) throws IOException
+	{
+		this.file = file;
+		this.capacity = capacity;
+
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(0);
+		randomAccessFile.setLength(capacity);
+
+		buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(VERSION_OFFSET, VERSION);
+		buffer.putLong(START_TIME_OFFSET, RobotController.getFPGATime());
+		buffer.putInt(NUM_CHANNELS_OFFSET, 0);
+	}
+
+	/**
+	 * Create a recording of the default size named after the current date and time,
+	 * on the USB stick if one is plugged into the roboRIO and in /home/lvuser otherwise.
+	 *
+	 * The oldest recordings in the directory are deleted first, so that at most {@link #MAX_RECORDINGS} are kept.
+	 * This can take seconds, so robots should prepare recordings with a {@link RecordingWorker} instead.
+	 *
+	 * @param label added to the file name to tell what the recording is of, such as "auto"
+	 * @return the recorder, or null if no recording could be created.
+	 */
+	public static TelemetryRecorder createForMatch(String label)
+	{
+		String fileName = fileName(label);
+
+		for(String directoryName : RECORDING_DIRECTORIES)
+		{
+			File directory = new File(directoryName);
+			if(directory.isDirectory() && directory.canWrite())
+			{
+				pruneRecordings(directory, MAX_RECORDINGS - 1);
+
+				try
+				{
+					TelemetryRecorder recorder = new TelemetryRecorder(new File(directory, fileName), DEFAULT_CAPACITY);
+					Log.info("TelemetryRecorder", "Recording telemetry to " + recorder.getFile());
+
+					return recorder;
+				}
+				catch(IOException ex)
+				{
+					Log.recoverable("TelemetryRecorder", "Could not create recording in " + directoryName + ": " + ex.getMessage());
+				}
+			}
+		}
+
+		Log.recoverable("TelemetryRecorder", "Nowhere to record telemetry, it will not be recorded.");
+		return null;
+	}
+
+	/**
+	 * Get the name of a recording started now.
+	 *
+	 * @param label added to the file name to tell what the recording is of, such as "auto"
+	 */
+	static String fileName(String label)
+	{
+		return FILE_PREFIX + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + "_" + label + FILE_SUFFIX;
+	}
+
+	/**
+	 * Delete the oldest recordings in a directory, leaving the given number.  Recordings are ordered by name,
+	 * which starts with the date and time they were created.
+	 */
+	static void pruneRecordings(File directory, int numToKeep)
+	{
+		File[] recordings = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+		if(recordings == null || recordings.length <= numToKeep)
+		{
+			return;
+		}
+
+		Arrays.sort(recordings);
+
+		for(int index = 0; index < recordings.length - numToKeep; ++index)
+		{
+			if(recordings[index].delete())
+			{
+				Log.info("TelemetryRecorder", "Deleted old recording " + recordings[index]);
+			}
+			else
+			{
+				Log.recoverable("TelemetryRecorder", "Could not delete old recording " + recordings[index]);
+			}
+		}
+	}
+
+	/**
+	 * Register a channel.  Meant to be called during setup, before recording starts.
+	 *
+	 * @param name unique name of the channel, such as "lift/height"
+	 */
+	public synchronized Channel addChannel(String name, ChannelType type)
+	{
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if(channelTablePosition + 3 + nameBytes.length > HEADER_SIZE)
+		{
+			throw new IllegalStateException("Too many telemetry channels to fit in the header");
+		}
+
+		buffer.put(channelTablePosition, (byte) type.ordinal());
+		buffer.putShort(channelTablePosition + 1, (short) nameBytes.length);
+		for(int index = 0; index < nameBytes.length; ++index)
+		{
+			buffer.put(channelTablePosition + 3 + index, nameBytes[index]);
+		}
+		channelTablePosition += 3 + nameBytes.length;
+
+		// ids start at one so that an unwritten record can be told apart
+		++numChannels;
+		buffer.putInt(NUM_CHANNELS_OFFSET, numChannels);
+
+		return new Channel(numChannels, name, type);
+	}
+
+	private void write(int channelId, long value)
+	{
+		if(closed)
+		{
+			return;
+		}
+
+		long position = writePosition.getAndAdd(RECORD_SIZE);
+		if(position + RECORD_SIZE > capacity)
+		{
+			droppedCount.incrementAndGet();
+			return;
+		}
+
+		int offset = (int) position;
+		buffer.putLong(offset + RECORD_TIME_OFFSET, RobotController.getFPGATime());
+		buffer.putLong(offset + RECORD_VALUE_OFFSET, value);
+		buffer.putInt(offset + RECORD_CHANNEL_OFFSET, channelId);
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Rename the recording's file, and keep recording into it.
+	 *
+	 * @return whether the file could be renamed
+	 */
+	public synchronized boolean renameTo(File destination)
+	{
+		if(!file.renameTo(destination))
+		{
+			Log.recoverable("TelemetryRecorder", "Could not rename " + file + " to " + destination);
+			return false;
+		}
+
+		file = destination;
+		return true;
+	}
+
+	/**
+	 * Get the number of samples which did not fit in the file.
+	 */
+	public long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
+	/**
+	 * Get the fraction of the file's sample space which has been used.
+	 */
+	public double getUsage()
+	{
+		return Math.min(1.0, (writePosition.get() - HEADER_SIZE) / (double) (capacity - HEADER_SIZE));
+	}
+
+	/**
+	 * Write everything recorded so far to disk, and keep recording.  Blocks until the OS has written it,
+	 * so it should be called when the robot is disabled, not from a control loop.
+	 */
+	public synchronized void force()
+	{
+		if(!closed)
+		{
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Stop recording and write everything to disk.  Samples recorded after this are ignored.
+	 */
+	public synchronized void close()
+	{
+		if(closed)
+		{
+			return;
+		}
+		closed = true;
+
+		buffer.force();
+
+		try
+		{
+			randomAccessFile.close();
+		}
+		catch(IOException ex)
+		{
+			Log.recoverable("TelemetryRecorder", "Error closing recording: " + ex.getMessage());
+		}
+
+		if(droppedCount.get() > 0)
+		{
+			Log.unusual("TelemetryRecorder", "Recording filled up, " + droppedCount.get() + " samples were dropped.");
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package org.team3128.common.util;
+
+import java.util.Arrays;
+
+import org.team3128.common.narwhaldashboard.NarwhalDashboard;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Threads;
+
+/**
+ * Runs the periodic control code of every mechanism on one high-priority thread.
+ *
+ * A single {@link Notifier} ticks at {@link #BASE_PERIOD}, and each registered task runs every
+ * N ticks, where N is the task's rate divisor.  Because the Notifier schedules its ticks against
+ * the FPGA clock, the periods don't drift the way a loop around {@link Thread#sleep(long)} does,
+ * and all mechanisms share one thread instead of each having their own.
+ *
+ * Tasks with the same rate divisor are spread across different ticks where possible, so they
+ * don't all land on the same one.  Tasks must not block; anything slow belongs on its own thread.
+ *
+ * The execution time of each task is recorded, and a deadline miss is counted whenever a task
+ * finishes later than the start of its next period.
+ *
+ * @author Narwhal
+ *
+ */
+public class ControlScheduler
+{
+	/**
+	 * The time between ticks of the scheduler, in seconds.  Task periods are multiples of this.
+	 */
+	public static final double BASE_PERIOD = .005;
+
+	private static final long BASE_PERIOD_MICROSECONDS = (long) (BASE_PERIOD * 1e6);
+
+	// real-time priority of the scheduler thread.  Above the main robot loop, below the CAN and HAL threads.
+	private static final int THREAD_PRIORITY = 40;
+
+	/**
+	 * A periodic task registered with the scheduler.
+	 */
+	public static class Task
+	{
+		private final String name;
+		private final int rateDivisor;
+		private final int phase;
+		private final Runnable step;
+
+		private volatile boolean cancelled = false;
+
+		// written only by the scheduler thread
+		private volatile long runCount = 0;
+		private volatile long deadlineMisses = 0;
+		private volatile long totalExecutionTime = 0;
+		private volatile int maxExecutionTime = 0;
+
+		private Task(String name, int rateDivisor, int phase, Runnable step)
+		{
+			this.name = name;
+			this.rateDivisor = rateDivisor;
+			this.phase = phase;
+			this.step = step;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Get the time between runs of this task, in seconds.
+		 */
+		public double getPeriod()
+		{
+			return rateDivisor * BASE_PERIOD;
+		}
+
+		public long getRunCount()
+		{
+			return runCount;
+		}
+
+		/**
+		 * Get the number of times this task has finished after the start of its next period.
+		 */
+		public long getDeadlineMisses()
+		{
+			return deadlineMisses;
+		}
+
+		/**
+		 * Get the average time the task took to run, in milliseconds.
+		 */
+		public double getAverageExecutionTime()
+		{
+			long runs = runCount;
+			return runs == 0 ? 0 : totalExecutionTime / 1000.0 / runs;
+		}
+
+		/**
+		 * Get the longest time the task has taken to run, in milliseconds.
+		 */
+		public double getMaxExecutionTime()
+		{
+			return maxExecutionTime / 1000.0;
+		}
+
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+		/**
+		 * Stop running this task.  It may run once more if the scheduler is in the middle of a tick.
+		 */
+		public void cancel()
+		{
+			getInstance().remove(this);
+		}
+	}
+
+	private static ControlScheduler instance = null;
+
+	public static synchronized ControlScheduler getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new ControlScheduler();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Get the rate divisor which runs a task as close as possible to the given period.
+	 * @param period the desired time between runs, in seconds
+	 */
+	public static int ticksForPeriod(double period)
+	{
+		return Math.max(1, (int) Math.round(period / BASE_PERIOD));
+	}
+
+	// replaced, never modified, when tasks are added or removed
+	private volatile Task[] tasks = new Task[0];
+
+	private final Notifier notifier;
+	private boolean started = false;
+
+	// owned by the scheduler thread
+	private long startTime;
+	private long tickCount = 0;
+	private boolean priorityRaised = false;
+
+	private ControlScheduler()
+	{
+		notifier = new Notifier(this::tick);
+	}
+
+	/**
+	 * Start running a task periodically.  The scheduler starts itself when the first task is added.
+	 *
+	 * @param name name of the task, for logging
+	 * @param rateDivisor the task runs once every this many ticks of the scheduler
+	 * @param step the code to run each period
+	 * @return the task, which can be used to cancel it or check its timing
+	 */
+	public synchronized Task schedule(String name, int rateDivisor, Runnable step)
+	{
+		Assert.greaterThan(rateDivisor, 0);
+
+		int numSameRate = 0;
+		for(Task task : tasks)
+		{
+			if(task.rateDivisor == rateDivisor)
+			{
+				++numSameRate;
+			}
+		}
+
+		Task task = new Task(name, rateDivisor, numSameRate % rateDivisor, step);
+
+		Task[] newTasks = Arrays.copyOf(tasks, tasks.length + 1);
+		newTasks[tasks.length] = task;
+		tasks = newTasks;
+
+		if(!started)
+		{
+			startTime = RobotController.getFPGATime();
+			notifier.startPeriodic(BASE_PERIOD);
+			started = true;
+		}
+
+		return task;
+	}
+
+	private synchronized void remove(Task task)
+	{
+		task.cancelled = true;
+
+		Task[] newTasks = new Task[tasks.length];
+		int numTasks = 0;
+		for(Task otherTask : tasks)
+		{
+			if(otherTask != task)
+			{
+				newTasks[numTasks++] = otherTask;
+			}
+		}
+
+		tasks = Arrays.copyOf(newTasks, numTasks);
+	}
+
+	private void tick()
+	{
+		if(!priorityRaised)
+		{
+			Threads.setCurrentThreadPriority(true, THREAD_PRIORITY);
+			priorityRaised = true;
+		}
+
+		++tickCount;
+		long scheduledTime = startTime + tickCount * BASE_PERIOD_MICROSECONDS;
+
+		for(Task task : tasks)
+		{
+			if(task.cancelled || (tickCount + task.phase) % task.rateDivisor != 0)
+			{
+				continue;
+			}
+
+			long taskStartTime = RobotController.getFPGATime();
+
+			try
+			{
+				task.step.run();
+			}
+			catch(RuntimeException error)
+			{
+				Log.recoverable("ControlScheduler", "Caught a " + error.getClass().getSimpleName() + " from task " + task.name + ": " + error.getMessage());
+				error.printStackTrace();
+			}
+
+			long taskEndTime = RobotController.getFPGATime();
+			int executionTime = (int) Math.min(taskEndTime - taskStartTime, Integer.MAX_VALUE);
+
+			task.totalExecutionTime += executionTime;
+			if(executionTime > task.maxExecutionTime)
+			{
+				task.maxExecutionTime = executionTime;
+			}
+
+			if(taskEndTime > scheduledTime + task.rateDivisor * BASE_PERIOD_MICROSECONDS)
+			{
+				++task.deadlineMisses;
+			}
+
+			++task.runCount;
+		}
+	}
+
+	/**
+	 * Publish the average and maximum execution time (in milliseconds) and the deadline misses of each task to NarwhalDashboard.
+	 */
+	public void publish()
+	{
+		for(Task task : tasks)
+		{
+			NarwhalDashboard.put("control_" + task.name + "_avg", task.getAverageExecutionTime());
+			NarwhalDashboard.put("control_" + task.name + "_max", task.getMaxExecutionTime());
+			NarwhalDashboard.put("control_" + task.name + "_misses", task.deadlineMisses);
+		}
+	}
+}
@@ -1,9 +1,145 @@
 package org.team3128.common.util;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
 import edu.wpi.first.wpilibj.DriverStation;
 
+/**
+ * Logging for the whole robot.
+ *
+ * Logging a message only copies references to it into a preallocated record in a bounded, lock-free ring,
+ * so it never blocks on the console.  A background thread formats the records and writes them to the console
+ * and to a rotating log file, on the USB stick if one is plugged into the roboRIO and in /home/lvuser otherwise.
+ * If the ring is full the message is dropped and counted, and the writer reports how many were lost.
+ *
+ * Messages below the current level are thrown away before anything is formatted.  For messages which are
+ * expensive to build, use the overloads which take a {@link Supplier}; it is only called if the message will be logged.
+ *
+ * Fatal and recoverable errors are still sent to the DriverStation immediately by the thread which logs them.
+ *
+ * @author Narwhal
+ *
+ */
 public class Log
 {
+	public enum Severity
+	{
+		DEBUG("Debug"),
+		INFO("Info"),
+		UNUSUAL("Unusual"),
+		RECOVERABLE("Recoverable"),
+		FATAL("Fatal");
+
+		private String name;
+
+		private Severity(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	// must be a power of two
+	private static final int RING_CAPACITY = 1024;
+	private static final int RING_MASK = RING_CAPACITY - 1;
+
+	// how long the writer waits before checking the ring again when it is empty
+	private static final long WRITER_IDLE_NANOSECONDS = 10 * 1000000L;
+
+	private static final String[] LOG_DIRECTORIES = {"/u", "/home/lvuser"};
+	private static final String LOG_FILE_NAME = "narwhal";
+	private static final long MAX_LOG_FILE_SIZE = 4 * 1024 * 1024;
+	private static final int NUM_LOG_FILES = 5;
+
+	private static class Record
+	{
+		Severity severity;
+		String category;
+		String message;
+		long time;
+	}
+
+	private static final Record[] records = new Record[RING_CAPACITY];
+
+	// Each slot's sequence number says whose turn it is: it equals the claim position when the slot is free to write,
+	// and the claim position + 1 once the record is written and ready to be read.
+	private static final AtomicLongArray sequences = new AtomicLongArray(RING_CAPACITY);
+
+	private static final AtomicLong claimPosition = new AtomicLong();
+	private static final AtomicLong droppedCount = new AtomicLong();
+
+	private static volatile Severity level = Severity.DEBUG;
+
+	// owned by the writer thread
+	private static long readPosition = 0;
+	private static long reportedDroppedCount = 0;
+	private static final StringBuilder lineBuilder = new StringBuilder(256);
+	private static final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+	private static final Date date = new Date();
+	private static File logFile;
+	private static BufferedWriter fileWriter;
+	private static long fileSize;
+
+	private static final Thread writerThread;
+
+	static
+	{
+		for(int index = 0; index < RING_CAPACITY; ++index)
+		{
+			records[index] = new Record();
+			sequences.set(index, index);
+		}
+
+		writerThread = new Thread(Log::writerLoop, "Log Writer");
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		writerThread.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+	}
+
+	/**
+	 * Set the lowest severity which will be logged.  Everything less severe is discarded without being formatted.
+	 */
+	public static void setLevel(Severity newLevel)
+	{
+		level = newLevel;
+	}
+
+	public static Severity getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * Returns true if messages of the given severity are currently being logged.
+	 */
+	public static boolean isEnabled(Severity severity)
+	{
+		return severity.compareTo(level) >= 0;
+	}
+
+	/**
+	 * Get the number of messages which were thrown away because the writer could not keep up.
+	 */
+	public static long getDroppedCount()
+	{
+		return droppedCount.get();
+	}
+
 	/**
 	 * Log a FATAL error, after which the robot cannot (properly) function. <br>
 	 * @param category
@@ -11,12 +147,12 @@ public class Log
 	 */
 	public static void fatal(String category, String message)
 	{
-		log("Fatal", category, message);
-		
+		log(Severity.FATAL, category, message);
+
 		//make it show up on the DS as well
 		DriverStation.reportError("Fatal Error: " + message, true);
 	}
-	
+
 	/**
 	 * Log a FATAL error due to an exception, after which the robot cannot (properly) function. <br>
 	 * Prints your message, and the exception's name, message, and stacktrace.
@@ -25,14 +161,14 @@ public class Log
 	public static void fatalException(String category, String userMessage, Exception exception)
 	{
 		String exceptionMessage = String.format("%s -- %s: %s", userMessage, exception.getClass().getSimpleName(), exception.getMessage());
-		log("Fatal", category, exceptionMessage);
-		
+		log(Severity.FATAL, category, exceptionMessage);
+
 		exception.printStackTrace();
-		
+
 		//make it show up on the DS as well
 		DriverStation.reportError("Fatal Error: " + exceptionMessage, true);
 	}
-	
+
 	/**
 	 * Log a failure which may kill one function or one thread, however the robot as a whole can keep functioning.
 	 * @param category
@@ -40,12 +176,12 @@ public class Log
 	 */
 	public static void recoverable(String category, String message)
 	{
-		log("Recoverable", category, message);
-		
+		log(Severity.RECOVERABLE, category, message);
+
 		DriverStation.reportError("Error: " + (message == null ? "null" : message), true);
 
 	}
-	
+
 	/**
 	 * Log something which should not happen under normal circumstances and probably is a bug, but does not cause anything to crash.
 	 * @param category
@@ -53,17 +189,33 @@ public class Log
 	 */
 	public static void unusual(String category, String message)
 	{
-		log("Unusual", category, message);
+		log(Severity.UNUSUAL, category, message);
+	}
+
+	/**
+	 * Log something unusual, only building the message if unusual messages are being logged.
+	 */
+	public static void unusual(String category, Supplier<String> message)
+	{
+		log(Severity.UNUSUAL, category, message);
 	}
-	
+
 	/**
 	 * Log a semi-important message which the user should probably see, but does not indicate anything is broken.
 	 */
 	public static void info(String category, String message)
 	{
-		log("Info", category, message);
+		log(Severity.INFO, category, message);
+	}
+
+	/**
+	 * Log an info message, only building it if info messages are being logged.
+	 */
+	public static void info(String category, Supplier<String> message)
+	{
+		log(Severity.INFO, category, message);
 	}
-	
+
 	/**
 	 * Log a message which is not important during normal operation, but is useful if you're trying to debug the robot.
 	 * @param category
@@ -71,11 +223,258 @@ public class Log
 	 */
 	public static void debug(String category, String message)
 	{
-		log("Debug", category, message);
+		log(Severity.DEBUG, category, message);
+	}
+
+	/**
+	 * Log a debug message, only building it if debug messages are being logged.
+	 */
+	public static void debug(String category, Supplier<String> message)
+	{
+		log(Severity.DEBUG, category, message);
+	}
+
+	private static void log(Severity severity, String category, Supplier<String> message)
+	{
+		if(isEnabled(severity))
+		{
+			enqueue(severity, category, message.get());
+		}
+	}
+
+	private static void log(Severity severity, String category, String message)
+	{
+		if(isEnabled(severity))
+		{
+			enqueue(severity, category, message);
+		}
+	}
+
+	private static void enqueue(Severity severity, String category, String message)
+	{
+		long position = claimPosition.get();
+		int slot;
+
+		while(true)
+		{
+			slot = (int) (position & RING_MASK);
+			long sequence = sequences.get(slot);
+
+			if(sequence == position)
+			{
+				if(claimPosition.compareAndSet(position, position + 1))
+				{
+					break;
+				}
+				position = claimPosition.get();
+			}
+			else if(sequence < position)
+			{
+				//the writer hasn't read this slot from the last time around the ring yet
+				droppedCount.incrementAndGet();
+				return;
+			}
+			else
+			{
+				//another thread claimed this position first
+				position = claimPosition.get();
+			}
+		}
+
+		Record record = records[slot];
+		record.severity = severity;
+		record.category = category;
+		record.message = message;
+		record.time = System.currentTimeMillis();
+
+		sequences.set(slot, position + 1);
+	}
+
+	/**
+	 * Write out every message which has been logged so far.  Called automatically when the JVM shuts down.
+	 */
+	public static void flush()
+	{
+		synchronized(lineBuilder)
+		{
+			drain();
+			closeFile();
+		}
+	}
+
+	private static void writerLoop()
+	{
+		openFile();
+
+		while(true)
+		{
+			boolean wroteAnything;
+			synchronized(lineBuilder)
+			{
+				wroteAnything = drain();
+			}
+
+			if(!wroteAnything)
+			{
+				LockSupport.parkNanos(WRITER_IDLE_NANOSECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Write all of the records currently in the ring.
+	 * @return true if anything was written
+	 */
+	private static boolean drain()
+	{
+		boolean wroteAnything = false;
+
+		while(true)
+		{
+			int slot = (int) (readPosition & RING_MASK);
+			if(sequences.get(slot) != readPosition + 1)
+			{
+				break;
+			}
+
+			Record record = records[slot];
+			write(record.severity, record.category, record.message, record.time);
+
+			//let go of the strings so they can be collected
+			record.category = null;
+			record.message = null;
+
+			sequences.set(slot, readPosition + RING_CAPACITY);
+			++readPosition;
+
+			wroteAnything = true;
+		}
+
+		long dropped = droppedCount.get();
+		if(dropped != reportedDroppedCount)
+		{
+			write(Severity.UNUSUAL, "Log", (dropped - reportedDroppedCount) + " messages were dropped because the log could not keep up", System.currentTimeMillis());
+			reportedDroppedCount = dropped;
+			wroteAnything = true;
+		}
+
+		if(wroteAnything && fileWriter != null)
+		{
+			try
+			{
+				fileWriter.flush();
+			}
+			catch(IOException ex)
+			{
+				fileFailed(ex);
+			}
+		}
+
+		return wroteAnything;
+	}
+
+	private static void write(Severity severity, String category, String message, long time)
+	{
+		lineBuilder.setLength(0);
+		lineBuilder.append('[').append(severity.getName()).append("] [").append(category).append("] ").append(message);
+
+		System.out.println(lineBuilder);
+
+		if(fileWriter != null)
+		{
+			date.setTime(time);
+
+			try
+			{
+				fileWriter.write(timeFormat.format(date));
+				fileWriter.write(' ');
+				fileWriter.append(lineBuilder);
+				fileWriter.newLine();
+
+				// close enough to the size in bytes, and much cheaper than asking the filesystem
+				fileSize += lineBuilder.length() + 14;
+			}
+			catch(IOException ex)
+			{
+				fileFailed(ex);
+				return;
+			}
+
+			if(fileSize > MAX_LOG_FILE_SIZE)
+			{
+				closeFile();
+				rotateFiles(logFile.getParentFile());
+				openFile(logFile.getParentFile());
+			}
+		}
+	}
+
+	private static void openFile()
+	{
+		for(String directoryName : LOG_DIRECTORIES)
+		{
+			File directory = new File(directoryName);
+			if(directory.isDirectory() && directory.canWrite())
+			{
+				rotateFiles(directory);
+				openFile(directory);
+				return;
+			}
+		}
+	}
+
+	private static void openFile(File directory)
+	{
+		logFile = new File(directory, LOG_FILE_NAME + ".log");
+
+		try
+		{
+			fileWriter = new BufferedWriter(new FileWriter(logFile));
+			fileSize = 0;
+		}
+		catch(IOException ex)
+		{
+			fileFailed(ex);
+		}
+	}
+
+	/**
+	 * Shift each old log file up by one number, deleting the oldest, so that a new file can be started.
+	 */
+	private static void rotateFiles(File directory)
+	{
+		new File(directory, LOG_FILE_NAME + "." + (NUM_LOG_FILES - 1) + ".log").delete();
+
+		for(int index = NUM_LOG_FILES - 2; index >= 0; --index)
+		{
+			File oldFile = new File(directory, LOG_FILE_NAME + (index == 0 ? "" : "." + index) + ".log");
+			if(oldFile.exists())
+			{
+				oldFile.renameTo(new File(directory, LOG_FILE_NAME + "." + (index + 1) + ".log"));
+			}
+		}
+	}
+
+	private static void closeFile()
+	{
+		if(fileWriter != null)
+		{
+			try
+			{
+				fileWriter.close();
+			}
+			catch(IOException ex)
+			{
+				ex.printStackTrace();
+			}
+
+			fileWriter = null;
+		}
 	}
-	
-	private static void log(String severity, String category, String message)
+
+	private static void fileFailed(IOException ex)
 	{
-		System.out.println(String.format("[%s] [%s] %s", severity, category, message));
+		System.out.println("[Recoverable] [Log] Could not write to log file " + logFile + ", logging to the console only: " + ex.getMessage());
+		fileWriter = null;
 	}
 }
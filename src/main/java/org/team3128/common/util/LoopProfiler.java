@@ -0,0 +1,256 @@
+package org.team3128.common.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.team3128.common.narwhaldashboard.NarwhalDashboard;
+
+import edu.wpi.first.wpilibj.RobotController;
+
+/**
+ * Times each phase of the robot's main loop using the FPGA clock.
+ *
+ * The main loop thread records durations into a fixed-size ring buffer per phase, and
+ * another thread (normally the dashboard update thread) can read them back as
+ * percentiles without ever blocking the main loop.  Recording a phase costs one FPGA
+ * time read and a couple of array stores, so it is cheap enough to leave on during matches.
+ *
+ * Overruns of the loop period are counted in a histogram, bucketed by how late the loop finished.
+ *
+ * @author Narwhal
+ *
+ */
+public class LoopProfiler
+{
+	public enum Phase
+	{
+		DASHBOARD_CALLBACKS("dashboardCallbacks"),
+		MODE_INIT("modeInit"),
+		SCHEDULER("scheduler"),
+		LISTENERS("listeners"),
+		MODE_PERIODIC("modePeriodic"),
+		ROBOT_PERIODIC("robotPeriodic"),
+		DASHBOARDS("dashboards"),
+		TOTAL("total");
+
+		private String name;
+
+		private Phase(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	// upper bounds (exclusive) of each overrun histogram bucket, in microseconds past the loop period.
+	// The last bucket holds everything later than the last bound.
+	private static final long[] OVERRUN_BUCKET_BOUNDS = {1000, 2000, 5000, 10000, 20000, 50000};
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final long periodMicroseconds;
+
+	// durations in microseconds, indexed by [phase][sample % window size]
+	// ints are used so that stores can't be torn on the 32 bit roboRIO
+	private final int[][] durations;
+
+	// total number of samples recorded for each phase.  Each of these is written after its sample is stored, so readers never see an unwritten slot.
+	private final AtomicLongArray sampleCounts;
+
+	private final AtomicLongArray overrunCounts;
+
+	private long loopStartTime;
+	private long phaseStartTime;
+
+	// only touched by the reading thread
+	private final int[] sortedSamples;
+
+	/**
+	 * @param period the expected loop period, in seconds
+	 * @param windowSize the number of samples of each phase to compute statistics from
+	 */
+	public LoopProfiler(double period, int windowSize)
+	{
+		Assert.greaterThan(windowSize, 0);
+
+		periodMicroseconds = (long) (period * 1e6);
+
+		durations = new int[PHASES.length][windowSize];
+		sampleCounts = new AtomicLongArray(PHASES.length);
+		overrunCounts = new AtomicLongArray(OVERRUN_BUCKET_BOUNDS.length + 1);
+
+		sortedSamples = new int[windowSize];
+	}
+
+	/**
+	 * Call at the very start of each loop iteration.
+	 */
+	public void startLoop()
+	{
+		loopStartTime = RobotController.getFPGATime();
+		phaseStartTime = loopStartTime;
+	}
+
+	/**
+	 * Record the time since the last phase ended (or the loop started) as a sample of the given phase.
+	 */
+	public void endPhase(Phase phase)
+	{
+		long currentTime = RobotController.getFPGATime();
+
+		record(phase, currentTime - phaseStartTime);
+		phaseStartTime = currentTime;
+	}
+
+	/**
+	 * Start timing the next phase without recording a sample, for a phase which didn't run in this loop (such as
+	 * MODE_INIT when the mode hasn't changed).  Otherwise its window would fill up with empty samples.
+	 */
+	public void skipPhase()
+	{
+		phaseStartTime = RobotController.getFPGATime();
+	}
+
+	/**
+	 * Call at the very end of each loop iteration.  Records the total loop time, and counts it if it overran the period.
+	 */
+	public void endLoop()
+	{
+		long loopTime = RobotController.getFPGATime() - loopStartTime;
+
+		record(Phase.TOTAL, loopTime);
+		countOverrun(loopTime);
+	}
+
+	/**
+	 * Count the loop in the overrun histogram if it took longer than the period.
+	 */
+	void countOverrun(long loopTime)
+	{
+		if(loopTime > periodMicroseconds)
+		{
+			long overrun = loopTime - periodMicroseconds;
+
+			int bucket = 0;
+			while(bucket < OVERRUN_BUCKET_BOUNDS.length && overrun >= OVERRUN_BUCKET_BOUNDS[bucket])
+			{
+				++bucket;
+			}
+
+			overrunCounts.incrementAndGet(bucket);
+		}
+	}
+
+	void record(Phase phase, long duration)
+	{
+		int phaseIndex = phase.ordinal();
+		long sampleCount = sampleCounts.get(phaseIndex);
+
+		durations[phaseIndex][(int) (sampleCount % durations[phaseIndex].length)] = (int) Math.min(duration, Integer.MAX_VALUE);
+		sampleCounts.lazySet(phaseIndex, sampleCount + 1);
+	}
+
+	/**
+	 * Get the number of samples ever recorded for the phase.
+	 */
+	public long getSampleCount(Phase phase)
+	{
+		return sampleCounts.get(phase.ordinal());
+	}
+
+	/**
+	 * Get the number of loops which have overrun the period by an amount in the given histogram bucket.
+	 */
+	public long getOverrunCount(int bucket)
+	{
+		return overrunCounts.get(bucket);
+	}
+
+	/**
+	 * Get the total number of loops which have overrun the period.
+	 */
+	public long getOverrunCount()
+	{
+		long total = 0;
+		for(int bucket = 0; bucket < overrunCounts.length(); ++bucket)
+		{
+			total += overrunCounts.get(bucket);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Get the index of a percentile in a sorted array of samples, using the nearest-rank method.
+	 */
+	static int percentileIndex(int numSamples, double percentile)
+	{
+		return Math.max(0, (int) Math.ceil(numSamples * percentile) - 1);
+	}
+
+	/**
+	 * Copy the phase's sample window into sortedSamples and sort it.
+	 *
+	 * @return the number of samples in the window
+	 */
+	private int sortSamples(Phase phase)
+	{
+		int phaseIndex = phase.ordinal();
+		int numSamples = (int) Math.min(sampleCounts.get(phaseIndex), sortedSamples.length);
+
+		System.arraycopy(durations[phaseIndex], 0, sortedSamples, 0, numSamples);
+		Arrays.sort(sortedSamples, 0, numSamples);
+
+		return numSamples;
+	}
+
+	/**
+	 * Get a percentile of the phase's duration over the sample window, in milliseconds.  Has the same threading
+	 * rules as {@link #publish()}.
+	 *
+	 * @param percentile the percentile, from 0 to 1
+	 * @return the duration, or NaN if the phase has no samples
+	 */
+	public double getPercentile(Phase phase, double percentile)
+	{
+		int numSamples = sortSamples(phase);
+
+		return numSamples == 0 ? Double.NaN : sortedSamples[percentileIndex(numSamples, percentile)] / 1000.0;
+	}
+
+	/**
+	 * Publish the 50th percentile, 99th percentile, and maximum duration of each phase over
+	 * the sample window (in milliseconds), as well as the overrun histogram, to NarwhalDashboard.
+	 *
+	 * Should be called from a single thread other than the main loop.  A few samples may be
+	 * replaced by newer ones while they are being read, which is harmless for statistics.
+	 */
+	public void publish()
+	{
+		for(Phase phase : PHASES)
+		{
+			int numSamples = sortSamples(phase);
+
+			if(numSamples == 0)
+			{
+				continue;
+			}
+
+			NarwhalDashboard.put("loop_" + phase.getName() + "_p50", sortedSamples[percentileIndex(numSamples, .5)] / 1000.0);
+			NarwhalDashboard.put("loop_" + phase.getName() + "_p99", sortedSamples[percentileIndex(numSamples, .99)] / 1000.0);
+			NarwhalDashboard.put("loop_" + phase.getName() + "_max", sortedSamples[numSamples - 1] / 1000.0);
+		}
+
+		for(int bucket = 0; bucket < overrunCounts.length(); ++bucket)
+		{
+			String bucketName = bucket < OVERRUN_BUCKET_BOUNDS.length ? "under_" + OVERRUN_BUCKET_BOUNDS[bucket] / 1000 + "ms" : "over_" + OVERRUN_BUCKET_BOUNDS[bucket - 1] / 1000 + "ms";
+			NarwhalDashboard.put("loop_overruns_" + bucketName, overrunCounts.get(bucket));
+		}
+
+		NarwhalDashboard.put("loop_overruns", getOverrunCount());
+	}
+}
@@ -1,13 +1,16 @@
 package org.team3128.common.util;
 
 import org.team3128.common.util.datatypes.PIDConstants;
-import org.team3128.common.util.datatypes.Pair;
-import org.team3128.common.util.datatypes.RandomAccessBuffer;
+
+import edu.wpi.first.wpilibj.RobotController;
 
 /**
  * Class to calculate positional PID.
  * 
  * Handles integration zone and compensates for irregular update times.
+ * 
+ * The integral is a trapezoidal sum over the last izone measurements, which is kept up to date
+ * as measurements are added and dropped, so updates take constant time no matter how big the izone is.
  * @author Jamie
  *
  */
@@ -18,11 +21,22 @@ public class PIDCalculator
 	
 	private PIDConstants constants;
 	
-	// buffer containing the time duration that the feedback was a value, and the value
-	private RandomAccessBuffer<Pair<Integer, Double>> pastValues;
+	// ring buffers of the past errors, and the time (in ms) between each error and the one before it
+	private double[] pastErrors;
+	private double[] pastDeltaTimes;
+	
+	// index of the most recent measurement in the ring buffers
+	private int newestIndex;
+	private int numPastValues = 0;
+	
+	// twice the trapezoidal integral of the measurements in the buffers
+	private double doubledIntegral = 0;
+	
+	// adding and subtracting from the sum accumulates rounding error, so it is recalculated from scratch every so often
+	private int updatesSinceRecalculation = 0;
 	
 	private double previousError = 0;
-	private long previousValueTime;
+	private long previousValueTime; //us
 	
 	private double target;
 	
@@ -39,9 +53,13 @@ public class PIDCalculator
 	 */
 	public PIDCalculator(PIDConstants constants, int izone, double threshold)
 	{
+		Assert.greaterThan(izone, 0);
+		
 		this.constants = constants;
-		pastValues = new RandomAccessBuffer<>(izone);
-		previousValueTime = System.currentTimeMillis();
+		pastErrors = new double[izone];
+		pastDeltaTimes = new double[izone];
+		newestIndex = izone - 1;
+		previousValueTime = RobotController.getFPGATime();
 		
 		this.threshold = threshold;
 	}
@@ -56,10 +74,9 @@ public class PIDCalculator
 	 */
 	public void resetIntegral()
 	{
-		for(int index= 0; index <= pastValues.getLastIndex(); ++index)
-		{
-			pastValues.set(index, null);
-		}
+		numPastValues = 0;
+		doubledIntegral = 0;
+		updatesSinceRecalculation = 0;
 	}
 	
 	public void setTarget(double target)
@@ -68,45 +85,104 @@ public class PIDCalculator
 	}
 	
 	/**
-	 * Calculate the trapezoidal sum of the integration data.
+	 * Get the trapezoidal sum of the integration data.
 	 * @return
 	 */
 	private double calculateIntegral()
 	{
-		if(pastValues.getSize() <= 1)
+		return doubledIntegral / 2;
+	}
+	
+	/**
+	 * Add a measurement to the integration data, dropping the oldest one if the buffer is full.
+	 * @param deltaTime the time since the last measurement, in milliseconds
+	 * @param error
+	 */
+	private void addToIntegral(double deltaTime, double error)
+	{
+		int capacity = pastErrors.length;
+		
+		// a single measurement has no area
+		if(capacity > 1)
+		{
+			if(numPastValues > 0)
+			{
+				doubledIntegral += (error + pastErrors[newestIndex]) * deltaTime;
+			}
+			
+			if(numPastValues == capacity)
+			{
+				// the buffer is full, so the oldest measurement is in the slot after the newest one
+				int oldestIndex = (newestIndex + 1) % capacity;
+				int secondOldestIndex = (oldestIndex + 1) % capacity;
+				
+				doubledIntegral -= (pastErrors[secondOldestIndex] + pastErrors[oldestIndex]) * pastDeltaTimes[secondOldestIndex];
+			}
+		}
+		
+		newestIndex = (newestIndex + 1) % capacity;
+		pastErrors[newestIndex] = error;
+		pastDeltaTimes[newestIndex] = deltaTime;
+		
+		if(numPastValues < capacity)
 		{
-			return 0;
+			++numPastValues;
 		}
 		
-		//we use trapezoidal integration
+		if(++updatesSinceRecalculation >= capacity)
+		{
+			recalculateIntegral();
+		}
+	}
+	
+	/**
+	 * Recompute the integral from the buffers.
+	 */
+	private void recalculateIntegral()
+	{
+		int capacity = pastErrors.length;
 		
-		double integral = 0;
-		for(int index = 1; index <= pastValues.getLastIndex(); ++index)
+		doubledIntegral = 0;
+		for(int age = 1; age < numPastValues; ++age)
 		{
-			integral += ((pastValues.get(index - 1).right + pastValues.get(index).right)) * pastValues.get(index-1).left;
+			int newerIndex = (newestIndex - age + 1 + capacity) % capacity;
+			int olderIndex = (newestIndex - age + capacity) % capacity;
+			
+			doubledIntegral += (pastErrors[newerIndex] + pastErrors[olderIndex]) * pastDeltaTimes[newerIndex];
 		}
-		integral /= 2;
 		
-		return integral;
+		updatesSinceRecalculation = 0;
 	}
 	
 	public double update(double value)
+	{
+		return update(value, RobotController.getFPGATime());
+	}
+	
+	/**
+	 * Update the calculator with a measurement taken at the given time.
+	 * @param value
+	 * @param currentTime FPGA time of the measurement, in microseconds
+	 * @return
+	 */
+	double update(double value, long currentTime)
 	{
 		// Cap the delta time to prevent it going through the roof when the robot is disabled
-		int deltaTime = (int) RobotMath.clamp(System.currentTimeMillis() - previousValueTime, 0, 100);
+		double deltaTime = RobotMath.clamp((currentTime - previousValueTime) / 1000.0, 0, 100);
 		
 		double error = target - value;
 		
-		double derivative = -1 * (error - previousError) / deltaTime;
+		double derivative = deltaTime == 0 ? 0 : -1 * (error - previousError) / deltaTime;
 				
 		// add the time segment ending now to the integral
-		pastValues.enqueue(new Pair<Integer, Double>(deltaTime, error));
+		addToIntegral(deltaTime, error);
 		
-		double output = error * constants.kP + calculateIntegral() * constants.kI + derivative * constants.kP;
+		double integral = calculateIntegral();
+		double output = error * constants.kP + integral * constants.kI + derivative * constants.kP;
 		
 		// move one step forward
 		previousError = error;
-		previousValueTime = System.currentTimeMillis();
+		previousValueTime = currentTime;
 		
 		// check thresholding
 		if(Math.abs(error) < threshold)
@@ -120,7 +196,7 @@ public class PIDCalculator
 		
 		if(log)
 		{
-			Log.debug("PIDCalculator: " + logName, String.format("Input: %.04f, Error: %.04f, output: %.04f, integral: %.04f, derivative: %.04f", value, error, output, calculateIntegral(), derivative));
+			Log.debug("PIDCalculator: " + logName, () -> String.format("Input: %.04f, Error: %.04f, output: %.04f, integral: %.04f, derivative: %.04f", value, error, output, integral, derivative));
 		}
 		
 		return output;
@@ -0,0 +1,138 @@
+package org.team3128.common.util.datatypes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntFunction;
+
+/**
+ * A multimap for values which are read much more often than they are changed, such as listeners.
+ *
+ * The values for each key are kept in an array, and every key's array is published together in a map which
+ * is never modified once it has been published.  Writers copy the map and the array they change, and then
+ * replace the map, so readers just read a volatile field and look up the key: they never lock, wait or allocate,
+ * and they always see a consistent snapshot, even while a write is going on.  Writes are expensive and are
+ * serialized with each other, so they should be rare, like registering listeners during setup.
+ *
+ * Like a set, each key holds a given value (according to equals()) at most once.  Values are kept in the order
+ * they were added.
+ *
+ * @author Narwhal
+ *
+ * @param <Key>
+ * @param <Value>
+ */
+public class CopyOnWriteMultimap<Key, Value>
+{
+	private final IntFunction<Value[]> arrayConstructor;
+	private final Value[] emptyValues;
+
+	// never modified once it is published here, nor are the arrays in it
+	private volatile HashMap<Key, Value[]> _map;
+
+	/**
+	 * @param arrayConstructor creates an array of values of the given length, e.g. {@code Runnable[]::new}.
+	 */
+	public CopyOnWriteMultimap(IntFunction<Value[]> arrayConstructor)
+	{
+		this.arrayConstructor = arrayConstructor;
+
+		emptyValues = arrayConstructor.apply(0);
+		_map = new HashMap<Key, Value[]>();
+	}
+
+	/**
+	 * insert a(nother) value for a key.  Does nothing if the key already has the value.
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void put(Key key, Value value)
+	{
+		Value[] prevValues = get(key);
+		for(Value prevValue : prevValues)
+		{
+			if(prevValue.equals(value))
+			{
+				return;
+			}
+		}
+
+		Value[] newValues = Arrays.copyOf(prevValues, prevValues.length + 1);
+		newValues[prevValues.length] = value;
+
+		HashMap<Key, Value[]> newMap = new HashMap<Key, Value[]>(_map);
+		newMap.put(key, newValues);
+		_map = newMap;
+	}
+
+	/**
+	 * remove one value for a key
+	 * @param key
+	 * @param value
+	 */
+	public synchronized void remove(Key key, Value value)
+	{
+		Value[] prevValues = get(key);
+		for(int index = 0; index < prevValues.length; ++index)
+		{
+			if(prevValues[index].equals(value))
+			{
+				if(prevValues.length == 1)
+				{
+					removeAll(key);
+					return;
+				}
+
+				Value[] newValues = arrayConstructor.apply(prevValues.length - 1);
+				System.arraycopy(prevValues, 0, newValues, 0, index);
+				System.arraycopy(prevValues, index + 1, newValues, index, prevValues.length - index - 1);
+
+				HashMap<Key, Value[]> newMap = new HashMap<Key, Value[]>(_map);
+				newMap.put(key, newValues);
+				_map = newMap;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * remove all keys and values from the multimap
+	 */
+	public synchronized void clear()
+	{
+		_map = new HashMap<Key, Value[]>();
+	}
+
+	/**
+	 * remove the key and all of its values from the map
+	 */
+	public synchronized void removeAll(Key key)
+	{
+		if(_map.containsKey(key))
+		{
+			HashMap<Key, Value[]> newMap = new HashMap<Key, Value[]>(_map);
+			newMap.remove(key);
+			_map = newMap;
+		}
+	}
+
+	/**
+	 * get the values for a key.
+	 *
+	 * The array is shared with every other reader, so it must not be modified.  Later writes don't change it.
+	 * @param key
+	 * @return the values, or an empty array if the key has none
+	 */
+	public Value[] get(Key key)
+	{
+		Value[] values = _map.get(key);
+		return values == null ? emptyValues : values;
+	}
+
+	/**
+	 * @return whether the key has any values
+	 */
+	public boolean containsKey(Key key)
+	{
+		return _map.containsKey(key);
+	}
+}
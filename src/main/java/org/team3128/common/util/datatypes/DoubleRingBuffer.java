@@ -0,0 +1,265 @@
+package org.team3128.common.util.datatypes;
+
+/**
+ * A {@link RandomAccessBuffer} of doubles, which keeps running statistics of the values in it.
+ *
+ * As in RandomAccessBuffer, the most recently enqueued value has index zero, and once the buffer is full each
+ * enqueue() drops the oldest value.  Enqueueing takes constant (amortized) time and never allocates, and the
+ * sum, mean, variance, minimum and maximum of the values in the buffer can be read at any time for free, so it
+ * can be used as a sliding window over a sensor stream in the main loop.
+ *
+ * The mean and variance are updated with Welford's method as values are added and dropped.  Since that slowly
+ * accumulates rounding error, they are recalculated from scratch each time the buffer's contents have been
+ * replaced.  The minimum and maximum are found with monotonic deques: the candidates for the minimum are kept in
+ * order of age, with values increasing, and any value which is older and larger than a new value can never be
+ * the minimum again, so it is dropped.
+ *
+ * Values must not be NaN.
+ *
+ * @author Narwhal
+ *
+ */
+public class DoubleRingBuffer
+{
+	private final double[] values;
+
+	// index in values of the element at apparent index 0
+	private int startIndex;
+	private int size = 0;
+
+	// the number of values ever enqueued, used to tell when a deque candidate has left the buffer
+	private long sequence = 0;
+
+	private double mean, sumSquaredDeviations;
+	private int updatesSinceRecalculation = 0;
+
+	// ring buffers of candidates for the minimum and maximum, oldest first, with the sequence number each was enqueued with
+	private final double[] minValues, maxValues;
+	private final long[] minSequences, maxSequences;
+	private int minHead, minCount, maxHead, maxCount;
+
+	public DoubleRingBuffer(int maxSize)
+	{
+		if(maxSize < 1)
+		{
+			throw new IllegalArgumentException("Ring buffer must hold at least one element, not " + maxSize);
+		}
+
+		values = new double[maxSize];
+		startIndex = maxSize - 1;
+
+		minValues = new double[maxSize];
+		maxValues = new double[maxSize];
+		minSequences = new long[maxSize];
+		maxSequences = new long[maxSize];
+	}
+
+	/**
+	 * Get the number of elements in the buffer.
+	 */
+	public int getSize()
+	{
+		return size;
+	}
+
+	/**
+	 * Get the maximum number of elements that can be inserted before old elements get dropped.
+	 */
+	public int getMaxSize()
+	{
+		return values.length;
+	}
+
+	public boolean isFull()
+	{
+		return size == values.length;
+	}
+
+	/**
+	 * Remove every element.
+	 */
+	public void clear()
+	{
+		size = 0;
+		mean = sumSquaredDeviations = 0;
+		updatesSinceRecalculation = 0;
+
+		minCount = maxCount = 0;
+	}
+
+	/**
+	 * Add an element at index 0, dropping the element at the end if the buffer is full.
+	 */
+	public void enqueue(double value)
+	{
+		int capacity = values.length;
+
+		startIndex = (startIndex == 0) ? capacity - 1 : startIndex - 1;
+
+		if(size == capacity)
+		{
+			// the slot we are about to write holds the oldest value
+			double dropped = values[startIndex];
+			double newMean = mean + (value - dropped) / size;
+
+			sumSquaredDeviations += (value - dropped) * (value - newMean + dropped - mean);
+			mean = newMean;
+		}
+		else
+		{
+			++size;
+
+			double delta = value - mean;
+			mean += delta / size;
+			sumSquaredDeviations += delta * (value - mean);
+		}
+
+		values[startIndex] = value;
+
+		updateDeques(value);
+
+		if(++updatesSinceRecalculation >= capacity)
+		{
+			recalculateStatistics();
+		}
+	}
+
+	private void updateDeques(double value)
+	{
+		int capacity = values.length;
+		long oldestSequence = sequence - capacity + 1;
+
+		// drop candidates which are no longer in the buffer
+		if(minCount > 0 && minSequences[minHead] < oldestSequence)
+		{
+			minHead = (minHead + 1) % capacity;
+			--minCount;
+		}
+		if(maxCount > 0 && maxSequences[maxHead] < oldestSequence)
+		{
+			maxHead = (maxHead + 1) % capacity;
+			--maxCount;
+		}
+
+		// drop candidates which the new value beats, newest first
+		while(minCount > 0 && minValues[(minHead + minCount - 1) % capacity] >= value)
+		{
+			--minCount;
+		}
+		while(maxCount > 0 && maxValues[(maxHead + maxCount - 1) % capacity] <= value)
+		{
+			--maxCount;
+		}
+
+		int minTail = (minHead + minCount) % capacity;
+		minValues[minTail] = value;
+		minSequences[minTail] = sequence;
+		++minCount;
+
+		int maxTail = (maxHead + maxCount) % capacity;
+		maxValues[maxTail] = value;
+		maxSequences[maxTail] = sequence;
+		++maxCount;
+
+		++sequence;
+	}
+
+	/**
+	 * Recompute the mean and variance from the buffer.
+	 */
+	private void recalculateStatistics()
+	{
+		double sum = 0;
+		for(int index = 0; index < size; ++index)
+		{
+			sum += get(index);
+		}
+		mean = sum / size;
+
+		sumSquaredDeviations = 0;
+		for(int index = 0; index < size; ++index)
+		{
+			double deviation = get(index) - mean;
+			sumSquaredDeviations += deviation * deviation;
+		}
+
+		updatesSinceRecalculation = 0;
+	}
+
+	/**
+	 * Get the element at index, where 0 is the most recently enqueued.
+	 */
+	public double get(int index)
+	{
+		if(index < 0 || index >= size)
+		{
+			throw new ArrayIndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		}
+
+		int internalIndex = startIndex + index;
+		if(internalIndex >= values.length)
+		{
+			internalIndex -= values.length;
+		}
+
+		return values[internalIndex];
+	}
+
+	/**
+	 * Copy every element into an array, in index order (most recent first).
+	 *
+	 * @param destination an array with room for getSize() elements after offset
+	 * @return the number of elements copied
+	 */
+	public int copyTo(double[] destination, int offset)
+	{
+		int untilWrap = Math.min(size, values.length - startIndex);
+
+		System.arraycopy(values, startIndex, destination, offset, untilWrap);
+		System.arraycopy(values, 0, destination, offset + untilWrap, size - untilWrap);
+
+		return size;
+	}
+
+	public double getSum()
+	{
+		return mean * size;
+	}
+
+	/**
+	 * @return the mean of the elements, or 0 if there are none
+	 */
+	public double getMean()
+	{
+		return mean;
+	}
+
+	/**
+	 * @return the population variance of the elements, or 0 if there are none
+	 */
+	public double getVariance()
+	{
+		return size == 0 ? 0 : Math.max(0, sumSquaredDeviations / size);
+	}
+
+	public double getStandardDeviation()
+	{
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return the smallest element, or NaN if there are none
+	 */
+	public double getMin()
+	{
+		return minCount == 0 || size == 0 ? Double.NaN : minValues[minHead];
+	}
+
+	/**
+	 * @return the largest element, or NaN if there are none
+	 */
+	public double getMax()
+	{
+		return maxCount == 0 || size == 0 ? Double.NaN : maxValues[maxHead];
+	}
+}
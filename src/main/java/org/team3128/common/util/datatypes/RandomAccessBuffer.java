@@ -104,7 +104,7 @@ public class RandomAccessBuffer<T>
         int internalIndex = apparentIndex + currentStartIndex;
         if (internalIndex >= elements.length)
         {
-        	internalIndex -= elements.length - 1;
+        	internalIndex -= elements.length;
         }
 
         return internalIndex;
@@ -1,11 +1,13 @@
 package org.team3128.common.vision;
 
 import org.team3128.common.drive.DriveCommandRunning;
+import org.team3128.common.drive.Odometer;
 import org.team3128.common.drive.SRXTankDrive;
 import org.team3128.common.drive.calibrationutility.DriveCalibrationUtility;
 import org.team3128.common.hardware.limelight.LEDMode;
 import org.team3128.common.hardware.limelight.Limelight;
 import org.team3128.common.hardware.limelight.LimelightKey;
+import org.team3128.common.hardware.limelight.LimelightSnapshot;
 import org.team3128.common.hardware.limelight.StreamMode;
 import org.team3128.common.hardware.navigation.Gyro;
 import org.team3128.common.narwhaldashboard.NarwhalDashboard;
@@ -26,6 +28,8 @@ public class CmdHorizontalOffsetFeedbackDrive extends Command {
     Limelight txLimelight;
     Limelight distanceLimelight;
 
+    private final LimelightSnapshot txSnapshot = new LimelightSnapshot();
+
     // private final double FEED_FORWARD_POWER = 0.55;
     // private final double MINIMUM_POWER = 0.1;
 
@@ -124,7 +128,7 @@ public class CmdHorizontalOffsetFeedbackDrive extends Command {
 
                     drive.tankDrive(visionPID.kF, visionPID.kF);
 
-                    currentHorizontalOffset = txLimelight.getValue(LimelightKey.HORIZONTAL_OFFSET, 5);
+                    currentHorizontalOffset = getCompensatedHorizontalOffset();
 
                     previousTime = RobotController.getFPGATime();
                     previousError = goalHorizontalOffset - currentHorizontalOffset;
@@ -155,7 +159,7 @@ public class CmdHorizontalOffsetFeedbackDrive extends Command {
                     }
                 }
                 else {
-                    currentHorizontalOffset = txLimelight.getValue(LimelightKey.HORIZONTAL_OFFSET, 5);
+                    currentHorizontalOffset = getCompensatedHorizontalOffset();
 
                     currentTime = RobotController.getFPGATime();
                     currentError = goalHorizontalOffset - currentHorizontalOffset;
@@ -216,6 +220,21 @@ public class CmdHorizontalOffsetFeedbackDrive extends Command {
         }
     }
 
+    /**
+     * Get the horizontal offset to the target, corrected for how far the robot has turned since the Limelight
+     * captured it if the odometer is running.  Otherwise, the offset overshoots when turning quickly.
+     */
+    private double getCompensatedHorizontalOffset() {
+        txLimelight.getSnapshot(5, txSnapshot);
+        double horizontalOffset = txSnapshot.getValue(LimelightKey.HORIZONTAL_OFFSET);
+
+        if (Odometer.isInitialized()) {
+            horizontalOffset = LatencyCompensator.compensateHorizontalOffset(horizontalOffset, txSnapshot.getCaptureTime(), Odometer.getInstance());
+        }
+
+        return horizontalOffset;
+    }
+
     @Override
     protected boolean isFinished() {
         if (aimState == HorizontalOffsetFeedbackDriveState.BLIND) {
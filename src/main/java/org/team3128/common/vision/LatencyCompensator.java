@@ -0,0 +1,112 @@
+package org.team3128.common.vision;
+
+import org.team3128.common.drive.Odometer;
+import org.team3128.common.drive.Pose;
+import org.team3128.common.util.RobotMath;
+
+/**
+ * Corrects vision measurements for the time it took to produce them.
+ *
+ * By the time a Limelight reports where a target is, the robot has already moved for the length of the
+ * pipeline latency. These functions look up where the robot was when the image was captured (using the
+ * {@link Odometer}'s pose history), fix the target in place on the field from there, and work out where it
+ * should appear from where the robot is now.
+ *
+ * Horizontal offsets use the Limelight convention (positive to the right), while poses use the gyro
+ * convention (counterclockwise positive). The camera is treated as being at the robot's center of rotation.
+ *
+ * @author Narwhal
+ *
+ */
+public class LatencyCompensator {
+    /**
+     * A target's position as seen from the robot.
+     */
+    public static class Observation {
+        /**
+         * The horizontal angle to the target, in degrees. Positive means the target is to the right.
+         */
+        public double horizontalOffset;
+
+        /**
+         * The distance to the target on the ground, in centimeters.
+         */
+        public double distance;
+
+        public String toString() {
+            return "Observation(" + horizontalOffset + "deg, " + distance + "cm)";
+        }
+    }
+
+    /**
+     * Corrects a horizontal offset for how much the robot has turned since it was measured.
+     * Since it ignores how far the robot has driven, it works best for far away targets or turning in place.
+     *
+     * @param horizontalOffset - The measured horizontal offset, in degrees.
+     * @param capturePose - Where the robot was when the measurement was taken.
+     * @param currentPose - Where the robot is now.
+     * @return The horizontal offset the target should have now.
+     */
+    public static double compensateHorizontalOffset(double horizontalOffset, Pose capturePose, Pose currentPose) {
+        // turning left moves the target to the right in the image
+        return horizontalOffset + RobotMath.angleDistance(capturePose.angle, currentPose.angle, true);
+    }
+
+    /**
+     * Corrects a horizontal offset for how much the robot has turned since the image was captured.
+     *
+     * @param horizontalOffset - The measured horizontal offset, in degrees.
+     * @param captureTime - The FPGA time the image was captured, in seconds.
+     * @return The horizontal offset the target should have now.
+     */
+    public static double compensateHorizontalOffset(double horizontalOffset, double captureTime, Odometer odometer) {
+        Pose capturePose = odometer.getPoseAt(captureTime);
+        if (capturePose == null) {
+            return horizontalOffset;
+        }
+
+        return compensateHorizontalOffset(horizontalOffset, capturePose, odometer.getPose());
+    }
+
+    /**
+     * Moves a target measured from one pose into the view from another pose.
+     *
+     * @param horizontalOffset - The measured horizontal offset, in degrees.
+     * @param distance - The measured distance to the target on the ground.
+     * @param capturePose - Where the robot was when the measurement was taken.
+     * @param currentPose - Where the robot is now.
+     * @param result - Filled in with where the target should appear now.
+     */
+    public static void reproject(double horizontalOffset, double distance, Pose capturePose, Pose currentPose, Observation result) {
+        // where the target is on the field
+        double bearing = capturePose.angle - horizontalOffset;
+        double targetX = capturePose.x + distance * RobotMath.cos(bearing);
+        double targetY = capturePose.y + distance * RobotMath.sin(bearing);
+
+        double dx = targetX - currentPose.x;
+        double dy = targetY - currentPose.y;
+
+        result.distance = Math.sqrt(dx * dx + dy * dy);
+        result.horizontalOffset = RobotMath.angleDistance(RobotMath.atan2(dx, dy), currentPose.angle, true);
+    }
+
+    /**
+     * Moves a target measured when the image was captured into the view from where the robot is now.
+     *
+     * @param horizontalOffset - The measured horizontal offset, in degrees.
+     * @param distance - The measured distance to the target on the ground.
+     * @param captureTime - The FPGA time the image was captured, in seconds.
+     * @param result - Filled in with where the target should appear now.
+     */
+    public static void reproject(double horizontalOffset, double distance, double captureTime, Odometer odometer, Observation result) {
+        Pose capturePose = odometer.getPoseAt(captureTime);
+        if (capturePose == null) {
+            result.horizontalOffset = horizontalOffset;
+            result.distance = distance;
+
+            return;
+        }
+
+        reproject(horizontalOffset, distance, capturePose, odometer.getPose(), result);
+    }
+}
@@ -3,12 +3,15 @@ package org.team3128.gromit.main;
 import org.team3128.common.NarwhalRobot;
 
 import org.team3128.common.drive.DriveCommandRunning;
+import org.team3128.common.drive.Odometer;
 import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.drive.StateEstimator;
 import org.team3128.common.drive.calibrationutility.DriveCalibrationUtility;
 import org.team3128.common.hardware.limelight.Compute2D;
 import org.team3128.common.hardware.limelight.LEDMode;
 import org.team3128.common.hardware.limelight.Limelight;
 import org.team3128.common.hardware.limelight.LimelightKey;
+import org.team3128.common.hardware.limelight.LimelightSnapshot;
 import org.team3128.common.hardware.limelight.StreamMode;
 import org.team3128.common.hardware.limelight.Compute2D.Compute2DInput;
 import org.team3128.common.hardware.limelight.Compute2D.Compute2DLocalization;
@@ -25,8 +28,16 @@ import org.team3128.common.listener.controltypes.POV;
 
 import org.team3128.common.narwhaldashboard.NarwhalDashboard;
 
+import org.team3128.common.telemetry.RecordingWorker;
+import org.team3128.common.telemetry.TelemetryRecorder;
+import org.team3128.common.telemetry.TelemetryRecorder.Channel;
+import org.team3128.common.telemetry.TelemetryRecorder.ChannelType;
+
 import org.team3128.common.util.Constants;
+import org.team3128.common.util.ControlScheduler;
+import org.team3128.common.util.Convert;
 import org.team3128.common.util.Log;
+import org.team3128.common.util.RobotMath;
 import org.team3128.common.util.datatypes.PIDConstants;
 import org.team3128.common.util.enums.Direction;
 import org.team3128.common.util.units.Angle;
@@ -55,6 +66,7 @@ import edu.wpi.first.wpilibj.DriverStation;
 import edu.wpi.first.wpilibj.Joystick;
 import edu.wpi.first.wpilibj.PowerDistributionPanel;
 import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.Timer;
 import edu.wpi.first.wpilibj.command.Command;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
@@ -143,6 +155,24 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 
 	public boolean ledOn = false;
 
+	// Fuses the drive, gyro and bottom Limelight into one estimate of the robot and the vision target
+	public StateEstimator stateEstimator;
+	private final LimelightSnapshot estimatorVision = new LimelightSnapshot();
+	private long lastEstimatorVisionFrame = 0;
+
+	// Telemetry.  A new recording is started for each match, and the channels are replaced along with it.
+	public volatile TelemetryRecorder telemetry;
+	private final RecordingWorker recordingWorker = new RecordingWorker();
+	private String telemetryLabel;
+	private Channel leftPositionChannel, leftVelocityChannel, leftOutputChannel;
+	private Channel rightPositionChannel, rightVelocityChannel, rightOutputChannel;
+	private Channel liftPositionChannel, liftVelocityChannel, liftOutputChannel, liftCurrentChannel, liftSwitchChannel;
+	private Channel fourBarAngleChannel, fourBarOutputChannel, fourBarCurrentChannel, fourBarSwitchChannel;
+	private Channel voltageChannel;
+	private Channel headingChannel, visionValidChannel, visionOffsetChannel, visionLatencyChannel;
+	private final LimelightSnapshot telemetryVision = new LimelightSnapshot();
+	private long lastVisionFrame = 0;
+
 	// CV!!!!!!
 	public Limelight topLimelight, bottomLimelight;
 	public double bottomLLHeight, topLLHeight;
@@ -226,6 +256,10 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 		// gyro = new AnalogDevicesGyro();
 		// ((AnalogDevicesGyro) gyro).recalibrate();
 
+		// Keep track of where the robot has been, so vision measurements can be corrected for latency
+		Odometer.initialize(gyro, 0, 0, 0);
+		Odometer.getInstance().startUpdating();
+
 		
         // Vision
 		visionPID = new PIDConstants(0.57, 0.032, 0.0, 0.00003);
@@ -406,15 +440,150 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 
 		NarwhalDashboard.addButton("compute2D", (boolean down) -> {
 			if (down) {
-				Compute2DLocalization locale = Compute2D.compute2D(bottomLimelight, Compute2D.getInput(bottomLimelight, 3), DeepSpaceConstants.LOW_VISION_TARGET_HEIGHT);
+				Compute2DInput input = Compute2D.getInput(bottomLimelight, 3);
+				Compute2D.compensateForLatency(bottomLimelight, input, DeepSpaceConstants.LOW_VISION_TARGET_HEIGHT, Odometer.getInstance());
+
+				Compute2DLocalization locale = Compute2D.compute2D(bottomLimelight, input, DeepSpaceConstants.LOW_VISION_TARGET_HEIGHT);
 
 				Log.info("MainDeepSpaceRobot", "locale = " + locale);
 			}
 		});
 
 		dcu.initNarwhalDashboard();
+
+		setupStateEstimator();
+		setupTelemetry();
     }
 
+	/**
+	 * Run the state estimator at the control scheduler's full rate, from the same pose the Odometer starts at.
+	 */
+	private void setupStateEstimator() {
+		stateEstimator = new StateEstimator();
+		stateEstimator.reset(0, 0, 0, Timer.getFPGATimestamp());
+
+		ControlScheduler.getInstance().schedule("StateEstimator", 1, this::updateStateEstimator);
+	}
+
+	private void updateStateEstimator() {
+		double encoderDistance = Convert.lengthCTREtoCM((leftDriveLeader.getSelectedSensorPosition() + rightDriveLeader.getSelectedSensorPosition()) / 2.0, wheelCirc);
+		stateEstimator.predict(encoderDistance, Odometer.getInstance().getAngle(), Timer.getFPGATimestamp());
+
+		// each camera frame is only a new measurement once
+		bottomLimelight.getSnapshot(1, estimatorVision);
+		if (estimatorVision.getFrameCount() != lastEstimatorVisionFrame) {
+			lastEstimatorVisionFrame = estimatorVision.getFrameCount();
+
+			if (estimatorVision.hasValidTarget()) {
+				double horizontalOffset = estimatorVision.getValue(LimelightKey.HORIZONTAL_OFFSET);
+
+				// the distance straight ahead of the front of the robot, plus the camera's distance behind it,
+				// is only the straight-line distance to a target which is dead ahead
+				double forwardDistance = bottomLimelight.calculateYPrimeFromTY(estimatorVision.getValue(LimelightKey.VERTICAL_OFFSET), DeepSpaceConstants.LOW_VISION_TARGET_HEIGHT)
+						+ bottomLimelight.frontDistance;
+				double range = forwardDistance / RobotMath.cos(horizontalOffset);
+
+				stateEstimator.addVisionMeasurement(horizontalOffset, range, estimatorVision.getCaptureTime());
+			}
+		}
+	}
+
+	/**
+	 * Record the drive, lift, and four-bar at the control scheduler's full rate while a recording is open.
+	 * Recordings are started by {@link #startTelemetry(String)} when the robot is enabled, from one prepared in
+	 * the background here and in disabledInit().
+	 */
+	private void setupTelemetry() {
+		ControlScheduler.getInstance().schedule("Telemetry", 1, this::recordTelemetry);
+
+		recordingWorker.prepare();
+	}
+
+	/**
+	 * Close the current recording, if there is one, and start recording into the prepared one.  Doesn't touch
+	 * any files itself, so it can't hold up the start of the match.
+	 *
+	 * @param label what the recording is of, which is added to its file name
+	 */
+	private void startTelemetry(String label) {
+		if (telemetry != null) {
+			recordingWorker.close(telemetry);
+			telemetry = null;
+		}
+
+		TelemetryRecorder recorder = recordingWorker.take(label);
+		if (recorder == null) {
+			return;
+		}
+
+		leftPositionChannel = recorder.addChannel("drive/left_position", ChannelType.LONG);
+		leftVelocityChannel = recorder.addChannel("drive/left_velocity", ChannelType.LONG);
+		leftOutputChannel = recorder.addChannel("drive/left_output", ChannelType.DOUBLE);
+		rightPositionChannel = recorder.addChannel("drive/right_position", ChannelType.LONG);
+		rightVelocityChannel = recorder.addChannel("drive/right_velocity", ChannelType.LONG);
+		rightOutputChannel = recorder.addChannel("drive/right_output", ChannelType.DOUBLE);
+
+		liftPositionChannel = recorder.addChannel("lift/position", ChannelType.LONG);
+		liftVelocityChannel = recorder.addChannel("lift/velocity", ChannelType.LONG);
+		liftOutputChannel = recorder.addChannel("lift/output", ChannelType.DOUBLE);
+		liftCurrentChannel = recorder.addChannel("lift/current", ChannelType.DOUBLE);
+		liftSwitchChannel = recorder.addChannel("lift/switch", ChannelType.BOOLEAN);
+
+		fourBarAngleChannel = recorder.addChannel("fourbar/angle", ChannelType.DOUBLE);
+		fourBarOutputChannel = recorder.addChannel("fourbar/output", ChannelType.DOUBLE);
+		fourBarCurrentChannel = recorder.addChannel("fourbar/current", ChannelType.DOUBLE);
+		fourBarSwitchChannel = recorder.addChannel("fourbar/switch", ChannelType.BOOLEAN);
+
+		voltageChannel = recorder.addChannel("battery_voltage", ChannelType.DOUBLE);
+
+		headingChannel = recorder.addChannel("heading", ChannelType.DOUBLE);
+		visionValidChannel = recorder.addChannel("vision/tv", ChannelType.BOOLEAN);
+		visionOffsetChannel = recorder.addChannel("vision/tx", ChannelType.DOUBLE);
+		visionLatencyChannel = recorder.addChannel("vision/latency", ChannelType.DOUBLE);
+
+		// published last, so the telemetry task only sees it once all of its channels are set
+		telemetryLabel = label;
+		telemetry = recorder;
+	}
+
+	private void recordTelemetry() {
+		if (telemetry == null) {
+			return;
+		}
+
+		leftPositionChannel.record(leftDriveLeader.getSelectedSensorPosition());
+		leftVelocityChannel.record(leftDriveLeader.getSelectedSensorVelocity());
+		leftOutputChannel.record(leftDriveLeader.getMotorOutputPercent());
+		rightPositionChannel.record(rightDriveLeader.getSelectedSensorPosition());
+		rightVelocityChannel.record(rightDriveLeader.getSelectedSensorVelocity());
+		rightOutputChannel.record(rightDriveLeader.getMotorOutputPercent());
+
+		liftPositionChannel.record(liftMotorLeader.getSelectedSensorPosition());
+		liftVelocityChannel.record(liftMotorLeader.getSelectedSensorVelocity());
+		liftOutputChannel.record(liftMotorLeader.getMotorOutputPercent());
+		liftCurrentChannel.record(liftMotorLeader.getOutputCurrent());
+		liftSwitchChannel.record(lift.getLimitSwitch());
+
+		fourBarAngleChannel.record(fourBar.getCurrentAngle());
+		fourBarOutputChannel.record(fourBarMotor.getMotorOutputPercent());
+		fourBarCurrentChannel.record(fourBarMotor.getOutputCurrent());
+		fourBarSwitchChannel.record(fourBar.getLimitSwitch());
+
+		voltageChannel.record(RobotController.getBatteryVoltage());
+
+		headingChannel.record(Odometer.getInstance().getAngle());
+
+		// only record each camera frame once.  Latency is the time since the image was captured, in seconds.
+		bottomLimelight.getSnapshot(1, telemetryVision);
+		if (telemetryVision.getFrameCount() != lastVisionFrame) {
+			visionValidChannel.record(telemetryVision.hasValidTarget());
+			visionOffsetChannel.record(telemetryVision.getValue(LimelightKey.HORIZONTAL_OFFSET));
+			visionLatencyChannel.record(Timer.getFPGATimestamp() - telemetryVision.getCaptureTime());
+
+			lastVisionFrame = telemetryVision.getFrameCount();
+		}
+	}
+
     @Override
     protected void setupListeners() {
 		// REGULAR CONTROLS
@@ -603,6 +772,17 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 	protected void disabledInit() {
 		fourBar.disabled = true;
 		lift.disabled = true;
+
+		// the next target will probably be a different one
+		stateEstimator.clearTarget();
+
+		// the match (or practice run) may be over, so make sure what was recorded is on disk
+		if (telemetry != null) {
+			recordingWorker.force(telemetry);
+		}
+
+		// and have a recording ready for the next time the robot is enabled
+		recordingWorker.prepare();
 	}
 
 	@Override
@@ -616,6 +796,14 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 		fourBar.disabled = false;
 		lift.disabled = false;
 
+		// teleop right after autonomous is the same match, so it goes in the same recording
+		if ("auto".equals(telemetryLabel) && telemetry != null) {
+			telemetryLabel = "match";
+		}
+		else {
+			startTelemetry("teleop");
+		}
+
 		drive.shiftToLow();
 
 		topLimelight.setStreamMode(StreamMode.DRIVER_CAMERA);
@@ -630,6 +818,8 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 		fourBar.disabled = false;
 		lift.disabled = false;
 
+		startTelemetry("auto");
+
 		drive.shiftToLow();
 
 		topLimelight.setStreamMode(StreamMode.DRIVER_CAMERA);
@@ -711,6 +901,11 @@ public class MainDeepSpaceRobot extends NarwhalRobot{
 
 		NarwhalDashboard.put("gear", drive.isInHighGear());
 
+		if (stateEstimator.hasTarget()) {
+			SmartDashboard.putNumber("Estimated Target Range (in)", stateEstimator.getTargetRange() / Length.in);
+			SmartDashboard.putNumber("Estimated Target Bearing (deg)", stateEstimator.getTargetBearing());
+		}
+
 		bottomLLCurrentLatency = bottomLimelight.getValue(LimelightKey.LATENCY, 1);
 		if (Math.abs(bottomLLCurrentLatency - bottomLLLastLatency) < 0.00001) {
 			NarwhalDashboard.put("bot_ll_conn", false);
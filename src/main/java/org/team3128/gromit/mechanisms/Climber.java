@@ -8,6 +8,8 @@ import org.team3128.common.autonomous.primitives.CmdRunInParallel;
 import org.team3128.common.autonomous.primitives.CmdRunInSeries;
 import org.team3128.common.drive.SRXTankDrive;
 import org.team3128.common.hardware.misc.Piston;
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.hardware.motor.SRXMotorController;
 import org.team3128.common.util.Log;
 
 import edu.wpi.first.wpilibj.command.Command;
@@ -15,7 +17,7 @@ import edu.wpi.first.wpilibj.command.CommandGroup;
 
 public class Climber {
     Piston climbPistons;
-    TalonSRX backLegMotor;
+    ISmartMotorController backLegMotor;
     
     private static Climber instance = null;
 	public static Climber getInstance() {
@@ -28,10 +30,14 @@ public class Climber {
     }
     
     public static void initialize(Piston climbPistons, TalonSRX backLegMotor) {
+        initialize(climbPistons, new SRXMotorController(backLegMotor));
+    }
+
+    public static void initialize(Piston climbPistons, ISmartMotorController backLegMotor) {
         instance = new Climber(climbPistons, backLegMotor);
     }
 
-    private Climber(Piston climbPistons, TalonSRX backLegMotor) {
+    private Climber(Piston climbPistons, ISmartMotorController backLegMotor) {
         this.climbPistons = climbPistons;
         this.backLegMotor = backLegMotor;
     }
@@ -1,6 +1,10 @@
 package org.team3128.gromit.mechanisms;
 
-import org.team3128.common.util.Constants;
+import org.team3128.common.hardware.limitswitch.DigitalLimitSwitch;
+import org.team3128.common.hardware.limitswitch.ILimitSwitch;
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.hardware.motor.SRXMotorController;
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.RobotMath;
 import org.team3128.common.util.units.Angle;
@@ -76,17 +80,21 @@ public class FourBar
 		}
 	}
 
-	TalonSRX fourBarMotor;
+	ISmartMotorController fourBarMotor;
 	FourBarControlMode controlMode;
 	FourBarState state;
 	
-	private Thread fourBarThread;
-	public DigitalInput limitSwitch;
+	private ControlScheduler.Task controlTask;
+	public ILimitSwitch limitSwitch;
 
 	double limitSwitchAngle;
 	int maxVelocity;
 
-	// Control Thread Variables
+	// owned by the control loop
+	private int zeroVelocityCount = 0;
+	private double previousTarget = 0;
+
+	// Control Loop Variables
 	public double PEAK_BRAKE_POWER = 0.15;
 	public double BRAKE_TRIG_FUDGE = 0.095;
 
@@ -121,10 +129,14 @@ public class FourBar
 	}
 
 	public static void initialize(TalonSRX fourBarMotor, FourBarState state, DigitalInput limitSwitch, double ratio, double limitSwitchAngle, int maxVelocity) {
+		initialize(new SRXMotorController(fourBarMotor), state, new DigitalLimitSwitch(limitSwitch, true), ratio, limitSwitchAngle, maxVelocity);
+	}
+
+	public static void initialize(ISmartMotorController fourBarMotor, FourBarState state, ILimitSwitch limitSwitch, double ratio, double limitSwitchAngle, int maxVelocity) {
 		instance = new FourBar(fourBarMotor, state, limitSwitch, ratio, limitSwitchAngle, maxVelocity);
 	}
 
-	private FourBar(TalonSRX fourBarMotor, FourBarState state, DigitalInput limitSwitch, double ratio, double limitSwitchAngle, int maxVelocity) {
+	private FourBar(ISmartMotorController fourBarMotor, FourBarState state, ILimitSwitch limitSwitch, double ratio, double limitSwitchAngle, int maxVelocity) {
 		this.fourBarMotor = fourBarMotor;
 		this.state = state;
 
@@ -137,115 +149,99 @@ public class FourBar
 
 		powerControl(0);
 				
-		fourBarThread = new Thread(() ->
-		{
-			int zeroVelocityCount = 0;
-
-			double currentTarget = 0;
-			double previousTarget = 0;
+		controlTask = ControlScheduler.getInstance().schedule("FourBar", ControlScheduler.ticksForPeriod(0.01), this::controlStep);
+	}
 
-			double kP;
-			double kD;
+	/**
+	 * Runs one period of the four bar's control loop.
+	 */
+	private void controlStep() {
+		double kP;
+		double kD;
+
+		// Zeroing Logic
+		if (this.controlMode == FourBarControlMode.ZEROING) {
+			if (Math.abs(fourBarMotor.getSelectedSensorVelocity()) < 2) {
+				zeroVelocityCount += 1;
+			}
+			else {
+				zeroVelocityCount = 0;
+			}
 
-			while (true)
-			{
-				// Zeroing Logic
-				if (this.controlMode == FourBarControlMode.ZEROING) {
-					if (Math.abs(fourBarMotor.getSelectedSensorVelocity()) < 2) {
-						zeroVelocityCount += 1;
-					}
-					else {
-						zeroVelocityCount = 0;
-					}
+			if (zeroVelocityCount > 30 || this.getLimitSwitch() /** || maybe cleverly implement current limiting*/) {
+				this.state = FourBarState.VERTICAL;
+				Log.info("FourBar", "Zeroing sequence hit hard/soft stop. Braking now...");
 
-					if (zeroVelocityCount > 30 || this.getLimitSwitch() /** || maybe cleverly implement current limiting*/) {
-						this.state = FourBarState.VERTICAL;
-						Log.info("FourBar", "Zeroing sequence hit hard/soft stop. Braking now...");
+				this.angleControl(85.0 * Angle.DEGREES);
 
-						this.angleControl(85.0 * Angle.DEGREES);
+				zeroVelocityCount = 0;
+			}
+		}
 
-						zeroVelocityCount = 0;
-					}
-				}
+		// Limit switch setting
+		if (this.getLimitSwitch()) {
+			this.setCurrentAngle(this.limitSwitchAngle);
 
-				// Limit switch setting
-				if (this.getLimitSwitch()) {
-					this.setCurrentAngle(this.limitSwitchAngle);
+			this.state = FourBarState.VERTICAL;
+		}
 
-					this.state = FourBarState.VERTICAL;
-				}
+		// Control loop logic
+		if (this.disabled) {
+			this.fourBarMotor.set(ControlMode.PercentOutput, 0);
+		}
+		else {
+			double currentTarget = 0;
 
-				// Control loop logic
-				if (this.disabled) {
-					this.fourBarMotor.set(ControlMode.PercentOutput, 0);
+			if (this.controlMode == FourBarControlMode.PERCENT) {
+				if (this.override) {
+					currentTarget = desiredTarget;
+					this.fourBarMotor.set(ControlMode.PercentOutput, currentTarget);
 				}
 				else {
-					currentTarget = 0;
-
-					if (this.controlMode == FourBarControlMode.PERCENT) {
-						if (this.override) {
-							currentTarget = desiredTarget;
-							this.fourBarMotor.set(ControlMode.PercentOutput, currentTarget);
-						}
-						else {
-							this.canRaise = this.getCurrentAngle() < this.maxAngle - 2 * Angle.DEGREES;
-							this.canLower = this.getCurrentAngle() > this.minAngle + 1 * Angle.DEGREES;
-
-							if (desiredTarget > 0 && this.canRaise) {
-								currentTarget = 0.7 * getAdjustedTarget(desiredTarget);
-							}
-							else if (desiredTarget < 0 && this.canLower) {
-								currentTarget = 0.4 * getAdjustedTarget(desiredTarget);
-							}
-
-							if ((Math.abs(currentTarget) < 0.0001 && this.canRaise && this.canLower)) {
-								this.brake();
-							}
-						}
-					}
-					else if (this.controlMode == FourBarControlMode.POSITION) {
-						lastError = this.error;
-						this.error = desiredTarget - this.getCurrentAngle();
-
-						if (this.error > 0) {
-							kP = 0.23;
-						}
-						else {
-							kP = 0.01;
-						}
-						kD = 0;
-
-						currentTarget = this.getFeedForwardPower() + kP * this.error + kD * (this.error - lastError) * 1000000 / (RobotController.getFPGATime() - this.lastTime);
-						this.lastTime = RobotController.getFPGATime();
-					}
-					else if (this.controlMode == FourBarControlMode.ZEROING) {
-						lastError = this.error;
-						this.error = desiredTarget - fourBarMotor.getSelectedSensorVelocity();
+					this.canRaise = this.getCurrentAngle() < this.maxAngle - 2 * Angle.DEGREES;
+					this.canLower = this.getCurrentAngle() > this.minAngle + 1 * Angle.DEGREES;
 
-						currentTarget = 0.8272;
-						this.lastTime = RobotController.getFPGATime();
+					if (desiredTarget > 0 && this.canRaise) {
+						currentTarget = 0.7 * getAdjustedTarget(desiredTarget);
+					}
+					else if (desiredTarget < 0 && this.canLower) {
+						currentTarget = 0.4 * getAdjustedTarget(desiredTarget);
 					}
 
-					if (Math.abs(currentTarget - previousTarget) > 0.0001) {
-						this.fourBarMotor.set(ControlMode.PercentOutput, currentTarget);
-
-						previousTarget = currentTarget;
+					if ((Math.abs(currentTarget) < 0.0001 && this.canRaise && this.canLower)) {
+						this.brake();
 					}
 				}
+			}
+			else if (this.controlMode == FourBarControlMode.POSITION) {
+				lastError = this.error;
+				this.error = desiredTarget - this.getCurrentAngle();
 
-				try
-				{
-					Thread.sleep(10);
+				if (this.error > 0) {
+					kP = 0.23;
 				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
+				else {
+					kP = 0.01;
 				}
+				kD = 0;
+
+				currentTarget = this.getFeedForwardPower() + kP * this.error + kD * (this.error - lastError) * 1000000 / (RobotController.getFPGATime() - this.lastTime);
+				this.lastTime = RobotController.getFPGATime();
+			}
+			else if (this.controlMode == FourBarControlMode.ZEROING) {
+				lastError = this.error;
+				this.error = desiredTarget - fourBarMotor.getSelectedSensorVelocity();
+
+				currentTarget = 0.8272;
+				this.lastTime = RobotController.getFPGATime();
 			}
 
-		});
+			if (Math.abs(currentTarget - previousTarget) > 0.0001) {
+				this.fourBarMotor.set(ControlMode.PercentOutput, currentTarget);
 
-		fourBarThread.start();
+				previousTarget = currentTarget;
+			}
+		}
 	}
 
 	private double getAdjustedTarget(double joystick) {
@@ -258,9 +254,13 @@ public class FourBar
 		return fourBarMotor.getSelectedSensorPosition(0) / ratio;
 	}
 
+	/**
+	 * Sets the angle the encoder reads as now.  Doesn't wait on the CAN bus for the Talon to confirm it,
+	 * so that the control loop can call it without holding up the scheduler.
+	 */
 	public void setCurrentAngle(double angle) {
 		//Log.info("FourBar", "Setting current angle to " + angle + " degrees.");
-		fourBarMotor.setSelectedSensorPosition((int) (angle * ratio), 0, Constants.CAN_TIMEOUT);
+		fourBarMotor.setSelectedSensorPosition((int) (angle * ratio), 0, 0);
 	}
 
     public void setState(FourBarState fourBarState)
@@ -306,7 +306,7 @@ public class FourBar
 
 	public boolean getLimitSwitch()
 	{
-		return !limitSwitch.get();
+		return limitSwitch.isTriggered();
 	}
 
 	public class CmdZero extends Command {
@@ -1,6 +1,11 @@
 package org.team3128.gromit.mechanisms;
 
+import org.team3128.common.hardware.limitswitch.DigitalLimitSwitch;
+import org.team3128.common.hardware.limitswitch.ILimitSwitch;
+import org.team3128.common.hardware.motor.ISmartMotorController;
+import org.team3128.common.hardware.motor.SRXMotorController;
 import org.team3128.common.util.Constants;
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.units.Length;
 
@@ -95,16 +100,20 @@ public class Lift
 	public double error;
 
 	// Physical Components
-	TalonSRX liftMotor;
-	DigitalInput limitSwitch;
+	ISmartMotorController liftMotor;
+	ILimitSwitch limitSwitch;
 
 	public LiftControlMode controlMode;
 	public LiftHeightState heightState;
 
 	int limitSwitchLocation, liftMaxVelocity;
 
-	// Lift Thread
-	Thread liftThread;
+	// Lift control loop
+	ControlScheduler.Task controlTask;
+
+	// owned by the control loop
+	private int zeroVelocityCount = 0;
+	private boolean previousSwitchState = false;
 
 	public double brakePower = 0.15;
 
@@ -135,10 +144,14 @@ public class Lift
 	}
 
 	public static void initialize(LiftHeightState state, TalonSRX liftMotor, DigitalInput limitSwitch, int limitSwitchLocation, int liftMaxVelocity) {
+		initialize(state, new SRXMotorController(liftMotor), new DigitalLimitSwitch(limitSwitch, true), limitSwitchLocation, liftMaxVelocity);
+	}
+
+	public static void initialize(LiftHeightState state, ISmartMotorController liftMotor, ILimitSwitch limitSwitch, int limitSwitchLocation, int liftMaxVelocity) {
 		instance = new Lift(state, liftMotor, limitSwitch, limitSwitchLocation, liftMaxVelocity);
 	}
 
-	private Lift(LiftHeightState state, TalonSRX liftMotor, DigitalInput limitSwitch, int limitSwitchLocation, int liftMaxVelocity) {
+	private Lift(LiftHeightState state, ISmartMotorController liftMotor, ILimitSwitch limitSwitch, int limitSwitchLocation, int liftMaxVelocity) {
 		this.liftMotor = liftMotor;
 		this.heightState = state;
 
@@ -154,99 +167,84 @@ public class Lift
 
 		liftMotor.configOpenloopRamp(0.1, Constants.CAN_TIMEOUT);
 
-		liftThread = new Thread(() ->
-		{
-			int zeroVelocityCount = 0;
+		controlTask = ControlScheduler.getInstance().schedule("Lift", ControlScheduler.ticksForPeriod(0.1), this::controlStep);
+	}
 
-			double target = 0;
-			boolean previousSwitchState = false;
+	/**
+	 * Runs one period of the lift's control loop.
+	 */
+	private void controlStep() {
+		if (this.heightState == LiftHeightState.ZEROING) {
+			if (Math.abs(liftMotor.getSelectedSensorVelocity()) < 10) {
+				Log.info("Lift", "Zeroing plateau incremented");
+				zeroVelocityCount += 1;
+			}
+			else {
+				zeroVelocityCount = 0;
+			}
 
-			while (true)
-			{
-				if (this.heightState == LiftHeightState.ZEROING) {
-					if (Math.abs(liftMotor.getSelectedSensorVelocity()) < 10) {
-						Log.info("Lift", "Zeroing plateau incremented");
-						zeroVelocityCount += 1;
-					}
-					else {
-						zeroVelocityCount = 0;
-					}
+			if (zeroVelocityCount > 5 || this.getLimitSwitch()) {
+				this.powerControl(0);
 
-					if (zeroVelocityCount > 5 || this.getLimitSwitch()) {
-						this.powerControl(0);
+				this.heightState = LiftHeightState.BASE;
+				Log.info("Lift", "Zeroing sequence hit soft/hard stop. Braking now...");
 
-						this.heightState = LiftHeightState.BASE;
-						Log.info("Lift", "Zeroing sequence hit soft/hard stop. Braking now...");
+				zeroVelocityCount = 0;
+			}
+		}
+		
+		// timeout of 0 so that the scheduler isn't held up waiting for the Talon to confirm it
+		if (this.getLimitSwitch() != previousSwitchState) {
+			this.liftMotor.setSelectedSensorPosition(this.limitSwitchLocation, 0, 0);
 
-						zeroVelocityCount = 0;
-					}
-				}
-				
-				if (this.getLimitSwitch() != previousSwitchState) {
-					this.liftMotor.setSelectedSensorPosition(this.limitSwitchLocation, 0, Constants.CAN_TIMEOUT);
+			this.heightState = LiftHeightState.BASE;
+			previousSwitchState = this.getLimitSwitch();
+		}
 
-					this.heightState = LiftHeightState.BASE;
-					previousSwitchState = this.getLimitSwitch();
-				}
+		if (this.disabled)
+		{
+			this.liftMotor.set(ControlMode.PercentOutput, 0);
+		}
+		else {
+			double target = 0;
+	
+			this.canRaise = this.getCurrentHeight() < this.maxHeight - this.controlBuffer;
+			this.canLower = this.getCurrentHeight() > 0;
 
-				if (this.disabled)
-				{
-					this.liftMotor.set(ControlMode.PercentOutput, 0);
+			if (this.controlMode == LiftControlMode.PERCENT) {
+				if (this.override) {
+					target = this.desiredTarget;
+					this.liftMotor.set(ControlMode.PercentOutput, target);
 				}
 				else {
-					target = 0;
-	
-					this.canRaise = this.getCurrentHeight() < this.maxHeight - this.controlBuffer;
-					this.canLower = this.getCurrentHeight() > 0;
-
-					if (this.controlMode == LiftControlMode.PERCENT) {
-						if (this.override) {
-							target = this.desiredTarget;
-							this.liftMotor.set(ControlMode.PercentOutput, target);
-						}
-						else {
-							if (this.desiredTarget > 0 && this.canRaise) {
-								target = this.desiredTarget;
-							}
-							else if (this.desiredTarget < 0 && this.canLower) {
-								target = 0.7 * this.desiredTarget;
-							}
-
-							if ((Math.abs(target) < 0.1 && this.getCurrentHeight() >= 3 * Length.in)) {
-								// this.setControlMode(LiftControlMode.POSITION_UP);
-								// this.liftMotor.set(ControlMode.MotionMagic, this.getCurrentHeight() * ratio);
-
-								target = brakePower;
-							}
-
-							if (Math.abs(target - this.setPoint) > 0.0001) {
-								this.liftMotor.set(ControlMode.PercentOutput, target);
-
-								this.setPoint = target;
-							}
-						}
+					if (this.desiredTarget > 0 && this.canRaise) {
+						target = this.desiredTarget;
+					}
+					else if (this.desiredTarget < 0 && this.canLower) {
+						target = 0.7 * this.desiredTarget;
 					}
-					// else if (!this.cmdControlled) {
-					// 	if (Math.abs(getCurrentHeight() - heightState.targetHeight) < 4 * Length.in && 
-					// 	    Math.abs(getCurrentHeight() - lastHeight) < 0.1 * Length.in) {
-					// 		powerControl(0);
-					// 	}
-					// }
-				}
 
-				try
-				{
-					Thread.sleep(100);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
+					if ((Math.abs(target) < 0.1 && this.getCurrentHeight() >= 3 * Length.in)) {
+						// this.setControlMode(LiftControlMode.POSITION_UP);
+						// this.liftMotor.set(ControlMode.MotionMagic, this.getCurrentHeight() * ratio);
 
-			}
-		});
+						target = brakePower;
+					}
+
+					if (Math.abs(target - this.setPoint) > 0.0001) {
+						this.liftMotor.set(ControlMode.PercentOutput, target);
 
-		liftThread.start();
+						this.setPoint = target;
+					}
+				}
+			}
+			// else if (!this.cmdControlled) {
+			// 	if (Math.abs(getCurrentHeight() - heightState.targetHeight) < 4 * Length.in && 
+			// 	    Math.abs(getCurrentHeight() - lastHeight) < 0.1 * Length.in) {
+			// 		powerControl(0);
+			// 	}
+			// }
+		}
 	}
 
 	public double getCurrentHeight() {
@@ -281,7 +279,7 @@ public class Lift
 
 	public boolean getLimitSwitch()
 	{
-		return !limitSwitch.get();
+		return limitSwitch.isTriggered();
 	}
 /*
 	public class CmdZero extends Command {
@@ -1,6 +1,7 @@
 package org.team3128.guido.mechanisms;
 
 import org.team3128.common.util.Constants;
+import org.team3128.common.util.ControlScheduler;
 import org.team3128.common.util.Log;
 import org.team3128.common.util.units.Length;
 
@@ -88,7 +89,7 @@ public class Forklift
 	Intake intake;
 	TalonSRX forkliftMotor;
 	DigitalInput softStopLimitSwitch;
-	Thread depositCubeThread, depositingRollerThread;
+	ControlScheduler.Task controlTask;
 
 	public ForkliftControlMode controlMode;
 	public ForkliftState state;
@@ -144,74 +145,65 @@ public class Forklift
 		
 		forkliftMotor.configOpenloopRamp(0.2, Constants.CAN_TIMEOUT);
 
-		depositingRollerThread = new Thread(() ->
+		controlTask = ControlScheduler.getInstance().schedule("Forklift", ControlScheduler.ticksForPeriod(0.1), this::controlStep);
+	}
+
+	/**
+	 * Runs one period of the forklift's control loop.
+	 */
+	private void controlStep()
+	{
+		// timeout of 0 so that the scheduler isn't held up waiting for the Talon to confirm it
+		if (this.getForkliftSwitch())
 		{
-			while (true)
-			{
-				if (this.getForkliftSwitch())
-				{
-					this.forkliftMotor.setSelectedSensorPosition(limitSwitchLocation, 0, Constants.CAN_TIMEOUT);
-				}
+			this.forkliftMotor.setSelectedSensorPosition(limitSwitchLocation, 0, 0);
+		}
 
-				if (this.disabled)
-				{
-					this.forkliftMotor.set(ControlMode.PercentOutput, 0);
+		if (this.disabled)
+		{
+			this.forkliftMotor.set(ControlMode.PercentOutput, 0);
+		}
+		else {
+			double target = 0;
+			
+			this.canRaise = this.forkliftMotor.getSelectedSensorPosition(0) < this.maxHeight;
+			this.canLower = this.forkliftMotor.getSelectedSensorPosition(0) > 100;
+			
+			if (this.controlMode == ForkliftControlMode.PERCENT) {
+				if (this.override) {
+					target = this.desiredTarget;
+					this.forkliftMotor.set(ControlMode.PercentOutput, target);
+					
 				}
 				else {
-					double target = 0;
-					
-					this.canRaise = this.forkliftMotor.getSelectedSensorPosition(0) < this.maxHeight;
-					this.canLower = this.forkliftMotor.getSelectedSensorPosition(0) > 100;
+					if (this.desiredTarget > 0 && this.canRaise) {
+						target = this.desiredTarget;
+					}
+					else if (this.desiredTarget < 0 && this.canLower) {
+						target = 0.7 * this.desiredTarget;
+					}
 					
-					if (this.controlMode == ForkliftControlMode.PERCENT) {
-						if (this.override) {
-							target = this.desiredTarget;
-							this.forkliftMotor.set(ControlMode.PercentOutput, target);
-							
-						}
-						else {
-							if (this.desiredTarget > 0 && this.canRaise) {
-								target = this.desiredTarget;
-							}
-							else if (this.desiredTarget < 0 && this.canLower) {
-								target = 0.7 * this.desiredTarget;
-							}
-							
-							if ((Math.abs(target) < 0.1
-									&& this.forkliftMotor.getSelectedSensorPosition(0) / ratio >= this.brakeHeight)) {
-								target = this.brakePower;
-							}
-							
-							if (Math.abs(target - this.setPoint) > 0.0001) {
-								this.forkliftMotor.set(ControlMode.PercentOutput, target);
-								
-								this.setPoint = target;
-							}
-						}
+					if ((Math.abs(target) < 0.1
+							&& this.forkliftMotor.getSelectedSensorPosition(0) / ratio >= this.brakeHeight)) {
+						target = this.brakePower;
 					}
-						
 					
+					if (Math.abs(target - this.setPoint) > 0.0001) {
+						this.forkliftMotor.set(ControlMode.PercentOutput, target);
+						
+						this.setPoint = target;
+					}
 				}
-
+			}
 				
-				this.currentPosition = forkliftMotor.getSelectedSensorPosition(0) / ratio;
-				double targetHeight = this.state.targetHeight;
-
-				this.error = Math.abs(currentPosition - targetHeight);
-
-				try
-				{
-					Thread.sleep(100);
-				}
-				catch (InterruptedException e)
-				{
-					e.printStackTrace();
-				}
+			
+		}
 
-			}
-		});
+		
+		this.currentPosition = forkliftMotor.getSelectedSensorPosition(0) / ratio;
+		double targetHeight = this.state.targetHeight;
 
-		depositingRollerThread.start();
+		this.error = Math.abs(currentPosition - targetHeight);
 	}
 
 	public void setState(ForkliftState forkliftState)
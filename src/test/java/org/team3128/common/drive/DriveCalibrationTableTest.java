@@ -0,0 +1,203 @@
+package org.team3128.common.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Checks {@link DriveCalibrationTable}'s interpolation at, between and beyond the calibration points, that a saved
+ * table loads back the same, that files which are truncated, of the wrong kind or out of order are rejected, and
+ * that lookups don't allocate.
+ *
+ * @author Narwhal
+ *
+ */
+public class DriveCalibrationTableTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void initializeHAL() {
+		HAL.initialize(500, 0);
+	}
+
+	private static DriveCalibrationTable makeTable() {
+		DriveCalibrationTable table = new DriveCalibrationTable();
+
+		// added out of order, as calibration runs would be
+		table.addWheelbase(90, 80);
+		table.addWheelbase(30, 70);
+		table.addWheelbase(-180, 100);
+
+		table.addFeedForwardMultipliers(100, 1e-3, 2e-3);
+		table.addFeedForwardMultipliers(-100, 3e-3, 1e-3);
+		table.addFeedForwardMultipliers(0, 2e-3, 2e-3);
+
+		return table;
+	}
+
+	@Test
+	public void testEmptyTableFallsBack() {
+		DriveCalibrationTable empty = new DriveCalibrationTable();
+
+		assertFalse(empty.hasWheelbases());
+		assertFalse(empty.hasFeedForwardMultipliers());
+		assertEquals(65, empty.getWheelbase(45, 65), 0);
+		assertEquals(1.5, empty.getLeftMultiplier(45, 1.5), 0);
+		assertEquals(1.5, empty.getRightMultiplier(45, 1.5), 0);
+	}
+
+	@Test
+	public void testInterpolation() {
+		DriveCalibrationTable table = makeTable();
+
+		assertEquals("at a point", 70, table.getWheelbase(30, 0), 1e-9);
+		assertEquals("between points", 75, table.getWheelbase(60, 0), 1e-9);
+		assertEquals("by the magnitude of the angular velocity", 90, table.getWheelbase(-135, 0), 1e-9);
+		assertEquals("below the table", 70, table.getWheelbase(10, 0), 1e-9);
+		assertEquals("above the table", 100, table.getWheelbase(500, 0), 1e-9);
+
+		assertEquals(2.5e-3, table.getLeftMultiplier(-50, 0), 1e-12);
+		assertEquals(2e-3, table.getRightMultiplier(50, 0), 1e-12);
+		assertEquals(3e-3, table.getLeftMultiplier(-300, 0), 1e-12);
+		assertEquals(2e-3, table.getRightMultiplier(300, 0), 1e-12);
+	}
+
+	@Test
+	public void testNearbyPointsAreMerged() {
+		DriveCalibrationTable table = makeTable();
+
+		// a run close to an existing point replaces it
+		table.addWheelbase(90 + DriveCalibrationTable.MERGE_TOLERANCE / 2, 82);
+		assertEquals(3, table.getNumWheelbases());
+		assertEquals(82, table.getWheelbase(90.5, 0), 1e-9);
+
+		table.addWheelbase(120, 90);
+		assertEquals(4, table.getNumWheelbases());
+		assertEquals(86, table.getWheelbase(105.25, 0), 1e-9);
+
+		table.addFeedForwardMultipliers(.25, 4e-3, 4e-3);
+		assertEquals(3, table.getNumFeedForwardMultipliers());
+		assertEquals(4e-3, table.getLeftMultiplier(.25, 0), 1e-12);
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		File file = new File(folder.getRoot(), "drive_calibration.bin");
+
+		DriveCalibrationTable table = makeTable();
+		table.save(file);
+
+		assertFalse("temporary file is moved into place", new File(file.getPath() + ".tmp").exists());
+		assertEquals(4 + 4 + 4 + 3 * 16 + 4 + 3 * 24, file.length());
+
+		DriveCalibrationTable loaded = DriveCalibrationTable.load(file);
+		assertEquals(table.getNumWheelbases(), loaded.getNumWheelbases());
+		assertEquals(table.getNumFeedForwardMultipliers(), loaded.getNumFeedForwardMultipliers());
+
+		for (double angularVelocity = -400; angularVelocity <= 400; angularVelocity += 7.5) {
+			assertEquals(table.getWheelbase(angularVelocity, 0), loaded.getWheelbase(angularVelocity, 0), 0);
+			assertEquals(table.getLeftMultiplier(angularVelocity, 0), loaded.getLeftMultiplier(angularVelocity, 0), 0);
+			assertEquals(table.getRightMultiplier(angularVelocity, 0), loaded.getRightMultiplier(angularVelocity, 0), 0);
+		}
+
+		// saving over an existing table replaces it
+		loaded.addWheelbase(200, 110);
+		loaded.save(file);
+		assertEquals(4, DriveCalibrationTable.load(file).getNumWheelbases());
+		assertEquals(4, DriveCalibrationTable.loadOrEmpty(file).getNumWheelbases());
+	}
+
+	private static void assertRejected(File file, String what) {
+		try {
+			DriveCalibrationTable.load(file);
+			fail(what + " was loaded");
+		}
+		catch (IOException e) {
+			// expected
+		}
+
+		assertFalse(what + " loads as an empty table", DriveCalibrationTable.loadOrEmpty(file).hasWheelbases());
+	}
+
+	@Test
+	public void testBadFilesAreRejected() throws IOException {
+		File file = new File(folder.getRoot(), "drive_calibration.bin");
+
+		makeTable().save(file);
+		try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+			truncated.setLength(truncated.length() - 5);
+		}
+		assertRejected(file, "truncated file");
+
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+			output.writeBytes("left,right\n");
+		}
+		assertRejected(file, "file which isn't a table");
+
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+			output.writeInt(DriveCalibrationTable.MAGIC);
+			output.writeInt(DriveCalibrationTable.VERSION + 1);
+			output.writeInt(0);
+			output.writeInt(0);
+		}
+		assertRejected(file, "table from a newer version");
+
+		try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+			output.writeInt(DriveCalibrationTable.MAGIC);
+			output.writeInt(DriveCalibrationTable.VERSION);
+			output.writeInt(2);
+			output.writeDouble(90);
+			output.writeDouble(80);
+			output.writeDouble(30);
+			output.writeDouble(70);
+			output.writeInt(0);
+		}
+		assertRejected(file, "table out of order");
+
+		assertFalse(DriveCalibrationTable.loadOrEmpty(new File(folder.getRoot(), "missing.bin")).hasWheelbases());
+	}
+
+	@Test
+	public void testLookupsDontAllocate() {
+		DriveCalibrationTable table = new DriveCalibrationTable();
+		for (int point = 0; point < 64; point++) {
+			table.addWheelbase(point * 5, 70 + point * .25);
+			table.addFeedForwardMultipliers(point * 10 - 320, 1e-3 + point * 1e-5, 1e-3 - point * 1e-5);
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		double total = 0;
+
+		// the first rounds may allocate while the JIT compiles the lookups
+		long leastAllocated = Long.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for (int lookup = 0; lookup < 100000; lookup++) {
+				double angularVelocity = (lookup % 700) - 350 + .5;
+				total += table.getWheelbase(angularVelocity, 0) + table.getLeftMultiplier(angularVelocity, 0) + table.getRightMultiplier(angularVelocity, 0);
+			}
+
+			leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		}
+
+		assertEquals("bytes allocated by 100000 lookups", 0, leastAllocated);
+		assertFalse(Double.isNaN(total));
+	}
+}
@@ -0,0 +1,145 @@
+package org.team3128.common.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.team3128.common.simulation.SimulatedMotionProfileTalon;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * Streams profiles into a {@link SimulatedMotionProfileTalon} and checks the buffer occupancy, underrun
+ * counting and the points the Talon ends up executing.
+ *
+ * The streamer's notifier is not started; the tests call {@link MotionProfileStreamer#service()} themselves,
+ * interleaved with advancing the simulated Talon.
+ *
+ * @author Narwhal
+ *
+ */
+public class MotionProfileStreamerTest {
+	private static final int POINT_DURATION_MS = 10;
+
+	private SimulatedMotionProfileTalon talon;
+
+	@Before
+	public void setUp() {
+		talon = new SimulatedMotionProfileTalon();
+	}
+
+	private static void loadRamp(MotionProfileStreamer streamer, int length) {
+		streamer.load(length, (index, point) -> {
+			point.position = index * 100;
+			point.velocity = index;
+			point.timeDur = POINT_DURATION_MS;
+		});
+	}
+
+	/**
+	 * Advances the Talon for the given time, servicing the streamer every servicePeriodMs, and checks
+	 * that the points are executed in order.
+	 */
+	private void run(MotionProfileStreamer streamer, int servicePeriodMs, int durationMs) {
+		double lastPosition = -1;
+
+		for (int ms = 0; ms < durationMs; ms += servicePeriodMs) {
+			talon.advance(servicePeriodMs);
+			streamer.service();
+
+			if (talon.isActivePointValid()) {
+				assertTrue("points are executed in order", talon.getActivePosition() >= lastPosition);
+				lastPosition = talon.getActivePosition();
+			}
+		}
+	}
+
+	@Test
+	public void testLoadFillsToLookahead() {
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 25);
+		loadRamp(streamer, 500);
+
+		assertEquals(25, streamer.getOccupancy());
+		assertEquals(25, streamer.getPointsPushed());
+		assertFalse(talon.isActivePointValid());
+	}
+
+	@Test
+	public void testShortProfileIsPushedWhole() {
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 25);
+		loadRamp(streamer, 10);
+
+		assertEquals(10, streamer.getOccupancy());
+		assertEquals(10, streamer.getPointsPushed());
+	}
+
+	@Test
+	public void testStreamsWholeProfileWithoutUnderrun() {
+		int length = 3000;
+
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 25);
+		loadRamp(streamer, length);
+		talon.set(ControlMode.MotionProfile, 1);
+
+		// serviced at twice the point rate, the way start() does it
+		run(streamer, POINT_DURATION_MS / 2, (length + 10) * POINT_DURATION_MS);
+
+		assertTrue(streamer.isFinished());
+		assertEquals(0, streamer.getUnderrunCount());
+		assertEquals(length, streamer.getPointsPushed());
+		assertEquals(length, talon.getPointsExecuted());
+		assertEquals((length - 1) * 100, talon.getActivePosition(), 0);
+
+		// more than the top buffer holds was streamed, but never more than the lookahead at once
+		assertTrue(streamer.getPeakOccupancy() <= 25);
+	}
+
+	@Test
+	public void testStarvedProfileCountsUnderruns() {
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 2);
+		loadRamp(streamer, 200);
+		talon.set(ControlMode.MotionProfile, 1);
+
+		// each service tick moves only one point into the bottom buffer, so servicing slower than the
+		// point rate starves the Talon
+		run(streamer, 3 * POINT_DURATION_MS, (200 + 5) * 3 * POINT_DURATION_MS);
+
+		assertTrue(streamer.getUnderrunCount() > 0);
+		assertTrue(streamer.isFinished());
+		assertEquals(200, talon.getPointsExecuted());
+	}
+
+	@Test
+	public void testStopClearsProfile() {
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 25);
+		loadRamp(streamer, 500);
+		talon.set(ControlMode.MotionProfile, 1);
+
+		run(streamer, POINT_DURATION_MS / 2, 100 * POINT_DURATION_MS);
+		int executed = talon.getPointsExecuted();
+
+		streamer.stop();
+		streamer.service();
+		talon.advance(100 * POINT_DURATION_MS);
+
+		assertFalse(talon.isActivePointValid());
+		assertEquals(executed, talon.getPointsExecuted());
+	}
+
+	@Test
+	public void testReloadResetsCounters() {
+		MotionProfileStreamer streamer = new MotionProfileStreamer(talon, 2);
+		loadRamp(streamer, 50);
+		talon.set(ControlMode.MotionProfile, 1);
+		run(streamer, 3 * POINT_DURATION_MS, 50 * 3 * POINT_DURATION_MS);
+		assertTrue(streamer.getUnderrunCount() > 0);
+
+		loadRamp(streamer, 50);
+
+		assertEquals(0, streamer.getUnderrunCount());
+		assertFalse(streamer.isFinished());
+		assertEquals(2, streamer.getPointsPushed());
+	}
+}
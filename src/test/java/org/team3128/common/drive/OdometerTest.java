@@ -0,0 +1,121 @@
+package org.team3128.common.drive;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.simulation.SimulatedGyro;
+import org.team3128.common.simulation.SimulatedMotorController;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Replays synthetic encoder and gyro traces through the {@link Odometer} and checks the poses it works out.
+ *
+ * @author Narwhal
+ *
+ */
+public class OdometerTest {
+	private static final double WHEEL_CIRCUMFERENCE = 30;
+	private static final double WHEEL_BASE = 60;
+	private static final double PERIOD = .005;
+
+	private SimulatedMotorController leftMotors, rightMotors;
+	private SimulatedGyro gyro;
+	private Odometer odometer;
+
+	@BeforeClass
+	public static void initializeHAL() {
+		HAL.initialize(500, 0);
+	}
+
+	@Before
+	public void setUp() {
+		leftMotors = new SimulatedMotorController(3700, .1, 130);
+		rightMotors = new SimulatedMotorController(3700, .1, 130);
+		gyro = new SimulatedGyro();
+
+		SRXTankDrive.initialize(leftMotors, rightMotors, WHEEL_CIRCUMFERENCE, WHEEL_BASE, 3700);
+		Odometer.initialize(gyro, 0, 0, 0);
+		odometer = Odometer.getInstance();
+	}
+
+	private static double toNative(double cm) {
+		return Convert.lengthCMtoCTRE(cm, WHEEL_CIRCUMFERENCE);
+	}
+
+	@Test
+	public void testStraightLine() {
+		odometer.setPosition(0, 0, 30);
+
+		double distance = 0;
+		for (int step = 1; step <= 200; step++) {
+			distance += 1.5;
+			odometer.integrate(toNative(distance), toNative(distance), 30, step * PERIOD);
+		}
+
+		Pose pose = odometer.getPose();
+		assertEquals(distance * RobotMath.cos(30), pose.x, 1e-6);
+		assertEquals(distance * RobotMath.sin(30), pose.y, 1e-6);
+		assertEquals(30, pose.angle, 1e-9);
+	}
+
+	@Test
+	public void testArcMatchesCircle() {
+		double radius = 100;
+
+		// a quarter of a circle, counterclockwise, one degree per update
+		for (int step = 1; step <= 90; step++) {
+			double turned = Math.toRadians(step);
+
+			odometer.integrate(toNative((radius - WHEEL_BASE / 2) * turned), toNative((radius + WHEEL_BASE / 2) * turned), step, step * PERIOD);
+		}
+
+		Pose pose = odometer.getPose();
+		assertEquals(radius, pose.x, .05);
+		assertEquals(radius, pose.y, .05);
+		assertEquals(90, pose.angle, 1e-9);
+	}
+
+	@Test
+	public void testSetPositionStartsFromCurrentReadings() {
+		leftMotors.setSelectedSensorPosition(5000);
+		rightMotors.setSelectedSensorPosition(5000);
+		gyro.rotate(45, PERIOD);
+
+		odometer.setPosition(10, 20, 0);
+		odometer.update();
+
+		Pose pose = odometer.getPose();
+		assertEquals(10, pose.x, 1e-9);
+		assertEquals(20, pose.y, 1e-9);
+		assertEquals(0, pose.angle, 1e-9);
+
+		// one wheel rotation straight ahead, which is along x now that the heading has been reset
+		leftMotors.setSelectedSensorPosition(5000 + 4096);
+		rightMotors.setSelectedSensorPosition(5000 + 4096);
+		odometer.update();
+
+		pose = odometer.getPose();
+		assertEquals(10 + WHEEL_CIRCUMFERENCE, pose.x, 1e-9);
+		assertEquals(20, pose.y, 1e-9);
+	}
+
+	@Test
+	public void testPoseAtPastTime() {
+		odometer.setPosition(0, 0, 0);
+		double start = Timer.getFPGATimestamp();
+
+		for (int step = 1; step <= 100; step++) {
+			odometer.integrate(toNative(step * 2), toNative(step * 2), 0, start + step * PERIOD);
+		}
+
+		// halfway between the 40th and 41st updates
+		assertEquals(81, odometer.getPoseAt(start + 40.5 * PERIOD).x, 1e-6);
+		assertEquals(200, odometer.getPoseAt(start + 100 * PERIOD).x, 1e-6);
+	}
+}
@@ -0,0 +1,269 @@
+package org.team3128.common.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.drive.SRXTankDrive.CmdRamseteRouteDrive;
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.drive.routemaker.TrajectoryGenerator;
+import org.team3128.common.drive.routemaker.Waypoint;
+import org.team3128.common.simulation.SimulatedGyro;
+import org.team3128.common.simulation.SimulatedMotorController;
+import org.team3128.common.simulation.SimulatedTankDrivetrain;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.units.Length;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.command.Scheduler;
+
+/**
+ * Drives a simulated robot along an S-curve with a {@link RamseteFollower}, as PathFollowingSimulation does, and
+ * checks that it corrects for wheel slip the odometer can see. Also checks that {@link CmdRamseteRouteDrive} won't
+ * drive without velocity gains and never drives the motors again once it has stopped them.
+ *
+ * The command's scheduler task isn't run by the simulated Notifier, so the tests call its step themselves.
+ *
+ * @author Narwhal
+ *
+ */
+public class RamseteFollowerTest {
+	private static final double PERIOD = .005;
+	private static final double SETTLE_TIME = .5;
+
+	private static final int FREE_SPEED = 3700;
+	private static final double WHEEL_CIRCUMFERENCE = 13.21 * Length.in;
+	private static final double WHEEL_BASE = 32.3 * Length.in;
+
+	@BeforeClass
+	public static void setUp() {
+		HAL.initialize(500, 0);
+	}
+
+	@After
+	public void tearDown() {
+		Scheduler.getInstance().removeAll();
+	}
+
+	private static SimulatedMotorController motors(boolean velocityGains) {
+		SimulatedMotorController motors = new SimulatedMotorController(FREE_SPEED, .1, 130);
+
+		if (velocityGains) {
+			motors.config_kF(CmdRamseteRouteDrive.VELOCITY_SLOT, 1023.0 / FREE_SPEED);
+			motors.config_kP(CmdRamseteRouteDrive.VELOCITY_SLOT, .5);
+		}
+
+		return motors;
+	}
+
+	private static PrecomputedRoute route(Waypoint... waypoints) {
+		SRXTankDrive.initialize(motors(false), motors(false), WHEEL_CIRCUMFERENCE, WHEEL_BASE, FREE_SPEED);
+
+		return new TrajectoryGenerator(.5, 200, 150).generate(waypoints);
+	}
+
+	private static PrecomputedRoute sCurve() {
+		return route(
+			new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+			new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft),
+			new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft));
+	}
+
+	/**
+	 * Follows the route with the given wheel slip.
+	 *
+	 * @return the RMS cross-track error the follower saw, and how far the robot really ended up from the end of
+	 *         the route, in cm
+	 */
+	private static double[] follow(PrecomputedRoute route, boolean closedLoop, double leftSlip, double rightSlip) {
+		SimulatedMotorController leftMotors = motors(true);
+		SimulatedMotorController rightMotors = motors(true);
+		leftMotors.selectProfileSlot(CmdRamseteRouteDrive.VELOCITY_SLOT, 0);
+		rightMotors.selectProfileSlot(CmdRamseteRouteDrive.VELOCITY_SLOT, 0);
+
+		SimulatedGyro gyro = new SimulatedGyro();
+		SimulatedTankDrivetrain drivetrain = new SimulatedTankDrivetrain(leftMotors, rightMotors, gyro, WHEEL_CIRCUMFERENCE, WHEEL_BASE);
+		drivetrain.setSlip(leftSlip, rightSlip);
+
+		SRXTankDrive.initialize(leftMotors, rightMotors, WHEEL_CIRCUMFERENCE, WHEEL_BASE, FREE_SPEED);
+		Odometer.initialize(gyro, route.getX(0), route.getY(0), route.getHeading(0));
+		Odometer odometer = Odometer.getInstance();
+
+		RamseteFollower follower = closedLoop
+				? new RamseteFollower(route, WHEEL_BASE, WHEEL_CIRCUMFERENCE)
+				: new RamseteFollower(route, 0, 0, WHEEL_BASE, WHEEL_CIRCUMFERENCE);
+
+		for (double time = 0; time < follower.getTotalTime() + SETTLE_TIME; time += PERIOD) {
+			follower.update(odometer.getPose(), time);
+
+			leftMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getLeftVelocity(), WHEEL_CIRCUMFERENCE));
+			rightMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getRightVelocity(), WHEEL_CIRCUMFERENCE));
+
+			drivetrain.update(PERIOD);
+			odometer.integrate(leftMotors.getSelectedSensorPosition(0), rightMotors.getSelectedSensorPosition(0), odometer.getAngle(), time + PERIOD);
+		}
+
+		// the simulated robot starts at the origin facing along x, so move it to where the route starts
+		double startHeading = route.getHeading(0);
+		double trueX = route.getX(0) + drivetrain.getX() * RobotMath.cos(startHeading) - drivetrain.getY() * RobotMath.sin(startHeading);
+		double trueY = route.getY(0) + drivetrain.getX() * RobotMath.sin(startHeading) + drivetrain.getY() * RobotMath.cos(startHeading);
+
+		int last = route.getLength() - 1;
+		return new double[] {follower.getRMSCrossTrackError(), RobotMath.distance(trueX, trueY, route.getX(last), route.getY(last))};
+	}
+
+	@Test
+	public void testFollowsWithoutSlip() {
+		double[] errors = follow(sCurve(), true, 0, 0);
+
+		assertTrue("cross-track " + errors[0] + " cm RMS", errors[0] < 2);
+		assertTrue("end error " + errors[1] + " cm", errors[1] < 3);
+	}
+
+	@Test
+	public void testClosedLoopCorrectsUnevenSlip() {
+		PrecomputedRoute route = sCurve();
+
+		for (double[] slip : new double[][] {{.08, 0}, {0, .15}}) {
+			double[] open = follow(route, false, slip[0], slip[1]);
+			double[] closed = follow(route, true, slip[0], slip[1]);
+
+			String errors = String.format("slip %.2f/%.2f: cross-track %.1f cm RMS closed, %.1f cm open; end error %.1f cm closed, %.1f cm open",
+					slip[0], slip[1], closed[0], open[0], closed[1], open[1]);
+
+			assertTrue(errors, closed[0] < open[0] / 5);
+			assertTrue(errors, closed[1] < open[1] / 3);
+		}
+	}
+
+	private static SRXTankDrive initializeDrive(SimulatedMotorController leftMotors, SimulatedMotorController rightMotors) {
+		SRXTankDrive.initialize(leftMotors, rightMotors, WHEEL_CIRCUMFERENCE, WHEEL_BASE, FREE_SPEED);
+		Odometer.initialize(new SimulatedGyro(), 0, 0, 0);
+
+		return SRXTankDrive.getInstance();
+	}
+
+	private static void assertStopped(SimulatedMotorController motors) {
+		assertEquals(ControlMode.PercentOutput, motors.getControlMode());
+		assertEquals(0, motors.getDemand(), 0);
+	}
+
+	private static void startCommand(CmdRamseteRouteDrive command) {
+		command.start();
+
+		// the first run adds the command, the second initializes it
+		Scheduler.getInstance().run();
+		Scheduler.getInstance().run();
+	}
+
+	@Test
+	public void testRefusesWithoutVelocityGains() {
+		PrecomputedRoute route = sCurve();
+
+		SimulatedMotorController leftMotors = motors(false);
+		SimulatedMotorController rightMotors = motors(false);
+		SRXTankDrive drive = initializeDrive(leftMotors, rightMotors);
+		assertFalse(drive.hasVelocityPID());
+
+		CmdRamseteRouteDrive command = drive.new CmdRamseteRouteDrive(route, 10000);
+		startCommand(command);
+
+		assertFalse(command.isRunning());
+
+		command.followStep();
+		assertStopped(leftMotors);
+		assertStopped(rightMotors);
+	}
+
+	@Test
+	public void testSetPIDConfiguresVelocitySlot() {
+		SimulatedMotorController leftMotors = motors(false);
+		SimulatedMotorController rightMotors = motors(false);
+		SRXTankDrive drive = initializeDrive(leftMotors, rightMotors);
+
+		drive.leftVelocityPID.kF = drive.rightVelocityPID.kF = .3;
+		drive.setPID();
+
+		assertTrue(drive.hasVelocityPID());
+
+		// read back from the Talons
+		drive.loadSRXPIDConstants();
+		assertEquals(.3, drive.leftVelocityPID.kF, 0);
+		assertEquals(.3, drive.rightVelocityPID.kF, 0);
+	}
+
+	@Test
+	public void testNoOutputAfterInterrupted() {
+		PrecomputedRoute route = sCurve();
+
+		SimulatedMotorController leftMotors = motors(true);
+		SimulatedMotorController rightMotors = motors(true);
+		SRXTankDrive drive = initializeDrive(leftMotors, rightMotors);
+
+		CmdRamseteRouteDrive command = drive.new CmdRamseteRouteDrive(route, 10000);
+		startCommand(command);
+		assertTrue(command.isRunning());
+
+		command.followStep();
+		assertEquals(ControlMode.Velocity, leftMotors.getControlMode());
+
+		command.cancel();
+		Scheduler.getInstance().run();
+		assertFalse(command.isRunning());
+		assertStopped(leftMotors);
+		assertStopped(rightMotors);
+
+		// a tick which was already under way when the command was cancelled
+		command.followStep();
+		assertStopped(leftMotors);
+		assertStopped(rightMotors);
+	}
+
+	@Test
+	public void testStopsAfterLastTick() throws InterruptedException {
+		// short enough to follow in real time
+		PrecomputedRoute route = route(
+			new Waypoint(0, 0, 0, 20),
+			new Waypoint(30, 0, 0, 20));
+
+		SimulatedMotorController leftMotors = motors(true);
+		SimulatedMotorController rightMotors = motors(true);
+		SRXTankDrive drive = initializeDrive(leftMotors, rightMotors);
+
+		CmdRamseteRouteDrive command = drive.new CmdRamseteRouteDrive(route, 10000);
+		startCommand(command);
+
+		ControlMode lastMode = null;
+		double lastLeftDemand = Double.NaN, lastRightDemand = Double.NaN;
+
+		long deadline = System.currentTimeMillis() + route.getTotalDurationMs() + 2000;
+		while (command.isRunning() && System.currentTimeMillis() < deadline) {
+			command.followStep();
+
+			lastMode = leftMotors.getControlMode();
+			lastLeftDemand = leftMotors.getDemand();
+			lastRightDemand = rightMotors.getDemand();
+
+			Scheduler.getInstance().run();
+			Thread.sleep(5);
+		}
+
+		// the last tick holds the robot still until the command ends
+		assertEquals(ControlMode.Velocity, lastMode);
+		assertEquals(0, lastLeftDemand, 0);
+		assertEquals(0, lastRightDemand, 0);
+
+		assertFalse(command.isRunning());
+		assertStopped(leftMotors);
+		assertStopped(rightMotors);
+
+		command.followStep();
+		assertStopped(leftMotors);
+	}
+}
@@ -0,0 +1,215 @@
+package org.team3128.common.drive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link StateEstimator} over simulated drives with noisy, delayed sensors, and checks that it finds the
+ * target, corrects for vision latency, throws out outliers and doesn't allocate.
+ *
+ * @author Narwhal
+ *
+ */
+public class StateEstimatorTest {
+	private static final double PERIOD = .005;
+
+	private static final double TARGET_X = 800, TARGET_Y = 60;
+
+	/**
+	 * A robot weaving towards the target, and the sensor readings it would produce.
+	 */
+	private static class Drive {
+		final Random random = new Random(3128);
+
+		double x = 0, y = 0, heading = 0, encoderDistance = 0;
+		double time = 0;
+
+		/**
+		 * Moves the robot forward one period.
+		 */
+		void step() {
+			time += PERIOD;
+
+			double distance = 60 * PERIOD;
+			heading = 15 * Math.sin(.8 * time);
+			x += distance * Math.cos(Math.toRadians(heading));
+			y += distance * Math.sin(Math.toRadians(heading));
+			encoderDistance += distance * (1 + .02 * random.nextGaussian());
+		}
+
+		double gyroHeading() {
+			return heading + .01 * random.nextGaussian();
+		}
+
+		double trueRange() {
+			return Math.hypot(TARGET_X - x, TARGET_Y - y);
+		}
+
+		double trueBearing() {
+			return Math.toDegrees(Math.atan2(TARGET_Y - y, TARGET_X - x)) - heading;
+		}
+
+		double visionOffset() {
+			return -trueBearing() + random.nextGaussian();
+		}
+
+		double visionRange() {
+			return trueRange() * (1 + .05 * random.nextGaussian());
+		}
+	}
+
+	/**
+	 * Drives for the given time, with a vision measurement every fourth step.
+	 */
+	private static void drive(StateEstimator estimator, Drive drive, double seconds) {
+		for (int step = 0; step < seconds / PERIOD; step++) {
+			drive.step();
+			estimator.predict(drive.encoderDistance, drive.gyroHeading(), drive.time);
+
+			if (step % 4 == 0) {
+				estimator.addVisionMeasurement(drive.visionOffset(), drive.visionRange(), drive.time);
+			}
+		}
+	}
+
+	@Test
+	public void testConvergesOnTarget() {
+		StateEstimator estimator = new StateEstimator();
+		estimator.reset(0, 0, 0, 0);
+		assertFalse(estimator.hasTarget());
+
+		Drive drive = new Drive();
+		drive(estimator, drive, 8);
+
+		assertTrue(estimator.hasTarget());
+
+		double rangeSd = Math.sqrt(estimator.getTargetRangeVariance());
+		assertEquals(drive.trueRange(), estimator.getTargetRange(), Math.max(4 * rangeSd, 1));
+		assertTrue("range sd " + rangeSd + " cm", rangeSd < 10);
+
+		double bearingSd = Math.sqrt(estimator.getTargetBearingVariance());
+		assertEquals(drive.trueBearing(), estimator.getTargetBearing(), Math.max(4 * bearingSd, .1));
+		assertTrue("bearing sd " + bearingSd + " deg", bearingSd < 1);
+	}
+
+	/**
+	 * Turns in place in front of the target while the Limelight reports each frame 100 ms after capturing it.
+	 *
+	 * @return the RMS error of the estimated bearing to the target over the last two seconds, in degrees
+	 */
+	private static double turnWithDelayedVision(boolean stampWithCaptureTime) {
+		final int latencySteps = 20;
+
+		Random random = new Random(3128);
+		StateEstimator estimator = new StateEstimator();
+		estimator.reset(0, 0, 0, 0);
+
+		double[] headings = new double[1000];
+		double squaredError = 0;
+		int numErrors = 0;
+
+		for (int step = 1; step < headings.length; step++) {
+			double time = step * PERIOD;
+			headings[step] = 30 * Math.sin(2 * time);
+
+			estimator.predict(0, headings[step], time);
+
+			if (step % 4 == 0 && step >= latencySteps) {
+				int captureStep = step - latencySteps;
+				double offset = headings[captureStep] - Math.toDegrees(Math.atan2(TARGET_Y, TARGET_X)) + .5 * random.nextGaussian();
+
+				estimator.addVisionMeasurement(offset, Math.hypot(TARGET_X, TARGET_Y), stampWithCaptureTime ? captureStep * PERIOD : time);
+			}
+
+			if (step >= headings.length - 400) {
+				double trueBearing = Math.toDegrees(Math.atan2(TARGET_Y, TARGET_X)) - headings[step];
+
+				squaredError += Math.pow(estimator.getTargetBearing() - trueBearing, 2);
+				numErrors++;
+			}
+		}
+
+		return Math.sqrt(squaredError / numErrors);
+	}
+
+	@Test
+	public void testDelayedVisionIsMatchedToCapturePose() {
+		double compensated = turnWithDelayedVision(true);
+		double uncompensated = turnWithDelayedVision(false);
+
+		assertTrue(String.format("with capture times %.3f deg, without %.3f deg", compensated, uncompensated), compensated < uncompensated / 3);
+		assertTrue(String.format("with capture times %.3f deg", compensated), compensated < .5);
+	}
+
+	@Test
+	public void testOutlierIsRejected() {
+		StateEstimator estimator = new StateEstimator();
+		estimator.reset(0, 0, 0, 0);
+
+		Drive drive = new Drive();
+		drive(estimator, drive, 5);
+
+		long rejected = estimator.getRejectedMeasurementCount();
+		double range = estimator.getTargetRange();
+
+		// the Limelight seeing something twice as far away
+		assertFalse(estimator.addVisionMeasurement(-drive.trueBearing(), 2 * drive.trueRange(), drive.time));
+
+		assertEquals(rejected + 1, estimator.getRejectedMeasurementCount());
+		assertEquals(range, estimator.getTargetRange(), 1);
+	}
+
+	@Test
+	public void testRangeNeedsTarget() {
+		StateEstimator estimator = new StateEstimator();
+		estimator.reset(0, 0, 0, 0);
+
+		assertFalse(estimator.addRangeMeasurement(500, 0));
+	}
+
+	@Test
+	public void testUpdatesDontAllocate() {
+		StateEstimator estimator = new StateEstimator();
+		estimator.reset(0, 0, 0, 0);
+
+		Drive drive = new Drive();
+		drive(estimator, drive, 1);
+
+		double[] encoderDistances = new double[1000], gyroHeadings = new double[1000], offsets = new double[1000], ranges = new double[1000];
+		for (int step = 0; step < encoderDistances.length; step++) {
+			drive.step();
+			encoderDistances[step] = drive.encoderDistance;
+			gyroHeadings[step] = drive.gyroHeading();
+			offsets[step] = drive.visionOffset();
+			ranges[step] = drive.visionRange();
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// the first rounds may allocate while the JIT compiles the updates
+		long leastAllocated = Long.MAX_VALUE;
+		for (int round = 0; round < 5; round++) {
+			estimator.reset(0, 0, 0, drive.time);
+
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+			for (int step = 0; step < encoderDistances.length; step++) {
+				double time = drive.time + step * PERIOD;
+
+				estimator.predict(encoderDistances[step], gyroHeadings[step], time);
+				estimator.addVisionMeasurement(offsets[step], ranges[step], time - .04);
+				estimator.addRangeMeasurement(ranges[step], time);
+			}
+
+			leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		}
+
+		assertEquals("bytes allocated by 1000 steps", 0, leastAllocated);
+	}
+}
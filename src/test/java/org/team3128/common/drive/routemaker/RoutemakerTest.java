@@ -0,0 +1,103 @@
+package org.team3128.common.drive.routemaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.simulation.SimulatedMotorController;
+import org.team3128.common.util.units.Length;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Checks that precomputed {@link Routemaker} routes are cached, and that they hold the same points the
+ * Routemaker produces when it is stepped one point at a time.
+ *
+ * @author Narwhal
+ *
+ */
+public class RoutemakerTest {
+    private static Waypoint[] testRoute() {
+        return new Waypoint[] {
+            new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+            new Waypoint(8 * Length.ft, 15 * Length.ft, 90, 5 * Length.ft)
+        };
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        HAL.initialize(500, 0);
+
+        // Aramis's drivetrain
+        SRXTankDrive.initialize(new SimulatedMotorController(3700, .1, 130), new SimulatedMotorController(3700, .1, 130),
+                13.21 * Length.in, 32.3 * Length.in, 3700);
+    }
+
+    @Test
+    public void testSameRouteIsCached() {
+        PrecomputedRoute route = Routemaker.getPrecomputedRoute(.5, testRoute());
+
+        // new waypoint objects with the same values
+        assertSame(route, Routemaker.getPrecomputedRoute(.5, testRoute()));
+    }
+
+    @Test
+    public void testDifferentRoutesAreNotShared() {
+        PrecomputedRoute route = Routemaker.getPrecomputedRoute(.5, testRoute());
+
+        assertNotSame(route, Routemaker.getPrecomputedRoute(.6, testRoute()));
+
+        Waypoint[] moved = testRoute();
+        moved[1].x += 1;
+        assertNotSame(route, Routemaker.getPrecomputedRoute(.5, moved));
+    }
+
+    @Test
+    public void testRouteMatchesSteppedPoints() {
+        PrecomputedRoute route = Routemaker.generateRoute(.5, testRoute());
+
+        // the way CmdStaticRouteDrive used to generate the points while following the route
+        Routemaker rm = new Routemaker(.5, testRoute());
+        int index = 0;
+        ProfilePoint point;
+        do {
+            double speed = 1.0;
+            if (rm.s < 0.2) {
+                speed = (0.1 + rm.s) / 0.3;
+            } else if (rm.s > 0.8) {
+                speed = (1.1 - rm.s) / 0.7;
+            }
+
+            point = rm.getNextPoint(speed);
+
+            assertTrue("the stepped route has more points", index < route.getLength());
+            assertEquals(point.x, route.getX(index), 0);
+            assertEquals(point.y, route.getY(index), 0);
+            assertEquals(point.heading, route.getHeading(index), 0);
+            assertEquals(point.leftDistance, route.getLeftDistance(index), 0);
+            assertEquals(point.rightDistance, route.getRightDistance(index), 0);
+            assertEquals(point.leftSpeed, route.getLeftSpeed(index), 0);
+            assertEquals(point.rightSpeed, route.getRightSpeed(index), 0);
+            assertEquals(point.durationMs, route.getDurationMs(index));
+            assertEquals(point.last, route.isLast(index));
+
+            index++;
+        } while (!point.last);
+
+        assertEquals(index, route.getLength());
+    }
+
+    @Test
+    public void testRouteEndsStopped() {
+        PrecomputedRoute route = Routemaker.generateRoute(.5, testRoute());
+        int last = route.getLength() - 1;
+
+        assertTrue(route.isLast(last));
+        assertEquals(0, route.getLeftSpeed(last), 0);
+        assertEquals(0, route.getRightSpeed(last), 0);
+    }
+}
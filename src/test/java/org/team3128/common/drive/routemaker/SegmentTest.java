@@ -0,0 +1,113 @@
+package org.team3128.common.drive.routemaker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.units.Length;
+
+/**
+ * Checks {@link Segment}'s arc length table against a high-resolution numerical integration, and its
+ * inverse lookup against the table.
+ *
+ * @author Narwhal
+ *
+ */
+public class SegmentTest {
+	/**
+	 * Enough chords that the chord sum is within about 1e-9 of the true length of these segments.
+	 */
+	private static final int CHORDS = 1000000;
+
+	private static Segment[] testSegments() {
+		return new Segment[] {
+			// the Routemaker test route
+			new Segment(new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft), new Waypoint(8 * Length.ft, 15 * Length.ft, 90, 5 * Length.ft)),
+			// the two halves of an S-curve
+			new Segment(new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft), new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft)),
+			new Segment(new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft), new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft)),
+			// a tight U-turn, where the curvature is high
+			new Segment(new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 8 * Length.ft), new Waypoint(2 * Length.ft, 0 * Length.ft, 270, 8 * Length.ft)),
+		};
+	}
+
+	/**
+	 * The length of the segment from s = 0 to every s = i / CHORDS, by summing chords.
+	 */
+	private static double[] chordLengths(Segment segment) {
+		double[] lengths = new double[CHORDS + 1];
+
+		double lastX = segment.getX(0), lastY = segment.getY(0);
+		for (int i = 1; i <= CHORDS; i++) {
+			double s = (double) i / CHORDS;
+			double x = segment.getX(s), y = segment.getY(s);
+
+			lengths[i] = lengths[i - 1] + RobotMath.distance(lastX, lastY, x, y);
+
+			lastX = x;
+			lastY = y;
+		}
+
+		return lengths;
+	}
+
+	@Test
+	public void testLengthMatchesIntegration() {
+		for (Segment segment : testSegments()) {
+			double[] lengths = chordLengths(segment);
+
+			assertEquals(segment.toString(), lengths[CHORDS], segment.getLength(), 1e-6);
+		}
+	}
+
+	@Test
+	public void testDistanceMatchesIntegration() {
+		for (Segment segment : testSegments()) {
+			double[] lengths = chordLengths(segment);
+
+			// includes points between the table's entries
+			for (int i = 0; i <= CHORDS; i += CHORDS / 250) {
+				double s = (double) i / CHORDS;
+
+				assertEquals(segment.toString() + " at s = " + s, lengths[i], segment.getDistance(s), 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testInverseLookup() {
+		for (Segment segment : testSegments()) {
+			for (int i = 0; i <= 1000; i++) {
+				double distance = segment.getLength() * i / 1000.0;
+
+				// within a micrometer along the spline
+				assertEquals(segment.toString() + " at " + distance, distance, segment.getDistance(segment.getS(distance)), 1e-4);
+			}
+		}
+	}
+
+	@Test
+	public void testStepsAreEvenlySpaced() {
+		for (Segment segment : testSegments()) {
+			double step = segment.getLength() / 200;
+
+			for (int i = 0; i < 200; i++) {
+				double s0 = segment.getS(i * step);
+				double s1 = segment.getS((i + 1) * step);
+
+				double chord = RobotMath.distance(segment.getX(s0), segment.getY(s0), segment.getX(s1), segment.getY(s1));
+
+				// a chord is slightly shorter than the arc it spans
+				assertEquals(segment.toString() + " step " + i, step, chord, step * 1e-3);
+			}
+		}
+	}
+
+	@Test
+	public void testExtrapolatesPastTheEnds() {
+		Segment segment = testSegments()[0];
+
+		assertEquals(-.01, segment.getS(segment.getDistance(-.01)), 1e-9);
+		assertEquals(1.01, segment.getS(segment.getDistance(1.01)), 1e-9);
+	}
+}
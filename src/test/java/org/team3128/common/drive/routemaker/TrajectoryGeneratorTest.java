@@ -0,0 +1,112 @@
+package org.team3128.common.drive.routemaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.simulation.SimulatedMotorController;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.units.Length;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Generates the routes from TrajectoryBenchmark with both the {@link Routemaker} and the
+ * {@link TrajectoryGenerator}, and checks that they take about as long to drive and that both fill in
+ * the wheel distances of the {@link PrecomputedRoute} from the start of the route.
+ *
+ * @author Narwhal
+ *
+ */
+public class TrajectoryGeneratorTest {
+    private static final double POWER = .5;
+
+    private static Waypoint[] straightRoute() {
+        return new Waypoint[] {
+            new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+            new Waypoint(8 * Length.ft, 15 * Length.ft, 90, 5 * Length.ft)
+        };
+    }
+
+    private static Waypoint[] sCurve() {
+        return new Waypoint[] {
+            new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+            new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft),
+            new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft)
+        };
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        HAL.initialize(500, 0);
+
+        // Aramis's drivetrain
+        SRXTankDrive.initialize(new SimulatedMotorController(3700, .1, 130), new SimulatedMotorController(3700, .1, 130),
+                13.21 * Length.in, 32.3 * Length.in, 3700);
+    }
+
+    private static TrajectoryGenerator generator() {
+        return new TrajectoryGenerator(POWER, 200, 150);
+    }
+
+    @Test
+    public void testSCurveDurationIsSane() {
+        TrajectoryGenerator generator = generator();
+        PrecomputedRoute generated = generator.generate(sCurve());
+        PrecomputedRoute routemaker = Routemaker.generateRoute(POWER, sCurve());
+
+        double maxSpeed = POWER * Convert.velocityCTREtoCMS(SRXTankDrive.getInstance().robotMaxSpeed, SRXTankDrive.getInstance().wheelCircumfrence);
+        double fastest = generator.getTotalDistance() / maxSpeed;
+
+        double generatedTime = generated.getTotalDurationMs() / 1000.0;
+        double routemakerTime = routemaker.getTotalDurationMs() / 1000.0;
+
+        assertTrue("generated route takes " + generatedTime + " s", generatedTime > fastest && generatedTime < 2 * fastest);
+
+        // the Routemaker ramps its speed more gently, but it shouldn't crawl along the second segment
+        assertTrue("Routemaker route takes " + routemakerTime + " s", routemakerTime > fastest && routemakerTime < 1.5 * generatedTime);
+    }
+
+    private static void assertCumulative(String name, PrecomputedRoute route, double pathLength) {
+        double wheelCircumference = SRXTankDrive.getInstance().wheelCircumfrence;
+
+        for (int index = 1; index < route.getLength(); index++) {
+            assertTrue(name + " left wheel goes backwards at point " + index, route.getLeftDistance(index) >= route.getLeftDistance(index - 1));
+            assertTrue(name + " right wheel goes backwards at point " + index, route.getRightDistance(index) >= route.getRightDistance(index - 1));
+        }
+
+        int last = route.getLength() - 1;
+        double distance = Convert.lengthCTREtoCM((route.getLeftDistance(last) + route.getRightDistance(last)) / 2, wheelCircumference);
+
+        assertEquals(name + " distance at the end", pathLength, distance, .02 * pathLength);
+    }
+
+    @Test
+    public void testWheelDistancesAreFromStart() {
+        for (Waypoint[] waypoints : new Waypoint[][] {straightRoute(), sCurve()}) {
+            TrajectoryGenerator generator = generator();
+            PrecomputedRoute generated = generator.generate(waypoints);
+            PrecomputedRoute routemaker = Routemaker.generateRoute(POWER, waypoints);
+
+            assertCumulative("generated", generated, generator.getTotalDistance());
+            assertCumulative("Routemaker", routemaker, generator.getTotalDistance());
+        }
+    }
+
+    @Test
+    public void testRoutesEndAtLastWaypoint() {
+        Waypoint end = sCurve()[2];
+
+        for (PrecomputedRoute route : new PrecomputedRoute[] {generator().generate(sCurve()), Routemaker.generateRoute(POWER, sCurve())}) {
+            int last = route.getLength() - 1;
+
+            assertTrue(route.isLast(last));
+            assertEquals(end.x, route.getX(last), .01);
+            assertEquals(end.y, route.getY(last), .01);
+            assertEquals(0, route.getLeftSpeed(last), 0);
+            assertEquals(0, route.getRightSpeed(last), 0);
+        }
+    }
+}
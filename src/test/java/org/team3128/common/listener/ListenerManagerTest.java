@@ -0,0 +1,191 @@
+package org.team3128.common.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.listener.controltypes.Axis;
+import org.team3128.common.listener.controltypes.Button;
+import org.team3128.common.listener.controltypes.POV;
+
+import edu.wpi.first.hal.HAL;
+import edu.wpi.first.wpilibj.Joystick;
+
+/**
+ * Checks that ListenerManager dispatches control changes to the right listeners, and that tick() does not allocate
+ * once the listeners are set up.
+ *
+ * @author Narwhal
+ *
+ */
+public class ListenerManagerTest
+{
+	/**
+	 * A joystick whose controls are set by the test instead of read from the driver station.
+	 */
+	private static class FakeJoystick extends Joystick
+	{
+		boolean[] buttons = new boolean[13];
+		double[] axes = new double[6];
+		int pov = -1;
+
+		FakeJoystick()
+		{
+			super(0);
+		}
+
+		@Override
+		public boolean getRawButton(int button)
+		{
+			return buttons[button];
+		}
+
+		@Override
+		public double getRawAxis(int axis)
+		{
+			return axes[axis];
+		}
+
+		@Override
+		public int getPOV(int pov)
+		{
+			return this.pov;
+		}
+
+		@Override
+		public int getButtonCount()
+		{
+			return buttons.length - 1;
+		}
+
+		@Override
+		public int getAxisCount()
+		{
+			return axes.length;
+		}
+
+		@Override
+		public int getPOVCount()
+		{
+			return 1;
+		}
+	}
+
+	private FakeJoystick joystick;
+	private ListenerManager listenerManager;
+
+	private int downCount, upCount, axisCount, povCount, genericCount;
+	private double lastAxisValue;
+	private POVValue lastPOVValue;
+
+	@BeforeClass
+	public static void initializeHAL()
+	{
+		HAL.initialize(500, 0);
+	}
+
+	@Before
+	public void setUp()
+	{
+		joystick = new FakeJoystick();
+		listenerManager = new ListenerManager(joystick);
+
+		listenerManager.nameControl(new Button(2), "Shoot");
+		listenerManager.nameControl(new Axis(1), "Throttle");
+		listenerManager.nameControl(new POV(0), "Hat");
+
+		listenerManager.addButtonDownListener("Shoot", () -> ++downCount);
+		listenerManager.addButtonUpListener("Shoot", () -> ++upCount);
+		listenerManager.addListener("Throttle", (double value) ->
+		{
+			++axisCount;
+			lastAxisValue = value;
+		});
+		listenerManager.addListener("Hat", (POVValue value) ->
+		{
+			++povCount;
+			lastPOVValue = value;
+		});
+		listenerManager.addMultiListener(() -> ++genericCount, "Shoot", "Throttle");
+
+		listenerManager.tick();
+	}
+
+	@Test
+	public void testButtonListeners()
+	{
+		joystick.buttons[2] = true;
+		listenerManager.tick();
+		assertEquals(1, downCount);
+		assertEquals(0, upCount);
+		assertEquals(true, listenerManager.getButton("Shoot"));
+
+		// holding the button is not a change
+		listenerManager.tick();
+		assertEquals(1, downCount);
+
+		joystick.buttons[2] = false;
+		listenerManager.tick();
+		assertEquals(1, downCount);
+		assertEquals(1, upCount);
+		assertEquals(false, listenerManager.getButton("Shoot"));
+	}
+
+	@Test
+	public void testAxisAndPOVListeners()
+	{
+		joystick.axes[1] = .5;
+		listenerManager.tick();
+		assertEquals(1, axisCount);
+		assertEquals(.5, lastAxisValue, 1e-9);
+		assertEquals(.5, listenerManager.getAxis("Throttle"), 1e-9);
+
+		joystick.pov = 90;
+		listenerManager.tick();
+		assertEquals(1, povCount);
+		assertEquals(POVValue.fromWPILibAngle(90), lastPOVValue);
+		assertEquals(POVValue.fromWPILibAngle(90), listenerManager.getPOV("Hat"));
+	}
+
+	@Test
+	public void testGenericListenerRunsOncePerTick()
+	{
+		// both of its controls change in the same tick
+		joystick.buttons[2] = true;
+		joystick.axes[1] = -.75;
+		listenerManager.tick();
+
+		assertEquals(1, genericCount);
+	}
+
+	@Test
+	public void testTickDoesNotAllocate()
+	{
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// a few rounds, so that the first one can warm up and anything the JVM allocates by itself doesn't count
+		long leastAllocated = Long.MAX_VALUE;
+		for(int round = 0; round < 5; ++round)
+		{
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for(int tick = 0; tick < 10000; ++tick)
+			{
+				// change every kind of control, so that every listener runs
+				joystick.buttons[2] = (tick & 1) == 0;
+				joystick.axes[1] = (tick & 2) == 0 ? .5 : -.5;
+				joystick.pov = (tick & 4) == 0 ? -1 : 180;
+
+				listenerManager.tick();
+			}
+
+			leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		}
+
+		assertEquals("bytes allocated by 10000 ticks", 0, leastAllocated);
+	}
+}
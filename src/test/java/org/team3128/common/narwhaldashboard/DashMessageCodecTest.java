@@ -0,0 +1,203 @@
+package org.team3128.common.narwhaldashboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.team3128.common.util.Log;
+
+/**
+ * Round-trips numerical data messages through {@link DashMessageCodec}, and checks that malformed ones are
+ * rejected. Also checks what DashboardMessageBenchmark measures: that binary messages handed to
+ * {@link NarwhalDashboard} reach the listener with the same values as the text ones, without allocating.
+ *
+ * @author Narwhal
+ *
+ */
+public class DashMessageCodecTest {
+    private static final byte[] KEY = "drivePID".getBytes(StandardCharsets.US_ASCII);
+
+    private static ByteBuffer buffer() {
+        return ByteBuffer.allocate(256);
+    }
+
+    @Test
+    public void testDoublesRoundTrip() {
+        ByteBuffer message = buffer();
+        DashMessageCodec.writeNumData(message, KEY, 1.5, -2.25, 1e-9);
+
+        assertEquals(3, DashMessageCodec.readNumValues(message));
+        assertTrue(DashMessageCodec.keyEquals(message, KEY));
+        assertEquals("drivePID", DashMessageCodec.readKey(message));
+
+        double[] values = new double[4];
+        DashMessageCodec.readValues(message, values);
+        assertArrayEquals(new double[] {1.5, -2.25, 1e-9, 0}, values, 0);
+    }
+
+    @Test
+    public void testFloatsAndIntsRoundTrip() {
+        ByteBuffer message = buffer();
+        double[] values = new double[3];
+
+        DashMessageCodec.writeNumData(message, KEY, .1f, 3f, -7.5f);
+        assertEquals(3, DashMessageCodec.readNumValues(message));
+        DashMessageCodec.readValues(message, values);
+        assertArrayEquals(new double[] {.1f, 3, -7.5}, values, 0);
+
+        DashMessageCodec.writeNumData(message, KEY, 4, -1, Integer.MAX_VALUE);
+        assertEquals(3, DashMessageCodec.readNumValues(message));
+        DashMessageCodec.readValues(message, values);
+        assertArrayEquals(new double[] {4, -1, Integer.MAX_VALUE}, values, 0);
+    }
+
+    @Test
+    public void testMessageIsReadFromItsPosition() {
+        ByteBuffer written = buffer();
+        DashMessageCodec.writeNumData(written, KEY, 2.0, 4.0);
+
+        // the same message after some other bytes, as in a larger receive buffer
+        ByteBuffer message = buffer();
+        message.put(new byte[] {9, 9, 9});
+        message.put(written);
+        message.flip();
+        message.position(3);
+
+        assertEquals(2, DashMessageCodec.readNumValues(message));
+        assertTrue(DashMessageCodec.keyEquals(message, KEY));
+
+        double[] values = new double[2];
+        DashMessageCodec.readValues(message, values);
+        assertArrayEquals(new double[] {2, 4}, values, 0);
+    }
+
+    @Test
+    public void testOtherKeysDontMatch() {
+        ByteBuffer message = buffer();
+        DashMessageCodec.writeNumData(message, KEY, 1.0);
+
+        assertFalse(DashMessageCodec.keyEquals(message, "drivePI".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(DashMessageCodec.keyEquals(message, "drivePIE".getBytes(StandardCharsets.US_ASCII)));
+        assertFalse(DashMessageCodec.keyEquals(message, "drivePID2".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testMalformedMessagesAreRejected() {
+        ByteBuffer message = buffer();
+
+        // too short for a header
+        message.limit(DashMessageCodec.HEADER_SIZE - 1);
+        assertEquals(-1, DashMessageCodec.readNumValues(message));
+
+        // wrong message type
+        DashMessageCodec.writeNumData(message, KEY, 1.0);
+        message.put(DashMessageCodec.TYPE_OFFSET, (byte) 7);
+        assertEquals(-1, DashMessageCodec.readNumValues(message));
+
+        // unknown value type
+        DashMessageCodec.writeNumData(message, KEY, 1.0);
+        message.put(DashMessageCodec.VALUE_TYPE_OFFSET, (byte) 3);
+        assertEquals(-1, DashMessageCodec.readNumValues(message));
+
+        // cut off before the last value
+        DashMessageCodec.writeNumData(message, KEY, 1.0, 2.0);
+        message.limit(message.limit() - 1);
+        assertEquals(-1, DashMessageCodec.readNumValues(message));
+
+        // claims more values than it has
+        DashMessageCodec.writeNumData(message, KEY, 1.0, 2.0);
+        message.putShort(DashMessageCodec.COUNT_OFFSET, (short) 3);
+        assertEquals(-1, DashMessageCodec.readNumValues(message));
+    }
+
+    @Test
+    public void testDashboardDeliversSameValuesAsText() {
+        NarwhalDashboard dashboard = new NarwhalDashboard(new InetSocketAddress(0));
+
+        double[] delivered = new double[3];
+        int[] numDelivered = new int[1];
+        NarwhalDashboard.addNumDataListener("codecTest", (double[] data) -> {
+            System.arraycopy(data, 0, delivered, 0, 3);
+            numDelivered[0]++;
+        });
+
+        byte[] key = "codecTest".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer message = buffer();
+
+        dashboard.onMessage(null, "numData:codecTest:1.001,2.5,-3.75");
+        NarwhalDashboard.runQueuedCallbacks();
+        assertArrayEquals(new double[] {1.001, 2.5, -3.75}, delivered, 0);
+
+        // only the newest values are delivered on the next loop
+        DashMessageCodec.writeNumData(message, key, 9.0, 9.0, 9.0);
+        dashboard.onMessage(null, message);
+        DashMessageCodec.writeNumData(message, key, 1.002, 2.5, -3.75);
+        dashboard.onMessage(null, message);
+        NarwhalDashboard.runQueuedCallbacks();
+
+        assertArrayEquals(new double[] {1.002, 2.5, -3.75}, delivered, 0);
+        assertEquals(2, numDelivered[0]);
+
+        DashMessageCodec.writeNumData(message, key, 1.003f, 2.5f, -3.75f);
+        dashboard.onMessage(null, message);
+        NarwhalDashboard.runQueuedCallbacks();
+
+        assertArrayEquals(new double[] {1.003f, 2.5, -3.75}, delivered, 0);
+    }
+
+    @Test
+    public void testBinaryMessagesDontAllocate() {
+        NarwhalDashboard dashboard = new NarwhalDashboard(new InetSocketAddress(0));
+
+        double[] delivered = new double[6];
+        NarwhalDashboard.addNumDataListener("codecAllocationTest", (double[] data) -> System.arraycopy(data, 0, delivered, 0, 6));
+
+        byte[] key = "codecAllocationTest".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer[] messages = new ByteBuffer[64];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = buffer();
+            DashMessageCodec.writeNumData(messages[i], key, i, i + 1.25, i + 2.5, i + 3.75, i + 5, i + 6.25);
+        }
+
+        // as in a match, so that debug messages don't count
+        Log.Severity level = Log.getLevel();
+        Log.setLevel(Log.Severity.INFO);
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        try {
+            // the first rounds may allocate while the JIT compiles the parsing
+            long leastAllocated = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+                for (int message = 0; message < 10000; message++) {
+                    dashboard.onMessage(null, messages[message % messages.length]);
+
+                    if ((message + 1) % 20 == 0) {
+                        NarwhalDashboard.runQueuedCallbacks();
+                    }
+                }
+
+                leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+            }
+
+            assertEquals("bytes allocated by 10000 messages", 0, leastAllocated);
+        }
+        finally {
+            Log.setLevel(level);
+        }
+
+        // the last message was number 9999
+        int last = 9999 % messages.length;
+        assertArrayEquals(new double[] {last, last + 1.25, last + 2.5, last + 3.75, last + 5, last + 6.25}, delivered, 0);
+    }
+}
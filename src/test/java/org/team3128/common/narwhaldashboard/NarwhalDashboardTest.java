@@ -0,0 +1,143 @@
+package org.team3128.common.narwhaldashboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks what NarwhalDashboard sends its clients, over a real WebSocket on loopback.
+ *
+ * @author Narwhal
+ *
+ */
+public class NarwhalDashboardTest {
+    private static final int PORT = 5807;
+
+    private static NarwhalDashboard dashboard;
+
+    private static class QueueingClient extends WebSocketClient {
+        public LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
+
+        public QueueingClient() throws Exception {
+            super(new URI("ws://localhost:" + PORT));
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            messages.add(message);
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception ex) {
+        }
+
+        public String nextMessage() throws InterruptedException {
+            String message = messages.poll(10 * NarwhalDashboard.getUpdateWavelength(), TimeUnit.MILLISECONDS);
+            assertNotNull("no update was sent", message);
+
+            return message;
+        }
+
+        /**
+         * Skips updates until one contains the text.
+         */
+        public String nextMessageContaining(String text) throws InterruptedException {
+            String message;
+            do {
+                message = nextMessage();
+            } while (!message.contains(text));
+
+            return message;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        dashboard = new NarwhalDashboard(PORT);
+        dashboard.setReuseAddr(true);
+        dashboard.start();
+    }
+
+    @AfterClass
+    public static void stopServer() throws Exception {
+        dashboard.stop();
+    }
+
+    @Test
+    public void testNewClientGetsSnapshotThenDeltas() throws Exception {
+        NarwhalDashboard.put("snapshotA", 1);
+        NarwhalDashboard.put("snapshotB", "two");
+
+        QueueingClient client = new QueueingClient();
+        assertTrue(client.connectBlocking());
+
+        String snapshot = client.nextMessage();
+        assertTrue(snapshot, snapshot.contains("\"snapshotA\":\"1.0\""));
+        assertTrue(snapshot, snapshot.contains("\"snapshotB\":\"two\""));
+        assertTrue(snapshot, snapshot.contains("\"selected_auto\":"));
+        assertTrue(snapshot, snapshot.contains("\"auto_programs\":["));
+
+        NarwhalDashboard.put("snapshotB", "three");
+
+        String delta = client.nextMessageContaining("snapshotB");
+        assertTrue(delta, delta.contains("\"snapshotB\":\"three\""));
+        assertFalse("unchanged values are not resent: " + delta, delta.contains("snapshotA"));
+
+        client.closeBlocking();
+    }
+
+    @Test
+    public void testEveryUpdateHasSelectedAuto() throws Exception {
+        QueueingClient client = new QueueingClient();
+        assertTrue(client.connectBlocking());
+        client.nextMessage();
+
+        // with and without changed values
+        NarwhalDashboard.put("selectedAutoTest", 3128);
+        for (int update = 0; update < 3; update++) {
+            String message = client.nextMessage();
+            assertTrue(message, message.contains("\"selected_auto\":"));
+        }
+
+        client.closeBlocking();
+    }
+
+    @Test
+    public void testClientsShareUpdates() throws Exception {
+        QueueingClient first = new QueueingClient();
+        QueueingClient second = new QueueingClient();
+        assertTrue(first.connectBlocking());
+        assertTrue(second.connectBlocking());
+        first.nextMessage();
+        second.nextMessage();
+
+        NarwhalDashboard.put("sharedValue", "both");
+
+        String firstDelta = first.nextMessageContaining("sharedValue");
+        String secondDelta = second.nextMessageContaining("sharedValue");
+        assertTrue(firstDelta, firstDelta.contains("\"sharedValue\":\"both\""));
+        assertEquals(firstDelta, secondDelta);
+
+        first.closeBlocking();
+        second.closeBlocking();
+    }
+}
@@ -0,0 +1,305 @@
+package org.team3128.common.narwhalvision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.narwhalvision.NarwhalVisionReceiver.WireFormat;
+import org.team3128.common.util.Log;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Sends binary frames to a {@link NarwhalVisionReceiver} over loopback, and checks what readers see: the frames
+ * in order, copies of the targets that they can keep, and waiters woken up by new frames.  Also checks what
+ * VisionReceiverBenchmark measures: that a stream of frames arrives intact without the receive thread allocating
+ * more than the published frame, and that dropped and reordered frames are counted.
+ *
+ * @author Narwhal
+ *
+ */
+public class NarwhalVisionReceiverTest
+{
+	private static final int PORT = 5809;
+
+	private static final long TIMEOUT_MS = 2000;
+
+	private NarwhalVisionReceiver receiver;
+	private DatagramChannel sender;
+
+	private final ByteBuffer packet = ByteBuffer.allocate(NarwhalVisionReceiver.SERIALIZATION_BUFFER_SIZE);
+
+	@BeforeClass
+	public static void setUpHAL()
+	{
+		HAL.initialize(500, 0);
+	}
+
+	@Before
+	public void setUp() throws IOException
+	{
+		receiver = new NarwhalVisionReceiver(WireFormat.BINARY, PORT);
+		sender = DatagramChannel.open();
+	}
+
+	@After
+	public void tearDown() throws IOException
+	{
+		sender.close();
+		receiver.close();
+	}
+
+	private static TargetInformation makeTarget(float area, int ranking)
+	{
+		TargetInformation target = new TargetInformation();
+		target.area = area;
+		target.boundingRectCenterX = 160;
+		target.imageWidth = 320;
+		target.imageHeight = 240;
+		target.horizontalFOV = 60;
+		target.targetRanking = ranking;
+
+		return target;
+	}
+
+	private void send(int frameNumber, TargetInformation... targets) throws IOException
+	{
+		VisionPacketCodec.writeTargets(packet, frameNumber, targets);
+		sender.send(packet, new InetSocketAddress("127.0.0.1", PORT));
+	}
+
+	/**
+	 * Sends a frame and waits for the receiver to publish it.
+	 */
+	private VisionFrame sendAndWait(int frameNumber, TargetInformation... targets) throws IOException
+	{
+		long lastSequence = receiver.getMostRecentFrame().sequence;
+		send(frameNumber, targets);
+
+		VisionFrame frame = receiver.waitForFrameAfter(lastSequence, TIMEOUT_MS);
+		assertNotNull("frame " + frameNumber + " was not received", frame);
+
+		return frame;
+	}
+
+	@Test
+	public void testFramesArePublishedInOrder() throws IOException
+	{
+		assertEquals(0, receiver.getMostRecentFrame().getNumTargets());
+
+		VisionFrame first = sendAndWait(1, makeTarget(10, 1), makeTarget(5, 2));
+		VisionFrame second = sendAndWait(2, makeTarget(20, 1));
+
+		assertEquals(first.sequence + 1, second.sequence);
+		assertTrue(second.receiveTime >= first.receiveTime);
+
+		assertEquals(2, first.getNumTargets());
+		assertEquals(10, first.getTarget(0).area, 0);
+		assertEquals(2, first.getTarget(1).targetRanking);
+
+		assertEquals(1, second.getNumTargets());
+		assertEquals(20, second.getTarget(0).area, 0);
+	}
+
+	@Test
+	public void testMostRecentTargetsAreACopy() throws IOException
+	{
+		sendAndWait(1, makeTarget(10, 1), makeTarget(5, 2));
+
+		TargetInformation[] targets = receiver.getMostRecentTargets();
+		assertEquals(2, targets.length);
+		assertEquals(10, targets[0].area, 0);
+		assertEquals(320, targets[0].imageWidth);
+		assertEquals(60, targets[0].horizontalFOV, 0);
+
+		// changing the copy changes neither the frame nor what the next caller gets
+		targets[0].area = -1;
+		targets[1] = null;
+
+		TargetInformation[] again = receiver.getMostRecentTargets();
+		assertNotSame(targets, again);
+		assertEquals(10, again[0].area, 0);
+		assertNotNull(again[1]);
+		assertEquals(10, receiver.getMostRecentFrame().getTarget(0).area, 0);
+	}
+
+	@Test
+	public void testWaitTimesOutWithoutNewFrame() throws IOException
+	{
+		VisionFrame frame = sendAndWait(1, makeTarget(10, 1));
+
+		assertNull(receiver.waitForFrameAfter(frame.sequence, 50));
+	}
+
+	@Test
+	public void testWaiterIsWokenByNewFrame() throws Exception
+	{
+		VisionFrame frame = sendAndWait(1, makeTarget(10, 1));
+
+		VisionFrame[] woken = new VisionFrame[1];
+		Thread waiter = new Thread(() -> woken[0] = receiver.waitForFrameAfter(frame.sequence, TIMEOUT_MS));
+		waiter.start();
+
+		// give the waiter time to block
+		Thread.sleep(50);
+		send(2, makeTarget(20, 1));
+
+		waiter.join(TIMEOUT_MS);
+
+		assertNotNull(woken[0]);
+		assertEquals(frame.sequence + 1, woken[0].sequence);
+		assertEquals(20, woken[0].getTarget(0).area, 0);
+	}
+
+	@Test
+	public void testDroppedAndReorderedFramesAreCounted() throws IOException
+	{
+		sendAndWait(1, makeTarget(1, 1));
+		sendAndWait(2, makeTarget(2, 1));
+		sendAndWait(5, makeTarget(5, 1));
+		assertEquals(2, receiver.getDroppedFrameCount());
+
+		// arrives after frame 5, so it is thrown away and the next frame published is 6
+		send(4, makeTarget(4, 1));
+		VisionFrame frame = sendAndWait(6, makeTarget(6, 1));
+
+		assertEquals(6, frame.getTarget(0).area, 0);
+		assertEquals(1, receiver.getOutOfOrderPacketCount());
+		assertEquals(2, receiver.getDroppedFrameCount());
+		assertEquals(0, receiver.getBadPacketCount());
+	}
+
+	@Test
+	public void testRestartedFrameNumbersAreAccepted() throws IOException
+	{
+		sendAndWait(1000, makeTarget(1000, 1));
+
+		VisionFrame frame = sendAndWait(1, makeTarget(1, 1));
+		assertEquals(1, frame.getTarget(0).area, 0);
+		assertEquals(0, receiver.getOutOfOrderPacketCount());
+	}
+
+	@Test
+	public void testPublishedFramesAreNeverModified() throws IOException
+	{
+		VisionFrame kept = sendAndWait(1, makeTarget(1, 1));
+		TargetInformation[] copy = receiver.getMostRecentTargets();
+
+		for(int frameNumber = 2; frameNumber <= 20; ++frameNumber)
+		{
+			sendAndWait(frameNumber, makeTarget(-frameNumber, 1));
+		}
+		assertEquals("still intact 19 frames later", 1, kept.getTarget(0).area, 0);
+
+		copy[0].area = 5;
+		assertEquals(1, kept.getTarget(0).area, 0);
+	}
+
+	private static Thread findThread(String name)
+	{
+		for(Thread thread : Thread.getAllStackTraces().keySet())
+		{
+			if(thread.getName().equals(name) && thread.isAlive())
+			{
+				return thread;
+			}
+		}
+
+		throw new IllegalStateException("No thread named " + name);
+	}
+
+	/**
+	 * Sends frames of three targets every half millisecond.
+	 *
+	 * @return the bytes the receive thread allocated per frame received
+	 */
+	private double sendStream(int firstFrameNumber, int numFrames) throws IOException
+	{
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long receiveThreadId = findThread(NarwhalVisionReceiver.TAG).getId();
+
+		TargetInformation[][] frames = new TargetInformation[numFrames][];
+		for(int frame = 0; frame < numFrames; ++frame)
+		{
+			int frameNumber = firstFrameNumber + frame;
+			frames[frame] = new TargetInformation[] {makeTarget(frameNumber, 1), makeTarget(frameNumber, 2), makeTarget(frameNumber, 3)};
+		}
+
+		InetSocketAddress destination = new InetSocketAddress("127.0.0.1", PORT);
+
+		long startSequence = receiver.getMostRecentFrame().sequence;
+		long startAllocated = threadBean.getThreadAllocatedBytes(receiveThreadId);
+
+		for(int frame = 0; frame < numFrames - 1; ++frame)
+		{
+			VisionPacketCodec.writeTargets(packet, firstFrameNumber + frame, frames[frame]);
+			sender.send(packet, destination);
+
+			LockSupport.parkNanos(500000);
+		}
+
+		// the last frame is waited for, so that everything before it has been received
+		VisionFrame last = sendAndWait(firstFrameNumber + numFrames - 1, frames[numFrames - 1]);
+		while(last.getTarget(0).area != firstFrameNumber + numFrames - 1)
+		{
+			last = receiver.waitForFrameAfter(last.sequence, TIMEOUT_MS);
+			assertNotNull(last);
+		}
+
+		long allocated = threadBean.getThreadAllocatedBytes(receiveThreadId) - startAllocated;
+		long framesReceived = receiver.getMostRecentFrame().sequence - startSequence;
+
+		assertEquals(3, last.getNumTargets());
+		assertEquals(3, last.getTarget(2).targetRanking);
+		assertEquals(0, receiver.getBadPacketCount());
+
+		return allocated / (double) framesReceived;
+	}
+
+	@Test
+	public void testStreamOnlyAllocatesPublishedFrames() throws IOException
+	{
+		// as in a match, so that debug messages don't count
+		Log.Severity level = Log.getLevel();
+		Log.setLevel(Log.Severity.INFO);
+
+		try
+		{
+			int numFrames = 500;
+
+			// the first rounds may allocate while the JIT compiles the receive loop
+			double leastAllocated = Double.MAX_VALUE;
+			for(int round = 0; round < 5; ++round)
+			{
+				long startDropped = receiver.getDroppedFrameCount();
+				long startSequence = receiver.getMostRecentFrame().sequence;
+
+				leastAllocated = Math.min(leastAllocated, sendStream(1 + round * numFrames, numFrames));
+
+				// every frame is either received or counted as dropped
+				assertEquals(numFrames, receiver.getMostRecentFrame().sequence - startSequence + receiver.getDroppedFrameCount() - startDropped);
+			}
+
+			// a frame of three targets is about 290 bytes with its array and VisionFrame, and the JDK's selector
+			// allocates about 32 bytes each time it wakes up.  Copying the targets again would add another 250.
+			assertTrue("receive thread allocated " + leastAllocated + " bytes per frame", leastAllocated < 400);
+		}
+		finally
+		{
+			Log.setLevel(level);
+		}
+	}
+}
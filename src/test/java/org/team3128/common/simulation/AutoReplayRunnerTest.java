@@ -0,0 +1,157 @@
+package org.team3128.common.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.team3128.common.simulation.CommandTimeline.EndReason;
+import org.team3128.common.simulation.CommandTimeline.Entry;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.wpilibj.command.Command;
+import edu.wpi.first.wpilibj.command.CommandGroup;
+
+/**
+ * Replays a routine made of commands which end in different ways, and checks the timeline and the
+ * simulated mechanism it moved.
+ *
+ * @author Narwhal
+ *
+ */
+public class AutoReplayRunnerTest {
+	private static final double PERIOD = AutoReplayRunner.DEFAULT_PERIOD;
+
+	/**
+	 * Runs a motor until its timeout.
+	 */
+	private static class CmdRunMotor extends Command {
+		private final SimulatedMotorController motor;
+
+		public CmdRunMotor(SimulatedMotorController motor, double timeout) {
+			super("CmdRunMotor", timeout);
+			this.motor = motor;
+		}
+
+		@Override
+		protected void initialize() {
+			motor.set(ControlMode.PercentOutput, 1);
+		}
+
+		@Override
+		protected boolean isFinished() {
+			return isTimedOut();
+		}
+
+		@Override
+		protected void end() {
+			motor.set(ControlMode.PercentOutput, 0);
+		}
+	}
+
+	/**
+	 * Finishes after a fixed number of iterations.
+	 */
+	private static class CmdCount extends Command {
+		private final int iterations;
+		private int count;
+
+		public CmdCount(int iterations) {
+			super("CmdCount");
+			this.iterations = iterations;
+		}
+
+		@Override
+		protected void initialize() {
+			count = 0;
+		}
+
+		@Override
+		protected void execute() {
+			count++;
+		}
+
+		@Override
+		protected boolean isFinished() {
+			return count >= iterations;
+		}
+	}
+
+	/**
+	 * Never finishes by itself.
+	 */
+	private static class CmdForever extends Command {
+		public CmdForever() {
+			super("CmdForever", 100);
+		}
+
+		@Override
+		protected boolean isFinished() {
+			return isTimedOut();
+		}
+	}
+
+	private static Entry findEntry(List<Entry> entries, String name) {
+		for (Entry entry : entries) {
+			if (entry.name.equals(name)) {
+				return entry;
+			}
+		}
+
+		throw new AssertionError("No timeline entry for " + name);
+	}
+
+	@Test
+	public void testSandstormRoutine() {
+		SimulatedMotorController motor = new SimulatedMotorController(1000, .05, 100);
+
+		CommandGroup routine = new CommandGroup("Routine");
+		routine.addParallel(new CmdCount(10));
+		routine.addSequential(new CmdRunMotor(motor, 2));
+		routine.addSequential(new CmdForever());
+
+		long startTime = System.nanoTime();
+		List<Entry> entries = new AutoReplayRunner(PERIOD, motor).run(routine, AutoReplayRunner.SANDSTORM_LENGTH).getEntries();
+		double realTime = (System.nanoTime() - startTime) / 1e9;
+
+		assertTrue("took " + realTime + "s of real time", realTime < AutoReplayRunner.SANDSTORM_LENGTH / 10);
+		assertEquals(4, entries.size());
+
+		Entry routineEntry = findEntry(entries, "Routine");
+		assertEquals(0, routineEntry.depth);
+		assertEquals(EndReason.CUT_OFF, routineEntry.endReason);
+		assertEquals(AutoReplayRunner.SANDSTORM_LENGTH, routineEntry.endTime, PERIOD);
+
+		Entry countEntry = findEntry(entries, "CmdCount");
+		assertEquals(1, countEntry.depth);
+		assertEquals(EndReason.FINISHED, countEntry.endReason);
+		// the first of its ten iterations is at its start time
+		assertEquals(9 * PERIOD, countEntry.endTime - countEntry.startTime, PERIOD / 2);
+
+		// timed out after two virtual seconds, not two real ones
+		Entry motorEntry = findEntry(entries, "CmdRunMotor");
+		assertEquals(EndReason.TIMED_OUT, motorEntry.endReason);
+		assertEquals(2, motorEntry.endTime - motorEntry.startTime, PERIOD / 2);
+
+		// and the motor was simulated for that long at full output, less the time it took to spin up
+		assertEquals(1000 * 10 * (2 - .05), motor.getPhysicalPosition(), 1000);
+
+		Entry foreverEntry = findEntry(entries, "CmdForever");
+		assertEquals(EndReason.CUT_OFF, foreverEntry.endReason);
+		assertEquals(motorEntry.endTime, foreverEntry.startTime, PERIOD / 2);
+	}
+
+	@Test
+	public void testRoutineEndingEarlyStopsTheRun() {
+		CommandGroup routine = new CommandGroup("Short");
+		routine.addSequential(new CmdCount(5));
+
+		List<Entry> entries = new AutoReplayRunner(PERIOD).run(routine, AutoReplayRunner.SANDSTORM_LENGTH).getEntries();
+
+		Entry routineEntry = findEntry(entries, "Short");
+		assertEquals(EndReason.FINISHED, routineEntry.endReason);
+		assertTrue("ended at " + routineEntry.endTime, routineEntry.endTime < 10 * PERIOD);
+	}
+}
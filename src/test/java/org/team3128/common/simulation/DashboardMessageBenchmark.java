@@ -0,0 +1,140 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.team3128.common.narwhaldashboard.DashMessageCodec;
+import org.team3128.common.narwhaldashboard.NarwhalDashboard;
+import org.team3128.common.util.Log;
+
+/**
+ * Measures how quickly {@link NarwhalDashboard} takes in streamed numerical data as text and as binary
+ * {@link DashMessageCodec} messages, on a desktop computer.
+ *
+ * The messages are handed straight to onMessage(), as the WebSocket thread would, so only the parsing and
+ * storing is timed and not the network.  The main loop's {@link NarwhalDashboard#runQueuedCallbacks()} is
+ * run after every few messages, and the values the callback last got are checked against the last message.
+ * Afterwards the time and memory used per message are printed.
+ *
+ * Usage: DashboardMessageBenchmark [messages] [messages per loop]
+ *
+ * @author Narwhal
+ *
+ */
+public class DashboardMessageBenchmark {
+	private static final String KEY = "drivePID";
+	private static final int NUM_VALUES = 6;
+
+	// enough different messages that the values aren't all the same
+	private static final int NUM_DISTINCT_MESSAGES = 1024;
+
+	private static enum Format {
+		TEXT, FLOAT64, FLOAT32
+	}
+
+	private static double[][] values;
+	private static double[] lastDelivered = new double[NUM_VALUES];
+	private static long numDelivered;
+
+	private static void run(NarwhalDashboard dashboard, Format format, int numMessages, int messagesPerLoop) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		String[] textMessages = new String[NUM_DISTINCT_MESSAGES];
+		ByteBuffer[] binaryMessages = new ByteBuffer[NUM_DISTINCT_MESSAGES];
+		byte[] key = KEY.getBytes(StandardCharsets.US_ASCII);
+
+		for (int message = 0; message < NUM_DISTINCT_MESSAGES; message++) {
+			StringBuilder text = new StringBuilder("numData:").append(KEY).append(':');
+			float[] floats = new float[NUM_VALUES];
+
+			for (int index = 0; index < NUM_VALUES; index++) {
+				text.append(values[message][index]).append(index < NUM_VALUES - 1 ? "," : "");
+				floats[index] = (float) values[message][index];
+			}
+
+			textMessages[message] = text.toString();
+
+			binaryMessages[message] = ByteBuffer.allocate(DashMessageCodec.HEADER_SIZE + key.length + NUM_VALUES * 8);
+			if (format == Format.FLOAT32) {
+				DashMessageCodec.writeNumData(binaryMessages[message], key, floats);
+			}
+			else {
+				DashMessageCodec.writeNumData(binaryMessages[message], key, values[message]);
+			}
+		}
+
+		long startDelivered = numDelivered;
+		long startTime = System.nanoTime();
+		long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+		for (int message = 0; message < numMessages; message++) {
+			int index = message % NUM_DISTINCT_MESSAGES;
+
+			if (format == Format.TEXT) {
+				dashboard.onMessage(null, textMessages[index]);
+			}
+			else {
+				dashboard.onMessage(null, binaryMessages[index]);
+			}
+
+			if ((message + 1) % messagesPerLoop == 0) {
+				NarwhalDashboard.runQueuedCallbacks();
+			}
+		}
+		NarwhalDashboard.runQueuedCallbacks();
+
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+		long time = System.nanoTime() - startTime;
+
+		double[] expected = values[(numMessages - 1) % NUM_DISTINCT_MESSAGES];
+		boolean correct = true;
+		for (int index = 0; index < NUM_VALUES; index++) {
+			double tolerance = (format == Format.FLOAT32) ? Math.abs(expected[index]) * 1e-6 : 0;
+			correct &= Math.abs(lastDelivered[index] - expected[index]) <= tolerance;
+		}
+
+		System.out.println(String.format("%-7s %8.0f ns and %6.1f bytes per message (%.0f messages/s), %d callbacks, last values %s", format,
+				time / (double) numMessages, allocated / (double) numMessages, numMessages / (time / 1e9), numDelivered - startDelivered,
+				correct ? "correct" : "WRONG"));
+	}
+
+	public static void main(String[] args) {
+		int numMessages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int messagesPerLoop = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		// as on the robot in a match, so that the per-message debug messages don't count
+		Log.setLevel(Log.Severity.INFO);
+
+		values = new double[NUM_DISTINCT_MESSAGES][NUM_VALUES];
+		for (int message = 0; message < NUM_DISTINCT_MESSAGES; message++) {
+			for (int index = 0; index < NUM_VALUES; index++) {
+				values[message][index] = (message + 1) * .001 + index * 1.25;
+			}
+		}
+
+		NarwhalDashboard dashboard = new NarwhalDashboard(new InetSocketAddress(0));
+
+		// some other listeners to search past, like on a robot
+		for (String other : new String[] {"visionPID", "calc_wb", "calc_ffp"}) {
+			NarwhalDashboard.addNumDataListener(other, (double[] data) -> {});
+		}
+		NarwhalDashboard.addNumDataListener(KEY, (double[] data) -> {
+			System.arraycopy(data, 0, lastDelivered, 0, NUM_VALUES);
+			numDelivered++;
+		});
+
+		System.out.println(String.format("%d messages of %d values, callbacks run every %d messages", numMessages, NUM_VALUES, messagesPerLoop));
+
+		// the first runs warm up the JIT
+		for (Format format : Format.values()) {
+			run(dashboard, format, numMessages / 4, messagesPerLoop);
+		}
+
+		for (Format format : Format.values()) {
+			run(dashboard, format, numMessages, messagesPerLoop);
+		}
+	}
+}
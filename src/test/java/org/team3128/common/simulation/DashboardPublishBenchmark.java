@@ -0,0 +1,166 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.team3128.common.narwhaldashboard.NarwhalDashboard;
+import org.team3128.common.util.Log;
+
+/**
+ * Compares the cost of publishing {@link NarwhalDashboard} updates with the old way of doing it, on a desktop computer.
+ *
+ * A dashboard server is started on loopback with several clients connected, and a stand-in robot loop puts
+ * values every 20 ms, changing some of them each time.  The CPU time of the publisher thread and the bytes the
+ * clients receive are measured.  For comparison, the old per-connection update, which concatenated every key
+ * into a new string for each client on each update, is run on the same values for the same number of updates.
+ * Only its serializing is timed, while the publisher thread's time includes handing the updates to the sockets.
+ *
+ * Usage: DashboardPublishBenchmark [keys] [clients] [seconds per run] [port]
+ *
+ * @author Narwhal
+ *
+ */
+public class DashboardPublishBenchmark {
+	private static class CountingClient extends WebSocketClient {
+		public AtomicLong messages = new AtomicLong();
+		public AtomicLong bytes = new AtomicLong();
+
+		public CountingClient(URI uri) {
+			super(uri);
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {
+		}
+
+		@Override
+		public void onMessage(String message) {
+			messages.incrementAndGet();
+			bytes.addAndGet(message.length());
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {
+		}
+
+		@Override
+		public void onError(Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static Thread findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals(name)) {
+				return thread;
+			}
+		}
+
+		throw new IllegalStateException("No thread called " + name);
+	}
+
+	/**
+	 * The update which each of the old per-connection threads built, every update.
+	 */
+	private static String oldUpdate(LinkedHashMap<String, String> values) {
+		String jsonString = "{";
+
+		for (String key : values.keySet()) {
+			jsonString += "\"" + key + "\":\"" + values.get(key) + "\",";
+		}
+
+		jsonString += "\"selected_auto\":\"" + null + "\"";
+		jsonString += "}";
+
+		return jsonString;
+	}
+
+	private static void run(int numKeys, CountingClient[] clients, Thread publisher, int changedPerLoop, double seconds, boolean print) throws InterruptedException {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		LinkedHashMap<String, String> values = new LinkedHashMap<>();
+
+		long startMessages = clients[0].messages.get();
+		long startBytes = 0;
+		for (CountingClient client : clients) {
+			startBytes += client.bytes.get();
+		}
+		long startCpuTime = threadBean.getThreadCpuTime(publisher.getId());
+
+		long loops = (long) (seconds * 50);
+		for (long loop = 0; loop < loops; loop++) {
+			for (int change = 0; change < changedPerLoop; change++) {
+				int key = (int) ((loop * changedPerLoop + change) % numKeys);
+				String value = Double.toString(loop * .01 + key);
+
+				NarwhalDashboard.put(String.format("key%03d", key), value);
+				values.put(String.format("key%03d", key), value);
+			}
+
+			Thread.sleep(20);
+		}
+
+		// let the last update arrive
+		Thread.sleep(2 * NarwhalDashboard.getUpdateWavelength());
+
+		long cpuTime = threadBean.getThreadCpuTime(publisher.getId()) - startCpuTime;
+		long updates = Math.max(1, clients[0].messages.get() - startMessages);
+		long bytes = -startBytes;
+		for (CountingClient client : clients) {
+			bytes += client.bytes.get();
+		}
+
+		// the old way, for the same number of updates
+		long oldBytes = 0;
+		long oldStartCpuTime = threadBean.getCurrentThreadCpuTime();
+		for (long update = 0; update < updates; update++) {
+			for (int client = 0; client < clients.length; client++) {
+				oldBytes += oldUpdate(values).length();
+			}
+		}
+		long oldCpuTime = threadBean.getCurrentThreadCpuTime() - oldStartCpuTime;
+
+		if (!print) {
+			return;
+		}
+
+		System.out.println(String.format("%d of %d keys changing every loop, %d updates:", changedPerLoop, numKeys, updates));
+		System.out.println(String.format("    per-connection concatenation: %8.1f us CPU and %7d bytes per update, not counting sending", oldCpuTime / 1000.0 / updates, oldBytes / updates));
+		System.out.println(String.format("    shared delta snapshot:        %8.1f us CPU and %7d bytes per update, including sending", cpuTime / 1000.0 / updates, bytes / updates));
+	}
+
+	public static void main(String[] args) throws Exception {
+		int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+		int port = args.length > 3 ? Integer.parseInt(args[3]) : 5806;
+
+		Log.setLevel(Log.Severity.UNUSUAL);
+
+		NarwhalDashboard dashboard = new NarwhalDashboard(port);
+		dashboard.setReuseAddr(true);
+		dashboard.start();
+
+		CountingClient[] clients = new CountingClient[numClients];
+		for (int client = 0; client < numClients; client++) {
+			clients[client] = new CountingClient(new URI("ws://localhost:" + port));
+			if (!clients[client].connectBlocking()) {
+				throw new IllegalStateException("Could not connect to the dashboard on port " + port);
+			}
+		}
+
+		Thread publisher = findThread("NarwhalDashboard Publisher");
+
+		// the first run fills in every key and warms up the JIT
+		run(numKeys, clients, publisher, numKeys, 2, false);
+
+		run(numKeys, clients, publisher, numKeys / 10, seconds, true);
+		run(numKeys, clients, publisher, numKeys, seconds, true);
+
+		System.exit(0);
+	}
+}
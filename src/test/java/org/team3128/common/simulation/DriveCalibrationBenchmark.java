@@ -0,0 +1,52 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+
+import org.team3128.common.drive.DriveCalibrationTable;
+
+/**
+ * Measures the time and memory taken by {@link DriveCalibrationTable} lookups on a desktop computer.
+ * DriveCalibrationTableTest checks the results.
+ *
+ * The benchmark runs twice, and the second run, after the JIT has compiled the lookups, is reported.
+ *
+ * Usage: DriveCalibrationBenchmark [lookups] [calibration points]
+ *
+ * @author Narwhal
+ *
+ */
+public class DriveCalibrationBenchmark {
+	public static void main(String[] args) {
+		int numLookups = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int numPoints = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		DriveCalibrationTable table = new DriveCalibrationTable();
+		for (int point = 0; point < numPoints; point++) {
+			table.addWheelbase(point * 5, 70 + point * .25);
+			table.addFeedForwardMultipliers(point * 10 - 320, 1e-3 + point * 1e-5, 1e-3 - point * 1e-5);
+		}
+
+		for (int pass = 0; pass < 2; pass++) {
+			double total = 0;
+
+			long startTime = System.nanoTime();
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for (int lookup = 0; lookup < numLookups; lookup++) {
+				double angularVelocity = (lookup % 700) - 350 + .5;
+				total += table.getWheelbase(angularVelocity, 0) + table.getLeftMultiplier(angularVelocity, 0);
+			}
+
+			long allocated = threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+			long time = System.nanoTime() - startTime;
+
+			if (pass == 1) {
+				System.out.println(String.format("%d point tables: %.1f ns and %.2f bytes per pair of lookups (checksum %.3f)",
+						numPoints, time / (double) numLookups, allocated / (double) numLookups, total));
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.team3128.common.listener.controltypes.Button;
+import org.team3128.common.listener.controltypes.Control;
+import org.team3128.common.util.datatypes.CopyOnWriteMultimap;
+import org.team3128.common.util.datatypes.SynchronizedMultimap;
+
+/**
+ * Compares {@link CopyOnWriteMultimap} with {@link SynchronizedMultimap} on a desktop computer, with several
+ * threads dispatching to the listeners of every button while another thread registers and removes listeners.
+ *
+ * Each dispatch looks up a button's listeners and runs them all.  The time and memory each dispatching thread
+ * uses per lookup are measured, along with how many lookups failed because the set being iterated was changed
+ * underneath it.
+ *
+ * Usage: MultimapBenchmark [dispatching threads] [microseconds between writes] [seconds]
+ *
+ * @author Narwhal
+ *
+ */
+public class MultimapBenchmark {
+	private static final int NUM_BUTTONS = 12;
+	private static final int LISTENERS_PER_BUTTON = 3;
+
+	private static final Control[] buttons = new Control[NUM_BUTTONS + 1];
+	private static final Runnable[] listeners = new Runnable[NUM_BUTTONS * LISTENERS_PER_BUTTON * 2];
+
+	private static volatile long sink;
+
+	/**
+	 * The operations being compared, so that the two multimaps can share the benchmark code.
+	 */
+	private static interface Multimap {
+		void put(Control key, Runnable value);
+
+		void removeAll(Control key);
+
+		/**
+		 * Runs every listener of the key, and returns how many there were.
+		 */
+		int dispatch(Control key);
+	}
+
+	private static class Result {
+		AtomicLong lookups = new AtomicLong();
+		AtomicLong failures = new AtomicLong();
+		AtomicLong cpuTime = new AtomicLong();
+		AtomicLong allocated = new AtomicLong();
+		AtomicLong writes = new AtomicLong();
+	}
+
+	private static void fill(Multimap multimap) {
+		for (int button = 1; button <= NUM_BUTTONS; button++) {
+			for (int listener = 0; listener < LISTENERS_PER_BUTTON; listener++) {
+				multimap.put(buttons[button], listeners[(button - 1) * LISTENERS_PER_BUTTON + listener]);
+			}
+		}
+	}
+
+	private static void dispatchLoop(Multimap multimap, AtomicBoolean running, Result result) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long startCpuTime = threadBean.getThreadCpuTime(threadId);
+		long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+		long lookups = 0, failures = 0, dispatched = 0;
+
+		while (running.get()) {
+			for (int button = 1; button <= NUM_BUTTONS; button++, lookups++) {
+				try {
+					dispatched += multimap.dispatch(buttons[button]);
+				}
+				catch (ConcurrentModificationException e) {
+					failures++;
+				}
+			}
+		}
+
+		result.cpuTime.addAndGet(threadBean.getThreadCpuTime(threadId) - startCpuTime);
+		result.allocated.addAndGet(threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		result.lookups.addAndGet(lookups);
+		result.failures.addAndGet(failures);
+
+		sink += dispatched;
+	}
+
+	private static void writeLoop(Multimap multimap, AtomicBoolean running, long writePeriod, Result result) {
+		long writes = 0;
+
+		while (running.get()) {
+			int button = (int) (writes % NUM_BUTTONS) + 1;
+
+			// add an extra listener to a button, and every so often put the button back how it was
+			if ((writes / NUM_BUTTONS) % 2 == 0) {
+				multimap.put(buttons[button], listeners[listeners.length / 2 + (button - 1) * LISTENERS_PER_BUTTON]);
+			}
+			else {
+				multimap.removeAll(buttons[button]);
+				for (int listener = 0; listener < LISTENERS_PER_BUTTON; listener++) {
+					multimap.put(buttons[button], listeners[(button - 1) * LISTENERS_PER_BUTTON + listener]);
+				}
+			}
+
+			writes++;
+			LockSupport.parkNanos(writePeriod);
+		}
+
+		result.writes.set(writes);
+	}
+
+	private static void run(String name, Multimap multimap, int numThreads, long writePeriod, double seconds) throws InterruptedException {
+		fill(multimap);
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Result result = new Result();
+
+		Thread[] threads = new Thread[numThreads + (writePeriod > 0 ? 1 : 0)];
+		for (int thread = 0; thread < numThreads; thread++) {
+			threads[thread] = new Thread(() -> dispatchLoop(multimap, running, result));
+		}
+		if (writePeriod > 0) {
+			threads[numThreads] = new Thread(() -> writeLoop(multimap, running, writePeriod, result));
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		Thread.sleep((long) (seconds * 1000));
+		running.set(false);
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long lookups = Math.max(1, result.lookups.get());
+
+		System.out.println(String.format("    %-20s %6.1f ns CPU and %5.1f bytes per lookup, %9.0f lookups/s per thread, %d failed lookups, %d writes",
+				name, result.cpuTime.get() / (double) lookups, result.allocated.get() / (double) lookups, lookups / seconds / numThreads,
+				result.failures.get(), result.writes.get()));
+	}
+
+	private static void compare(int numThreads, long writePeriod, double seconds) throws InterruptedException {
+		System.out.println(String.format("%d dispatching threads, %s:", numThreads,
+				writePeriod > 0 ? String.format("a write every %d us", writePeriod / 1000) : "no writes"));
+
+		SynchronizedMultimap<Control, Runnable> synchronizedMultimap = new SynchronizedMultimap<Control, Runnable>();
+		run("SynchronizedMultimap", new Multimap() {
+			@Override
+			public void put(Control key, Runnable value) {
+				synchronizedMultimap.put(key, value);
+			}
+
+			@Override
+			public void removeAll(Control key) {
+				synchronizedMultimap.removeAll(key);
+			}
+
+			@Override
+			public int dispatch(Control key) {
+				Collection<Runnable> values = synchronizedMultimap.get(key);
+				if (values == null) {
+					return 0;
+				}
+
+				for (Runnable value : values) {
+					value.run();
+				}
+				return values.size();
+			}
+		}, numThreads, writePeriod, seconds);
+
+		CopyOnWriteMultimap<Control, Runnable> copyOnWriteMultimap = new CopyOnWriteMultimap<Control, Runnable>(Runnable[]::new);
+		run("CopyOnWriteMultimap", new Multimap() {
+			@Override
+			public void put(Control key, Runnable value) {
+				copyOnWriteMultimap.put(key, value);
+			}
+
+			@Override
+			public void removeAll(Control key) {
+				copyOnWriteMultimap.removeAll(key);
+			}
+
+			@Override
+			public int dispatch(Control key) {
+				Runnable[] values = copyOnWriteMultimap.get(key);
+
+				for (Runnable value : values) {
+					value.run();
+				}
+				return values.length;
+			}
+		}, numThreads, writePeriod, seconds);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		long writePeriod = (args.length > 1 ? Long.parseLong(args[1]) : 100) * 1000;
+		double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 3;
+
+		for (int button = 0; button <= NUM_BUTTONS; button++) {
+			buttons[button] = new Button(button);
+		}
+
+		AtomicLong calls = new AtomicLong();
+		for (int listener = 0; listener < listeners.length; listener++) {
+			listeners[listener] = () -> calls.lazySet(calls.get() + 1);
+		}
+
+		// the first runs warm up the JIT
+		compare(numThreads, 0, 1);
+
+		compare(numThreads, 0, seconds);
+		compare(numThreads, writePeriod, seconds);
+	}
+}
@@ -0,0 +1,114 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+
+import org.team3128.common.util.PIDCalculator;
+import org.team3128.common.util.datatypes.PIDConstants;
+import org.team3128.common.util.datatypes.Pair;
+import org.team3128.common.util.datatypes.RandomAccessBuffer;
+
+/**
+ * Measures the cost of {@link PIDCalculator#update(double)} at different izone sizes on a desktop computer, next to the
+ * way the integral used to be calculated: a boxed pair enqueued in a {@link RandomAccessBuffer} on every update, and
+ * the whole izone walked to sum it.
+ *
+ * Each case runs in timed batches after a warmup, and the fastest batch is reported, along with the bytes allocated per
+ * update.
+ *
+ * Usage: PIDCalculatorBenchmark [updates per batch] [batches]
+ *
+ * @author Narwhal
+ *
+ */
+public class PIDCalculatorBenchmark {
+	private static final PIDConstants CONSTANTS = new PIDConstants(0, .5, .01, 0);
+
+	private static double checksum = 0;
+
+	/**
+	 * The integral as it was calculated before it was kept as a running sum.
+	 */
+	private static class WindowWalkIntegral {
+		private final RandomAccessBuffer<Pair<Integer, Double>> pastValues;
+
+		WindowWalkIntegral(int izone) {
+			pastValues = new RandomAccessBuffer<>(izone);
+		}
+
+		double update(int deltaTime, double error) {
+			pastValues.enqueue(new Pair<>(deltaTime, error));
+
+			if (pastValues.getSize() <= 1) {
+				return 0;
+			}
+
+			double integral = 0;
+			for (int index = 1; index <= pastValues.getLastIndex(); ++index) {
+				integral += ((pastValues.get(index - 1).right + pastValues.get(index).right)) * pastValues.get(index - 1).left;
+			}
+
+			return integral / 2;
+		}
+	}
+
+	private interface Batch {
+		void run(int updates);
+	}
+
+	/**
+	 * @return the fastest batch's time per update, in nanoseconds, and the bytes allocated per update
+	 */
+	private static double[] measure(Batch batch, int updates, int batches) {
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// warm up the JIT
+		for (int warmup = 0; warmup < 3; warmup++) {
+			batch.run(updates);
+		}
+
+		long fastest = Long.MAX_VALUE;
+		long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+		for (int b = 0; b < batches; b++) {
+			long start = System.nanoTime();
+			batch.run(updates);
+			fastest = Math.min(fastest, System.nanoTime() - start);
+		}
+		long allocated = threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+
+		return new double[] {fastest / (double) updates, allocated / ((double) updates * batches)};
+	}
+
+	private static void run(int izone, int updates, int batches) {
+		PIDCalculator calculator = new PIDCalculator(CONSTANTS, izone, 1);
+		calculator.setTarget(100);
+
+		WindowWalkIntegral windowWalk = new WindowWalkIntegral(izone);
+
+		double[] runningSum = measure((n) -> {
+			for (int i = 0; i < n; i++) {
+				checksum += calculator.update(i % 200);
+			}
+		}, updates, batches);
+
+		double[] walked = measure((n) -> {
+			for (int i = 0; i < n; i++) {
+				checksum += windowWalk.update(20, 100 - i % 200);
+			}
+		}, updates, batches);
+
+		System.out.println(String.format("izone %5d: running sum %8.1f ns and %5.1f bytes per update, window walk %9.1f ns and %5.1f bytes per update",
+				izone, runningSum[0], runningSum[1], walked[0], walked[1]));
+	}
+
+	public static void main(String[] args) {
+		int updates = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int batches = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		for (int izone : new int[] {10, 100, 1000}) {
+			run(izone, updates, batches);
+		}
+
+		System.out.println(String.format("(checksum %.3f)", checksum));
+	}
+}
@@ -0,0 +1,109 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.drive.Odometer;
+import org.team3128.common.drive.Pose;
+import org.team3128.common.drive.RamseteFollower;
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.drive.routemaker.TrajectoryGenerator;
+import org.team3128.common.drive.routemaker.Waypoint;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.RobotMath;
+import org.team3128.common.util.units.Length;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * Drives a simulated robot along a route with a {@link RamseteFollower}, with and without wheel slip, on a
+ * desktop computer.
+ *
+ * Each run is done twice: once in closed loop, and once with the follower's gains at zero so that it just
+ * passes the route's own wheel velocities through, which is what following the route open loop does. The
+ * follower steers using the {@link Odometer}, which can't see slip, so the error which matters is how far the
+ * robot really ended up from the end of the route.
+ *
+ * Uses Aramis's drivetrain and an S-curve route.
+ *
+ * @author Narwhal
+ *
+ */
+public class PathFollowingSimulation {
+	private static final double PERIOD = .005;
+
+	/**
+	 * How long to keep running after the route ends, for the robot to settle, in seconds.
+	 */
+	private static final double SETTLE_TIME = .5;
+
+	private static final int FREE_SPEED = 3700;
+	private static final double WHEEL_CIRCUMFERENCE = 13.21 * Length.in;
+	private static final double WHEEL_BASE = 32.3 * Length.in;
+
+	private static void run(String name, PrecomputedRoute route, boolean closedLoop, double leftSlip, double rightSlip) {
+		SimulatedMotorController leftMotors = new SimulatedMotorController(FREE_SPEED, .1, 130);
+		SimulatedMotorController rightMotors = new SimulatedMotorController(FREE_SPEED, .1, 130);
+
+		for (SimulatedMotorController motors : new SimulatedMotorController[] {leftMotors, rightMotors}) {
+			motors.config_kF(SRXTankDrive.CmdRamseteRouteDrive.VELOCITY_SLOT, 1023.0 / FREE_SPEED);
+			motors.config_kP(SRXTankDrive.CmdRamseteRouteDrive.VELOCITY_SLOT, .5);
+			motors.selectProfileSlot(SRXTankDrive.CmdRamseteRouteDrive.VELOCITY_SLOT, 0);
+		}
+
+		SimulatedGyro gyro = new SimulatedGyro();
+		SimulatedTankDrivetrain drivetrain = new SimulatedTankDrivetrain(leftMotors, rightMotors, gyro, WHEEL_CIRCUMFERENCE, WHEEL_BASE);
+		drivetrain.setSlip(leftSlip, rightSlip);
+
+		SRXTankDrive.initialize(leftMotors, rightMotors, WHEEL_CIRCUMFERENCE, WHEEL_BASE, FREE_SPEED);
+		Odometer.initialize(gyro, route.getX(0), route.getY(0), route.getHeading(0));
+		Odometer odometer = Odometer.getInstance();
+
+		RamseteFollower follower = closedLoop
+				? new RamseteFollower(route, WHEEL_BASE, WHEEL_CIRCUMFERENCE)
+				: new RamseteFollower(route, 0, 0, WHEEL_BASE, WHEEL_CIRCUMFERENCE);
+
+		for (double time = 0; time < follower.getTotalTime() + SETTLE_TIME; time += PERIOD) {
+			follower.update(odometer.getPose(), time);
+
+			leftMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getLeftVelocity(), WHEEL_CIRCUMFERENCE));
+			rightMotors.set(ControlMode.Velocity, Convert.velocityCMStoCTRE(follower.getRightVelocity(), WHEEL_CIRCUMFERENCE));
+
+			drivetrain.update(PERIOD);
+			odometer.integrate(leftMotors.getSelectedSensorPosition(0), rightMotors.getSelectedSensorPosition(0), odometer.getAngle(), time + PERIOD);
+		}
+
+		// the simulated robot starts at the origin facing along x, so move it to where the route starts
+		double startHeading = route.getHeading(0);
+		double trueX = route.getX(0) + drivetrain.getX() * RobotMath.cos(startHeading) - drivetrain.getY() * RobotMath.sin(startHeading);
+		double trueY = route.getY(0) + drivetrain.getX() * RobotMath.sin(startHeading) + drivetrain.getY() * RobotMath.cos(startHeading);
+
+		int last = route.getLength() - 1;
+		Pose measured = odometer.getPose();
+
+		System.out.println(String.format("    %-28s %-11s cross-track %5.1f cm RMS %5.1f cm max, end error %5.1f cm (odometry says %4.1f cm)", name,
+				closedLoop ? "closed loop" : "open loop", follower.getRMSCrossTrackError(), follower.getMaxCrossTrackError(),
+				RobotMath.distance(trueX, trueY, route.getX(last), route.getY(last)),
+				RobotMath.distance(measured.x, measured.y, route.getX(last), route.getY(last))));
+	}
+
+	private static void compare(String name, PrecomputedRoute route, double leftSlip, double rightSlip) {
+		run(name, route, false, leftSlip, rightSlip);
+		run(name, route, true, leftSlip, rightSlip);
+	}
+
+	public static void main(String[] args) {
+		SRXTankDrive.initialize(new SimulatedMotorController(FREE_SPEED, .1, 130), new SimulatedMotorController(FREE_SPEED, .1, 130),
+				WHEEL_CIRCUMFERENCE, WHEEL_BASE, FREE_SPEED);
+
+		PrecomputedRoute route = new TrajectoryGenerator(.5, 200, 150).generate(
+				new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+				new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft),
+				new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft));
+
+		System.out.println(String.format("S-curve, %.2f s:", route.getTotalDurationMs() / 1000.0));
+
+		compare("no slip", route, 0, 0);
+		compare("both sides slipping 5%", route, .05, .05);
+		compare("left side slipping 8%", route, .08, 0);
+		compare("right side slipping 15%", route, 0, .15);
+	}
+}
@@ -0,0 +1,54 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.team3128.common.util.datatypes.DoubleRingBuffer;
+
+/**
+ * Measures the time and memory taken to enqueue a value in a {@link DoubleRingBuffer} and read its statistics, on a
+ * desktop computer.  DoubleRingBufferTest and LongRingBufferTest check the results.
+ *
+ * The benchmark runs twice, and the second run, after the JIT has compiled the loop, is reported.
+ *
+ * Usage: RingBufferBenchmark [enqueues] [capacity]
+ *
+ * @author Narwhal
+ *
+ */
+public class RingBufferBenchmark {
+	public static void main(String[] args) {
+		int numEnqueues = args.length > 0 ? Integer.parseInt(args[0]) : 20000000;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		Random random = new Random(3128);
+		double[] values = new double[4096];
+		for (int index = 0; index < values.length; index++) {
+			values[index] = random.nextGaussian();
+		}
+
+		for (int pass = 0; pass < 2; pass++) {
+			DoubleRingBuffer buffer = new DoubleRingBuffer(capacity);
+			double total = 0;
+
+			long startTime = System.nanoTime();
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for (int step = 0; step < numEnqueues; step++) {
+				buffer.enqueue(values[step & (values.length - 1)]);
+				total += buffer.getMean() + buffer.getVariance() + buffer.getMin() + buffer.getMax();
+			}
+
+			long allocated = threadBean.getThreadAllocatedBytes(threadId) - startAllocated;
+			long time = System.nanoTime() - startTime;
+
+			if (pass == 1) {
+				System.out.println(String.format("DoubleRingBuffer of %d: %.1f ns and %.2f bytes per enqueue and read of the statistics (checksum %.3f)",
+						capacity, time / (double) numEnqueues, allocated / (double) numEnqueues, total));
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.drive.routemaker.ProfilePoint;
+import org.team3128.common.drive.routemaker.Routemaker;
+import org.team3128.common.drive.routemaker.Waypoint;
+import org.team3128.common.util.units.Length;
+
+import com.ctre.phoenix.motion.TrajectoryPoint;
+
+/**
+ * Compares generating {@link Routemaker} points while following a route, as CmdStaticRouteDrive's notifier
+ * used to, with precomputing the route and indexing into it, on a desktop computer.
+ *
+ * For each route, the time to precompute the whole route is measured, then the time each notifier tick
+ * spends producing the Talon points for one profile point, both ways.
+ *
+ * Usage: RouteGenerationBenchmark [power] [repetitions]
+ *
+ * @author Narwhal
+ *
+ */
+public class RouteGenerationBenchmark {
+	private static double checksum = 0;
+
+	/**
+	 * The old notifier tick: step the Routemaker to the next point and fill in the Talon points from it.
+	 */
+	private static boolean steppedTick(Routemaker rm, TrajectoryPoint left, TrajectoryPoint right) {
+		double speed = 1.0;
+		if (rm.s < 0.2) {
+			speed = (0.1 + rm.s) / 0.3;
+		} else if (rm.s > 0.8) {
+			speed = (1.1 - rm.s) / 0.7;
+		}
+
+		ProfilePoint point = rm.getNextPoint(speed);
+
+		left.timeDur = point.durationMs;
+		left.position = point.leftDistance;
+		left.velocity = point.leftSpeed;
+
+		right.timeDur = point.durationMs;
+		right.position = point.rightDistance;
+		right.velocity = point.rightSpeed;
+
+		return point.last;
+	}
+
+	/**
+	 * The new notifier tick: fill in the Talon points from the precomputed route.
+	 */
+	private static void indexedTick(PrecomputedRoute route, int index, TrajectoryPoint left, TrajectoryPoint right) {
+		left.timeDur = route.getDurationMs(index);
+		left.position = route.getLeftDistance(index);
+		left.velocity = route.getLeftSpeed(index);
+
+		right.timeDur = route.getDurationMs(index);
+		right.position = route.getRightDistance(index);
+		right.velocity = route.getRightSpeed(index);
+	}
+
+	private static void run(String name, double power, int repetitions, boolean print, Waypoint... waypoints) {
+		TrajectoryPoint left = new TrajectoryPoint();
+		TrajectoryPoint right = new TrajectoryPoint();
+
+		long start = System.nanoTime();
+		PrecomputedRoute route = null;
+		for (int repetition = 0; repetition < repetitions; repetition++) {
+			route = Routemaker.generateRoute(power, waypoints);
+		}
+		double generationTime = (System.nanoTime() - start) / 1e3 / repetitions;
+
+		long steppedTotal = 0, steppedWorst = 0;
+		long ticks = 0;
+		for (int repetition = 0; repetition < repetitions; repetition++) {
+			Routemaker rm = new Routemaker(power, waypoints);
+
+			boolean last;
+			do {
+				long tickStart = System.nanoTime();
+				last = steppedTick(rm, left, right);
+				long tickTime = System.nanoTime() - tickStart;
+
+				steppedTotal += tickTime;
+				steppedWorst = Math.max(steppedWorst, tickTime);
+				ticks++;
+
+				checksum += left.position + right.velocity;
+			} while (!last);
+		}
+
+		long indexedTotal = 0, indexedWorst = 0;
+		for (int repetition = 0; repetition < repetitions; repetition++) {
+			for (int index = 0; index < route.getLength(); index++) {
+				long tickStart = System.nanoTime();
+				indexedTick(route, index, left, right);
+				long tickTime = System.nanoTime() - tickStart;
+
+				indexedTotal += tickTime;
+				indexedWorst = Math.max(indexedWorst, tickTime);
+
+				checksum += left.position + right.velocity;
+			}
+		}
+
+		if (!print) {
+			return;
+		}
+
+		System.out.println(String.format("%s: %d points, %.1f us to precompute", name, route.getLength(), generationTime));
+		System.out.println(String.format("    stepped while following: %8.3f us per tick, %8.3f us worst", steppedTotal / 1e3 / ticks, steppedWorst / 1e3));
+		System.out.println(String.format("    precomputed and indexed: %8.3f us per tick, %8.3f us worst",
+				indexedTotal / 1e3 / (repetitions * route.getLength()), indexedWorst / 1e3));
+	}
+
+	public static void main(String[] args) {
+		double power = args.length > 0 ? Double.parseDouble(args[0]) : .5;
+		int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		// Aramis's drivetrain
+		int robotFreeSpeed = 3700;
+		SRXTankDrive.initialize(new SimulatedMotorController(robotFreeSpeed, .1, 130), new SimulatedMotorController(robotFreeSpeed, .1, 130),
+				13.21 * Length.in, 32.3 * Length.in, robotFreeSpeed);
+
+		Waypoint[] testRoute = {
+			new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+			new Waypoint(8 * Length.ft, 15 * Length.ft, 90, 5 * Length.ft)
+		};
+		Waypoint[] sCurve = {
+			new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+			new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft),
+			new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft)
+		};
+
+		// warm up the JIT
+		run("warmup", power, repetitions, false, testRoute);
+		run("warmup", power, repetitions, false, sCurve);
+
+		run("Routemaker test", power, repetitions, true, testRoute);
+		run("S-curve", power, repetitions, true, sCurve);
+
+		System.out.println(String.format("(checksum %.3f)", checksum));
+	}
+}
@@ -0,0 +1,116 @@
+package org.team3128.common.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+/**
+ * Checks the {@link SimulatedMotorController}'s motor model and closed loop modes, and the
+ * {@link SimulatedLimitSwitch} it presses.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedMotorControllerTest {
+	private static final double FREE_SPEED = 1000;
+	private static final double TIME_CONSTANT = .1;
+
+	@Test
+	public void testPercentOutputFollowsTimeConstant() {
+		SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+		motor.set(ControlMode.PercentOutput, .5);
+
+		motor.update(TIME_CONSTANT);
+		assertEquals(.5 * FREE_SPEED * (1 - Math.exp(-1)), motor.getPhysicalVelocity(), 2);
+
+		motor.update(10 * TIME_CONSTANT);
+		assertEquals(.5 * FREE_SPEED, motor.getPhysicalVelocity(), .01);
+		assertEquals(.5, motor.getMotorOutputPercent(), 0);
+		assertEquals(11 * TIME_CONSTANT, motor.getElapsedTime(), 1e-9);
+	}
+
+	@Test
+	public void testDeterministic() {
+		double[] positions = new double[2];
+
+		for (int run = 0; run < 2; run++) {
+			SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+			motor.config_kP(0, 2);
+			motor.set(ControlMode.Position, 5000);
+
+			for (int update = 0; update < 100; update++) {
+				motor.update(.02);
+			}
+
+			positions[run] = motor.getPhysicalPosition();
+		}
+
+		assertEquals(positions[0], positions[1], 0);
+	}
+
+	@Test
+	public void testSensorResetKeepsPhysicalPosition() {
+		SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+		motor.set(ControlMode.PercentOutput, 1);
+		motor.update(1);
+
+		double physical = motor.getPhysicalPosition();
+		motor.setSelectedSensorPosition(0);
+
+		assertEquals(0, motor.getSelectedSensorPosition(0));
+		assertEquals(physical, motor.getPhysicalPosition(), 0);
+	}
+
+	@Test
+	public void testPositionModeConverges() {
+		SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+		motor.config_kP(0, 2);
+		motor.config_kD(0, 20);
+		motor.set(ControlMode.Position, 5000);
+
+		motor.update(5);
+
+		assertEquals(5000, motor.getSelectedSensorPosition(0), 25);
+	}
+
+	@Test
+	public void testMotionMagicRespectsCruiseVelocity() {
+		SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+		motor.config_kP(0, 2);
+		motor.config_kF(0, 1023 / FREE_SPEED);
+		motor.configMotionCruiseVelocity(500, 0);
+		motor.configMotionAcceleration(1000, 0);
+		motor.set(ControlMode.MotionMagic, 10000);
+
+		double peakVelocity = 0;
+		for (int update = 0; update < 400; update++) {
+			motor.update(.01);
+			peakVelocity = Math.max(peakVelocity, motor.getPhysicalVelocity());
+		}
+
+		assertEquals(10000, motor.getSelectedSensorPosition(0), 50);
+
+		// the mechanism lags the setpoint a little, then catches up
+		assertTrue("peak velocity " + peakVelocity, peakVelocity < 500 * 1.1);
+	}
+
+	@Test
+	public void testLimitSwitchFollowsPosition() {
+		SimulatedMotorController motor = new SimulatedMotorController(FREE_SPEED, TIME_CONSTANT, 100);
+		SimulatedLimitSwitch limitSwitch = new SimulatedLimitSwitch(motor, -100, 100);
+
+		assertTrue(limitSwitch.isTriggered());
+
+		motor.set(ControlMode.PercentOutput, 1);
+		motor.update(1);
+		assertFalse(limitSwitch.isTriggered());
+
+		// the switch is pressed by the mechanism, so resetting the encoder doesn't press it
+		motor.setSelectedSensorPosition(0);
+		assertFalse(limitSwitch.isTriggered());
+	}
+}
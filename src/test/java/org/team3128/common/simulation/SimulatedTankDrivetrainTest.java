@@ -0,0 +1,94 @@
+package org.team3128.common.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.drive.Odometer;
+import org.team3128.common.drive.Pose;
+import org.team3128.common.drive.SRXTankDrive;
+
+import com.ctre.phoenix.motorcontrol.ControlMode;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Drives a {@link SimulatedTankDrivetrain} and checks where it goes, and that the {@link Odometer} reading
+ * its simulated encoders and gyro agrees, including the sign of the heading.
+ *
+ * @author Narwhal
+ *
+ */
+public class SimulatedTankDrivetrainTest {
+	private static final double WHEEL_CIRCUMFERENCE = 30;
+	private static final double WHEEL_BASE = 60;
+	private static final double PERIOD = .005;
+
+	private SimulatedTankDrivetrain drivetrain;
+	private Odometer odometer;
+
+	@BeforeClass
+	public static void initializeHAL() {
+		HAL.initialize(500, 0);
+	}
+
+	@Before
+	public void setUp() {
+		SimulatedMotorController leftMotors = new SimulatedMotorController(3700, .1, 130);
+		SimulatedMotorController rightMotors = new SimulatedMotorController(3700, .1, 130);
+		SimulatedGyro gyro = new SimulatedGyro();
+
+		drivetrain = new SimulatedTankDrivetrain(leftMotors, rightMotors, gyro, WHEEL_CIRCUMFERENCE, WHEEL_BASE);
+
+		SRXTankDrive.initialize(leftMotors, rightMotors, WHEEL_CIRCUMFERENCE, WHEEL_BASE, 3700);
+		Odometer.initialize(gyro, 0, 0, 0);
+		odometer = Odometer.getInstance();
+	}
+
+	private void drive(double left, double right, double seconds) {
+		drivetrain.getLeftMotors().set(ControlMode.PercentOutput, left);
+		drivetrain.getRightMotors().set(ControlMode.PercentOutput, right);
+
+		for (double time = 0; time < seconds; time += PERIOD) {
+			drivetrain.update(PERIOD);
+			odometer.update();
+		}
+	}
+
+	@Test
+	public void testStraight() {
+		drive(.5, .5, 2);
+
+		assertTrue(drivetrain.getX() > 0);
+		assertEquals(0, drivetrain.getY(), 1e-9);
+		assertEquals(0, drivetrain.getHeading(), 1e-9);
+	}
+
+	@Test
+	public void testLeftTurnIsCounterclockwise() {
+		// the right side faster turns the robot to the left
+		drive(.3, .6, 1);
+
+		assertTrue("heading " + drivetrain.getHeading(), drivetrain.getHeading() > 0);
+		assertTrue("y " + drivetrain.getY(), drivetrain.getY() > 0);
+
+		Pose pose = odometer.getPose();
+		assertEquals(drivetrain.getHeading(), pose.angle, 1e-9);
+		assertEquals(drivetrain.getX(), pose.x, 1);
+		assertEquals(drivetrain.getY(), pose.y, 1);
+	}
+
+	@Test
+	public void testTurnInPlace() {
+		drive(-.4, .4, 1);
+
+		// the wheels travel along a circle the width of the wheelbase
+		double wheelTravel = (drivetrain.getRightMotors().getPhysicalPosition() / 4096) * WHEEL_CIRCUMFERENCE;
+		assertEquals(Math.toDegrees(2 * wheelTravel / WHEEL_BASE), drivetrain.getHeading(), 1e-6);
+
+		assertEquals(0, drivetrain.getX(), 1e-6);
+		assertEquals(0, drivetrain.getY(), 1e-6);
+	}
+}
@@ -0,0 +1,147 @@
+package org.team3128.common.simulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import org.team3128.common.drive.StateEstimator;
+
+/**
+ * Measures how long each kind of {@link StateEstimator} update takes on a desktop JVM, and checks that they don't allocate.
+ *
+ * Runs the filter over a simulated drive towards a target with noisy sensors, first to let the JIT warm up and then timed.
+ * The roboRIO is several times slower than a desktop, so treat the results as relative.
+ *
+ * Usage: StateEstimatorBenchmark [steps]
+ *
+ * @author Narwhal
+ *
+ */
+public class StateEstimatorBenchmark {
+	private static final double PERIOD = .005;
+
+	/**
+	 * How many steps old each vision measurement is when it arrives, 40 ms at 200 Hz.
+	 */
+	private static final int VISION_LATENCY_STEPS = 8;
+
+	private final StateEstimator estimator = new StateEstimator();
+	private final Random random = new Random(3128);
+
+	// pregenerated sensor readings, so that generating them isn't part of the timing.
+	// The vision reading at each step was captured VISION_LATENCY_STEPS earlier, from where the robot was then.
+	private final double[] encoderDistances, gyroHeadings, visionOffsets, visionRanges, ultrasonicRanges;
+
+	private double finalRange;
+
+	private long predictTime, visionTime, ultrasonicTime;
+
+	public StateEstimatorBenchmark(int steps) {
+		encoderDistances = new double[steps];
+		gyroHeadings = new double[steps];
+		visionOffsets = new double[steps];
+		visionRanges = new double[steps];
+		ultrasonicRanges = new double[steps];
+
+		double x = 0, y = 0, heading = 0, encoderDistance = 0;
+		double targetX = 800, targetY = 60;
+
+		// where the robot was at the last few steps, for the delayed vision readings
+		double[] pastX = new double[VISION_LATENCY_STEPS + 1], pastY = new double[VISION_LATENCY_STEPS + 1], pastHeading = new double[VISION_LATENCY_STEPS + 1];
+
+		for (int step = 0; step < steps; step++) {
+			// drive back and forth while weaving, so that every part of the filter is exercised
+			double time = step * PERIOD;
+			double distance = 100 * Math.cos(.2 * time) * PERIOD;
+			heading = 20 * Math.sin(.5 * time);
+			x += distance * Math.cos(Math.toRadians(heading));
+			y += distance * Math.sin(Math.toRadians(heading));
+			encoderDistance += distance * (1 + .02 * random.nextGaussian());
+
+			double dx = targetX - x, dy = targetY - y;
+
+			encoderDistances[step] = encoderDistance;
+			gyroHeadings[step] = heading + .01 * random.nextGaussian();
+			finalRange = Math.hypot(dx, dy);
+
+			int slot = step % pastX.length;
+			pastX[slot] = x;
+			pastY[slot] = y;
+			pastHeading[slot] = heading;
+
+			if (step >= VISION_LATENCY_STEPS) {
+				int captureSlot = (step - VISION_LATENCY_STEPS) % pastX.length;
+				double captureDx = targetX - pastX[captureSlot], captureDy = targetY - pastY[captureSlot];
+
+				visionOffsets[step] = pastHeading[captureSlot] - Math.toDegrees(Math.atan2(captureDy, captureDx)) + random.nextGaussian();
+				visionRanges[step] = Math.hypot(captureDx, captureDy) * (1 + .05 * random.nextGaussian());
+			}
+
+			ultrasonicRanges[step] = dx * Math.cos(Math.toRadians(heading)) + dy * Math.sin(Math.toRadians(heading)) + 2 * random.nextGaussian();
+		}
+	}
+
+	private void run() {
+		predictTime = visionTime = ultrasonicTime = 0;
+		estimator.reset(0, 0, 0, 0);
+
+		for (int step = 0; step < encoderDistances.length; step++) {
+			double time = step * PERIOD;
+
+			long start = System.nanoTime();
+			estimator.predict(encoderDistances[step], gyroHeadings[step], time);
+			long afterPredict = System.nanoTime();
+			if (step >= VISION_LATENCY_STEPS) {
+				estimator.addVisionMeasurement(visionOffsets[step], visionRanges[step], time - VISION_LATENCY_STEPS * PERIOD);
+			}
+			long afterVision = System.nanoTime();
+			estimator.addRangeMeasurement(ultrasonicRanges[step], time);
+			long afterUltrasonic = System.nanoTime();
+
+			predictTime += afterPredict - start;
+			visionTime += afterVision - afterPredict;
+			ultrasonicTime += afterUltrasonic - afterVision;
+		}
+	}
+
+	public static void main(String[] args) {
+		int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		StateEstimatorBenchmark benchmark = new StateEstimatorBenchmark(steps);
+
+		// warm up the JIT
+		for (int round = 0; round < 5; round++) {
+			benchmark.run();
+		}
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long allocatedBefore = allocatedBytes(threadBean);
+
+		benchmark.run();
+
+		long allocated = allocatedBytes(threadBean) - allocatedBefore;
+
+		System.out.println(String.format("predict:           %.0f ns", benchmark.predictTime / (double) steps));
+		System.out.println(String.format("vision update:     %.0f ns", benchmark.visionTime / (double) steps));
+		System.out.println(String.format("ultrasonic update: %.0f ns", benchmark.ultrasonicTime / (double) steps));
+		System.out.println(String.format("total per step:    %.0f ns", (benchmark.predictTime + benchmark.visionTime + benchmark.ultrasonicTime) / (double) steps));
+
+		if (allocated >= 0) {
+			System.out.println(String.format("allocated:         %.3f bytes per step", allocated / (double) steps));
+		}
+
+		System.out.println(String.format("final range %.1f cm (actual %.1f, sd %.2f), %d measurements rejected", benchmark.estimator.getTargetRange(), benchmark.finalRange,
+				Math.sqrt(benchmark.estimator.getTargetRangeVariance()), benchmark.estimator.getRejectedMeasurementCount()));
+	}
+
+	/**
+	 * @return The bytes allocated by this thread so far, or -1 if the JVM can't say.
+	 */
+	private static long allocatedBytes(ThreadMXBean threadBean) {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return -1;
+	}
+}
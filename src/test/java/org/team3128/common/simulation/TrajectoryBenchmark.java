@@ -0,0 +1,89 @@
+package org.team3128.common.simulation;
+
+import org.team3128.common.drive.SRXTankDrive;
+import org.team3128.common.drive.routemaker.PrecomputedRoute;
+import org.team3128.common.drive.routemaker.Routemaker;
+import org.team3128.common.drive.routemaker.TrajectoryGenerator;
+import org.team3128.common.drive.routemaker.Waypoint;
+import org.team3128.common.util.Convert;
+import org.team3128.common.util.units.Length;
+
+/**
+ * Compares the {@link Routemaker} with the {@link TrajectoryGenerator} on a desktop computer: how long
+ * each takes to generate a route, how long the robot would take to drive it, and how fast the wheels are
+ * asked to go.
+ *
+ * Uses Aramis's drivetrain and its Routemaker test route, plus an S-curve with tighter turns.
+ *
+ * Usage: TrajectoryBenchmark [power] [max acceleration (cm/s^2)] [max centripetal acceleration (cm/s^2)]
+ *
+ * @author Narwhal
+ *
+ */
+public class TrajectoryBenchmark {
+	private static final int ITERATIONS = 200;
+
+	private static void compare(String name, double power, double maxAcceleration, double maxCentripetalAcceleration, Waypoint... waypoints) {
+		TrajectoryGenerator generator = new TrajectoryGenerator(power, maxAcceleration, maxCentripetalAcceleration);
+
+		// warm up the JIT
+		for (int i = 0; i < ITERATIONS; i++) {
+			Routemaker.generateRoute(power, waypoints);
+			generator.generate(waypoints);
+		}
+
+		long start = System.nanoTime();
+		PrecomputedRoute routemakerRoute = null;
+		for (int i = 0; i < ITERATIONS; i++) {
+			routemakerRoute = Routemaker.generateRoute(power, waypoints);
+		}
+		double routemakerTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+		start = System.nanoTime();
+		PrecomputedRoute generatedRoute = null;
+		for (int i = 0; i < ITERATIONS; i++) {
+			generatedRoute = generator.generate(waypoints);
+		}
+		double generatorTime = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+
+		System.out.println(name + String.format(" (%.0f cm):", generator.getTotalDistance()));
+		print("Routemaker", routemakerRoute, routemakerTime);
+		print("TrajectoryGenerator", generatedRoute, generatorTime);
+		System.out.println();
+	}
+
+	private static void print(String name, PrecomputedRoute route, double generationTime) {
+		double peakSpeed = 0;
+		for (int i = 0; i < route.getLength(); i++) {
+			peakSpeed = Math.max(peakSpeed, Math.max(Math.abs(route.getLeftSpeed(i)), Math.abs(route.getRightSpeed(i))));
+		}
+
+		System.out.println(String.format("    %-20s %6.3f s to drive, %4d points, peak wheel speed %4.0f cm/s, %7.3f ms to generate", name,
+				route.getTotalDurationMs() / 1000.0, route.getLength(),
+				Convert.velocityCTREtoCMS(peakSpeed, SRXTankDrive.getInstance().wheelCircumfrence), generationTime));
+	}
+
+	public static void main(String[] args) {
+		double power = args.length > 0 ? Double.parseDouble(args[0]) : .5;
+		double maxAcceleration = args.length > 1 ? Double.parseDouble(args[1]) : 200;
+		double maxCentripetalAcceleration = args.length > 2 ? Double.parseDouble(args[2]) : 150;
+
+		// Aramis's drivetrain
+		int robotFreeSpeed = 3700;
+		SRXTankDrive.initialize(new SimulatedMotorController(robotFreeSpeed, .1, 130), new SimulatedMotorController(robotFreeSpeed, .1, 130),
+				13.21 * Length.in, 32.3 * Length.in, robotFreeSpeed);
+
+		System.out.println(String.format("power %.2f, acceleration %.0f cm/s^2, centripetal acceleration %.0f cm/s^2", power, maxAcceleration,
+				maxCentripetalAcceleration));
+		System.out.println();
+
+		compare("Routemaker test", power, maxAcceleration, maxCentripetalAcceleration,
+				new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+				new Waypoint(8 * Length.ft, 15 * Length.ft, 90, 5 * Length.ft));
+
+		compare("S-curve", power, maxAcceleration, maxCentripetalAcceleration,
+				new Waypoint(0 * Length.ft, 0 * Length.ft, 90, 5 * Length.ft),
+				new Waypoint(5 * Length.ft, 6 * Length.ft, 0, 5 * Length.ft),
+				new Waypoint(10 * Length.ft, 12 * Length.ft, 90, 5 * Length.ft));
+	}
+}
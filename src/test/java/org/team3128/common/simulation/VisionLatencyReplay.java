@@ -0,0 +1,216 @@
+package org.team3128.common.simulation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import org.team3128.common.drive.Pose;
+import org.team3128.common.drive.PoseHistory;
+import org.team3128.common.telemetry.TelemetryDecoder;
+import org.team3128.common.vision.LatencyCompensator;
+
+/**
+ * Checks {@link LatencyCompensator} against a match recording, on a desktop computer.
+ *
+ * Replays the recorded heading and Limelight traces ("heading", "vision/tv", "vision/tx" and "vision/latency"),
+ * and for each pair of consecutive frames which both saw the target, predicts the second frame's horizontal offset
+ * from the first.  Without compensation the prediction is just the first frame's offset; with compensation it is
+ * corrected for how far the robot turned between the two capture times.  The RMS error of both is printed, so a
+ * working compensator should show a clearly smaller error whenever the robot was turning.
+ *
+ * The recording can be a binary one, or a CSV file written by {@link TelemetryDecoder#writeCSV}.
+ *
+ * Usage: VisionLatencyReplay &lt;recording&gt;
+ *
+ * @author Narwhal
+ *
+ */
+public class VisionLatencyReplay {
+	/**
+	 * Frames further apart than this, in seconds, are not compared, since the target may have changed.
+	 */
+	private static final double MAX_FRAME_GAP = .2;
+
+	/**
+	 * The outcome of a replay.
+	 */
+	public static class Result {
+		public int numFrames, numComparisons;
+
+		/**
+		 * In seconds.
+		 */
+		public double averageLatency;
+
+		/**
+		 * RMS errors of the predicted horizontal offsets, in degrees.
+		 */
+		public double uncompensatedError, compensatedError;
+	}
+
+	private double[] headingTimes = new double[1024], headings = new double[1024];
+	private int numHeadings = 0;
+
+	private double[] captureTimes = new double[1024], latencies = new double[1024], offsets = new double[1024];
+	private boolean[] valid = new boolean[1024];
+	private int numFrames = 0;
+
+	// the frame being read, which is complete once its latency arrives
+	private boolean frameValid = false;
+	private double frameOffset = 0;
+
+	public VisionLatencyReplay(TelemetryDecoder decoder) {
+		while (decoder.next()) {
+			addSample(decoder.getChannelName(decoder.getChannelId()), decoder.getTime(), decoder.getValue());
+		}
+	}
+
+	/**
+	 * Reads a recording in the "time,channel,value" CSV format written by {@link TelemetryDecoder#writeCSV}.
+	 */
+	public VisionLatencyReplay(Reader csv) throws IOException {
+		BufferedReader reader = new BufferedReader(csv);
+
+		// skip the header
+		String line = reader.readLine();
+		while ((line = reader.readLine()) != null) {
+			String[] fields = line.split(",");
+			if (fields.length != 3) {
+				continue;
+			}
+
+			double value;
+			if (fields[2].equals("true") || fields[2].equals("false")) {
+				value = fields[2].equals("true") ? 1 : 0;
+			} else {
+				value = Double.parseDouble(fields[2]);
+			}
+
+			addSample(fields[1], Double.parseDouble(fields[0]), value);
+		}
+	}
+
+	private void addSample(String channel, double time, double value) {
+		switch (channel) {
+			case "heading":
+				if (numHeadings == headings.length) {
+					headingTimes = Arrays.copyOf(headingTimes, numHeadings * 2);
+					headings = Arrays.copyOf(headings, numHeadings * 2);
+				}
+
+				headingTimes[numHeadings] = time;
+				headings[numHeadings] = value;
+				numHeadings++;
+
+				break;
+			case "vision/tv":
+				frameValid = value != 0;
+				break;
+			case "vision/tx":
+				frameOffset = value;
+				break;
+			case "vision/latency":
+				// the latency is recorded last for each frame
+				if (numFrames == offsets.length) {
+					captureTimes = Arrays.copyOf(captureTimes, numFrames * 2);
+					latencies = Arrays.copyOf(latencies, numFrames * 2);
+					offsets = Arrays.copyOf(offsets, numFrames * 2);
+					valid = Arrays.copyOf(valid, numFrames * 2);
+				}
+
+				latencies[numFrames] = value;
+				captureTimes[numFrames] = time - value;
+				offsets[numFrames] = frameOffset;
+				valid[numFrames] = frameValid;
+				numFrames++;
+
+				break;
+		}
+	}
+
+	/**
+	 * Replay the recording, predicting each frame's horizontal offset from the one before with and without latency compensation.
+	 *
+	 * @return the prediction errors, or null if the recording has no heading trace.
+	 */
+	public Result replay() {
+		if (numHeadings < 2) {
+			return null;
+		}
+
+		PoseHistory history = new PoseHistory(numHeadings);
+		for (int index = 0; index < numHeadings; index++) {
+			history.add(new Pose(0, 0, headings[index], headingTimes[index]));
+		}
+
+		double uncompensatedSquaredError = 0, compensatedSquaredError = 0;
+		double totalLatency = 0;
+		int numComparisons = 0;
+
+		for (int index = 0; index + 1 < numFrames; index++) {
+			if (!valid[index] || !valid[index + 1] || captureTimes[index + 1] - captureTimes[index] > MAX_FRAME_GAP) {
+				continue;
+			}
+
+			Pose capturePose = history.getPoseAt(captureTimes[index]);
+			Pose nextCapturePose = history.getPoseAt(captureTimes[index + 1]);
+
+			double compensated = LatencyCompensator.compensateHorizontalOffset(offsets[index], capturePose, nextCapturePose);
+
+			uncompensatedSquaredError += Math.pow(offsets[index] - offsets[index + 1], 2);
+			compensatedSquaredError += Math.pow(compensated - offsets[index + 1], 2);
+			numComparisons++;
+		}
+
+		for (int index = 0; index < numFrames; index++) {
+			totalLatency += latencies[index];
+		}
+
+		Result result = new Result();
+		result.numFrames = numFrames;
+		result.numComparisons = numComparisons;
+		result.averageLatency = numFrames > 0 ? totalLatency / numFrames : 0;
+		result.uncompensatedError = numComparisons > 0 ? Math.sqrt(uncompensatedSquaredError / numComparisons) : 0;
+		result.compensatedError = numComparisons > 0 ? Math.sqrt(compensatedSquaredError / numComparisons) : 0;
+
+		return result;
+	}
+
+	/**
+	 * Replay the recording and print the prediction errors with and without latency compensation.
+	 */
+	public void run() {
+		Result result = replay();
+		if (result == null) {
+			System.out.println("Recording has no heading trace.");
+			return;
+		}
+
+		System.out.println(result.numFrames + " frames, " + result.numComparisons + " pairs with a target in both");
+		if (result.numFrames > 0) {
+			System.out.println(String.format("Average latency: %.1f ms", 1000 * result.averageLatency));
+		}
+		if (result.numComparisons > 0) {
+			System.out.println(String.format("RMS error without compensation: %.3f deg", result.uncompensatedError));
+			System.out.println(String.format("RMS error with compensation:    %.3f deg", result.compensatedError));
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: VisionLatencyReplay <recording>");
+			System.exit(1);
+		}
+
+		if (args[0].endsWith(".csv")) {
+			try (Reader reader = new FileReader(args[0])) {
+				new VisionLatencyReplay(reader).run();
+			}
+		} else {
+			new VisionLatencyReplay(new TelemetryDecoder(new File(args[0]))).run();
+		}
+	}
+}
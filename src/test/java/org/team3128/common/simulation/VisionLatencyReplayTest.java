@@ -0,0 +1,57 @@
+package org.team3128.common.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.team3128.common.simulation.VisionLatencyReplay.Result;
+
+/**
+ * Replays a synthetic recording through {@link VisionLatencyReplay}, and checks that latency compensation
+ * predicts the Limelight's next horizontal offset better than the last offset alone.
+ *
+ * In the trace, the robot swings its heading 30 degrees either way every 1.5 seconds (up to 125 degrees per
+ * second) while looking at a target straight ahead.  The Limelight captures a frame every 1/90 s and takes
+ * 31 to 41 ms to report it, and the offsets have 0.05 degrees of noise.  The telemetry task records the
+ * heading and the newest frame every 5 ms, as Gromit does.  The target is out of sight from 1.6 s to 1.9 s.
+ *
+ * @author Narwhal
+ *
+ */
+public class VisionLatencyReplayTest {
+	private static Result replayTrace() throws IOException {
+		try (Reader reader = new InputStreamReader(VisionLatencyReplayTest.class.getResourceAsStream("vision_latency_trace.csv"), StandardCharsets.UTF_8)) {
+			return new VisionLatencyReplay(reader).replay();
+		}
+	}
+
+	@Test
+	public void testTraceIsRead() throws IOException {
+		Result result = replayTrace();
+		assertNotNull(result);
+
+		// frames are sometimes captured faster than they are recorded, so some are skipped
+		assertTrue("read " + result.numFrames + " frames", result.numFrames > 200 && result.numFrames <= 270);
+		assertTrue(result.numComparisons > 150 && result.numComparisons < result.numFrames);
+
+		// 36 ms on average, plus half of the recording period before the frame is noticed
+		assertEquals(.0385, result.averageLatency, .003);
+	}
+
+	@Test
+	public void testCompensationReducesError() throws IOException {
+		Result result = replayTrace();
+
+		assertTrue(String.format("compensated %.3f deg, uncompensated %.3f deg", result.compensatedError, result.uncompensatedError),
+				result.compensatedError < result.uncompensatedError / 4);
+
+		// all that should be left is the noise of the two frames
+		assertTrue(String.format("compensated %.3f deg", result.compensatedError), result.compensatedError < .15);
+	}
+}
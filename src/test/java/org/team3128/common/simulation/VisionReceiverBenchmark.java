@@ -0,0 +1,157 @@
+package org.team3128.common.simulation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.locks.LockSupport;
+
+import org.team3128.common.narwhalvision.NarwhalVisionReceiver;
+import org.team3128.common.narwhalvision.NarwhalVisionReceiver.WireFormat;
+import org.team3128.common.narwhalvision.TargetInformation;
+import org.team3128.common.narwhalvision.VisionFrame;
+import org.team3128.common.narwhalvision.VisionPacketCodec;
+import org.team3128.common.util.Log;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+
+/**
+ * Measures how well {@link NarwhalVisionReceiver} keeps up in each {@link WireFormat}, on a desktop computer.
+ *
+ * A sender thread plays the part of the phone, sending frames of three targets to the receiver over the loopback
+ * interface at a fixed rate.  In Kryo mode each target is its own packet, like the phone app sends them; in binary
+ * mode each frame is one packet.  Debug logging is turned off, as it would be in a match.  Afterwards the number of
+ * frames which arrived intact, and the CPU time and memory the receive thread used per frame, are printed.
+ *
+ * Usage: VisionReceiverBenchmark [frames per second] [seconds]
+ *
+ * @author Narwhal
+ *
+ */
+public class VisionReceiverBenchmark {
+	private static final int PORT = 5800;
+	private static final int TARGETS_PER_FRAME = 3;
+
+	private static TargetInformation[] makeTargets(int frameNumber) {
+		TargetInformation[] targets = new TargetInformation[TARGETS_PER_FRAME];
+
+		for (int index = 0; index < TARGETS_PER_FRAME; index++) {
+			TargetInformation target = new TargetInformation();
+
+			target.area = frameNumber;
+			target.boundingRectCenterX = 160 + index;
+			target.boundingRectCenterY = 120;
+			target.boundingRectWidth = 40;
+			target.boundingRectHeight = 20;
+			target.imageWidth = 320;
+			target.imageHeight = 240;
+			target.horizontalFOV = 60;
+			target.verticalFOV = 45;
+			target.targetRanking = index + 1;
+
+			targets[index] = target;
+		}
+
+		return targets;
+	}
+
+	private static void run(WireFormat format, int framesPerSecond, double seconds) throws IOException, InterruptedException {
+		NarwhalVisionReceiver receiver = new NarwhalVisionReceiver(format, PORT);
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long receiveThreadId = findThread(NarwhalVisionReceiver.class.getSimpleName()).getId();
+
+		Kryo kryo = new Kryo();
+		kryo.register(TargetInformation.class, 0);
+		ByteBufferOutput kryoOutput = new ByteBufferOutput();
+
+		ByteBuffer packet = ByteBuffer.allocateDirect(1024);
+		InetSocketAddress destination = new InetSocketAddress("127.0.0.1", PORT);
+
+		int numFrames = (int) (framesPerSecond * seconds);
+		long framePeriod = 1000000000L / framesPerSecond;
+
+		// generate the frames first, so that the sender only has to send them
+		TargetInformation[][] frames = new TargetInformation[numFrames][];
+		for (int frame = 0; frame < numFrames; frame++) {
+			frames[frame] = makeTargets(frame + 1);
+		}
+
+		long startCpuTime = threadBean.getThreadCpuTime(receiveThreadId);
+		long startAllocated = threadBean.getThreadAllocatedBytes(receiveThreadId);
+		long startFrames = receiver.getMostRecentFrame().sequence;
+
+		try (DatagramChannel sender = DatagramChannel.open()) {
+			long nextSend = System.nanoTime();
+
+			for (int frame = 0; frame < numFrames; frame++) {
+				LockSupport.parkNanos(nextSend - System.nanoTime());
+				nextSend += framePeriod;
+
+				if (format == WireFormat.BINARY) {
+					VisionPacketCodec.writeTargets(packet, frame + 1, frames[frame]);
+					sender.send(packet, destination);
+				}
+				else {
+					for (TargetInformation target : frames[frame]) {
+						packet.clear();
+						kryoOutput.setBuffer(packet);
+						kryo.writeObject(kryoOutput, target);
+						kryoOutput.flush();
+
+						packet.flip();
+						sender.send(packet, destination);
+					}
+				}
+			}
+		}
+
+		// let the receiver catch up
+		Thread.sleep(200);
+
+		long cpuTime = threadBean.getThreadCpuTime(receiveThreadId) - startCpuTime;
+		long allocated = threadBean.getThreadAllocatedBytes(receiveThreadId) - startAllocated;
+		long framesReceived = receiver.getMostRecentFrame().sequence - startFrames;
+
+		VisionFrame lastFrame = receiver.getMostRecentFrame();
+		boolean lastFrameIntact = lastFrame.getNumTargets() == TARGETS_PER_FRAME && lastFrame.getTarget(0).area == numFrames
+				&& lastFrame.getTarget(TARGETS_PER_FRAME - 1).targetRanking == TARGETS_PER_FRAME;
+
+		System.out.println(String.format("%-6s %d of %d frames received (%.0f/s), %d bad packets, last frame %s, receive thread %.1f us CPU and %.0f bytes per frame",
+				format, framesReceived, numFrames, framesReceived / seconds, receiver.getBadPacketCount(), lastFrameIntact ? "intact" : "WRONG",
+				cpuTime / 1e3 / Math.max(1, framesReceived), allocated / (double) Math.max(1, framesReceived)));
+
+		receiver.close();
+	}
+
+	private static Thread findThread(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals(name)) {
+				return thread;
+			}
+		}
+
+		throw new IllegalStateException("No thread named " + name);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int framesPerSecond = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 5;
+
+		// as on the robot in a match, so that the per-packet debug messages don't count
+		Log.setLevel(Log.Severity.INFO);
+
+		System.out.println(String.format("%d frames per second of %d targets for %.1f s", framesPerSecond, TARGETS_PER_FRAME, seconds));
+
+		// the first runs warm up the JIT
+		run(WireFormat.KRYO, framesPerSecond, 1);
+		run(WireFormat.BINARY, framesPerSecond, 1);
+
+		run(WireFormat.KRYO, framesPerSecond, seconds);
+		run(WireFormat.BINARY, framesPerSecond, seconds);
+
+		System.exit(0);
+	}
+}
@@ -0,0 +1,137 @@
+package org.team3128.common.telemetry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.team3128.common.telemetry.TelemetryRecorder.Channel;
+import org.team3128.common.telemetry.TelemetryRecorder.ChannelType;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Checks that {@link RecordingWorker} prepares one recording at a time in the background, that taking it never
+ * waits for the preparation, and that taken recordings are renamed after their label and closed in the background.
+ *
+ * @author Narwhal
+ *
+ */
+public class RecordingWorkerTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger numCreated = new AtomicInteger();
+
+	@BeforeClass
+	public static void setUpHAL()
+	{
+		HAL.initialize(500, 0);
+	}
+
+	private TelemetryRecorder create()
+	{
+		try
+		{
+			numCreated.incrementAndGet();
+			return new TelemetryRecorder(new File(folder.getRoot(), TelemetryRecorder.fileName(RecordingWorker.PREPARED_LABEL + numCreated.get())), 64 * 1024);
+		}
+		catch(IOException ex)
+		{
+			return null;
+		}
+	}
+
+	@Test
+	public void testTakesPreparedRecording() throws Exception
+	{
+		RecordingWorker worker = new RecordingWorker(this::create);
+
+		worker.prepare();
+		worker.prepare();
+		worker.waitForWorker();
+
+		// only one is prepared at a time
+		assertTrue(worker.isReady());
+		assertEquals(1, numCreated.get());
+
+		TelemetryRecorder recorder = worker.take("auto");
+		assertNotNull(recorder);
+		assertFalse(worker.isReady());
+
+		Channel channel = recorder.addChannel("lift/height", ChannelType.DOUBLE);
+		channel.record(12.5);
+
+		worker.waitForWorker();
+		assertTrue(recorder.getFile().getName(), recorder.getFile().getName().endsWith("_auto" + TelemetryRecorder.FILE_SUFFIX));
+		assertTrue(recorder.getFile().exists());
+
+		// still recording into the renamed file
+		channel.record(13.5);
+		worker.close(recorder);
+		worker.waitForWorker();
+
+		TelemetryDecoder decoder = new TelemetryDecoder(recorder.getFile());
+		int numSamples = 0;
+		while(decoder.next())
+		{
+			++numSamples;
+		}
+		assertEquals(2, numSamples);
+	}
+
+	@Test
+	public void testTakeDoesntWaitForPreparation() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingWorker worker = new RecordingWorker(() ->
+		{
+			try
+			{
+				release.await();
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			return create();
+		});
+
+		assertNull(worker.take("auto"));
+
+		// a slow preparation, like zero-filling a file on a USB stick
+		worker.prepare();
+		assertNull(worker.take("auto"));
+
+		release.countDown();
+		worker.waitForWorker();
+		assertNotNull(worker.take("teleop"));
+	}
+
+	@Test
+	public void testFailedPreparationCanBeRetried() throws Exception
+	{
+		AtomicInteger attempts = new AtomicInteger();
+		RecordingWorker worker = new RecordingWorker(() -> attempts.incrementAndGet() == 1 ? null : create());
+
+		worker.prepare();
+		worker.waitForWorker();
+		assertFalse(worker.isReady());
+
+		worker.prepare();
+		worker.waitForWorker();
+		assertTrue(worker.isReady());
+	}
+}
@@ -0,0 +1,126 @@
+package org.team3128.common.telemetry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.team3128.common.telemetry.TelemetryRecorder.Channel;
+import org.team3128.common.telemetry.TelemetryRecorder.ChannelType;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Records into a temporary directory and reads the recordings back with {@link TelemetryDecoder}, and checks that
+ * old recordings are pruned.
+ *
+ * @author Narwhal
+ *
+ */
+public class TelemetryRecorderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void setUpHAL()
+	{
+		HAL.initialize(500, 0);
+	}
+
+	@Test
+	public void testForcedRecordingCanBeDecoded() throws IOException
+	{
+		File file = folder.newFile("telemetry_test.bin");
+		TelemetryRecorder recorder = new TelemetryRecorder(file, 1024 * 1024);
+
+		Channel height = recorder.addChannel("lift/height", ChannelType.DOUBLE);
+		Channel position = recorder.addChannel("drive/position", ChannelType.LONG);
+		Channel pressed = recorder.addChannel("lift/switch", ChannelType.BOOLEAN);
+
+		height.record(12.5);
+		position.record(4096);
+		pressed.record(true);
+
+		// still recording after it's forced
+		recorder.force();
+		height.record(13.5);
+		recorder.force();
+
+		TelemetryDecoder decoder = new TelemetryDecoder(file);
+		assertEquals(3, decoder.getNumChannels());
+		assertEquals("drive/position", decoder.getChannelName(2));
+
+		double[] values = new double[4];
+		int numSamples = 0;
+		while(decoder.next())
+		{
+			values[numSamples++] = decoder.getValue();
+		}
+
+		assertEquals(4, numSamples);
+		assertArrayEquals(new double[] {12.5, 4096, 1, 13.5}, values, 0);
+
+		recorder.close();
+
+		// samples after closing are ignored
+		height.record(14.5);
+		assertEquals(0, recorder.getDroppedCount());
+	}
+
+	@Test
+	public void testFullRecordingDropsSamples() throws IOException
+	{
+		TelemetryRecorder recorder = new TelemetryRecorder(folder.newFile("telemetry_full.bin"), TelemetryRecorder.HEADER_SIZE + 10 * TelemetryRecorder.RECORD_SIZE);
+		Channel channel = recorder.addChannel("value", ChannelType.LONG);
+
+		for(int sample = 0; sample < 15; ++sample)
+		{
+			channel.record(sample);
+		}
+
+		assertEquals(5, recorder.getDroppedCount());
+		assertEquals(1, recorder.getUsage(), 0);
+
+		recorder.close();
+	}
+
+	@Test
+	public void testPruneKeepsNewestRecordings() throws IOException
+	{
+		File directory = folder.getRoot();
+
+		String[] names = {
+			"telemetry_20190301_100000_auto.bin",
+			"telemetry_20190301_093000_teleop.bin",
+			"telemetry_20190302_110000_auto.bin",
+			"telemetry_20190301_120000_auto.bin",
+		};
+		for(String name : names)
+		{
+			assertTrue(new File(directory, name).createNewFile());
+		}
+
+		File other = new File(directory, "robot.log");
+		assertTrue(other.createNewFile());
+
+		TelemetryRecorder.pruneRecordings(directory, 2);
+
+		String[] remaining = directory.list();
+		Arrays.sort(remaining);
+		assertArrayEquals(new String[] {"robot.log", "telemetry_20190301_120000_auto.bin", "telemetry_20190302_110000_auto.bin"}, remaining);
+
+		// nothing to do when there are few enough
+		TelemetryRecorder.pruneRecordings(directory, 2);
+		assertEquals(3, directory.list().length);
+		assertFalse(new File(directory, names[0]).exists());
+	}
+}
@@ -0,0 +1,134 @@
+package org.team3128.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.team3128.common.util.LoopProfiler.Phase;
+
+/**
+ * Checks the percentiles {@link LoopProfiler} computes from its sample windows, the boundaries of its overrun
+ * histogram buckets, and that skipped phases don't add samples.
+ *
+ * @author Narwhal
+ *
+ */
+public class LoopProfilerTest
+{
+	private static final double PERIOD = .02;
+
+	@Test
+	public void testPercentileIndex()
+	{
+		// nearest rank: the smallest sample with at least that fraction of the samples at or below it
+		assertEquals(0, LoopProfiler.percentileIndex(1, .5));
+		assertEquals(0, LoopProfiler.percentileIndex(1, .99));
+		assertEquals(0, LoopProfiler.percentileIndex(2, .5));
+		assertEquals(1, LoopProfiler.percentileIndex(3, .5));
+		assertEquals(49, LoopProfiler.percentileIndex(100, .5));
+		assertEquals(98, LoopProfiler.percentileIndex(100, .99));
+		assertEquals(99, LoopProfiler.percentileIndex(100, 1));
+		assertEquals(494, LoopProfiler.percentileIndex(500, .99));
+		assertEquals(0, LoopProfiler.percentileIndex(500, 0));
+	}
+
+	@Test
+	public void testPercentiles()
+	{
+		LoopProfiler profiler = new LoopProfiler(PERIOD, 500);
+
+		assertTrue(Double.isNaN(profiler.getPercentile(Phase.SCHEDULER, .5)));
+
+		// 1 to 100 us, out of order
+		for(int sample = 0; sample < 100; ++sample)
+		{
+			profiler.record(Phase.SCHEDULER, (sample * 37) % 100 + 1);
+		}
+
+		assertEquals(.001, profiler.getPercentile(Phase.SCHEDULER, 0), 0);
+		assertEquals(.050, profiler.getPercentile(Phase.SCHEDULER, .5), 0);
+		assertEquals(.099, profiler.getPercentile(Phase.SCHEDULER, .99), 0);
+		assertEquals(.100, profiler.getPercentile(Phase.SCHEDULER, 1), 0);
+
+		// other phases are separate
+		assertTrue(Double.isNaN(profiler.getPercentile(Phase.LISTENERS, .5)));
+	}
+
+	@Test
+	public void testOldSamplesLeaveTheWindow()
+	{
+		LoopProfiler profiler = new LoopProfiler(PERIOD, 10);
+
+		for(int sample = 1; sample <= 25; ++sample)
+		{
+			profiler.record(Phase.TOTAL, sample * 1000);
+		}
+
+		// only 16 to 25 ms are left
+		assertEquals(25, profiler.getSampleCount(Phase.TOTAL));
+		assertEquals(16, profiler.getPercentile(Phase.TOTAL, 0), 0);
+		assertEquals(20, profiler.getPercentile(Phase.TOTAL, .5), 0);
+		assertEquals(25, profiler.getPercentile(Phase.TOTAL, .99), 0);
+	}
+
+	@Test
+	public void testOverrunBuckets()
+	{
+		LoopProfiler profiler = new LoopProfiler(PERIOD, 10);
+
+		// on time
+		profiler.countOverrun(19000);
+		profiler.countOverrun(20000);
+		assertEquals(0, profiler.getOverrunCount());
+
+		// each bucket's bound is the first overrun which goes in the next one
+		long[][] overrunsAndBuckets = {{1, 0}, {999, 0}, {1000, 1}, {1999, 1}, {2000, 2}, {4999, 2}, {5000, 3}, {10000, 4}, {19999, 4},
+			{20000, 5}, {49999, 5}, {50000, 6}, {1000000, 6}};
+
+		for(long[] overrunAndBucket : overrunsAndBuckets)
+		{
+			profiler.countOverrun(20000 + overrunAndBucket[0]);
+		}
+
+		long[] expectedCounts = new long[7];
+		for(long[] overrunAndBucket : overrunsAndBuckets)
+		{
+			++expectedCounts[(int) overrunAndBucket[1]];
+		}
+
+		for(int bucket = 0; bucket < expectedCounts.length; ++bucket)
+		{
+			assertEquals("bucket " + bucket, expectedCounts[bucket], profiler.getOverrunCount(bucket));
+		}
+		assertEquals(overrunsAndBuckets.length, profiler.getOverrunCount());
+	}
+
+	@Test
+	public void testSkippedPhaseHasNoSamples()
+	{
+		LoopProfiler profiler = new LoopProfiler(PERIOD, 10);
+
+		for(int loop = 0; loop < 5; ++loop)
+		{
+			profiler.startLoop();
+			profiler.endPhase(Phase.DASHBOARD_CALLBACKS);
+
+			// the mode only started on the first loop
+			if(loop == 0)
+			{
+				profiler.endPhase(Phase.MODE_INIT);
+			}
+			else
+			{
+				profiler.skipPhase();
+			}
+
+			profiler.endPhase(Phase.MODE_PERIODIC);
+			profiler.endLoop();
+		}
+
+		assertEquals(1, profiler.getSampleCount(Phase.MODE_INIT));
+		assertEquals(5, profiler.getSampleCount(Phase.MODE_PERIODIC));
+		assertEquals(5, profiler.getSampleCount(Phase.TOTAL));
+	}
+}
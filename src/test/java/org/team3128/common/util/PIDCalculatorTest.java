@@ -0,0 +1,183 @@
+package org.team3128.common.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.team3128.common.util.datatypes.PIDConstants;
+import org.team3128.common.util.datatypes.Pair;
+import org.team3128.common.util.datatypes.RandomAccessBuffer;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Checks PIDCalculator's running integral against the way it used to be calculated: a trapezoidal sum over
+ * every measurement in the izone, recomputed on each update.
+ *
+ * @author Narwhal
+ *
+ */
+public class PIDCalculatorTest
+{
+	private static final PIDConstants CONSTANTS = new PIDConstants(0, .5, .01, 0);
+
+	/**
+	 * The previous PIDCalculator, walking the whole izone on every update.  The only difference is that a zero delta
+	 * time gives a zero derivative, where it used to divide by zero.
+	 */
+	private static class WindowWalkPID
+	{
+		private final RandomAccessBuffer<Pair<Double, Double>> pastValues;
+		private double previousError = 0;
+		private double target;
+
+		WindowWalkPID(int izone)
+		{
+			pastValues = new RandomAccessBuffer<>(izone);
+		}
+
+		void setTarget(double target)
+		{
+			this.target = target;
+		}
+
+		double calculateIntegral()
+		{
+			if(pastValues.getSize() <= 1)
+			{
+				return 0;
+			}
+
+			double integral = 0;
+			for(int index = 1; index <= pastValues.getLastIndex(); ++index)
+			{
+				integral += ((pastValues.get(index - 1).right + pastValues.get(index).right)) * pastValues.get(index - 1).left;
+			}
+			integral /= 2;
+
+			return integral;
+		}
+
+		double update(double value, double deltaTime)
+		{
+			double error = target - value;
+
+			double derivative = deltaTime == 0 ? 0 : -1 * (error - previousError) / deltaTime;
+
+			pastValues.enqueue(new Pair<>(deltaTime, error));
+
+			double output = error * CONSTANTS.kP + calculateIntegral() * CONSTANTS.kI + derivative * CONSTANTS.kP;
+
+			previousError = error;
+
+			return output;
+		}
+	}
+
+	@BeforeClass
+	public static void setUpHAL()
+	{
+		HAL.initialize(500, 0);
+	}
+
+	/**
+	 * Feeds both calculators the same noisy measurements at irregular intervals, and compares their outputs.
+	 *
+	 * @return the largest difference between the outputs, relative to the size of the output
+	 */
+	private static double compare(int izone, long seed)
+	{
+		Random random = new Random(seed);
+
+		PIDCalculator calculator = new PIDCalculator(CONSTANTS, izone, 1);
+		WindowWalkPID reference = new WindowWalkPID(izone);
+
+		calculator.setTarget(100);
+		reference.setTarget(100);
+
+		// the first update is at time 0, which is before the calculator was created, so its delta time is clamped to 0
+		long time = 0;
+		double deltaTime = 0;
+		double value = 0;
+		double worstDifference = 0;
+
+		for(int update = 0; update < 5 * izone + 500; ++update)
+		{
+			double output = calculator.update(value, time);
+			double expected = reference.update(value, deltaTime);
+
+			worstDifference = Math.max(worstDifference, Math.abs(output - expected) / Math.max(1, Math.abs(expected)));
+
+			// mostly around the 20 ms loop time, with the occasional stall which gets clamped to 100 ms
+			long deltaTimeUs = random.nextInt(10) == 0 ? 150000 : 5000 + random.nextInt(30000);
+			time += deltaTimeUs;
+			deltaTime = Math.min(deltaTimeUs / 1000.0, 100);
+
+			value += (100 - value) * .05 + random.nextGaussian() * 5;
+		}
+
+		return worstDifference;
+	}
+
+	@Test
+	public void testMatchesWindowWalk()
+	{
+		for(int izone : new int[] {1, 2, 3, 10, 100, 1000})
+		{
+			for(long seed = 0; seed < 5; ++seed)
+			{
+				assertEquals("izone " + izone + ", seed " + seed, 0, compare(izone, seed), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testConstantErrorIntegral()
+	{
+		PIDCalculator calculator = new PIDCalculator(new PIDConstants(0, 0, 1, 0), 10, 1);
+		calculator.setTarget(2);
+
+		double output = 0;
+		for(int update = 0; update < 50; ++update)
+		{
+			output = calculator.update(0, update * 20000L);
+		}
+
+		// an error of 2 for the 9 intervals of 20 ms that the izone spans
+		assertEquals(2 * 9 * 20, output, 1e-9);
+	}
+
+	@Test
+	public void testResetIntegral()
+	{
+		PIDCalculator calculator = new PIDCalculator(new PIDConstants(0, 0, 1, 0), 10, 1);
+		calculator.setTarget(2);
+
+		for(int update = 0; update < 50; ++update)
+		{
+			calculator.update(0, update * 20000L);
+		}
+
+		calculator.resetIntegral();
+
+		// the first measurement after a reset has no area, the second makes one interval
+		assertEquals(0, calculator.update(0, 50 * 20000L), 0);
+		assertEquals(2 * 20, calculator.update(0, 51 * 20000L), 1e-9);
+	}
+
+	@Test
+	public void testThresholdCount()
+	{
+		PIDCalculator calculator = new PIDCalculator(CONSTANTS, 10, 1);
+		calculator.setTarget(10);
+
+		calculator.update(9.5, 0);
+		calculator.update(10.5, 20000);
+		assertEquals(2, calculator.getNumUpdatesInsideThreshold());
+
+		calculator.update(5, 40000);
+		assertEquals(0, calculator.getNumUpdatesInsideThreshold());
+	}
+}
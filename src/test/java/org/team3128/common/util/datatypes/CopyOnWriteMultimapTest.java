@@ -0,0 +1,224 @@
+package org.team3128.common.util.datatypes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Checks CopyOnWriteMultimap's contents after each kind of write, and what MultimapBenchmark measures: that readers
+ * dispatching while another thread registers and removes values always see a whole snapshot, and never allocate.
+ *
+ * @author Narwhal
+ *
+ */
+public class CopyOnWriteMultimapTest
+{
+	private static CopyOnWriteMultimap<String, String> multimap()
+	{
+		return new CopyOnWriteMultimap<String, String>(String[]::new);
+	}
+
+	@Test
+	public void testValuesAreKeptInOrderOnce()
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+
+		multimap.put("a", "1");
+		multimap.put("a", "2");
+		multimap.put("b", "3");
+		multimap.put("a", new String("1"));
+
+		assertArrayEquals(new String[] {"1", "2"}, multimap.get("a"));
+		assertArrayEquals(new String[] {"3"}, multimap.get("b"));
+		assertTrue(multimap.containsKey("a"));
+	}
+
+	@Test
+	public void testMissingKeyHasNoValues()
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+
+		assertEquals(0, multimap.get("a").length);
+		assertFalse(multimap.containsKey("a"));
+
+		// the same empty array every time, so that looking up a missing key doesn't allocate
+		assertSame(multimap.get("a"), multimap.get("b"));
+	}
+
+	@Test
+	public void testRemove()
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+		multimap.put("a", "1");
+		multimap.put("a", "2");
+		multimap.put("a", "3");
+		multimap.put("b", "4");
+
+		multimap.remove("a", "2");
+		assertArrayEquals(new String[] {"1", "3"}, multimap.get("a"));
+
+		// not there
+		multimap.remove("a", "4");
+		multimap.remove("c", "1");
+		assertArrayEquals(new String[] {"1", "3"}, multimap.get("a"));
+
+		// removing the last value removes the key
+		multimap.remove("b", "4");
+		assertFalse(multimap.containsKey("b"));
+
+		multimap.removeAll("a");
+		assertFalse(multimap.containsKey("a"));
+		assertEquals(0, multimap.get("a").length);
+	}
+
+	@Test
+	public void testClear()
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+		multimap.put("a", "1");
+		multimap.put("b", "2");
+
+		multimap.clear();
+
+		assertFalse(multimap.containsKey("a"));
+		assertFalse(multimap.containsKey("b"));
+	}
+
+	@Test
+	public void testReadArraysAreSnapshots()
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+		multimap.put("a", "1");
+		multimap.put("a", "2");
+
+		String[] before = multimap.get("a");
+
+		multimap.put("a", "3");
+		multimap.remove("a", "1");
+		multimap.clear();
+
+		assertArrayEquals(new String[] {"1", "2"}, before);
+	}
+
+	/**
+	 * Looks up every key's values the given number of times, and checks them.
+	 */
+	private static void dispatch(CopyOnWriteMultimap<String, String> multimap, String[] keys, String[][] expected, int passes,
+		AtomicReference<String> failure)
+	{
+		for(int pass = 0; pass < passes; ++pass)
+		{
+			for(int key = 0; key < keys.length; ++key)
+			{
+				String[] values = multimap.get(keys[key]);
+
+				// the writer switches each key between its three values, and those with a fourth one added
+				if(values.length != 3 && values.length != 4)
+				{
+					failure.compareAndSet(null, keys[key] + " had " + values.length + " values");
+					continue;
+				}
+
+				for(int index = 0; index < values.length; ++index)
+				{
+					if(values[index] != expected[key][index])
+					{
+						failure.compareAndSet(null, keys[key] + " had " + values[index] + " at " + index);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testReadersSeeWholeSnapshotsWithoutAllocating() throws InterruptedException
+	{
+		CopyOnWriteMultimap<String, String> multimap = multimap();
+
+		String[] keys = new String[12];
+		String[][] values = new String[keys.length][4];
+		for(int key = 0; key < keys.length; ++key)
+		{
+			keys[key] = "button" + key;
+			for(int index = 0; index < 4; ++index)
+			{
+				values[key][index] = keys[key] + index;
+				if(index < 3)
+				{
+					multimap.put(keys[key], values[key][index]);
+				}
+			}
+		}
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<String> failure = new AtomicReference<>();
+		long[] leastAllocated = new long[2];
+		long[] rounds = new long[2];
+
+		Thread[] readers = new Thread[2];
+		for(int reader = 0; reader < readers.length; ++reader)
+		{
+			final int index = reader;
+			readers[reader] = new Thread(() ->
+			{
+				com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+				long threadId = Thread.currentThread().getId();
+
+				// the first rounds may allocate while the JIT compiles the lookups
+				leastAllocated[index] = Long.MAX_VALUE;
+				while(running.get())
+				{
+					long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+					dispatch(multimap, keys, values, 1000, failure);
+					leastAllocated[index] = Math.min(leastAllocated[index], threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+
+					++rounds[index];
+				}
+			});
+			readers[reader].start();
+		}
+
+		// a write every 20 us or so for half a second
+		long writes = 0;
+		long end = System.nanoTime() + 500000000L;
+		while(System.nanoTime() < end)
+		{
+			int key = (int) (writes % keys.length);
+
+			if((writes / keys.length) % 2 == 0)
+			{
+				multimap.put(keys[key], values[key][3]);
+			}
+			else
+			{
+				multimap.remove(keys[key], values[key][3]);
+			}
+
+			++writes;
+			Thread.sleep(0, 20000);
+		}
+
+		running.set(false);
+		for(Thread reader : readers)
+		{
+			reader.join();
+		}
+
+		assertEquals(null, failure.get());
+		assertTrue(writes > 100);
+
+		for(int reader = 0; reader < readers.length; ++reader)
+		{
+			assertTrue(rounds[reader] > 5);
+			assertEquals("bytes allocated by reader " + reader + " for 12000 lookups", 0, leastAllocated[reader]);
+		}
+	}
+}
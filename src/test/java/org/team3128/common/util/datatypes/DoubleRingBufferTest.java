@@ -0,0 +1,224 @@
+package org.team3128.common.util.datatypes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link DoubleRingBuffer} against a {@link RandomAccessBuffer} fed the same values, with the statistics
+ * calculated from its elements directly.
+ *
+ * Each trial picks a random capacity and feeds a random stream of values (and the occasional clear) to both buffers.
+ * The streams include repeated values, long runs going up or down, and values with a large offset, which are the
+ * cases that trip up the deques and the running variance.  Each trial has its own seed, which failures report.
+ *
+ * @author Narwhal
+ *
+ */
+public class DoubleRingBufferTest
+{
+	private static final int TRIALS = 1000;
+	private static final int OPERATIONS_PER_TRIAL = 500;
+	private static final int MAX_CAPACITY = 64;
+
+	/**
+	 * The next value of one of the four kinds of stream.
+	 */
+	static double nextValue(Random random, int kind, int step)
+	{
+		switch(kind)
+		{
+		case 0:
+			return random.nextGaussian();
+		case 1:
+			// lots of repeats
+			return random.nextInt(4);
+		case 2:
+			// runs going up then down
+			return (step / 20) % 2 == 0 ? step % 20 : -(step % 20);
+		default:
+			// small changes on top of a large offset
+			return 1e6 + random.nextGaussian() * 1e-2;
+		}
+	}
+
+	/**
+	 * The running variance is updated with differences from the mean, so when the values have a large offset it can
+	 * only be as exact as the mean is, which is one rounding error in the mean for each update since it was recalculated.
+	 */
+	static double varianceTolerance(double expected, double mean, int capacity)
+	{
+		return 1e-9 * Math.max(1, expected) + 1e-15 * Math.abs(mean) * (Math.sqrt(expected) + 1) * capacity;
+	}
+
+	private static void checkTrial(long seed)
+	{
+		Random random = new Random(seed);
+		int capacity = 1 + random.nextInt(MAX_CAPACITY);
+		int kind = random.nextInt(4);
+
+		DoubleRingBuffer buffer = new DoubleRingBuffer(capacity);
+		RandomAccessBuffer<Double> reference = new RandomAccessBuffer<Double>(capacity);
+		double[] copy = new double[capacity + 1];
+
+		for(int step = 0; step < OPERATIONS_PER_TRIAL; ++step)
+		{
+			if(random.nextInt(100) == 0)
+			{
+				buffer.clear();
+				reference = new RandomAccessBuffer<Double>(capacity);
+			}
+			else
+			{
+				double value = nextValue(random, kind, step);
+				buffer.enqueue(value);
+				reference.enqueue(value);
+			}
+
+			String where = " (seed " + seed + ", step " + step + ")";
+
+			int size = reference.getSize();
+			assertEquals("size" + where, size, buffer.getSize());
+			assertEquals("copy size" + where, size, buffer.copyTo(copy, 1));
+
+			double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int index = 0; index < size; ++index)
+			{
+				double expected = reference.get(index);
+
+				assertEquals("element " + index + where, expected, buffer.get(index), 0);
+				assertEquals("copied element " + index + where, expected, copy[index + 1], 0);
+
+				sum += expected;
+				min = Math.min(min, expected);
+				max = Math.max(max, expected);
+			}
+
+			double mean = size == 0 ? 0 : sum / size;
+			double variance = 0;
+			for(int index = 0; index < size; ++index)
+			{
+				variance += (reference.get(index) - mean) * (reference.get(index) - mean);
+			}
+			variance = size == 0 ? 0 : variance / size;
+
+			assertEquals("sum" + where, sum, buffer.getSum(), 1e-9 * Math.max(1, Math.abs(sum)));
+			assertEquals("mean" + where, mean, buffer.getMean(), 1e-9 * Math.max(1, Math.abs(mean)));
+			assertEquals("variance" + where, variance, buffer.getVariance(), varianceTolerance(variance, mean, capacity));
+			assertEquals("min" + where, size == 0 ? Double.NaN : min, buffer.getMin(), 0);
+			assertEquals("max" + where, size == 0 ? Double.NaN : max, buffer.getMax(), 0);
+		}
+	}
+
+	@Test
+	public void testMatchesReferenceBuffer()
+	{
+		for(int trial = 0; trial < TRIALS; ++trial)
+		{
+			checkTrial(3128 + trial);
+		}
+	}
+
+	@Test
+	public void testDropsOldestWhenFull()
+	{
+		DoubleRingBuffer buffer = new DoubleRingBuffer(3);
+
+		buffer.enqueue(5);
+		buffer.enqueue(-1);
+		buffer.enqueue(2);
+		assertTrue(buffer.isFull());
+		assertEquals(-1, buffer.getMin(), 0);
+		assertEquals(5, buffer.getMax(), 0);
+
+		// the maximum and then the minimum leave the buffer
+		buffer.enqueue(3);
+		assertEquals(4, buffer.getSum(), 1e-12);
+		assertEquals(-1, buffer.getMin(), 0);
+		assertEquals(3, buffer.getMax(), 0);
+
+		buffer.enqueue(4);
+		assertEquals(2, buffer.getMin(), 0);
+		assertEquals(4, buffer.getMax(), 0);
+
+		double[] copy = new double[3];
+		buffer.copyTo(copy, 0);
+		assertArrayEquals(new double[] {4, 3, 2}, copy, 0);
+
+		assertEquals(3, buffer.getMean(), 1e-12);
+		assertEquals(2.0 / 3, buffer.getVariance(), 1e-12);
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		DoubleRingBuffer buffer = new DoubleRingBuffer(4);
+		buffer.enqueue(1);
+		buffer.clear();
+
+		assertEquals(0, buffer.getSize());
+		assertFalse(buffer.isFull());
+		assertEquals(0, buffer.getSum(), 0);
+		assertEquals(0, buffer.getMean(), 0);
+		assertEquals(0, buffer.getVariance(), 0);
+		assertTrue(Double.isNaN(buffer.getMin()));
+		assertTrue(Double.isNaN(buffer.getMax()));
+		assertEquals(0, buffer.copyTo(new double[0], 0));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testGetPastEnd()
+	{
+		DoubleRingBuffer buffer = new DoubleRingBuffer(4);
+		buffer.enqueue(1);
+
+		buffer.get(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroCapacity()
+	{
+		new DoubleRingBuffer(0);
+	}
+
+	@Test
+	public void testEnqueueDoesntAllocate()
+	{
+		Random random = new Random(3128);
+		double[] values = new double[4096];
+		for(int index = 0; index < values.length; ++index)
+		{
+			values[index] = random.nextGaussian();
+		}
+
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		DoubleRingBuffer buffer = new DoubleRingBuffer(50);
+		double total = 0;
+
+		// the first rounds may allocate while the JIT compiles the loop
+		long leastAllocated = Long.MAX_VALUE;
+		for(int round = 0; round < 5; ++round)
+		{
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for(int step = 0; step < 100000; ++step)
+			{
+				buffer.enqueue(values[step & (values.length - 1)]);
+				total += buffer.getMean() + buffer.getVariance() + buffer.getMin() + buffer.getMax();
+			}
+
+			leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		}
+
+		assertEquals("bytes allocated by 100000 enqueues", 0, leastAllocated);
+		assertFalse(Double.isNaN(total));
+	}
+}
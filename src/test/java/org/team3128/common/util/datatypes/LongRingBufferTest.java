@@ -0,0 +1,204 @@
+package org.team3128.common.util.datatypes;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link LongRingBuffer} against a {@link RandomAccessBuffer} fed the same values, the same way as
+ * {@link DoubleRingBufferTest}.  The sum, minimum and maximum have to be exact.
+ *
+ * @author Narwhal
+ *
+ */
+public class LongRingBufferTest
+{
+	private static final int TRIALS = 1000;
+	private static final int OPERATIONS_PER_TRIAL = 500;
+	private static final int MAX_CAPACITY = 64;
+
+	private static void checkTrial(long seed)
+	{
+		Random random = new Random(seed);
+		int capacity = 1 + random.nextInt(MAX_CAPACITY);
+		int kind = random.nextInt(4);
+
+		LongRingBuffer buffer = new LongRingBuffer(capacity);
+		RandomAccessBuffer<Long> reference = new RandomAccessBuffer<Long>(capacity);
+		long[] copy = new long[capacity + 1];
+
+		for(int step = 0; step < OPERATIONS_PER_TRIAL; ++step)
+		{
+			if(random.nextInt(100) == 0)
+			{
+				buffer.clear();
+				reference = new RandomAccessBuffer<Long>(capacity);
+			}
+			else
+			{
+				long value = (long) (DoubleRingBufferTest.nextValue(random, kind, step) * 1000);
+				buffer.enqueue(value);
+				reference.enqueue(value);
+			}
+
+			String where = " (seed " + seed + ", step " + step + ")";
+
+			int size = reference.getSize();
+			assertEquals("size" + where, size, buffer.getSize());
+			assertEquals("copy size" + where, size, buffer.copyTo(copy, 1));
+
+			long sum = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+			for(int index = 0; index < size; ++index)
+			{
+				long expected = reference.get(index);
+
+				assertEquals("element " + index + where, expected, buffer.get(index));
+				assertEquals("copied element " + index + where, expected, copy[index + 1]);
+
+				sum += expected;
+				min = Math.min(min, expected);
+				max = Math.max(max, expected);
+			}
+
+			double mean = size == 0 ? 0 : (double) sum / size;
+			double variance = 0;
+			for(int index = 0; index < size; ++index)
+			{
+				variance += (reference.get(index) - mean) * (reference.get(index) - mean);
+			}
+			variance = size == 0 ? 0 : variance / size;
+
+			assertEquals("sum" + where, sum, buffer.getSum());
+			assertEquals("mean" + where, mean, buffer.getMean(), 1e-9 * Math.max(1, Math.abs(mean)));
+			assertEquals("variance" + where, variance, buffer.getVariance(), DoubleRingBufferTest.varianceTolerance(variance, mean, capacity));
+			assertEquals("min" + where, size == 0 ? 0 : min, buffer.getMin());
+			assertEquals("max" + where, size == 0 ? 0 : max, buffer.getMax());
+		}
+	}
+
+	@Test
+	public void testMatchesReferenceBuffer()
+	{
+		for(int trial = 0; trial < TRIALS; ++trial)
+		{
+			checkTrial(3128 + trial);
+		}
+	}
+
+	@Test
+	public void testDropsOldestWhenFull()
+	{
+		LongRingBuffer buffer = new LongRingBuffer(3);
+
+		buffer.enqueue(5);
+		buffer.enqueue(-1);
+		buffer.enqueue(2);
+		assertTrue(buffer.isFull());
+		assertEquals(-1, buffer.getMin());
+		assertEquals(5, buffer.getMax());
+
+		// the maximum and then the minimum leave the buffer
+		buffer.enqueue(3);
+		assertEquals(4, buffer.getSum());
+		assertEquals(-1, buffer.getMin());
+		assertEquals(3, buffer.getMax());
+
+		buffer.enqueue(4);
+		assertEquals(9, buffer.getSum());
+		assertEquals(2, buffer.getMin());
+		assertEquals(4, buffer.getMax());
+
+		long[] copy = new long[3];
+		buffer.copyTo(copy, 0);
+		assertArrayEquals(new long[] {4, 3, 2}, copy);
+
+		assertEquals(3, buffer.getMean(), 1e-12);
+		assertEquals(2.0 / 3, buffer.getVariance(), 1e-12);
+	}
+
+	@Test
+	public void testSumOfLargeTimestampsIsExact()
+	{
+		LongRingBuffer buffer = new LongRingBuffer(8);
+
+		// microsecond timestamps too large for a double to add up exactly
+		long start = (1L << 53) / 8;
+		long sum = 0;
+		for(long time = start; time < start + 8; ++time)
+		{
+			buffer.enqueue(time);
+			sum += time;
+		}
+
+		assertEquals(sum, buffer.getSum());
+		assertEquals(start, buffer.getMin());
+		assertEquals(start + 7, buffer.getMax());
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		LongRingBuffer buffer = new LongRingBuffer(4);
+		buffer.enqueue(1);
+		buffer.clear();
+
+		assertEquals(0, buffer.getSize());
+		assertFalse(buffer.isFull());
+		assertEquals(0, buffer.getSum());
+		assertEquals(0, buffer.getMean(), 0);
+		assertEquals(0, buffer.getVariance(), 0);
+		assertEquals(0, buffer.getMin());
+		assertEquals(0, buffer.getMax());
+		assertEquals(0, buffer.copyTo(new long[0], 0));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testGetPastEnd()
+	{
+		LongRingBuffer buffer = new LongRingBuffer(4);
+		buffer.enqueue(1);
+
+		buffer.get(1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsZeroCapacity()
+	{
+		new LongRingBuffer(0);
+	}
+
+	@Test
+	public void testEnqueueDoesntAllocate()
+	{
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		Random random = new Random(3128);
+		LongRingBuffer buffer = new LongRingBuffer(50);
+		double total = 0;
+
+		// the first rounds may allocate while the JIT compiles the loop
+		long leastAllocated = Long.MAX_VALUE;
+		for(int round = 0; round < 5; ++round)
+		{
+			long startAllocated = threadBean.getThreadAllocatedBytes(threadId);
+
+			for(int step = 0; step < 100000; ++step)
+			{
+				buffer.enqueue(random.nextInt(1000));
+				total += buffer.getMean() + buffer.getVariance() + buffer.getMin() + buffer.getMax();
+			}
+
+			leastAllocated = Math.min(leastAllocated, threadBean.getThreadAllocatedBytes(threadId) - startAllocated);
+		}
+
+		assertEquals("bytes allocated by 100000 enqueues", 0, leastAllocated);
+		assertFalse(Double.isNaN(total));
+	}
+}
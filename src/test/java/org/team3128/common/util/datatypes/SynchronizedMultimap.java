@@ -6,7 +6,8 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * Our homegrown replacement for a Guava multimap.
  * 
- * Currently, this is needed to make the ControlWatcher work.
+ * The ListenerManager used this before {@link CopyOnWriteMultimap}.  It is only kept for MultimapBenchmark to compare against,
+ * since iterating one of its sets while another thread changes it can throw.
  * @author Jamie
  *
  * @param <Key>